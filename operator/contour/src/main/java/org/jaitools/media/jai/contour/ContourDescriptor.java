@@ -48,6 +48,9 @@ import org.jaitools.numeric.Range;
  * a {@code Collection} of {@link com.vividsolutions.jts.geom.LineString} objects.
  * The source image value associated with each contour can be retrieved
  * with the {@link com.vividsolutions.jts.geom.LineString#getUserData()} method.
+ * For large images, where holding all of the contours in memory is a
+ * problem, they can instead be received one at a time with a
+ * {@link ContourSink} passed to {@link ContourOpImage#streamContours(ContourSink)}.
  * <p>
  * Source image pixels are passed through to the destination image unchanged.
  * <p>
@@ -68,6 +71,11 @@ import org.jaitools.numeric.Range;
  * the source image resolution is coarse.
  * </li>
  * </ol>
+ * Contours for large images are generated in parallel: the image is divided
+ * into strips of rows which are scanned separately and the resulting line
+ * segments are then joined in row order. The "numThreads" parameter controls 
+ * the number of threads used. The contours are the same whatever its value.
+ * <p>
  * Example of use:
  * <pre><code>
  * RenderedImage src = ...
@@ -183,6 +191,16 @@ import org.jaitools.numeric.Range;
  * only makes a noticeable difference with small images.
  * </td>
  * </tr>
+ * 
+ * <tr>
+ * <td>numThreads</td>
+ * <td>Integer</td>
+ * <td>0</td>
+ * <td>
+ * Number of threads to use when generating contours. If 0, the number of
+ * available processors is used.
+ * </td>
+ * </tr>
  * </table>
  * 
  * @author Michael Bedward
@@ -204,6 +222,7 @@ public class ContourDescriptor extends OperationDescriptorImpl {
     static final int STRICT_NO_DATA_ARG = 5;
     static final int SIMPLIFY_ARG = 6;
     static final int SMOOTH_ARG = 7;
+    static final int NUM_THREADS_ARG = 8;
 
     private static final String[] paramNames = {
         "roi",
@@ -213,7 +232,8 @@ public class ContourDescriptor extends OperationDescriptorImpl {
         "nodata",
         "strictNodata",
         "simplify",
-        "smooth"
+        "smooth",
+        "numThreads"
     };
 
     private static final Class[] paramClasses = {
@@ -224,7 +244,8 @@ public class ContourDescriptor extends OperationDescriptorImpl {
          Collection.class,
          Boolean.class,
          Boolean.class,
-         Boolean.class
+         Boolean.class,
+         Integer.class
     };
 
     // package access for use by ContourOpImage
@@ -238,6 +259,7 @@ public class ContourDescriptor extends OperationDescriptorImpl {
          Boolean.TRUE,
          Boolean.TRUE,
          Boolean.FALSE,
+         Integer.valueOf(0)
     };
 
     
@@ -275,7 +297,10 @@ public class ContourDescriptor extends OperationDescriptorImpl {
                               "whether to simplify contour lines by removing colinear vertices"},
                     
                     {"arg7Desc", paramNames[7] + " (Boolean, default=false) " +
-                              "whether to smooth contour lines using Bezier interpolation"}
+                              "whether to smooth contour lines using Bezier interpolation"},
+
+                    {"arg8Desc", paramNames[8] + " (Integer, default=0) " +
+                              "number of threads to use, or 0 for the number of available processors"}
                 },
                 new String[]{RenderedRegistryMode.MODE_NAME},   // supported modes
                 
@@ -346,6 +371,14 @@ public class ContourDescriptor extends OperationDescriptorImpl {
                     }
                 }
             }
+
+            Object objThreads = pb.getObjectParameter(NUM_THREADS_ARG);
+            if (objThreads != null) {
+                if (!(objThreads instanceof Integer) || (Integer) objThreads < 0) {
+                    msg.append("numThreads parameter must be a non-negative Integer");
+                    ok = false;
+                }
+            }
         }
 
         return ok;
@@ -24,14 +24,22 @@
  */   
 package org.jaitools.media.jai.contour;
 
+import java.awt.Rectangle;
+import java.awt.image.DataBuffer;
 import java.awt.image.RenderedImage;
 import java.lang.ref.SoftReference;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.media.jai.PlanarImage;
 import javax.media.jai.ROI;
@@ -39,11 +47,13 @@ import javax.media.jai.iterator.RectIter;
 import javax.media.jai.iterator.RectIterFactory;
 
 import org.jaitools.CollectionFactory;
+import org.jaitools.DaemonThreadFactory;
 import org.jaitools.jts.LineSmoother;
 import org.jaitools.jts.SmootherControl;
 import org.jaitools.jts.Utils;
 import org.jaitools.media.jai.AttributeOpImage;
 import org.jaitools.numeric.CompareOp;
+import org.jaitools.numeric.NoDataSet;
 import org.jaitools.numeric.Range;
 
 import com.vividsolutions.jts.geom.LineString;
@@ -53,6 +63,9 @@ import com.vividsolutions.jts.geom.LineString;
  * Generates contours for user-specified levels of values in the source image.
  * The contours are returned as a {@code Collection} of
  * {@link com.vividsolutions.jts.geom.LineString}s.
+ * Alternatively, {@link #streamContours(ContourSink)} passes each contour
+ * to a {@link ContourSink} as soon as it is complete, so that the contours
+ * for a large image do not all have to be held in memory.
  * <p>
  * The interpolation algorithm used is that of Paul Bourke: originally published
  * in Byte magazine (1987) as the CONREC contouring subroutine written in
@@ -77,6 +90,21 @@ public class ContourOpImage extends AttributeOpImage {
     private static final int BR_VERTEX2 = 1;
     private static final int TR_VERTEX3 = 2;
     private static final int TL_VERTEX4 = 3;
+
+    /*
+     * Maps the above/below state of the three vertices of a triangle 
+     * to a segment configuration. Left for completeness, but only the
+     * elements at position 0 and 2 are actually used, the ones at position 1
+     * caused the contour to generated into a grid on flat areas.
+     */
+    private static final int[][][] CONFIG_LOOKUP = {
+        {{0, 0, 8}, {0, 2, 5}, {7, 6, 9}},
+        {{0, 3, 4}, {1, 3, 1}, {4, 3, 0}},
+        {{9, 6, 7}, {5, 2, 0}, {8, 0, 0}}
+    };
+
+    /** Maximum number of rows of sample windows in an image strip */
+    private static final int MAX_STRIP_ROWS = 256;
     
     /** The source image band to process */
     private int band;
@@ -91,10 +119,15 @@ public class ContourOpImage extends AttributeOpImage {
      */
     private Double contourInterval;
     
-    /** List of Numbers to treat as NO_DATA */
-    private List<Double> noDataNumbers;
-    /** List of Ranges to treat as NO_DATA */
-    private List<Range<Double>> noDataRanges;
+    /** Values and Ranges to treat as NO_DATA */
+    private final NoDataSet noData;
+    
+    /** 
+     * NO_DATA flags for all values of the source data type (byte and
+     * short sources only) and the offset of the lookup index
+     */
+    private final boolean[] noDataLookup;
+    private final int noDataLookupOffset;
 
     /** Whether to use strict NODATA exclusion */
     private final boolean strictNodata;
@@ -113,6 +146,9 @@ public class ContourOpImage extends AttributeOpImage {
      * (see {@link LineSmoother})
      */
     private double smoothAlpha = 0.0;
+
+    /** Number of threads to use when generating contour segments */
+    private final int numThreads;
     
     /**
      * Control object for Bezier smoothing. Note that length units here
@@ -168,6 +204,53 @@ public class ContourOpImage extends AttributeOpImage {
             boolean strictNodata,
             boolean simplify,
             boolean smooth) {
+
+        this(source, roi, band, levels, interval, noDataValues,
+                strictNodata, simplify, smooth, 0);
+    }
+
+    /**
+     * Constructor. Note that one of {@code levels} or {@code interval} must
+     * be supplied. If both are supplied {@code interval} is ignored.
+     * 
+     * @param source the source image
+     * 
+     * @param roi an optional {@code ROI} to constrain the areas for which
+     *     contours are generated
+     * 
+     * @param band the band of the source image to process
+     * 
+     * @param levels values for which to generate contours
+     * 
+     * @param interval interval between contour levels (ignored if {@code levels}
+     *     is supplied)
+     * 
+     * @param noDataValues an optional {@code Collection} of values and/or {@code Ranges}
+     *     to treat as NO_DATA
+     * 
+     * @param simplify whether to simplify contour lines by removing
+     *     colinear vertices
+     * 
+     * @param strictNodata if {@code true} any NO_DATA values in a 2x2 data window will
+     *     cause that window to be skipped; if {@code false} a single NO_DATA value 
+     *     is permitted
+     * 
+     * @param smooth whether contour lines should be smoothed using
+     *     Bezier interpolation
+     * 
+     * @param numThreads number of threads to use when generating contours;
+     *     if 0, the number of available processors is used
+     */
+    public ContourOpImage(RenderedImage source, 
+            ROI roi, 
+            int band,
+            Collection<? extends Number> levels,
+            Double interval,
+            Collection<Object> noDataValues,
+            boolean strictNodata,
+            boolean simplify,
+            boolean smooth,
+            int numThreads) {
                 
         super(source, roi);
 
@@ -189,8 +272,8 @@ public class ContourOpImage extends AttributeOpImage {
             throw new IllegalArgumentException("At least one of levels or interval must be supplied");
         }
         
-        this.noDataNumbers = CollectionFactory.list();
-        this.noDataRanges = CollectionFactory.list();
+        List<Double> noDataNumbers = CollectionFactory.list();
+        List<Range<Double>> noDataRanges = CollectionFactory.list();
 
         if (noDataValues != null) {
             // Only add values that are not in the default set:
@@ -201,7 +284,7 @@ public class ContourOpImage extends AttributeOpImage {
                     if (!(Double.isNaN(dz) ||
                           Double.isInfinite(dz) ||
                           Double.compare(dz, Double.MAX_VALUE) == 0)) {
-                        this.noDataNumbers.add(dz);
+                        noDataNumbers.add(dz);
                     }
                 } else if (oelem instanceof Range) {
                     Range r = (Range) oelem;
@@ -209,7 +292,7 @@ public class ContourOpImage extends AttributeOpImage {
                     Double max = r.getMax().doubleValue();
                     Range<Double> rd = new Range<Double>(
                             min, r.isMinIncluded(), max, r.isMaxIncluded());
-                    this.noDataRanges.add(rd);
+                    noDataRanges.add(rd);
 
                 } else {
                     // This should have been picked up by validateParameters
@@ -220,10 +303,17 @@ public class ContourOpImage extends AttributeOpImage {
                 }
             }
         } 
+        
+        this.noData = new NoDataSet(noDataNumbers, noDataRanges);
+        
+        final int dataType = source.getSampleModel().getDataType();
+        this.noDataLookup = noData.createLookup(dataType);
+        this.noDataLookupOffset = dataType == DataBuffer.TYPE_SHORT ? Short.MIN_VALUE : 0;
 
         this.strictNodata = strictNodata;
         this.simplify = simplify;
         this.smooth = smooth;
+        this.numThreads = numThreads > 0 ? numThreads : Runtime.getRuntime().availableProcessors();
 
         // Set the precision to use for Geometry operations
         Utils.setPrecision(100.0);
@@ -265,18 +355,50 @@ public class ContourOpImage extends AttributeOpImage {
     }
     
 
+    /**
+     * Generates contours and passes each one to {@code sink} as soon as it
+     * is complete, instead of assembling a {@code List} as is done for the 
+     * image property. Memory use is then bounded by the contour lines still 
+     * being traced rather than by the total output. Contours are passed in 
+     * the order in which they are completed, which is not grouped by level.
+     * Nothing is cached: each call scans the source image again.
+     * <p>
+     * The sink is always called from the thread which called this method.
+     * To use this method with an operation created with {@code JAI.create}:
+     * <pre><code>
+     * RenderedOp dest = JAI.create("Contour", pb);
+     * ContourOpImage contourImage = (ContourOpImage) dest.getRendering();
+     * contourImage.streamContours(new ContourSink() {
+     *     public void contour(LineString contour) {
+     *         Double contourValue = (Double) contour.getUserData();
+     *         ...
+     *     }
+     * });
+     * </code></pre>
+     * 
+     * @param sink receives the contours
+     * 
+     * @throws IllegalArgumentException if {@code sink} is {@code null}
+     */
+    public void streamContours(ContourSink sink) {
+        if (sink == null) {
+            throw new IllegalArgumentException("sink must not be null");
+        }
+        
+        initContourLevels();
+        getContourSegments(sink);
+    }
+
     /**
      * Controls contour generation.
      * 
      * @return generated contours
      */
     private List<LineString> createContours() {
-        // build the contour levels if necessary
-        if(contourLevels == null) {
-            contourLevels = buildContourLevels();
-        }
+        initContourLevels();
+        
         // aggregate all the segments
-        Map<Integer, Segments> segments = getContourSegments();
+        Map<Integer, Segments> segments = getContourSegments(null);
 
         /*
          * Assemble contours into a simple list and assign values 
@@ -300,8 +422,7 @@ public class ContourOpImage extends AttributeOpImage {
          * Bezier smoothing of contours
          */
         if (smooth) {
-            LineSmoother smoother = new LineSmoother(Utils.getGeometryFactory());
-            smoother.setControl(smootherControl);
+            LineSmoother smoother = createSmoother();
             
             final int N = mergedContourLines.size();
             for (int i = N - 1; i >= 0; i--) {
@@ -314,6 +435,24 @@ public class ContourOpImage extends AttributeOpImage {
         return mergedContourLines;
     }
 
+    /**
+     * Builds the contour levels if they were not supplied.
+     */
+    private synchronized void initContourLevels() {
+        if (contourLevels == null) {
+            contourLevels = buildContourLevels();
+        }
+    }
+
+    /**
+     * Creates a smoother for contour lines.
+     */
+    private LineSmoother createSmoother() {
+        LineSmoother smoother = new LineSmoother(Utils.getGeometryFactory());
+        smoother.setControl(smootherControl);
+        return smoother;
+    }
+
     
     /**
      * Creates contour segments.
@@ -355,304 +494,537 @@ public class ContourOpImage extends AttributeOpImage {
      * <p>
      * NODATA values are handled by ignoring all triangles that have any
      * NODATA vertices.
+     * <p>
+     * The image is divided into horizontal strips which are scanned
+     * independently, in parallel when more than one thread is allowed. Each
+     * strip records its segments row by row. The recorded segments are then
+     * merged into the per-level {@code Segments} objects strictly in image
+     * row order so that the result is identical to that of a single
+     * sequential scan, whatever the number of threads.
+     * 
+     * @param sink if not {@code null}, receives each contour when complete
+     *     and the returned {@code Segments} objects do not keep them
      * 
      * @return the generated contour segments
      */
-    private Map<Integer, Segments> getContourSegments() {
+    private Map<Integer, Segments> getContourSegments(ContourSink sink) {
 
         Map<Integer, Segments> segments = new HashMap<Integer, Segments>();
 
-        double[] sample = new double[4];
-        boolean[] nodata = new boolean[4];
-        double[] h = new double[5];
-        double[] xh = new double[5];
-        double[] yh = new double[5];
-        int[] sh = new int[5];
-        double temp1, temp2, temp3, temp4;
-
-        // config left for completeless, but only the elements at position 0 and 2 are actually
-        // used, the ones at position 1 caused the contour to generated into a grid on flat areas
-        int[][][] configLookup = {
-            {{0, 0, 8}, {0, 2, 5}, {7, 6, 9}},
-            {{0, 3, 4}, {1, 3, 1}, {4, 3, 0}},
-            {{9, 6, 7}, {5, 2, 0}, {8, 0, 0}}
-        };
-        
-        final PlanarImage src = getSourceImage(0);
+        final double[] levels = new double[contourLevels.size()];
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = contourLevels.get(i);
+        }
+
+        final Rectangle bounds = getSourceImage(0).getBounds();
+        final List<Rectangle> strips = partition(bounds);
+        final int numWorkers = Math.min(numThreads, strips.size());
+        final LineSmoother smoother = sink != null && smooth ? createSmoother() : null;
+
+        if (numWorkers <= 1) {
+            for (Rectangle strip : strips) {
+                mergeStrip(segments, new StripTask(strip, levels).call(), sink, smoother);
+            }
+
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(
+                    numWorkers, new DaemonThreadFactory(Thread.NORM_PRIORITY, "contour"));
+            try {
+                // Limit the number of strips waiting to be merged so that
+                // memory use does not grow with the image size
+                final int maxPending = 2 * numWorkers;
+                LinkedList<Future<StripSegments>> pending = new LinkedList<Future<StripSegments>>();
+                int next = 0;
+                while (next < strips.size() && pending.size() < maxPending) {
+                    pending.add(executor.submit(new StripTask(strips.get(next++), levels)));
+                }
+                
+                while (!pending.isEmpty()) {
+                    StripSegments stripSegments = pending.removeFirst().get();
+                    if (next < strips.size()) {
+                        pending.add(executor.submit(new StripTask(strips.get(next++), levels)));
+                    }
+                    mergeStrip(segments, stripSegments, sink, smoother);
+                }
+
+            } catch (ExecutionException execEx) {
+                Throwable cause = execEx.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IllegalStateException(cause);
+
+            } catch (InterruptedException intEx) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while generating contours", intEx);
+
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        // once more to make it offload all residual segments
+        lineComplete(segments, bounds.y + Math.max(0, bounds.height - 1));
         
-        RectIter iter1 = RectIterFactory.create(src, src.getBounds());
-        RectIter iter2 = RectIterFactory.create(src, src.getBounds());
-        moveIterToBand(iter1, this.band);
-        moveIterToBand(iter2, this.band);
-        iter1.startLines();
-        iter2.startLines();
-        iter2.nextLine();
+        return segments;
+    }
+
+    /**
+     * Divides the source image bounds into horizontal strips. Each strip
+     * includes the first row of the next one because the 2x2 sample window 
+     * spans two rows. Strips are small enough to give each thread several of
+     * them, and their height is capped so that the segments recorded for
+     * strips waiting to be merged do not take too much memory.
+     * 
+     * @param bounds source image bounds
+     * 
+     * @return the strips in row order
+     */
+    private List<Rectangle> partition(Rectangle bounds) {
+        List<Rectangle> strips = CollectionFactory.list();
+        final int numRows = bounds.height - 1;
+        if (numRows < 1 || bounds.width < 1) {
+            return strips;
+        }
+
+        int stripRows = (numRows + 4 * numThreads - 1) / (4 * numThreads);
+        stripRows = Math.max(1, Math.min(MAX_STRIP_ROWS, stripRows));
+
+        for (int y = 0; y < numRows; y += stripRows) {
+            int rows = Math.min(stripRows, numRows - y);
+            strips.add(new Rectangle(bounds.x, bounds.y + y, bounds.width, rows + 1));
+        }
         
-        int y = (int) src.getBounds().getMinY();
-        while(!iter2.finishedLines() && !iter1.finishedLines()) {
-            iter1.startPixels();
-            iter2.startPixels();
+        return strips;
+    }
+
+    /**
+     * Adds the segments recorded for a strip to the per-level {@code Segments}
+     * objects, completing each row in turn.
+     * 
+     * @param segments segments by contour level index
+     * @param strip the recorded strip segments
+     * @param sink optional receiver of completed contours
+     * @param smoother smoother for contours passed to {@code sink}, or
+     *     {@code null} for no smoothing
+     */
+    private void mergeStrip(Map<Integer, Segments> segments, StripSegments strip,
+            ContourSink sink, LineSmoother smoother) {
+        int k = 0;
+        for (int row = 0; row < strip.numRows; row++) {
+            final int end = strip.rowEnd[row];
+            for (; k < end; k++) {
+                Segments zlist = segments.get(strip.levelIndex[k]);
+                if (zlist == null) {
+                    if (sink == null) {
+                        zlist = new Segments(simplify);
+                    } else {
+                        Double levelValue = contourLevels.get(strip.levelIndex[k]);
+                        zlist = new Segments(simplify, new LevelSink(levelValue, sink, smoother));
+                    }
+                    segments.put(strip.levelIndex[k], zlist);
+                }
+                
+                final int c = 4 * k;
+                zlist.add(strip.coords[c], strip.coords[c + 1], 
+                        strip.coords[c + 2], strip.coords[c + 3]);
+            }
             
-            sample[BR_VERTEX2] = iter1.getSampleDouble();
-            nodata[BR_VERTEX2] = isNoData(sample[BR_VERTEX2]);
+            lineComplete(segments, strip.minY + row);
+        }
+    }
+
+    private void lineComplete(Map<Integer, Segments> segments, int line) {
+        for (Segments s : segments.values()) {
+            s.lineComplete(line);
+        }
+    }
+
+    /**
+     * Assigns the contour value to the lines for one level, optionally 
+     * smooths them, and passes them on to a client sink.
+     */
+    private class LevelSink implements ContourSink {
+        private final Double levelValue;
+        private final ContourSink sink;
+        private final LineSmoother smoother;
+
+        LevelSink(Double levelValue, ContourSink sink, LineSmoother smoother) {
+            this.levelValue = levelValue;
+            this.sink = sink;
+            this.smoother = smoother;
+        }
+
+        public void contour(LineString contour) {
+            contour.setUserData(levelValue);
+            if (smoother != null) {
+                contour = smoother.smooth(contour, smoothAlpha);
+            }
+            sink.contour(contour);
+        }
+    }
 
-            sample[TR_VERTEX3] = iter2.getSampleDouble();
-            nodata[TR_VERTEX3] = isNoData(sample[TR_VERTEX3]);
+    /**
+     * Segments generated for a strip of the source image, recorded in
+     * the order in which they were generated.
+     */
+    private static class StripSegments {
+        final int minY;
+        int numRows;
+        int[] rowEnd;
+        
+        int size;
+        int[] levelIndex;
+        double[] coords;
+
+        StripSegments(int minY, int numRows) {
+            this.minY = minY;
+            this.rowEnd = new int[numRows];
+            this.levelIndex = new int[64];
+            this.coords = new double[4 * levelIndex.length];
+        }
+
+        void add(int level, double x0, double y0, double x1, double y1) {
+            if (size == levelIndex.length) {
+                int[] newLevelIndex = new int[2 * size];
+                System.arraycopy(levelIndex, 0, newLevelIndex, 0, size);
+                levelIndex = newLevelIndex;
+                double[] newCoords = new double[4 * newLevelIndex.length];
+                System.arraycopy(coords, 0, newCoords, 0, 4 * size);
+                coords = newCoords;
+            }
             
-            iter1.nextPixel();
-            iter2.nextPixel();
-            int x = (int) src.getBounds().getMinX() + 1;
-            while (!iter1.finishedPixels() && !iter2.finishedPixels()) {
-                sample[BL_VERTEX1] = sample[BR_VERTEX2];
-                nodata[BL_VERTEX1] = nodata[BR_VERTEX2];
+            levelIndex[size] = level;
+            final int c = 4 * size;
+            coords[c] = x0;
+            coords[c + 1] = y0;
+            coords[c + 2] = x1;
+            coords[c + 3] = y1;
+            size++ ;
+        }
+
+        void rowComplete() {
+            rowEnd[numRows++] = size;
+        }
+    }
+
+    /**
+     * Runs CONREC over one strip of the source image.
+     */
+    private class StripTask implements Callable<StripSegments> {
+        private final Rectangle strip;
+        private final double[] levels;
+
+        /**
+         * Creates a new task.
+         * 
+         * @param strip source image rows to scan; the last row is only
+         *     used as the top of the sample window
+         * @param levels contour levels in ascending order
+         */
+        StripTask(Rectangle strip, double[] levels) {
+            this.strip = strip;
+            this.levels = levels;
+        }
+
+        public StripSegments call() {
+            StripSegments result = new StripSegments(strip.y, strip.height - 1);
+
+            double[] sample = new double[4];
+            boolean[] nodata = new boolean[4];
+            double[] h = new double[5];
+            double[] xh = new double[5];
+            double[] yh = new double[5];
+            int[] sh = new int[5];
+            double temp1, temp2, temp3, temp4;
+
+            final PlanarImage src = getSourceImage(0);
+
+            RectIter iter1 = RectIterFactory.create(src, strip);
+            RectIter iter2 = RectIterFactory.create(src, strip);
+            moveIterToBand(iter1, band);
+            moveIterToBand(iter2, band);
+            iter1.startLines();
+            iter2.startLines();
+            iter2.nextLine();
+
+            int y = strip.y;
+            while(!iter2.finishedLines() && !iter1.finishedLines()) {
+                iter1.startPixels();
+                iter2.startPixels();
 
                 sample[BR_VERTEX2] = iter1.getSampleDouble();
                 nodata[BR_VERTEX2] = isNoData(sample[BR_VERTEX2]);
 
-                sample[TL_VERTEX4] = sample[TR_VERTEX3];
-                nodata[TL_VERTEX4] = nodata[TR_VERTEX3];
-
                 sample[TR_VERTEX3] = iter2.getSampleDouble();
                 nodata[TR_VERTEX3] = isNoData(sample[TR_VERTEX3]);
 
-                boolean processSquare = true;
-                boolean hasSingleNoData = false;
-                for (int i = 0; i < 4 && processSquare; i++) {
-                    if (nodata[i]) {
-                        if (strictNodata || hasSingleNoData) {
-                            processSquare = false;
-                            break;
-                        } else {
-                            hasSingleNoData = true;
+                iter1.nextPixel();
+                iter2.nextPixel();
+                int x = strip.x + 1;
+                while (!iter1.finishedPixels() && !iter2.finishedPixels()) {
+                    sample[BL_VERTEX1] = sample[BR_VERTEX2];
+                    nodata[BL_VERTEX1] = nodata[BR_VERTEX2];
+
+                    sample[BR_VERTEX2] = iter1.getSampleDouble();
+                    nodata[BR_VERTEX2] = isNoData(sample[BR_VERTEX2]);
+
+                    sample[TL_VERTEX4] = sample[TR_VERTEX3];
+                    nodata[TL_VERTEX4] = nodata[TR_VERTEX3];
+
+                    sample[TR_VERTEX3] = iter2.getSampleDouble();
+                    nodata[TR_VERTEX3] = isNoData(sample[TR_VERTEX3]);
+
+                    boolean processSquare = true;
+                    boolean hasSingleNoData = false;
+                    for (int i = 0; i < 4 && processSquare; i++) {
+                        if (nodata[i]) {
+                            if (strictNodata || hasSingleNoData) {
+                                processSquare = false;
+                                break;
+                            } else {
+                                hasSingleNoData = true;
+                            }
                         }
                     }
-                }
-
-                if (processSquare) {
-                    if (nodata[BL_VERTEX1]) {
-                        temp1 = temp3 = sample[TL_VERTEX4];
-                    } else if (nodata[TL_VERTEX4]) {
-                        temp1 = temp3 = sample[BL_VERTEX1];
-                    } else {
-                        temp1 = Math.min(sample[BL_VERTEX1], sample[TL_VERTEX4]);
-                        temp3 = Math.max(sample[BL_VERTEX1], sample[TL_VERTEX4]);
-                    }
 
-                    if (nodata[BR_VERTEX2]) {
-                        temp2 = temp4 = sample[TR_VERTEX3];
-                    } else if (nodata[TR_VERTEX3]) {
-                        temp2 = temp4 = sample[BR_VERTEX2];
-                    } else {
-                        temp2 = Math.min(sample[BR_VERTEX2], sample[TR_VERTEX3]);
-                        temp4 = Math.max(sample[BR_VERTEX2], sample[TR_VERTEX3]);
-                    }
-                    double dmin = Math.min(temp1, temp2);
-                    double dmax = Math.max(temp3, temp4);
-
-                    final int size=contourLevels.size();
-                    for (int levelIndex = 0; levelIndex < size; levelIndex++) {
-                        double levelValue = contourLevels.get(levelIndex);
-                        if (levelValue < dmin || levelValue > dmax) {
-                            continue;
-                        }
-
-                        Segments zlist = segments.get(levelIndex);
-                        if (zlist == null) {
-                            zlist = new Segments(simplify);
-                            segments.put(levelIndex, zlist);
-                        }
-
-                        if (!nodata[TL_VERTEX4]) {
-                            h[4] = sample[TL_VERTEX4] - levelValue;
-                            xh[4] = x - 1;
-                            yh[4] = y + 1;
-                            sh[4] = aboveBelowZero(h[4]);
+                    if (processSquare) {
+                        if (nodata[BL_VERTEX1]) {
+                            temp1 = temp3 = sample[TL_VERTEX4];
+                        } else if (nodata[TL_VERTEX4]) {
+                            temp1 = temp3 = sample[BL_VERTEX1];
+                        } else {
+                            temp1 = Math.min(sample[BL_VERTEX1], sample[TL_VERTEX4]);
+                            temp3 = Math.max(sample[BL_VERTEX1], sample[TL_VERTEX4]);
                         }
 
-                        if (!nodata[TR_VERTEX3]) {
-                            h[3] = sample[TR_VERTEX3] - levelValue;
-                            xh[3] = x;
-                            yh[3] = y + 1;
-                            sh[3] = aboveBelowZero(h[3]);
+                        if (nodata[BR_VERTEX2]) {
+                            temp2 = temp4 = sample[TR_VERTEX3];
+                        } else if (nodata[TR_VERTEX3]) {
+                            temp2 = temp4 = sample[BR_VERTEX2];
+                        } else {
+                            temp2 = Math.min(sample[BR_VERTEX2], sample[TR_VERTEX3]);
+                            temp4 = Math.max(sample[BR_VERTEX2], sample[TR_VERTEX3]);
                         }
+                        double dmin = Math.min(temp1, temp2);
+                        double dmax = Math.max(temp3, temp4);
+
+                        // levels are sorted so we can skip straight to 
+                        // the first one within [dmin, dmax]
+                        for (int levelIndex = firstLevelAtOrAbove(levels, dmin); 
+                                levelIndex < levels.length; levelIndex++) {
+                            
+                            double levelValue = levels[levelIndex];
+                            if (levelValue > dmax) {
+                                break;
+                            }
 
-                        if (!nodata[BR_VERTEX2]) {
-                            h[2] = sample[BR_VERTEX2] - levelValue;
-                            xh[2] = x;
-                            yh[2] = y;
-                            sh[2] = aboveBelowZero(h[2]);
-                        }
+                            if (!nodata[TL_VERTEX4]) {
+                                h[4] = sample[TL_VERTEX4] - levelValue;
+                                xh[4] = x - 1;
+                                yh[4] = y + 1;
+                                sh[4] = aboveBelowZero(h[4]);
+                            }
 
-                        if (!nodata[BL_VERTEX1]) {
-                            h[1] = sample[BL_VERTEX1] - levelValue;
-                            xh[1] = x - 1;
-                            yh[1] = y;
-                            sh[1] = aboveBelowZero(h[1]);
-                        }
+                            if (!nodata[TR_VERTEX3]) {
+                                h[3] = sample[TR_VERTEX3] - levelValue;
+                                xh[3] = x;
+                                yh[3] = y + 1;
+                                sh[3] = aboveBelowZero(h[3]);
+                            }
 
-                        h[0] = 0.0;
-                        int nh = 0;
-                        for (int i = 0; i < 4; i++) {
-                            if (!nodata[i]) {
-                                h[0] += h[i+1];
-                                nh++ ;
+                            if (!nodata[BR_VERTEX2]) {
+                                h[2] = sample[BR_VERTEX2] - levelValue;
+                                xh[2] = x;
+                                yh[2] = y;
+                                sh[2] = aboveBelowZero(h[2]);
                             }
-                        }
 
-                        // Just in case
-                        if (nh < 3) {
-                            throw new IllegalStateException(
-                                    "Internal error: number data vertices = " + nh);
-                        }
+                            if (!nodata[BL_VERTEX1]) {
+                                h[1] = sample[BL_VERTEX1] - levelValue;
+                                xh[1] = x - 1;
+                                yh[1] = y;
+                                sh[1] = aboveBelowZero(h[1]);
+                            }
 
-                        h[0] /= nh;
-                        xh[0] = x - 0.5;
-                        yh[0] = y + 0.5;
-                        sh[0] = aboveBelowZero(h[0]);
-
-                        /* Scan each triangle in the box */
-                        int m1, m2, m3;
-                        for (int m = 1; m <= 4; m++) {
-                            m1 = m;
-                            m2 = 0;
-                            m3 = m == 4 ? 1 : m + 1;
-
-                            if (nodata[m1 - 1] || nodata[m3 - 1]) {
-                                // skip this triangle with a NODATA vertex
-                                continue;
+                            h[0] = 0.0;
+                            int nh = 0;
+                            for (int i = 0; i < 4; i++) {
+                                if (!nodata[i]) {
+                                    h[0] += h[i+1];
+                                    nh++ ;
+                                }
                             }
 
-                            int config = configLookup[sh[m1] + 1][sh[m2] + 1][sh[m3] + 1];
-                            if (config == 0) {
-                                continue;
+                            // Just in case
+                            if (nh < 3) {
+                                throw new IllegalStateException(
+                                        "Internal error: number data vertices = " + nh);
                             }
 
-                            double x0 = 0.0, y0 = 0.0, x1 = 0.0, y1 = 0.0;
-                            boolean addSegment = true;
-                            switch (config) {
-                                /* Line between vertices 1 and 2 */
-                                case 1:
-                                    x0 = xh[m1];
-                                    y0 = yh[m1];
-                                    x1 = xh[m2];
-                                    y1 = yh[m2];
-                                    break;
-
-                                /* Line between vertices 2 and 3 */
-                                case 2:
-                                    x0 = xh[m2];
-                                    y0 = yh[m2];
-                                    x1 = xh[m3];
-                                    y1 = yh[m3];
-                                    break;
-
-                                /*
-                                 * Line between vertices 3 and 1.
-                                 * We only want to generate this segment
-                                 * for triangles m=2 and m=3, otherwise
-                                 * we will end up with duplicate segments.
-                                 */
-                                case 3:
-                                    if (m == 2 || m == 3) {
+                            h[0] /= nh;
+                            xh[0] = x - 0.5;
+                            yh[0] = y + 0.5;
+                            sh[0] = aboveBelowZero(h[0]);
+
+                            /* Scan each triangle in the box */
+                            int m1, m2, m3;
+                            for (int m = 1; m <= 4; m++) {
+                                m1 = m;
+                                m2 = 0;
+                                m3 = m == 4 ? 1 : m + 1;
+
+                                if (nodata[m1 - 1] || nodata[m3 - 1]) {
+                                    // skip this triangle with a NODATA vertex
+                                    continue;
+                                }
+
+                                int config = CONFIG_LOOKUP[sh[m1] + 1][sh[m2] + 1][sh[m3] + 1];
+                                if (config == 0) {
+                                    continue;
+                                }
+
+                                double x0 = 0.0, y0 = 0.0, x1 = 0.0, y1 = 0.0;
+                                boolean addSegment = true;
+                                switch (config) {
+                                    /* Line between vertices 1 and 2 */
+                                    case 1:
+                                        x0 = xh[m1];
+                                        y0 = yh[m1];
+                                        x1 = xh[m2];
+                                        y1 = yh[m2];
+                                        break;
+
+                                    /* Line between vertices 2 and 3 */
+                                    case 2:
+                                        x0 = xh[m2];
+                                        y0 = yh[m2];
+                                        x1 = xh[m3];
+                                        y1 = yh[m3];
+                                        break;
+
+                                    /*
+                                     * Line between vertices 3 and 1.
+                                     * We only want to generate this segment
+                                     * for triangles m=2 and m=3, otherwise
+                                     * we will end up with duplicate segments.
+                                     */
+                                    case 3:
+                                        if (m == 2 || m == 3) {
+                                            x0 = xh[m3];
+                                            y0 = yh[m3];
+                                            x1 = xh[m1];
+                                            y1 = yh[m1];
+                                        } else {
+                                            addSegment = false;
+                                        }
+                                        break;
+
+                                    /* Line between vertex 1 and side 2-3 */
+                                    case 4:
+                                        x0 = xh[m1];
+                                        y0 = yh[m1];
+                                        x1 = sect(m2, m3, h, xh);
+                                        y1 = sect(m2, m3, h, yh);
+                                        break;
+
+                                    /* Line between vertex 2 and side 3-1 */
+                                    case 5:
+                                        x0 = xh[m2];
+                                        y0 = yh[m2];
+                                        x1 = sect(m3, m1, h, xh);
+                                        y1 = sect(m3, m1, h, yh);
+                                        break;
+
+                                    /* Line between vertex 3 and side 1-2 */
+                                    case 6:
                                         x0 = xh[m3];
                                         y0 = yh[m3];
-                                        x1 = xh[m1];
-                                        y1 = yh[m1];
-                                    } else {
-                                        addSegment = false;
-                                    }
-                                    break;
-
-                                /* Line between vertex 1 and side 2-3 */
-                                case 4:
-                                    x0 = xh[m1];
-                                    y0 = yh[m1];
-                                    x1 = sect(m2, m3, h, xh);
-                                    y1 = sect(m2, m3, h, yh);
-                                    break;
-
-                                /* Line between vertex 2 and side 3-1 */
-                                case 5:
-                                    x0 = xh[m2];
-                                    y0 = yh[m2];
-                                    x1 = sect(m3, m1, h, xh);
-                                    y1 = sect(m3, m1, h, yh);
-                                    break;
-
-                                /* Line between vertex 3 and side 1-2 */
-                                case 6:
-                                    x0 = xh[m3];
-                                    y0 = yh[m3];
-                                    x1 = sect(m1, m2, h, xh);
-                                    y1 = sect(m1, m2, h, yh);
-                                    break;
-
-                                /* Line between sides 1-2 and 2-3 */
-                                case 7:
-                                    x0 = sect(m1, m2, h, xh);
-                                    y0 = sect(m1, m2, h, yh);
-                                    x1 = sect(m2, m3, h, xh);
-                                    y1 = sect(m2, m3, h, yh);
-                                    break;
-
-                                /* Line between sides 2-3 and 3-1 */
-                                case 8:
-                                    x0 = sect(m2, m3, h, xh);
-                                    y0 = sect(m2, m3, h, yh);
-                                    x1 = sect(m3, m1, h, xh);
-                                    y1 = sect(m3, m1, h, yh);
-                                    break;
-
-                                /* Line between sides 3-1 and 1-2 */
-                                case 9:
-                                    x0 = sect(m3, m1, h, xh);
-                                    y0 = sect(m3, m1, h, yh);
-                                    x1 = sect(m1, m2, h, xh);
-                                    y1 = sect(m1, m2, h, yh);
-                                    break;
-                            }
-
-                            if (addSegment) {
-                                zlist.add(x0, y0, x1, y1);
+                                        x1 = sect(m1, m2, h, xh);
+                                        y1 = sect(m1, m2, h, yh);
+                                        break;
+
+                                    /* Line between sides 1-2 and 2-3 */
+                                    case 7:
+                                        x0 = sect(m1, m2, h, xh);
+                                        y0 = sect(m1, m2, h, yh);
+                                        x1 = sect(m2, m3, h, xh);
+                                        y1 = sect(m2, m3, h, yh);
+                                        break;
+
+                                    /* Line between sides 2-3 and 3-1 */
+                                    case 8:
+                                        x0 = sect(m2, m3, h, xh);
+                                        y0 = sect(m2, m3, h, yh);
+                                        x1 = sect(m3, m1, h, xh);
+                                        y1 = sect(m3, m1, h, yh);
+                                        break;
+
+                                    /* Line between sides 3-1 and 1-2 */
+                                    case 9:
+                                        x0 = sect(m3, m1, h, xh);
+                                        y0 = sect(m3, m1, h, yh);
+                                        x1 = sect(m1, m2, h, xh);
+                                        y1 = sect(m1, m2, h, yh);
+                                        break;
+                                }
+
+                                if (addSegment) {
+                                    result.add(levelIndex, x0, y0, x1, y1);
+                                }
                             }
                         }
                     }
+
+                    iter1.nextPixel();
+                    iter2.nextPixel();
+                    x++;
                 }
-                
-                iter1.nextPixel();
-                iter2.nextPixel();
-                x++;
+
+                iter1.nextLine();
+                iter2.nextLine();
+                result.rowComplete();
+                y++;
             }
-            
-            iter1.nextLine();
-            iter2.nextLine();
-            lineComplete(segments, y);
-            y++;
+
+            return result;
         }
-        // once more to make it offload all residual segments
-        lineComplete(segments, y);
-        
-        return segments;
     }
 
-    private void lineComplete(Map<Integer, Segments> segments, int line) {
-        for (Segments s : segments.values()) {
-            s.lineComplete(line);
+    /**
+     * Finds the first contour level that is greater than or equal to
+     * the given value.
+     * 
+     * @param levels contour levels in ascending order
+     * @param value the value
+     * 
+     * @return index of the level or {@code levels.length} if there is none
+     */
+    private static int firstLevelAtOrAbove(double[] levels, double value) {
+        int lo = 0;
+        int hi = levels.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (levels[mid] < value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
         }
+        return lo;
     }
 
     /**
-     * Compares h to zero, return 1 if above or equal to zero, -1 otherwise
+     * Compares h to zero, return 1 if above or equal to zero, -1 otherwise.
+     * Negative zero counts as equal to zero: otherwise a vertex exactly at
+     * the contour level could be classed differently from its neighbour and
+     * the interpolated crossing point between them would be NaN.
      * 
      * @param h
      * @return
      */
     private int aboveBelowZero(double h) {
-        int result = Double.compare(h, 0.0);
-        if (result == 0) {
-            result = 1;
-        }
-        return result;
+        return h < 0.0 ? -1 : 1;
     }
     
 
@@ -753,23 +1125,16 @@ public class ContourOpImage extends AttributeOpImage {
      * @return {@code true} if a NODATA value; {@code false} otherwise
      */
     private boolean isNoData(double value) {
+        if (noDataLookup != null) {
+            // values from byte and short sources are always integral
+            return noDataLookup[(int) value - noDataLookupOffset];
+        }
+        
         if (Double.isNaN(value) || Double.isInfinite(value) ||
             Double.compare(value, Double.MAX_VALUE) == 0) {
             return true;
         }
 
-        for (Double d : noDataNumbers) {
-            if (CompareOp.aequal(value, d)) {
-                return true;
-            }
-        }
-
-        for (Range r : noDataRanges) {
-            if (r.contains(value)) {
-                return true;
-            }
-        }
-
-        return false;
+        return noData.contains(value);
     }
 }
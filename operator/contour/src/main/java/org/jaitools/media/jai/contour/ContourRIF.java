@@ -78,9 +78,12 @@ public class ContourRIF implements RenderedImageFactory {
         Boolean strictNodata = (Boolean) paramBlock.getObjectParameter(ContourDescriptor.STRICT_NO_DATA_ARG);
         Boolean simplify = (Boolean) paramBlock.getObjectParameter(ContourDescriptor.SIMPLIFY_ARG);
         Boolean smooth = (Boolean) paramBlock.getObjectParameter(ContourDescriptor.SMOOTH_ARG);
+        
+        Object threads = paramBlock.getObjectParameter(ContourDescriptor.NUM_THREADS_ARG);
+        int numThreads = threads != null ? (Integer) threads : 0;
 
         return new ContourOpImage(paramBlock.getRenderedSource(0), 
                 roi, band, contourLevels, interval, noDataValues,
-                strictNodata, simplify, smooth);
+                strictNodata, simplify, smooth, numThreads);
     }
 }
@@ -0,0 +1,302 @@
+/* 
+ *  Copyright (c) 2013, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.media.jai.contour;
+
+import java.util.Arrays;
+
+/**
+ * Looks up contour segments by the position of their start or end point.
+ * Points are matched using the same tolerance as {@link Segment#samePoint}.
+ * <p>
+ * This is an open-addressing hash table keyed by point coordinates quantized
+ * to cells twice the width of the tolerance, so that any point within
+ * tolerance of a query point lies in the query cell or one of the three 
+ * neighbouring cells on the nearer sides. Unlike a {@code TreeSet}, adding,
+ * finding and removing segments does not create any objects. Several segments
+ * can share a cell but, as with the sorted sets previously used by
+ * {@link Segments}, a segment is only added if no other segment has a matching
+ * point.
+ * <p>
+ * The indexed segments are also held in a dense array for iteration.
+ * 
+ * @author Michael Bedward
+ * @since 1.5
+ * @version $Id$
+ */
+final class EndpointIndex {
+    
+    private static final double CELL_WIDTH = 2 * Segment.EPS;
+    
+    private static final int EMPTY = -1;
+    
+    private final boolean byStart;
+    
+    /* Hash table slots: quantized point and index into entries */
+    private long[] slotX;
+    private long[] slotY;
+    private int[] slotEntry;
+    private int mask;
+
+    /* Dense array of indexed segments and the slot of each */
+    private Segment[] entries;
+    private int[] entrySlot;
+    private int size;
+
+    /**
+     * Creates a new, empty index.
+     * 
+     * @param byStart {@code true} to index segments by start point;
+     *     {@code false} to index them by end point
+     */
+    EndpointIndex(boolean byStart) {
+        this.byStart = byStart;
+        allocate(64);
+    }
+
+    /**
+     * Gets the number of segments in the index.
+     * 
+     * @return number of segments
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Gets an indexed segment by position in the dense array.
+     * 
+     * @param i index between 0 and {@code size() - 1}
+     * 
+     * @return the segment
+     */
+    Segment get(int i) {
+        return entries[i];
+    }
+
+    /**
+     * Finds a segment whose indexed point matches the given point.
+     * 
+     * @param x point X ordinate
+     * @param y point Y ordinate
+     * 
+     * @return a matching segment or {@code null} if there is none
+     */
+    Segment find(double x, double y) {
+        int entry = findEntry(x, y);
+        return entry == EMPTY ? null : entries[entry];
+    }
+
+    /**
+     * Adds a segment, unless another segment with a matching point is
+     * already indexed.
+     * 
+     * @param segment the segment
+     * 
+     * @return {@code true} if the segment was added
+     */
+    boolean add(Segment segment) {
+        final double x = pointX(segment);
+        final double y = pointY(segment);
+        if (findEntry(x, y) != EMPTY) {
+            return false;
+        }
+        
+        if (2 * (size + 1) > slotEntry.length) {
+            rehash(2 * slotEntry.length);
+        }
+
+        final long qx = cell(x);
+        final long qy = cell(y);
+        int slot = hash(qx, qy) & mask;
+        while (slotEntry[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+
+        slotX[slot] = qx;
+        slotY[slot] = qy;
+        slotEntry[slot] = size;
+        entries[size] = segment;
+        entrySlot[size] = slot;
+        size++ ;
+        return true;
+    }
+
+    /**
+     * Removes a segment. If the segment itself is not indexed, any other 
+     * segment with a matching point is removed instead, in the same way
+     * that a sorted set with a tolerant comparator would behave.
+     * 
+     * @param segment the segment
+     * 
+     * @return {@code true} if a segment was removed
+     */
+    boolean remove(Segment segment) {
+        final double x = pointX(segment);
+        final double y = pointY(segment);
+        final long qx = cell(x);
+        final long qy = cell(y);
+        
+        for (int slot = hash(qx, qy) & mask; slotEntry[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (entries[slotEntry[slot]] == segment) {
+                removeSlot(slot);
+                return true;
+            }
+        }
+        
+        int entry = findEntry(x, y);
+        if (entry != EMPTY) {
+            removeSlot(entrySlot[entry]);
+            return true;
+        }
+        
+        return false;
+    }
+
+    /**
+     * Searches the query cell and neighbouring cells for a segment whose
+     * point is within tolerance of the given point.
+     */
+    private int findEntry(double x, double y) {
+        final double cx = x / CELL_WIDTH;
+        final double cy = y / CELL_WIDTH;
+        final long qx = (long) Math.floor(cx);
+        final long qy = (long) Math.floor(cy);
+        final long nx = cx - qx < 0.5 ? qx - 1 : qx + 1;
+        final long ny = cy - qy < 0.5 ? qy - 1 : qy + 1;
+        
+        int entry = findInCell(qx, qy, x, y);
+        if (entry == EMPTY) {
+            entry = findInCell(nx, qy, x, y);
+            if (entry == EMPTY) {
+                entry = findInCell(qx, ny, x, y);
+                if (entry == EMPTY) {
+                    entry = findInCell(nx, ny, x, y);
+                }
+            }
+        }
+        return entry;
+    }
+
+    private int findInCell(long qx, long qy, double x, double y) {
+        for (int slot = hash(qx, qy) & mask; slotEntry[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (slotX[slot] == qx && slotY[slot] == qy) {
+                Segment s = entries[slotEntry[slot]];
+                if (Segment.samePoint(pointX(s), pointY(s), x, y)) {
+                    return slotEntry[slot];
+                }
+            }
+        }
+        return EMPTY;
+    }
+
+    /**
+     * Empties a slot, moving the last dense entry into the gap left in 
+     * the dense array and shifting back later slots in the probe run.
+     */
+    private void removeSlot(int slot) {
+        final int entry = slotEntry[slot];
+        final int last = size - 1;
+        if (entry != last) {
+            entries[entry] = entries[last];
+            entrySlot[entry] = entrySlot[last];
+            slotEntry[entrySlot[entry]] = entry;
+        }
+        entries[last] = null;
+        size-- ;
+
+        int gap = slot;
+        slotEntry[gap] = EMPTY;
+        for (int j = (gap + 1) & mask; slotEntry[j] != EMPTY; j = (j + 1) & mask) {
+            int home = hash(slotX[j], slotY[j]) & mask;
+            // move slot j into the gap unless its home lies cyclically in (gap, j]
+            boolean stays = gap <= j ? (gap < home && home <= j) : (gap < home || home <= j);
+            if (!stays) {
+                slotX[gap] = slotX[j];
+                slotY[gap] = slotY[j];
+                slotEntry[gap] = slotEntry[j];
+                entrySlot[slotEntry[gap]] = gap;
+                slotEntry[j] = EMPTY;
+                gap = j;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        slotX = new long[capacity];
+        slotY = new long[capacity];
+        slotEntry = new int[capacity];
+        Arrays.fill(slotEntry, EMPTY);
+        mask = capacity - 1;
+        
+        Segment[] newEntries = new Segment[capacity / 2];
+        int[] newEntrySlot = new int[capacity / 2];
+        if (entries != null) {
+            System.arraycopy(entries, 0, newEntries, 0, size);
+        }
+        entries = newEntries;
+        entrySlot = newEntrySlot;
+    }
+
+    private void rehash(int capacity) {
+        final long[] oldX = slotX;
+        final long[] oldY = slotY;
+        final int[] oldEntry = slotEntry;
+        allocate(capacity);
+        
+        for (int i = 0; i < oldEntry.length; i++) {
+            if (oldEntry[i] != EMPTY) {
+                int slot = hash(oldX[i], oldY[i]) & mask;
+                while (slotEntry[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                slotX[slot] = oldX[i];
+                slotY[slot] = oldY[i];
+                slotEntry[slot] = oldEntry[i];
+                entrySlot[oldEntry[i]] = slot;
+            }
+        }
+    }
+
+    private double pointX(Segment s) {
+        return byStart ? s.xStart : s.xEnd;
+    }
+
+    private double pointY(Segment s) {
+        return byStart ? s.yStart : s.yEnd;
+    }
+
+    private static long cell(double ordinate) {
+        return (long) Math.floor(ordinate / CELL_WIDTH);
+    }
+
+    private static int hash(long qx, long qy) {
+        long h = qx * 0x9E3779B97F4A7C15L + qy;
+        h ^= h >>> 29;
+        h *= 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 32;
+        return (int) h;
+    }
+}
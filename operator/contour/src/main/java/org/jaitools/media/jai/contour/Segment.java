@@ -103,6 +103,33 @@ final class Segment {
         this(x1, y1, x2, y2, DEFAULT_SIZE, simplify);
     }
 
+    /**
+     * Re-initializes a segment which is no longer in use so that it can
+     * be recycled. The existing ordinates array is kept.
+     * 
+     * @param x1
+     * @param y1
+     * @param x2
+     * @param y2
+     */
+    void reset(double x1, double y1, double x2, double y2) {
+        this.xStart = x1;
+        this.yStart = y1;
+        this.xEnd = x2;
+        this.yEnd = y2;
+        this.dxEnd = x2 - x1;
+        this.dyEnd = y2 - y1;
+        this.dxStart = dxEnd;
+        this.dyStart = dyEnd;
+        idxFirst = ordinates.length / 4 * 2;
+        idxLast = idxFirst;
+        ordinates[idxLast++] = x1;
+        ordinates[idxLast++] = y1;
+        ordinates[idxLast++] = x2;
+        ordinates[idxLast++] = y2;
+        touched = true;
+    }
+
     private void addAfterEnd(double x, double y, boolean touch) {
         if (simplify && sameSlope(dxEnd, dyEnd, x - xEnd, y - yEnd)) {
             ordinates[idxLast - 2] = x;
@@ -183,10 +210,23 @@ final class Segment {
     }
 
     public LineString toLineString() {
-        double[] ordinates = new double[idxLast - idxFirst];
-        System.arraycopy(this.ordinates, idxFirst, ordinates, 0, ordinates.length);
+        return toLineString(this.ordinates, idxFirst, idxLast);
+    }
+
+    /**
+     * Creates a {@code LineString} from a run of packed X,Y ordinates.
+     * 
+     * @param ordinates the ordinates array
+     * @param from index of the first ordinate
+     * @param to index after the last ordinate
+     * 
+     * @return a new {@code LineString}
+     */
+    static LineString toLineString(double[] ordinates, int from, int to) {
+        double[] lineOrdinates = new double[to - from];
+        System.arraycopy(ordinates, from, lineOrdinates, 0, lineOrdinates.length);
         PackedCoordinateSequence.Double cs = (Double) PackedCoordinateSequenceFactory.DOUBLE_FACTORY
-                .create(ordinates, 2);
+                .create(lineOrdinates, 2);
         return Utils.getGeometryFactory().createLineString(cs);
     }
 
@@ -23,14 +23,15 @@
  *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
  */   
 
+
 package org.jaitools.media.jai.contour;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.TreeSet;
 
 import org.jaitools.media.jai.contour.Segment.MergePoint;
 
@@ -40,6 +41,16 @@ import com.vividsolutions.jts.geom.LineString;
 /**
  * A container for the segments collected by ContourOpImage. 
  * It will return them as merged lines eventually applying simplification procedures 
+ * <p>
+ * Open segments are looked up by their start and end points using
+ * {@link EndpointIndex} hash tables. Segments which are merged into others
+ * or completed are recycled, and the ordinates of completed lines are packed
+ * into a single array, so that contouring a large image does not create
+ * an object per segment. Completed lines are only converted to JTS
+ * {@code LineStrings} when {@link #getMergedSegments()} is called.
+ * <p>
+ * If a {@link ContourSink} is supplied, each line is instead passed to it
+ * as soon as it is completed and nothing is retained.
  * 
  * @author Andrea Aime - GeoSolutions
  * @since 1.1
@@ -47,27 +58,79 @@ import com.vividsolutions.jts.geom.LineString;
  */
 class Segments {
     static final int MAX_SIZE = 16348; // this amounts to 130KB storage
+    
+    /** Maximum number of unused segments kept for recycling */
+    private static final int MAX_SPARE = 256;
+    
+    /** Segments with larger ordinate arrays than this are not recycled */
+    private static final int MAX_SPARE_ORDINATES = 4 * Segment.DEFAULT_SIZE;
+    
+    /**
+     * Orders segments by start point, X first. Unlike 
+     * {@link Segment#START_COMPARATOR} this is an exact total order, 
+     * as required for sorting.
+     */
+    private static final Comparator<Segment> START_ORDER = new Comparator<Segment>() {
+        public int compare(Segment s1, Segment s2) {
+            int result = Double.compare(s1.xStart, s2.xStart);
+            return result != 0 ? result : Double.compare(s1.yStart, s2.yStart);
+        }
+    };
+    
     boolean simplify;
 
-    Segment temp = new Segment();
+    /**
+     * Open segments indexed by start point
+     */
+    EndpointIndex startList = new EndpointIndex(true);
 
     /**
-     * List of segments sorted by start element
+     * Open segments indexed by end point
      */
-    TreeSet<Segment> startList = new TreeSet<Segment>(Segment.START_COMPARATOR);
+    EndpointIndex endList = new EndpointIndex(false);
 
     /**
-     * List of segments sorted by end element
+     * Segments not touched during the last scanline (re-used by lineComplete)
+     */
+    private final List<Segment> untouched = new ArrayList<Segment>();
+    
+    /**
+     * Segments available for recycling
      */
-    TreeSet<Segment> endList = new TreeSet<Segment>(Segment.END_COMPARATOR);
+    private final List<Segment> spare = new ArrayList<Segment>();
 
     /**
-     * The completed segment list
+     * Packed ordinates of the completed lines 
      */
-    List<LineString> result = new ArrayList<LineString>();
+    private double[] completed = new double[256];
+    private int completedSize;
+    
+    /**
+     * Start position of each completed line in the packed ordinates
+     */
+    private int[] completedStart = new int[16];
+    private int numCompleted;
+    
+    /**
+     * Optional receiver of completed lines
+     */
+    private final ContourSink sink;
     
     public Segments(boolean simplify) {
+        this(simplify, null);
+    }
+    
+    /**
+     * Creates a new instance which passes completed lines to
+     * {@code sink} rather than keeping them.
+     * 
+     * @param simplify whether to remove colinear vertices
+     * @param sink receives each line when complete; if {@code null} lines
+     *     are kept for {@link #getMergedSegments()}
+     */
+    public Segments(boolean simplify, ContourSink sink) {
         this.simplify = simplify;
+        this.sink = sink;
     }
     
     /**
@@ -100,33 +163,35 @@ class Segments {
         }
 
         // no connection, need to create a new segment
-        Segment segment = new Segment(x1, y1, x2, y2, simplify);
+        Segment segment;
+        if (spare.isEmpty()) {
+            segment = new Segment(x1, y1, x2, y2, simplify);
+        } else {
+            segment = spare.remove(spare.size() - 1);
+            segment.reset(x1, y1, x2, y2);
+        }
         startList.add(segment);
         endList.add(segment);
-        // insertInStartList(segment);
-        // insertInEndList(segment);
     }
 
     private boolean appendSegment(double x1, double y1, double x2, double y2) {
-        temp.setXY(x1, y1, x1, y1);
-        Segment segment = search(startList, temp);
+        Segment segment = startList.find(x1, y1);
         if (segment != null) {
             addToStartList(x2, y2, segment);
             return true;
         } else {
-            segment = search(endList, temp);
+            segment = endList.find(x1, y1);
             if (segment != null) {
                 addToEndList(x2, y2, segment);
                 return true;
             }
         }
-        temp.setXY(x2, y2, x2, y2);
-        segment = search(startList, temp);
+        segment = startList.find(x2, y2);
         if (segment != null) {
             addToStartList(x1, y1, segment);
             return true;
         } else {
-            segment = search(endList, temp);
+            segment = endList.find(x2, y2);
             if (segment != null) {
                 addToEndList(x1, y1, segment);
                 return true;
@@ -140,10 +205,9 @@ class Segments {
         endList.remove(segment);
         segment.addAfterEnd(x, y);
         // can we merge the segment to another in the end list now?
-        // (we cannot keep two segments with the same endpoint in the treeset, they would be
+        // (we cannot keep two segments with the same endpoint in the index, they would be
         // considered equal)
-        temp.setXY(x, y, x, y);
-        Segment mergeTarget = search(endList, segment);
+        Segment mergeTarget = endList.find(segment.xEnd, segment.yEnd);
         if (mergeTarget == null) {
             // add back in the end list
             endList.add(segment);
@@ -155,10 +219,11 @@ class Segments {
                 endList.remove(mergeTarget);
                 mergeTarget.merge(segment, MergePoint.END_END);
                 mergeTarget.touched = true;
+                recycle(segment);
                 // is the merge going to cascade to another segment now that
                 // we have modified the end point of s2 (and made it become the
                 // start point of "segment"?
-                Segment next = search(endList, mergeTarget);
+                Segment next = endList.find(mergeTarget.xEnd, mergeTarget.yEnd);
                 if (next != null) {
                     segment = mergeTarget;
                     mergeTarget = next;
@@ -169,17 +234,16 @@ class Segments {
                 }
             }
         }
-        assert listConsistent() : "Start: " + startList + "\nEnd: " + endList;
+        assert listConsistent() : this;
     }
 
     private void addToStartList(double x, double y, Segment segment) {
-        assert listConsistent() : "Start: " + startList + "\nEnd: " + endList;
+        assert listConsistent() : this;
         // add the point
         startList.remove(segment);
         segment.addBeforeStart(x, y);
         // can we merge the segment to another in the start list now?
-        temp.setXY(x, y, x, y);
-        Segment mergeTarget = search(startList, segment);
+        Segment mergeTarget = startList.find(segment.xStart, segment.yStart);
         if (mergeTarget == null) {
             // add back in the start list
             startList.add(segment);
@@ -191,10 +255,11 @@ class Segments {
                 startList.remove(mergeTarget);
                 mergeTarget.merge(segment, MergePoint.START_START);
                 mergeTarget.touched = true;
+                recycle(segment);
                 // is the merge going to cascade to another segment now that
                 // we have modified the start point of s2 (and made it become the
                 // end point of "segment"?
-                Segment next = search(startList, mergeTarget);
+                Segment next = startList.find(mergeTarget.xStart, mergeTarget.yStart);
                 if (next != null) {
                     segment = mergeTarget;
                     mergeTarget = next;
@@ -205,7 +270,7 @@ class Segments {
                 }
             }
         }
-        assert listConsistent() : "Start: " + startList + "\nEnd: " + endList;
+        assert listConsistent() : this;
     }
 
 
@@ -225,38 +290,49 @@ class Segments {
      * Informs the segments a new scanline is started
      */
     public void lineComplete(int line) {
-        // look for all the segments that have not been touched during the last scan
-        for (Segment segment : new ArrayList<Segment>(startList)) {
-            // if touched, we can continue using it
+        // look for all the segments that have not been touched during the last scan;
+        // if touched, we can continue using them
+        for (int i = 0; i < startList.size(); i++) {
+            Segment segment = startList.get(i);
             if (segment.touched) {
                 segment.touched = false;
-                continue;
+            } else {
+                untouched.add(segment);
             }
+        }
+        
+        // process them in start point order so that results do not depend
+        // on the layout of the index
+        if (untouched.size() > 1) {
+            Collections.sort(untouched, START_ORDER);
+        }
+        
+        final int n = untouched.size();
+        for (int i = 0; i < n; i++) {
+            Segment segment = untouched.get(i);
             
-            // if not, remove it from the search lists
+            // remove it from the search lists
             startList.remove(segment);
             endList.remove(segment);
 
             // can we merge it with an existing one?
-            temp.setXY(segment.xStart, segment.yStart, segment.xStart, segment.yStart);
             Segment mergeTarget = null;
             MergePoint mergePoint = null;
 
             // end-start is the most efficient merge we can make, try it first
-            mergeTarget = search(endList, temp);
+            mergeTarget = endList.find(segment.xStart, segment.yStart);
             if (mergeTarget != null) {
                 mergePoint = MergePoint.END_START;
             } else {
-                mergeTarget = search(startList, temp);
+                mergeTarget = startList.find(segment.xStart, segment.yStart);
                 if (mergeTarget != null) {
                     mergePoint = MergePoint.START_START;
                 } else {
-                    temp.setXY(segment.xEnd, segment.yEnd, segment.xEnd, segment.yEnd);
-                    mergeTarget = search(startList, temp);
+                    mergeTarget = startList.find(segment.xEnd, segment.yEnd);
                     if (mergeTarget != null) {
                         mergePoint = MergePoint.START_END;
                     } else {
-                        mergeTarget = search(endList, temp);
+                        mergeTarget = endList.find(segment.xEnd, segment.yEnd);
                         if (mergeTarget != null) {
                             mergePoint = MergePoint.END_END;
                         }
@@ -271,37 +347,63 @@ class Segments {
                 startList.add(mergeTarget);
                 endList.add(mergeTarget);
             } else {
-                LineString ls = segment.toLineString();
-                result.add(ls);
+                addCompleted(segment);
             }
+            recycle(segment);
 
-            assert listConsistent() : "Start: " + startList + "\nEnd: " + endList;
+            assert listConsistent() : this;
         }
+        
+        untouched.clear();
     }
 
-    private boolean listConsistent() {
-        Set<Segment> start = new HashSet<Segment>(startList);
-        Set<Segment> end = new HashSet<Segment>(endList);
-        return start.containsAll(end) && end.containsAll(start);
+    /**
+     * Appends the ordinates of a completed line to the packed array, or 
+     * passes the line to the sink if there is one.
+     */
+    private void addCompleted(Segment segment) {
+        if (sink != null) {
+            sink.contour(segment.toLineString());
+            return;
+        }
+        
+        final int len = segment.idxLast - segment.idxFirst;
+        if (completedSize + len > completed.length) {
+            double[] newCompleted = new double[Math.max(2 * completed.length, completedSize + len)];
+            System.arraycopy(completed, 0, newCompleted, 0, completedSize);
+            completed = newCompleted;
+        }
+        if (numCompleted == completedStart.length) {
+            int[] newStart = new int[2 * numCompleted];
+            System.arraycopy(completedStart, 0, newStart, 0, numCompleted);
+            completedStart = newStart;
+        }
+        
+        System.arraycopy(segment.ordinates, segment.idxFirst, completed, completedSize, len);
+        completedStart[numCompleted++] = completedSize;
+        completedSize += len;
     }
 
-    Segment search(TreeSet<Segment> list, Segment reference) {
-        Segment segment = list.ceiling(reference);
-        if (segment == null) {
-            return null;
-        }
-        if (list == startList) {
-            if (Segment.samePoint(segment.xStart, segment.yStart, reference.xStart,
-                    reference.yStart)) {
-                return segment;
-            }
-        } else {
-            if (Segment.samePoint(segment.xEnd, segment.yEnd, reference.xEnd, reference.yEnd)) {
-                return segment;
-            }
+    /**
+     * Keeps a segment which is no longer in use for re-use by 
+     * {@link #add(double, double, double, double)}.
+     */
+    private void recycle(Segment segment) {
+        if (spare.size() < MAX_SPARE && segment.ordinates.length <= MAX_SPARE_ORDINATES) {
+            spare.add(segment);
         }
+    }
 
-        return null;
+    private boolean listConsistent() {
+        Set<Segment> start = new HashSet<Segment>();
+        for (int i = 0; i < startList.size(); i++) {
+            start.add(startList.get(i));
+        }
+        Set<Segment> end = new HashSet<Segment>();
+        for (int i = 0; i < endList.size(); i++) {
+            end.add(endList.get(i));
+        }
+        return start.equals(end);
     }
 
     /**
@@ -310,19 +412,24 @@ class Segments {
      * @return
      */
     public List<LineString> getMergedSegments() {
+        List<LineString> result = new ArrayList<LineString>(numCompleted);
+        for (int i = 0; i < numCompleted; i++) {
+            int end = i < numCompleted - 1 ? completedStart[i + 1] : completedSize;
+            result.add(Segment.toLineString(completed, completedStart[i], end));
+        }
         return result;
     }
 
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder("Segments(").append(startList.size()).append(",")
-                .append(result.size()).append(") ");
+                .append(numCompleted).append(") ");
         sb.append("active=");
-        for (Segment segment : startList) {
-            sb.append(segment).append("\n");
+        for (int i = 0; i < startList.size(); i++) {
+            sb.append(startList.get(i)).append("\n");
         }
         sb.append("complete=");
-        for (LineString ls : result) {
+        for (LineString ls : getMergedSegments()) {
             sb.append(ls).append("\n");
         }
         return sb.toString();
@@ -26,6 +26,7 @@
 package org.jaitools.media.jai.contour;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -153,6 +154,37 @@ public class ContourTest extends TestBase {
         assertEquals(2, contour.getNumPoints());
     }
 
+    /**
+     * Vertices at the contour level with values of -0.0 should be treated
+     * the same as those with values of 0.0. Here the middle row alternates
+     * between the two. Classing -0.0 as below the level made sect() divide
+     * zero by zero between neighbouring vertices, giving NaN crossing points.
+     */
+    @Test
+    public void negativeZeroAtLevel() {
+        final int mid = IMAGE_WIDTH / 2;
+        TiledImage src = ImageUtils.createConstantImage(IMAGE_WIDTH, IMAGE_WIDTH, Double.valueOf(0));
+        for (int y = 0; y < IMAGE_WIDTH; y++) {
+            for (int x = 0; x < IMAGE_WIDTH; x++) {
+                double value = y == mid && x % 2 == 1 ? -0.0 : y - mid;
+                src.setSample(x, y, 0, value);
+            }
+        }
+        
+        args.put("levels", Collections.singleton(0));
+        Collection<LineString> contours = doOp(src, args);
+        for (LineString line : contours) {
+            for (Coordinate c : line.getCoordinates()) {
+                assertFalse("NaN crossing point", Double.isNaN(c.x) || Double.isNaN(c.y));
+            }
+        }
+        assertEquals(1, contours.size());
+        
+        LineString contour = contours.iterator().next();
+        assertSingleSegment(contour);
+        assertContour(contour, 0, mid, IMAGE_WIDTH-1, mid);
+    }
+    
     /**
      * Same as test singleContourVerticalGradient but contour simplification 
      * is turned off so we should get one coordinate per pixel.
@@ -426,4 +458,54 @@ public class ContourTest extends TestBase {
             assertTrue(level > 0 && level < 100);
         }
     }
+
+    /**
+     * Contours generated with several threads should be identical, 
+     * including vertex order and list order, to those from a 
+     * single thread.
+     */
+    @Test
+    public void parallelMatchesSequential() throws Exception {
+        TiledImage src = createGradientImage(Gradient.RADIAL);
+        for (int y = 0; y < IMAGE_WIDTH; y += 7) {
+            src.setSample(y % 13, y, 0, Double.NaN);
+        }
+        
+        args.put("interval", IMAGE_WIDTH / 20);
+        args.put("numThreads", 1);
+        List<LineString> expected = new ArrayList<LineString>(doOp(src, args));
+        assertTrue(expected.size() > 1);
+        
+        args.put("numThreads", 4);
+        List<LineString> contours = new ArrayList<LineString>(doOp(src, args));
+        
+        assertEquals(expected.size(), contours.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertTrue(expected.get(i).equalsExact(contours.get(i)));
+            assertEquals(expected.get(i).getUserData(), contours.get(i).getUserData());
+        }
+    }
+
+    /**
+     * Contours passed to a ContourSink should match those in the
+     * image property, apart from their order.
+     */
+    @Test
+    public void streamMatchesProperty() {
+        TiledImage src = createGradientImage(Gradient.RADIAL);
+        args.put("interval", IMAGE_WIDTH / 20);
+        Collection<LineString> expected = doOp(src, args);
+        assertTrue(expected.size() > 1);
+        
+        final List<LineString> streamed = new ArrayList<LineString>();
+        ContourOpImage op = (ContourOpImage) createOp(src, args).getRendering();
+        op.streamContours(new ContourSink() {
+            public void contour(LineString contour) {
+                assertNotNull(contour.getUserData());
+                streamed.add(contour);
+            }
+        });
+        
+        assertContoursMatch(streamed, expected.toArray(new LineString[0]));
+    }
 }
@@ -0,0 +1,122 @@
+/* 
+ *  Copyright (c) 2013, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.media.jai.contour;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for EndpointIndex.
+ * 
+ * @author Michael Bedward
+ * @since 1.5
+ * @version $Id$
+ */
+public class EndpointIndexTest {
+
+    @Test
+    public void findWithinTolerance() {
+        EndpointIndex index = new EndpointIndex(true);
+        Segment s = new Segment(10.5, 20.25, 11, 21, false);
+        assertTrue(index.add(s));
+        
+        assertSame(s, index.find(10.5, 20.25));
+        final double d = 0.9 * Segment.EPS;
+        for (double dx : new double[]{-d, 0, d}) {
+            for (double dy : new double[]{-d, 0, d}) {
+                assertSame(s, index.find(10.5 + dx, 20.25 + dy));
+            }
+        }
+        
+        assertNull(index.find(10.5 + 1.1 * Segment.EPS, 20.25));
+        assertNull(index.find(11, 21));
+    }
+
+    @Test
+    public void indexByEndPoint() {
+        EndpointIndex index = new EndpointIndex(false);
+        Segment s = new Segment(0, 0, 3, 4, false);
+        index.add(s);
+        
+        assertSame(s, index.find(3, 4));
+        assertNull(index.find(0, 0));
+    }
+    
+    @Test
+    public void matchingPointNotAdded() {
+        EndpointIndex index = new EndpointIndex(true);
+        Segment s1 = new Segment(1, 1, 2, 2, false);
+        Segment s2 = new Segment(1, 1 + Segment.EPS / 2, 3, 3, false);
+        
+        assertTrue(index.add(s1));
+        assertFalse(index.add(s2));
+        assertEquals(1, index.size());
+        
+        // removing s2 removes the matching segment
+        assertTrue(index.remove(s2));
+        assertEquals(0, index.size());
+        assertNull(index.find(1, 1));
+    }
+
+    @Test
+    public void addAndRemoveMany() {
+        EndpointIndex index = new EndpointIndex(true);
+        List<Segment> segments = new ArrayList<Segment>();
+        
+        // points on a fine grid so that many share hash cells and probe runs
+        for (int i = 0; i < 2000; i++) {
+            double x = (i % 40) * 3 * Segment.EPS;
+            double y = (i / 40) * 0.5;
+            Segment s = new Segment(x, y, x + 1, y + 1, false);
+            assertTrue(index.add(s));
+            segments.add(s);
+        }
+        assertEquals(segments.size(), index.size());
+
+        Random rr = new Random(42);
+        while (!segments.isEmpty()) {
+            Segment s = segments.remove(rr.nextInt(segments.size()));
+            assertTrue(index.remove(s));
+            assertNull(index.find(s.xStart, s.yStart));
+            assertEquals(segments.size(), index.size());
+            
+            if (segments.size() % 100 == 0) {
+                for (Segment other : segments) {
+                    assertSame(other, index.find(other.xStart, other.yStart));
+                }
+            }
+        }
+    }
+}
@@ -69,6 +69,22 @@ public abstract class TestBase {
      * @return the contours
      */
     protected Collection<LineString> doOp(PlanarImage src, Map<String, Object> args) {
+        RenderedOp dest = createOp(src, args);
+        Object prop = dest.getProperty(ContourDescriptor.CONTOUR_PROPERTY_NAME);
+        assertNotNull(prop);
+        assertTrue(prop instanceof Collection);
+        
+        return (Collection<LineString>) prop;
+    }
+    
+    /**
+     * Creates the operation without retrieving the contours.
+     * 
+     * @param src the source image
+     * 
+     * @return the operation node
+     */
+    protected RenderedOp createOp(PlanarImage src, Map<String, Object> args) {
         ParameterBlockJAI pb = new ParameterBlockJAI("Contour");
         pb.setSource("source0", src);
         
@@ -79,12 +95,7 @@ public abstract class TestBase {
             }
         }
 
-        RenderedOp dest = JAI.create("Contour", pb);
-        Object prop = dest.getProperty(ContourDescriptor.CONTOUR_PROPERTY_NAME);
-        assertNotNull(prop);
-        assertTrue(prop instanceof Collection);
-        
-        return (Collection<LineString>) prop;
+        return JAI.create("Contour", pb);
     }
     
     /**
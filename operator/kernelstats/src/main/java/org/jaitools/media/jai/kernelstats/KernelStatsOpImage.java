@@ -40,7 +40,7 @@ import javax.media.jai.ROI;
 import javax.media.jai.RasterAccessor;
 import javax.media.jai.RasterFormatTag;
 
-import org.jaitools.numeric.SampleStats;
+import org.jaitools.imageutils.ROIMask;
 import org.jaitools.numeric.Statistic;
 
 
@@ -55,18 +55,6 @@ import org.jaitools.numeric.Statistic;
  */
 public class KernelStatsOpImage extends AreaOpImage {
 
-    private int[] srcBandOffsets;
-    private int srcPixelStride;
-    private int srcScanlineStride;
-
-    /* Destination image variables */
-    private int destWidth;
-    private int destHeight;
-    private int destBands;
-    private int[] destBandOffsets;
-    private int destPixelStride;
-    private int destScanlineStride;
-
     private int srcBand;
 
     /* Kernel variables. */
@@ -83,10 +71,16 @@ public class KernelStatsOpImage extends AreaOpImage {
     private boolean maskDest;
 
     private Statistic[] stats;
-    private Double[] sampleData;
-    private Calculator functionTable;
+    private boolean ignoreNaN;
     private Number nilValue;
 
+    /* 
+     * Range of source values for the median histogram, or 
+     * medianNumValues = 0 if it can't be used
+     */
+    private int medianMinValue;
+    private int medianNumValues;
+
 
     /**
      * Creates a new instance.
@@ -195,11 +189,28 @@ public class KernelStatsOpImage extends AreaOpImage {
             this.maskDest = maskDest;
         }
 
-        this.functionTable = new Calculator(ignoreNaN);
-
+        this.ignoreNaN = ignoreNaN;
         this.nilValue = nilValue;
 
-        this.sampleData = new Double[kernelN];
+        switch (source.getSampleModel().getDataType()) {
+            case DataBuffer.TYPE_BYTE:
+                medianMinValue = 0;
+                medianNumValues = 1 << 8;
+                break;
+
+            case DataBuffer.TYPE_SHORT:
+                medianMinValue = Short.MIN_VALUE;
+                medianNumValues = 1 << 16;
+                break;
+
+            case DataBuffer.TYPE_USHORT:
+                medianMinValue = 0;
+                medianNumValues = 1 << 16;
+                break;
+
+            default:
+                medianNumValues = 0;
+        }
     }
 
     /**
@@ -227,42 +238,41 @@ public class KernelStatsOpImage extends AreaOpImage {
                 new RasterAccessor(dest, destRect,
                 formatTags[1], getColorModel());
 
-        destWidth = destAcc.getWidth();
-        destHeight = destAcc.getHeight();
-        destBands = destAcc.getNumBands();
+        int destWidth = destAcc.getWidth();
+        int destHeight = destAcc.getHeight();
+        int destBands = destAcc.getNumBands();
 
-        destBandOffsets = destAcc.getBandOffsets();
-        destPixelStride = destAcc.getPixelStride();
-        destScanlineStride = destAcc.getScanlineStride();
+        KernelWindow window = new KernelWindow(inKernel, kernelW, kernelH, stats, 
+                ignoreNaN, medianMinValue, medianNumValues);
 
-        srcBandOffsets = srcAcc.getBandOffsets();
-        srcPixelStride = srcAcc.getPixelStride();
-        srcScanlineStride = srcAcc.getScanlineStride();
+        window.setData(getSourceData(srcAcc), 
+                maskSrc ? getMask(srcRect) : null, 
+                srcAcc.getWidth());
 
-        switch (destAcc.getDataType()) {
-            case DataBuffer.TYPE_BYTE:
-                calcByteData(srcAcc, destAcc);
-                break;
+        boolean[] destMask = maskDest ? getMask(destRect) : null;
 
-            case DataBuffer.TYPE_SHORT:
-                calcShortData(srcAcc, destAcc);
-                break;
+        double[][] results = new double[destBands][destWidth];
 
-            case DataBuffer.TYPE_USHORT:
-                calcUShortData(srcAcc, destAcc);
-                break;
+        for (int j = 0; j < destHeight; j++) {
+            window.startRow(j);
 
-            case DataBuffer.TYPE_INT:
-                calcIntData(srcAcc, destAcc);
-                break;
+            for (int i = 0; i < destWidth; i++) {
+                if (i > 0) {
+                    window.slide();
+                }
 
-            case DataBuffer.TYPE_FLOAT:
-                calcFloatData(srcAcc, destAcc);
-                break;
+                if (destMask == null || destMask[j * destWidth + i]) {
+                    for (int band = 0; band < destBands; band++) {
+                        results[band][i] = window.getStatistic(stats[band]);
+                    }
+                } else {
+                    for (int band = 0; band < destBands; band++) {
+                        results[band][i] = Double.NaN;
+                    }
+                }
+            }
 
-            case DataBuffer.TYPE_DOUBLE:
-                calcDoubleData(srcAcc, destAcc);
-                break;
+            writeRow(destAcc, j, results);
         }
 
         if (destAcc.isDataCopy()) {
@@ -271,53 +281,107 @@ public class KernelStatsOpImage extends AreaOpImage {
         }
     }
 
-    private void calcByteData(RasterAccessor srcAcc, RasterAccessor destAcc) {
-
-        byte srcData[][] = srcAcc.getByteDataArrays();
-        byte destData[][] = destAcc.getByteDataArrays();
-
-        int destY = destAcc.getY();
-        int destX = destAcc.getX();
+    /**
+     * Copies the values of the source band into a {@code double} array
+     * (row-major) covering the source rectangle.
+     */
+    private double[] getSourceData(RasterAccessor srcAcc) {
+        final int w = srcAcc.getWidth();
+        final int h = srcAcc.getHeight();
+        final int pixelStride = srcAcc.getPixelStride();
+        final int scanlineStride = srcAcc.getScanlineStride();
+
+        double[] values = new double[w * h];
+        int lineOffset = srcAcc.getBandOffsets()[srcBand];
+        int k = 0;
+
+        for (int y = 0; y < h; y++, lineOffset += scanlineStride) {
+            int offset = lineOffset;
+
+            switch (srcAcc.getDataType()) {
+                case DataBuffer.TYPE_BYTE: {
+                    byte[] data = srcAcc.getByteDataArray(srcBand);
+                    for (int x = 0; x < w; x++, offset += pixelStride) {
+                        values[k++] = data[offset] & 0xff;
+                    }
+                    break;
+                }
 
-        byte srcBandData[] = srcData[srcBand];
-        int srcScanlineOffset = srcBandOffsets[srcBand];
+                case DataBuffer.TYPE_SHORT: {
+                    short[] data = srcAcc.getShortDataArray(srcBand);
+                    for (int x = 0; x < w; x++, offset += pixelStride) {
+                        values[k++] = data[offset];
+                    }
+                    break;
+                }
 
-        int destLineDelta = 0;
-        for (int j = 0; j < destHeight; j++, destY++) {
-            int srcPixelOffset = srcScanlineOffset;
+                case DataBuffer.TYPE_USHORT: {
+                    short[] data = srcAcc.getShortDataArray(srcBand);
+                    for (int x = 0; x < w; x++, offset += pixelStride) {
+                        values[k++] = data[offset] & 0xffff;
+                    }
+                    break;
+                }
 
-            int destPixelDelta = 0;
-            for (int i = 0; i < destWidth; i++, destX++) {
-                int numSamples = 0;
-                if (!maskDest || roi.contains(destX, destY)) {
-                    int srcY = destY - kernelKeyY;
-                    int kernelVerticalOffset = 0;
-                    int imageVerticalOffset = srcPixelOffset;
+                case DataBuffer.TYPE_INT: {
+                    int[] data = srcAcc.getIntDataArray(srcBand);
+                    for (int x = 0; x < w; x++, offset += pixelStride) {
+                        values[k++] = data[offset];
+                    }
+                    break;
+                }
 
-                    for (int u = 0; u < kernelH; u++, srcY++) {
-                        int srcX = destX - kernelKeyX;
-                        int imageOffset = imageVerticalOffset;
+                case DataBuffer.TYPE_FLOAT: {
+                    float[] data = srcAcc.getFloatDataArray(srcBand);
+                    for (int x = 0; x < w; x++, offset += pixelStride) {
+                        values[k++] = data[offset];
+                    }
+                    break;
+                }
 
-                        for (int v = 0; v < kernelW; v++, srcX++) {
-                            if (!maskSrc || roi.contains(srcX, srcY)) {
-                                if (inKernel[kernelVerticalOffset + v]) {
-                                    sampleData[numSamples++] = (double) (srcBandData[imageOffset] & 0xff);
-                                }
-                            }
-                            imageOffset += srcPixelStride;
-                        }
-                        kernelVerticalOffset += kernelW;
-                        imageVerticalOffset += srcScanlineStride;
+                case DataBuffer.TYPE_DOUBLE: {
+                    double[] data = srcAcc.getDoubleDataArray(srcBand);
+                    for (int x = 0; x < w; x++, offset += pixelStride) {
+                        values[k++] = data[offset];
                     }
+                    break;
                 }
+            }
+        }
+
+        return values;
+    }
 
-                for (int band = 0; band < destBands; band++) {
-                    byte destBandData[] = destData[band];
-                    int dstPixelOffset = destBandOffsets[band] + destPixelDelta + destLineDelta;
+    /**
+     * Gets flags (row-major) for the pixels within the ROI, or {@code null}
+     * if all pixels are within the ROI.
+     */
+    private boolean[] getMask(Rectangle rect) {
+        ROIMask mask = ROIMask.create(roi, rect);
+        return mask.isAllInside() ? null : mask.getData();
+    }
 
-                    int val = nilValue.byteValue();
-                    if (numSamples > 0) {
-                        double statValue = functionTable.call(stats[band], sampleData, numSamples);
+    /**
+     * Writes a row of statistic values to the destination, converting
+     * to the destination data type. NaN values are written as nilValue.
+     */
+    private void writeRow(RasterAccessor destAcc, int row, double[][] results) {
+        final int destWidth = destAcc.getWidth();
+        final int destPixelStride = destAcc.getPixelStride();
+        final int lineDelta = row * destAcc.getScanlineStride();
+        final int[] destBandOffsets = destAcc.getBandOffsets();
+
+        for (int band = 0; band < results.length; band++) {
+            double[] bandResults = results[band];
+            int offset = destBandOffsets[band] + lineDelta;
+
+            switch (destAcc.getDataType()) {
+                case DataBuffer.TYPE_BYTE: {
+                    byte[] data = destAcc.getByteDataArray(band);
+                    int nil = nilValue.byteValue();
+                    for (int i = 0; i < destWidth; i++, offset += destPixelStride) {
+                        int val = nil;
+                        double statValue = bandResults[i];
                         if (!Double.isNaN(statValue)) {
                             val = (int) (statValue + 0.5);
                             if (val < 0) {
@@ -326,67 +390,17 @@ public class KernelStatsOpImage extends AreaOpImage {
                                 val = 255;
                             }
                         }
+                        data[offset] = (byte) val;
                     }
-
-                    destBandData[dstPixelOffset] = (byte) val;
-                }
-
-                srcPixelOffset += srcPixelStride;
-                destPixelDelta += destPixelStride;
-            }
-
-            srcScanlineOffset += srcScanlineStride;
-            destLineDelta += destScanlineStride;
-        }
-    }
-
-    private void calcShortData(RasterAccessor srcAcc, RasterAccessor destAcc) {
-
-        short destData[][] = destAcc.getShortDataArrays();
-        short srcData[][] = srcAcc.getShortDataArrays();
-
-        int destY = destAcc.getY();
-        int destX = destAcc.getX();
-
-        short srcBandData[] = srcData[srcBand];
-        int srcScanlineOffset = srcBandOffsets[srcBand];
-
-        int destLineDelta = 0;
-        for (int j = 0; j < destHeight; j++, destY++) {
-            int srcPixelOffset = srcScanlineOffset;
-
-            int destPixelDelta = 0;
-            for (int i = 0; i < destWidth; i++, destX++) {
-                int numSamples = 0;
-                if (!maskDest || roi.contains(destX, destY)) {
-                    int srcY = destY - kernelKeyY;
-                    int kernelVerticalOffset = 0;
-                    int imageVerticalOffset = srcPixelOffset;
-
-                    for (int u = 0; u < kernelH; u++, srcY++) {
-                        int srcX = destX - kernelKeyX;
-                        int imageOffset = imageVerticalOffset;
-
-                        for (int v = 0; v < kernelW; v++, srcX++) {
-                            if (!maskSrc || roi.contains(srcX, srcY)) {
-                                if (inKernel[kernelVerticalOffset + v]) {
-                                    sampleData[numSamples++] = (double) srcBandData[imageOffset];
-                                }
-                            }
-                            imageOffset += srcPixelStride;
-                        }
-                        kernelVerticalOffset += kernelW;
-                        imageVerticalOffset += srcScanlineStride;
-                    }
+                    break;
                 }
 
-                for (int band = 0; band < destBands; band++) {
-                    short destBandData[] = destData[band];
-                    int dstPixelOffset = destBandOffsets[band] + destPixelDelta + destLineDelta;
-
-                    int val = nilValue.shortValue();
-                    if (numSamples > 0) {
-                        double statValue = functionTable.call(stats[band], sampleData, numSamples);
+                case DataBuffer.TYPE_SHORT: {
+                    short[] data = destAcc.getShortDataArray(band);
+                    int nil = nilValue.shortValue();
+                    for (int i = 0; i < destWidth; i++, offset += destPixelStride) {
+                        int val = nil;
+                        double statValue = bandResults[i];
                         if (!Double.isNaN(statValue)) {
                             val = (int) (statValue + 0.5);
                             if (val < Short.MIN_VALUE) {
@@ -395,67 +409,17 @@ public class KernelStatsOpImage extends AreaOpImage {
                                 val = Short.MAX_VALUE;
                             }
                         }
+                        data[offset] = (short) val;
                     }
-
-                    destBandData[dstPixelOffset] = (short) val;
-                }
-
-                srcPixelOffset += srcPixelStride;
-                destPixelDelta += destPixelStride;
-            }
-
-            srcScanlineOffset += srcScanlineStride;
-            destLineDelta += destScanlineStride;
-        }
-    }
-
-    private void calcUShortData(RasterAccessor srcAcc, RasterAccessor destAcc) {
-
-        short destData[][] = destAcc.getShortDataArrays();
-        short srcData[][] = srcAcc.getShortDataArrays();
-
-        int destY = destAcc.getY();
-        int destX = destAcc.getX();
-
-        short srcBandData[] = srcData[srcBand];
-        int srcScanlineOffset = srcBandOffsets[srcBand];
-
-        int destLineDelta = 0;
-        for (int j = 0; j < destHeight; j++, destY++) {
-            int srcPixelOffset = srcScanlineOffset;
-
-            int destPixelDelta = 0;
-            for (int i = 0; i < destWidth; i++, destX++) {
-                int numSamples = 0;
-                if (!maskDest || roi.contains(destX, destY)) {
-                    int srcY = destY - kernelKeyY;
-                    int kernelVerticalOffset = 0;
-                    int imageVerticalOffset = srcPixelOffset;
-
-                    for (int u = 0; u < kernelH; u++, srcY++) {
-                        int srcX = destX - kernelKeyX;
-                        int imageOffset = imageVerticalOffset;
-
-                        for (int v = 0; v < kernelW; v++, srcX++) {
-                            if (!maskSrc || roi.contains(srcX, srcY)) {
-                                if (inKernel[kernelVerticalOffset + v]) {
-                                    sampleData[numSamples++] = (double) (srcBandData[imageOffset] & 0xffff);
-                                }
-                            }
-                            imageOffset += srcPixelStride;
-                        }
-                        kernelVerticalOffset += kernelW;
-                        imageVerticalOffset += srcScanlineStride;
-                    }
+                    break;
                 }
 
-                for (int band = 0; band < destBands; band++) {
-                    short destBandData[] = destData[band];
-                    int dstPixelOffset = destBandOffsets[band] + destPixelDelta + destLineDelta;
-
-                    int val = nilValue.shortValue();
-                    if (numSamples > 0) {
-                        double statValue = functionTable.call(stats[band], sampleData, numSamples);
+                case DataBuffer.TYPE_USHORT: {
+                    short[] data = destAcc.getShortDataArray(band);
+                    int nil = nilValue.shortValue();
+                    for (int i = 0; i < destWidth; i++, offset += destPixelStride) {
+                        int val = nil;
+                        double statValue = bandResults[i];
                         if (!Double.isNaN(statValue)) {
                             val = (int) (statValue + 0.5);
                             if (val < 0) {
@@ -464,271 +428,41 @@ public class KernelStatsOpImage extends AreaOpImage {
                                 val = 0xffff;
                             }
                         }
+                        data[offset] = (short) val;
                     }
-
-                    destBandData[dstPixelOffset] = (short) val;
+                    break;
                 }
 
-                srcPixelOffset += srcPixelStride;
-                destPixelDelta += destPixelStride;
-            }
-
-            srcScanlineOffset += srcScanlineStride;
-            destLineDelta += destScanlineStride;
-        }
-    }
-
-    private void calcIntData(RasterAccessor srcAcc, RasterAccessor destAcc) {
-
-        int destData[][] = destAcc.getIntDataArrays();
-        int srcData[][] = srcAcc.getIntDataArrays();
-        int destY = destAcc.getY();
-        int destX = destAcc.getX();
-
-        int srcBandData[] = srcData[srcBand];
-        int srcScanlineOffset = srcBandOffsets[srcBand];
-
-        int destLineDelta = 0;
-        for (int j = 0; j < destHeight; j++, destY++) {
-            int srcPixelOffset = srcScanlineOffset;
-
-            int destPixelDelta = 0;
-            for (int i = 0; i < destWidth; i++, destX++) {
-                int numSamples = 0;
-                if (!maskDest || roi.contains(destX, destY)) {
-                    int srcY = destY - kernelKeyY;
-                    int kernelVerticalOffset = 0;
-                    int imageVerticalOffset = srcPixelOffset;
-
-                    for (int u = 0; u < kernelH; u++, srcY++) {
-                        int srcX = destX - kernelKeyX;
-                        int imageOffset = imageVerticalOffset;
-
-                        for (int v = 0; v < kernelW; v++, srcX++) {
-                            if (!maskSrc || roi.contains(srcX, srcY)) {
-                                if (inKernel[kernelVerticalOffset + v]) {
-                                    sampleData[numSamples++] = (double) srcBandData[imageOffset];
-                                }
-                            }
-                            imageOffset += srcPixelStride;
-                        }
-                        kernelVerticalOffset += kernelW;
-                        imageVerticalOffset += srcScanlineStride;
+                case DataBuffer.TYPE_INT: {
+                    int[] data = destAcc.getIntDataArray(band);
+                    int nil = nilValue.intValue();
+                    for (int i = 0; i < destWidth; i++, offset += destPixelStride) {
+                        double statValue = bandResults[i];
+                        data[offset] = Double.isNaN(statValue) ? nil : (int) (statValue + 0.5);
                     }
+                    break;
                 }
 
-                for (int band = 0; band < destBands; band++) {
-                    int destBandData[] = destData[band];
-                    int dstPixelOffset = destBandOffsets[band] + destPixelDelta + destLineDelta;
-
-                    int val = nilValue.intValue();
-                    if (numSamples > 0) {
-                        double statValue = functionTable.call(stats[band], sampleData, numSamples);
-                        if (!Double.isNaN(statValue)) {
-                            val = (int) (statValue + 0.5);
-                        }
-                    }
-
-                    destBandData[dstPixelOffset] = val;
-                }
-
-                srcPixelOffset += srcPixelStride;
-                destPixelDelta += destPixelStride;
-            }
-
-            srcScanlineOffset += srcScanlineStride;
-            destLineDelta += destScanlineStride;
-        }
-    }
-
-    private void calcFloatData(RasterAccessor srcAcc, RasterAccessor destAcc) {
-
-        float destData[][] = destAcc.getFloatDataArrays();
-        float srcData[][] = srcAcc.getFloatDataArrays();
-        int destY = destAcc.getY();
-        int destX = destAcc.getX();
-
-        float srcBandData[] = srcData[srcBand];
-        int srcScanlineOffset = srcBandOffsets[srcBand];
-
-        int destLineDelta = 0;
-        for (int j = 0; j < destHeight; j++, destY++) {
-            int srcPixelOffset = srcScanlineOffset;
-
-            int destPixelDelta = 0;
-            for (int i = 0; i < destWidth; i++, destX++) {
-                int numSamples = 0;
-                if (!maskDest || roi.contains(destX, destY)) {
-                    int srcY = destY - kernelKeyY;
-                    int kernelVerticalOffset = 0;
-                    int imageVerticalOffset = srcPixelOffset;
-
-                    for (int u = 0; u < kernelH; u++, srcY++) {
-                        int srcX = destX - kernelKeyX;
-                        int imageOffset = imageVerticalOffset;
-
-                        for (int v = 0; v < kernelW; v++, srcX++) {
-                            if (!maskSrc || roi.contains(srcX, srcY)) {
-                                if (inKernel[kernelVerticalOffset + v]) {
-                                    sampleData[numSamples++] = (double) srcBandData[imageOffset];
-                                }
-                            }
-                            imageOffset += srcPixelStride;
-                        }
-                        kernelVerticalOffset += kernelW;
-                        imageVerticalOffset += srcScanlineStride;
+                case DataBuffer.TYPE_FLOAT: {
+                    float[] data = destAcc.getFloatDataArray(band);
+                    float nil = nilValue.floatValue();
+                    for (int i = 0; i < destWidth; i++, offset += destPixelStride) {
+                        double statValue = bandResults[i];
+                        data[offset] = Double.isNaN(statValue) ? nil : (float) statValue;
                     }
+                    break;
                 }
 
-                for (int band = 0; band < destBands; band++) {
-                    float destBandData[] = destData[band];
-                    int dstPixelOffset = destBandOffsets[band] + destPixelDelta + destLineDelta;
-
-                    float val = nilValue.floatValue();
-                    if (numSamples > 0) {
-                        double statValue = functionTable.call(stats[band], sampleData, numSamples);
-                        if (!Double.isNaN(statValue)) {
-                            val = (float) statValue;
-                        }
+                case DataBuffer.TYPE_DOUBLE: {
+                    double[] data = destAcc.getDoubleDataArray(band);
+                    double nil = nilValue.doubleValue();
+                    for (int i = 0; i < destWidth; i++, offset += destPixelStride) {
+                        double statValue = bandResults[i];
+                        data[offset] = Double.isNaN(statValue) ? nil : statValue;
                     }
-
-                    destBandData[dstPixelOffset] = val;
+                    break;
                 }
-
-                srcPixelOffset += srcPixelStride;
-                destPixelDelta += destPixelStride;
-            }
-
-            srcScanlineOffset += srcScanlineStride;
-            destLineDelta += destScanlineStride;
-        }
-    }
-
-    private void calcDoubleData(RasterAccessor srcAcc, RasterAccessor destAcc) {
-
-        double destData[][] = destAcc.getDoubleDataArrays();
-        double srcData[][] = srcAcc.getDoubleDataArrays();
-        int destY = destAcc.getY();
-        int destX = destAcc.getX();
-
-        double srcBandData[] = srcData[srcBand];
-        int srcScanlineOffset = srcBandOffsets[srcBand];
-
-        int destLineDelta = 0;
-        for (int j = 0; j < destHeight; j++, destY++) {
-            int srcPixelOffset = srcScanlineOffset;
-
-            int destPixelDelta = 0;
-            for (int i = 0; i < destWidth; i++, destX++) {
-                int numSamples = 0;
-                if (!maskDest || roi.contains(destX, destY)) {
-                    int srcY = destY - kernelKeyY;
-                    int kernelVerticalOffset = 0;
-                    int imageVerticalOffset = srcPixelOffset;
-
-                    for (int u = 0; u < kernelH; u++, srcY++) {
-                        int srcX = destX - kernelKeyX;
-                        int imageOffset = imageVerticalOffset;
-
-                        for (int v = 0; v < kernelW; v++, srcX++) {
-                            if (!maskSrc || roi.contains(srcX, srcY)) {
-                                if (inKernel[kernelVerticalOffset + v]) {
-                                    sampleData[numSamples++] = srcBandData[imageOffset];
-                                }
-                            }
-                            imageOffset += srcPixelStride;
-                        }
-                        kernelVerticalOffset += kernelW;
-                        imageVerticalOffset += srcScanlineStride;
-                    }
-                }
-
-                for (int band = 0; band < destBands; band++) {
-                    double destBandData[] = destData[band];
-                    int dstPixelOffset = destBandOffsets[band] + destPixelDelta + destLineDelta;
-
-                    double val = nilValue.doubleValue();
-                    if (numSamples > 0) {
-                        double statValue = functionTable.call(stats[band], sampleData, numSamples);
-                        if (!Double.isNaN(statValue)) {
-                            val = statValue;
-                        }
-                    }
-
-                    destBandData[dstPixelOffset] = val;
-                }
-
-                srcPixelOffset += srcPixelStride;
-                destPixelDelta += destPixelStride;
-            }
-
-            srcScanlineOffset += srcScanlineStride;
-            destLineDelta += destScanlineStride;
-        }
-    }
-
-
-    /**
-     * This class handles preparation of sample data, passing calculation tasks
-     * to {@linkplain jaitools.utils.SampleStats} methods, and returning results
-     */
-    private static class Calculator {
-
-        private boolean ignoreNaN;
-
-        /**
-         * Constructor
-         * @param ignoreNaN specifies how to respond to NaN values
-         */
-        Calculator(boolean ignoreNaN) {
-            this.ignoreNaN = ignoreNaN;
-        }
-
-        /**
-         * Calculate the specified statistic on sample data
-         * @param stat the {@linkplain Statistic} constant for the desired statistic
-         * @param data the sample data
-         * @param n number of elements to use from the sample data array
-         * @return value of the statistic as a double (may be NaN)
-         */
-        public double call(Statistic stat, Double[] data, int n) {
-            Double[] values = null;
-            if (data.length == n) {
-                values = data;
-            } else {
-                values = new Double[n];
-                System.arraycopy(data, 0, values, 0, n);
-            }
-
-            switch (stat) {
-                case MAX:
-                    return SampleStats.max(values, ignoreNaN);
-
-                case MEAN:
-                    return SampleStats.mean(values, ignoreNaN);
-
-                case MEDIAN:
-                    return SampleStats.median(values, ignoreNaN);
-
-                case MIN:
-                    return SampleStats.min(values, ignoreNaN);
-
-                case RANGE:
-                    return SampleStats.range(values, ignoreNaN);
-
-                case SDEV:
-                    return SampleStats.sdev(values, ignoreNaN);
-                
-                case VARIANCE:
-                    return SampleStats.variance(values, ignoreNaN);
-
-                case SUM:
-                    return SampleStats.sum(values, ignoreNaN);
-
-                default:
-                throw new IllegalArgumentException("Unrecognized KernelStatstic arg");
             }
         }
     }
 }
-
@@ -0,0 +1,633 @@
+/* 
+ *  Copyright (c) 2013, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+
+package org.jaitools.media.jai.kernelstats;
+
+import java.util.Arrays;
+
+import org.jaitools.numeric.Statistic;
+
+
+/**
+ * Maintains running statistics for a kernel neighbourhood as it slides along
+ * a row of the destination image. Used by {@link KernelStatsOpImage}.
+ * <p>
+ * Each kernel row is broken into runs of adjacent kernel cells. When the 
+ * kernel moves one pixel to the right, each run loses one source value at 
+ * its left end and gains one at its right end, so the work per pixel is
+ * proportional to the kernel height rather than the number of kernel cells:
+ * <ul>
+ * <li> count, sum and sum of squares are updated incrementally for 
+ *      MEAN, SUM, VARIANCE and SDEV
+ * <li> each run has a monotonic deque of positions for MIN, MAX and RANGE
+ * <li> MEDIAN uses a two-level histogram of counts when the source
+ *      image has byte, short or ushort data; otherwise a sorted array of 
+ *      the values in the neighbourhood
+ * </ul>
+ * 
+ * Source values are supplied as a {@code double} array for the source 
+ * rectangle of the tile being computed, together with an optional mask 
+ * of the values to use.
+ *
+ * @author Michael Bedward
+ * @since 1.5
+ * @version $Id$
+ */
+class KernelWindow {
+    
+    private final boolean ignoreNaN;
+
+    /* Runs of adjacent kernel cells */
+    private final int numRuns;
+    private final int[] runRow;
+    private final int[] runStart;
+    private final int[] runEnd;
+
+    private final boolean needMin;
+    private final boolean needMax;
+    private final MonotoneDeque[] minDeques;
+    private final MonotoneDeque[] maxDeques;
+    private final MedianTracker median;
+
+    /* Source values */
+    private double[] data;
+    private boolean[] included;
+    private int dataWidth;
+
+    /* Current kernel position relative to the source data */
+    private boolean active;
+    private int row;
+    private int col;
+
+    /* Running values */
+    private int numSamples;
+    private int numNaN;
+    private int numPosInf;
+    private int numNegInf;
+    private boolean hasShift;
+    private double shift;
+    private double sum;
+    private double sumSq;
+
+
+    /**
+     * Creates a new instance.
+     * 
+     * @param inKernel kernel cells (row-major) that are part of the neighbourhood
+     * @param kernelW kernel width
+     * @param kernelH kernel height
+     * @param stats the statistics that will be requested
+     * @param ignoreNaN whether to ignore NaN values
+     * @param medianMinValue minimum source value if a histogram is to be used 
+     *     for the median
+     * @param medianNumValues number of possible source values if a histogram is
+     *     to be used for the median; or 0 to use a sorted array
+     * 
+     * @throws IllegalArgumentException if any of the statistics is not supported
+     */
+    KernelWindow(boolean[] inKernel, int kernelW, int kernelH, Statistic[] stats,
+            boolean ignoreNaN, int medianMinValue, int medianNumValues) {
+        
+        this.ignoreNaN = ignoreNaN;
+        
+        int n = 0;
+        int kernelN = 0;
+        for (int u = 0; u < kernelH; u++) {
+            for (int v = 0; v < kernelW; v++) {
+                if (inKernel[u * kernelW + v]) {
+                    kernelN++ ;
+                    if (v == 0 || !inKernel[u * kernelW + v - 1]) {
+                        n++ ;
+                    }
+                }
+            }
+        }
+        
+        numRuns = n;
+        runRow = new int[n];
+        runStart = new int[n];
+        runEnd = new int[n];
+        
+        int k = 0;
+        for (int u = 0; u < kernelH; u++) {
+            int v = 0;
+            while (v < kernelW) {
+                if (inKernel[u * kernelW + v]) {
+                    runRow[k] = u;
+                    runStart[k] = v;
+                    while (v < kernelW && inKernel[u * kernelW + v]) {
+                        v++ ;
+                    }
+                    runEnd[k] = v - 1;
+                    k++ ;
+                } else {
+                    v++ ;
+                }
+            }
+        }
+        
+        boolean min = false;
+        boolean max = false;
+        boolean med = false;
+        for (Statistic stat : stats) {
+            switch (stat) {
+                case MIN:
+                    min = true;
+                    break;
+                    
+                case MAX:
+                    max = true;
+                    break;
+                    
+                case RANGE:
+                    min = max = true;
+                    break;
+                    
+                case MEDIAN:
+                    med = true;
+                    break;
+                    
+                case MEAN:
+                case SDEV:
+                case SUM:
+                case VARIANCE:
+                    break;
+                    
+                default:
+                    throw new IllegalArgumentException("Unsupported statistic: " + stat);
+            }
+        }
+        
+        needMin = min;
+        needMax = max;
+        minDeques = min ? createDeques() : null;
+        maxDeques = max ? createDeques() : null;
+        
+        if (!med) {
+            median = null;
+        } else if (medianNumValues > 0) {
+            median = new HistogramMedian(medianMinValue, medianNumValues);
+        } else {
+            median = new SortedMedian(kernelN);
+        }
+    }
+
+    private MonotoneDeque[] createDeques() {
+        MonotoneDeque[] deques = new MonotoneDeque[numRuns];
+        for (int k = 0; k < numRuns; k++) {
+            deques[k] = new MonotoneDeque(runEnd[k] - runStart[k] + 1);
+        }
+        return deques;
+    }
+
+    /**
+     * Sets the source values. Any previous kernel position is discarded.
+     * 
+     * @param data source values (row-major)
+     * @param included flags for the values that can be used, or {@code null}
+     *     to use all values
+     * @param dataWidth width of the source data
+     */
+    void setData(double[] data, boolean[] included, int dataWidth) {
+        clear();
+        this.data = data;
+        this.included = included;
+        this.dataWidth = dataWidth;
+    }
+
+    /**
+     * Positions the kernel at the start of a row, ie. with the kernel's 
+     * top-left cell at source data position (0, row).
+     * 
+     * @param row source data row
+     */
+    void startRow(int row) {
+        clear();
+        
+        this.row = row;
+        this.col = 0;
+        for (int k = 0; k < numRuns; k++) {
+            for (int v = runStart[k]; v <= runEnd[k]; v++) {
+                add(k, v);
+            }
+        }
+        active = true;
+    }
+
+    /**
+     * Moves the kernel one position to the right.
+     */
+    void slide() {
+        col++ ;
+        for (int k = 0; k < numRuns; k++) {
+            remove(k, col - 1 + runStart[k]);
+            
+            if (needMin) {
+                minDeques[k].expire(col + runStart[k]);
+            }
+            if (needMax) {
+                maxDeques[k].expire(col + runStart[k]);
+            }
+            
+            add(k, col + runEnd[k]);
+        }
+    }
+
+    /**
+     * Gets the value of a statistic for the current kernel position.
+     * 
+     * @param stat the statistic
+     * 
+     * @return the value or NaN if there is no result
+     */
+    double getStatistic(Statistic stat) {
+        if (numSamples == 0 || (numNaN > 0 && !ignoreNaN)) {
+            return Double.NaN;
+        }
+        
+        final int n = numSamples - numNaN;
+        final int numInf = numPosInf + numNegInf;
+        
+        switch (stat) {
+            case MEAN:
+                if (n == 0) {
+                    return Double.NaN;
+                } else if (numInf > 0) {
+                    return infiniteSum();
+                }
+                return shift + sum / n;
+                
+            case SUM:
+                if (numInf > 0) {
+                    return infiniteSum();
+                }
+                return n == 0 ? 0.0 : shift * n + sum;
+                
+            case VARIANCE:
+                return variance(n, numInf);
+                
+            case SDEV:
+                return Math.sqrt(variance(n, numInf));
+                
+            case MIN:
+                return n == 0 ? Double.NaN : min();
+                
+            case MAX:
+                return n == 0 ? Double.NaN : max();
+                
+            case RANGE:
+                return n == 0 ? Double.NaN : max() - min();
+                
+            case MEDIAN:
+                return n == 0 ? Double.NaN : median.get(n);
+                
+            default:
+                throw new IllegalArgumentException("Unsupported statistic: " + stat);
+        }
+    }
+
+    private double infiniteSum() {
+        if (numPosInf > 0 && numNegInf > 0) {
+            return Double.NaN;
+        }
+        return numPosInf > 0 ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY;
+    }
+
+    private double variance(int n, int numInf) {
+        if (numSamples < 2) {
+            return Double.NaN;
+        } else if (n == 1) {
+            return 0.0;
+        } else if (n == 0 || numInf > 0) {
+            return Double.NaN;
+        }
+        
+        double var = (sumSq - sum * sum / n) / (n - 1);
+        return var > 0 ? var : 0.0;
+    }
+
+    private double min() {
+        double value = Double.POSITIVE_INFINITY;
+        for (int k = 0; k < numRuns; k++) {
+            MonotoneDeque dq = minDeques[k];
+            if (!dq.isEmpty() && dq.front() < value) {
+                value = dq.front();
+            }
+        }
+        return value;
+    }
+
+    private double max() {
+        // max deques hold negated values
+        double value = Double.POSITIVE_INFINITY;
+        for (int k = 0; k < numRuns; k++) {
+            MonotoneDeque dq = maxDeques[k];
+            if (!dq.isEmpty() && dq.front() < value) {
+                value = dq.front();
+            }
+        }
+        return -value;
+    }
+
+    /**
+     * Adds the source value at the given column of a run's source row.
+     */
+    private void add(int run, int srcCol) {
+        final int index = (row + runRow[run]) * dataWidth + srcCol;
+        if (included != null && !included[index]) {
+            return;
+        }
+        
+        numSamples++ ;
+        final double value = data[index];
+        if (Double.isNaN(value)) {
+            numNaN++ ;
+            
+        } else {
+            if (Double.isInfinite(value)) {
+                if (value > 0) {
+                    numPosInf++ ;
+                } else {
+                    numNegInf++ ;
+                }
+            } else {
+                /*
+                 * Sums are of differences from the first value in the row
+                 * to limit loss of precision in the variance
+                 */
+                if (!hasShift) {
+                    shift = value;
+                    hasShift = true;
+                }
+                double d = value - shift;
+                sum += d;
+                sumSq += d * d;
+            }
+            
+            if (needMin) {
+                minDeques[run].push(srcCol, value);
+            }
+            if (needMax) {
+                maxDeques[run].push(srcCol, -value);
+            }
+            if (median != null) {
+                median.add(value);
+            }
+        }
+    }
+
+    /**
+     * Removes the source value at the given column of a run's source row.
+     * Deques are not updated here.
+     */
+    private void remove(int run, int srcCol) {
+        final int index = (row + runRow[run]) * dataWidth + srcCol;
+        if (included != null && !included[index]) {
+            return;
+        }
+        
+        numSamples-- ;
+        final double value = data[index];
+        if (Double.isNaN(value)) {
+            numNaN-- ;
+            
+        } else {
+            if (Double.isInfinite(value)) {
+                if (value > 0) {
+                    numPosInf-- ;
+                } else {
+                    numNegInf-- ;
+                }
+            } else {
+                double d = value - shift;
+                sum -= d;
+                sumSq -= d * d;
+            }
+            
+            if (median != null) {
+                median.remove(value);
+            }
+        }
+    }
+
+    /**
+     * Resets all running values.
+     */
+    private void clear() {
+        if (active) {
+            if (median != null) {
+                // remove the values individually so that the median 
+                // tracker does not have to be fully reset
+                for (int k = 0; k < numRuns; k++) {
+                    for (int v = runStart[k]; v <= runEnd[k]; v++) {
+                        remove(k, col + v);
+                    }
+                }
+            }
+            active = false;
+        }
+        
+        for (int k = 0; k < numRuns; k++) {
+            if (needMin) {
+                minDeques[k].clear();
+            }
+            if (needMax) {
+                maxDeques[k].clear();
+            }
+        }
+        
+        numSamples = numNaN = numPosInf = numNegInf = 0;
+        hasShift = false;
+        shift = sum = sumSq = 0.0;
+    }
+
+
+    /**
+     * A double-ended queue of (position, value) pairs in which values
+     * increase from front to back, giving the minimum value of a sliding 
+     * one-dimensional window.
+     */
+    private static class MonotoneDeque {
+        private final int capacity;
+        private final int[] positions;
+        private final double[] values;
+        private int head;
+        private int size;
+
+        MonotoneDeque(int capacity) {
+            this.capacity = capacity;
+            this.positions = new int[capacity];
+            this.values = new double[capacity];
+        }
+
+        void push(int pos, double value) {
+            while (size > 0 && values[(head + size - 1) % capacity] >= value) {
+                size-- ;
+            }
+            int tail = (head + size) % capacity;
+            positions[tail] = pos;
+            values[tail] = value;
+            size++ ;
+        }
+
+        void expire(int minPos) {
+            while (size > 0 && positions[head] < minPos) {
+                head = (head + 1) % capacity;
+                size-- ;
+            }
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        double front() {
+            return values[head];
+        }
+
+        void clear() {
+            head = size = 0;
+        }
+    }
+
+
+    /**
+     * Tracks the median of the non-NaN values in the neighbourhood.
+     */
+    private static abstract class MedianTracker {
+        abstract void add(double value);
+        abstract void remove(double value);
+        
+        /**
+         * Gets the median. As for {@code SampleStats.median}, the mean
+         * of the two central values is returned when n is even.
+         * 
+         * @param n number of values held
+         */
+        double get(int n) {
+            if (n % 2 == 1) {
+                return getOrdered(n / 2);
+            }
+            double result = getOrdered(n / 2 - 1);
+            result += getOrdered(n / 2);
+            return result / 2;
+        }
+        
+        /**
+         * Gets the value at position k (0-based) in sorted order.
+         */
+        abstract double getOrdered(int k);
+    }
+
+
+    /**
+     * Median tracker for integral values in a limited range using counts 
+     * in fine bins (one per value) and coarse bins (blocks of fine bins).
+     */
+    private static class HistogramMedian extends MedianTracker {
+        private final int minValue;
+        private final int shift;
+        private final int[] fine;
+        private final int[] coarse;
+
+        HistogramMedian(int minValue, int numValues) {
+            this.minValue = minValue;
+            
+            int bits = 32 - Integer.numberOfLeadingZeros(numValues - 1);
+            this.shift = (bits + 1) / 2;
+            this.fine = new int[numValues];
+            this.coarse = new int[((numValues - 1) >> shift) + 1];
+        }
+
+        @Override
+        void add(double value) {
+            int bin = (int) value - minValue;
+            fine[bin]++ ;
+            coarse[bin >> shift]++ ;
+        }
+
+        @Override
+        void remove(double value) {
+            int bin = (int) value - minValue;
+            fine[bin]-- ;
+            coarse[bin >> shift]-- ;
+        }
+
+        @Override
+        double getOrdered(int k) {
+            int count = 0;
+            int c = 0;
+            while (count + coarse[c] <= k) {
+                count += coarse[c++];
+            }
+            
+            int bin = c << shift;
+            while (count + fine[bin] <= k) {
+                count += fine[bin++];
+            }
+            
+            return bin + minValue;
+        }
+    }
+
+
+    /**
+     * Median tracker that keeps the values in a sorted array.
+     */
+    private static class SortedMedian extends MedianTracker {
+        private final double[] values;
+        private int size;
+
+        SortedMedian(int capacity) {
+            this.values = new double[capacity];
+        }
+
+        @Override
+        void add(double value) {
+            int pos = Arrays.binarySearch(values, 0, size, value);
+            if (pos < 0) {
+                pos = -pos - 1;
+            }
+            System.arraycopy(values, pos, values, pos + 1, size - pos);
+            values[pos] = value;
+            size++ ;
+        }
+
+        @Override
+        void remove(double value) {
+            int pos = Arrays.binarySearch(values, 0, size, value);
+            if (pos >= 0) {
+                System.arraycopy(values, pos + 1, values, pos, size - pos - 1);
+                size-- ;
+            }
+        }
+
+        @Override
+        double getOrdered(int k) {
+            return values[k];
+        }
+    }
+}
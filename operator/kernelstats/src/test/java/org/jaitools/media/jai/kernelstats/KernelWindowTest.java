@@ -0,0 +1,214 @@
+/* 
+ *  Copyright (c) 2013, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+
+package org.jaitools.media.jai.kernelstats;
+
+import java.util.Random;
+
+import org.jaitools.numeric.SampleStats;
+import org.jaitools.numeric.Statistic;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for KernelWindow. Results for each kernel position are compared
+ * to those from {@code SampleStats} methods applied to the neighbourhood values.
+ *
+ * @author Michael Bedward
+ * @since 1.5
+ * @version $Id$
+ */
+public class KernelWindowTest {
+    
+    private static final double TOL = 1.0e-8;
+    
+    private static final Statistic[] STATS = {
+        Statistic.MEAN, Statistic.SUM, Statistic.VARIANCE, Statistic.SDEV,
+        Statistic.MIN, Statistic.MAX, Statistic.RANGE, Statistic.MEDIAN
+    };
+    
+    private static final int WIDTH = 40;
+    private static final int HEIGHT = 30;
+    
+    private final Random rand = new Random(42);
+
+    @Test
+    public void rectangularKernel() {
+        System.out.println("   rectangular kernel");
+        boolean[] kernel = new boolean[5 * 3];
+        java.util.Arrays.fill(kernel, true);
+        
+        double[] data = createData(false, false);
+        assertWindowMatches(kernel, 5, 3, data, null, true, 0, 0);
+    }
+
+    @Test
+    public void circularKernelWithNaN() {
+        System.out.println("   circular kernel with NaN values");
+        boolean[] kernel = createCircle(3);
+        double[] data = createData(true, false);
+        
+        assertWindowMatches(kernel, 7, 7, data, null, true, 0, 0);
+        assertWindowMatches(kernel, 7, 7, data, null, false, 0, 0);
+    }
+
+    @Test
+    public void irregularKernelWithMask() {
+        System.out.println("   irregular kernel with source mask");
+        boolean[] kernel = {
+            true, false, true, true,
+            false, true, false, true,
+            true, true, true, false
+        };
+        
+        double[] data = createData(false, false);
+        boolean[] mask = new boolean[data.length];
+        for (int i = 0; i < mask.length; i++) {
+            mask[i] = rand.nextDouble() < 0.7;
+        }
+        
+        assertWindowMatches(kernel, 4, 3, data, mask, true, 0, 0);
+    }
+
+    @Test
+    public void histogramMedian() {
+        System.out.println("   median with byte and short values");
+        boolean[] kernel = createCircle(2);
+        
+        double[] data = createData(false, true);
+        assertWindowMatches(kernel, 5, 5, data, null, true, 0, 256);
+        
+        for (int i = 0; i < data.length; i++) {
+            data[i] = rand.nextInt(1 << 16) + Short.MIN_VALUE;
+        }
+        assertWindowMatches(kernel, 5, 5, data, null, true, Short.MIN_VALUE, 1 << 16);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void unsupportedStatistic() {
+        System.out.println("   unsupported statistic");
+        new KernelWindow(new boolean[] {true}, 1, 1, 
+                new Statistic[] {Statistic.APPROX_MEDIAN}, true, 0, 0);
+    }
+
+    private void assertWindowMatches(boolean[] kernel, int kw, int kh, 
+            double[] data, boolean[] mask, boolean ignoreNaN, 
+            int medianMinValue, int medianNumValues) {
+        
+        KernelWindow window = new KernelWindow(kernel, kw, kh, STATS, ignoreNaN, 
+                medianMinValue, medianNumValues);
+        window.setData(data, mask, WIDTH);
+        
+        for (int y = 0; y <= HEIGHT - kh; y++) {
+            window.startRow(y);
+            for (int x = 0; x <= WIDTH - kw; x++) {
+                if (x > 0) {
+                    window.slide();
+                }
+                
+                Double[] values = getValues(kernel, kw, kh, data, mask, x, y);
+                for (Statistic stat : STATS) {
+                    double expected = getExpected(stat, values, ignoreNaN);
+                    double tol = TOL * Math.max(1.0, Math.abs(expected));
+                    assertEquals(stat + " at " + x + "," + y, 
+                            expected, window.getStatistic(stat), tol);
+                }
+            }
+        }
+    }
+    
+    private double getExpected(Statistic stat, Double[] values, boolean ignoreNaN) {
+        int numNaN = 0;
+        for (Double value : values) {
+            if (value.isNaN()) numNaN++ ;
+        }
+        
+        if (values.length == 0 || (numNaN > 0 && !ignoreNaN)) {
+            return Double.NaN;
+        }
+        
+        if (numNaN == values.length) {
+            return stat == Statistic.SUM ? 0.0 : Double.NaN;
+        }
+        
+        switch (stat) {
+            case MEAN: return SampleStats.mean(values, true);
+            case SUM: return SampleStats.sum(values, true);
+            case VARIANCE: return SampleStats.variance(values, true);
+            case SDEV: return SampleStats.sdev(values, true);
+            case MIN: return SampleStats.min(values, true);
+            case MAX: return SampleStats.max(values, true);
+            case RANGE: return SampleStats.range(values, true);
+            case MEDIAN: return SampleStats.median(values, true);
+            default: throw new IllegalArgumentException();
+        }
+    }
+
+    private Double[] getValues(boolean[] kernel, int kw, int kh, 
+            double[] data, boolean[] mask, int x, int y) {
+        
+        int n = 0;
+        Double[] buf = new Double[kw * kh];
+        for (int u = 0; u < kh; u++) {
+            for (int v = 0; v < kw; v++) {
+                int index = (y + u) * WIDTH + x + v;
+                if (kernel[u * kw + v] && (mask == null || mask[index])) {
+                    buf[n++] = data[index];
+                }
+            }
+        }
+        
+        Double[] values = new Double[n];
+        System.arraycopy(buf, 0, values, 0, n);
+        return values;
+    }
+
+    private double[] createData(boolean withNaN, boolean integral) {
+        double[] data = new double[WIDTH * HEIGHT];
+        for (int i = 0; i < data.length; i++) {
+            if (integral) {
+                data[i] = rand.nextInt(256);
+            } else if (withNaN && rand.nextDouble() < 0.1) {
+                data[i] = Double.NaN;
+            } else {
+                data[i] = 100 * rand.nextDouble() - 50;
+            }
+        }
+        return data;
+    }
+
+    private boolean[] createCircle(int radius) {
+        int w = 2 * radius + 1;
+        boolean[] kernel = new boolean[w * w];
+        for (int y = -radius, k = 0; y <= radius; y++) {
+            for (int x = -radius; x <= radius; x++, k++) {
+                kernel[k] = x * x + y * y <= radius * radius;
+            }
+        }
+        return kernel;
+    }
+}
@@ -0,0 +1,341 @@
+/* 
+ *  Copyright (c) 2013, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+
+package org.jaitools.media.jai.maskedconvolve;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Correlates using fast Fourier transforms with the overlap-save method.
+ * The source array is processed in square-ish blocks whose sides are powers
+ * of two, each yielding {@code (n - kernelW + 1) * (m - kernelH + 1)} 
+ * destination values. Since source values are real, two blocks are packed
+ * into the real and imaginary parts of each complex transform.
+ * <p>
+ * The rounding error of each sum scales with the largest absolute value in
+ * the whole block rather than with the values under the kernel, so a single
+ * large value (eg. an undeclared fill value) can swamp the results for other
+ * positions in its block. Callers should use {@link #getErrorBound} to 
+ * decide whether each result is accurate enough.
+ *
+ * @author Michael Bedward
+ * @since 1.5
+ * @version $Id$
+ */
+final class FFTCorrelator extends KernelCorrelator {
+    
+    /* 
+     * Preferred block side as a multiple of the kernel side. Larger blocks
+     * waste less of each transform on overlap but cost more per value.
+     */
+    private static final int BLOCK_FACTOR = 4;
+    
+    /* Smallest block side */
+    private static final int MIN_BLOCK_SIZE = 32;
+
+    private final double[] weights;
+    
+    /* Sum of absolute kernel weights */
+    private final double weightsL1;
+    
+    /* Kernel spectra for each block size used so far */
+    private final Map<Long, Spectrum> spectra;
+
+    /**
+     * Creates a new correlator.
+     * 
+     * @param data kernel values (row-major)
+     * @param active flags for the active kernel cells
+     * @param w kernel width
+     * @param h kernel height
+     */
+    FFTCorrelator(float[] data, boolean[] active, int w, int h) {
+        super(w, h);
+        weights = new double[w * h];
+        double l1 = 0;
+        for (int k = 0; k < weights.length; k++) {
+            weights[k] = active[k] ? data[k] : 0;
+            l1 += Math.abs(weights[k]);
+        }
+        weightsL1 = l1;
+        spectra = new HashMap<Long, Spectrum>();
+    }
+
+    @Override
+    void correlate(double[] src, int srcW, int srcH, double[] dest) {
+        final int destW = srcW - kernelW + 1;
+        final int destH = srcH - kernelH + 1;
+        
+        final int nx = getBlockSize(srcW, kernelW);
+        final int ny = getBlockSize(srcH, kernelH);
+        final Spectrum spectrum = getSpectrum(nx, ny);
+        
+        final int blockW = nx - kernelW + 1;
+        final int blockH = ny - kernelH + 1;
+        final int numBlocksX = (destW + blockW - 1) / blockW;
+        final int numBlocks = numBlocksX * ((destH + blockH - 1) / blockH);
+        
+        final double[] re = new double[nx * ny];
+        final double[] im = new double[nx * ny];
+        
+        for (int b = 0; b < numBlocks; b += 2) {
+            int x0 = (b % numBlocksX) * blockW;
+            int y0 = (b / numBlocksX) * blockH;
+            copyBlock(src, srcW, srcH, x0, y0, re, nx, ny);
+            
+            int x1 = 0, y1 = 0;
+            boolean pair = b + 1 < numBlocks;
+            if (pair) {
+                x1 = ((b + 1) % numBlocksX) * blockW;
+                y1 = ((b + 1) / numBlocksX) * blockH;
+                copyBlock(src, srcW, srcH, x1, y1, im, nx, ny);
+            } else {
+                for (int k = 0; k < im.length; k++) {
+                    im[k] = 0;
+                }
+            }
+            
+            spectrum.transform(re, im, false);
+            
+            // multiply by the conjugate of the kernel spectrum
+            final double[] kre = spectrum.kernelRe;
+            final double[] kim = spectrum.kernelIm;
+            for (int k = 0; k < re.length; k++) {
+                double a = re[k];
+                double c = im[k];
+                re[k] = a * kre[k] + c * kim[k];
+                im[k] = c * kre[k] - a * kim[k];
+            }
+            
+            spectrum.transform(re, im, true);
+            
+            copyResult(re, nx, x0, y0, blockW, blockH, dest, destW, destH);
+            if (pair) {
+                copyResult(im, nx, x1, y1, blockW, blockH, dest, destW, destH);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * The bound is {@code maxAbs * L1 * n * log2(n) * eps}, where L1 is the
+     * sum of absolute kernel weights, n is the number of elements in a
+     * transform block and eps is the unit roundoff of double precision.
+     */
+    @Override
+    double getErrorBound(double maxAbs, int srcW, int srcH) {
+        double n = (double) getBlockSize(srcW, kernelW) * getBlockSize(srcH, kernelH);
+        double log2n = Math.log(n) / Math.log(2);
+        return maxAbs * weightsL1 * n * Math.max(1, log2n) * Math.ulp(1.0);
+    }
+
+    @Override
+    KernelCorrelator createCounter() {
+        float[] ones = new float[weights.length];
+        boolean[] active = new boolean[weights.length];
+        for (int k = 0; k < weights.length; k++) {
+            active[k] = weights[k] != 0;
+            ones[k] = 1;
+        }
+        return new FFTCorrelator(ones, active, kernelW, kernelH);
+    }
+
+    /**
+     * Chooses the block side for a source dimension.
+     */
+    private static int getBlockSize(int srcSize, int kernelSize) {
+        int preferred = nextPowerOfTwo(Math.max(BLOCK_FACTOR * kernelSize, MIN_BLOCK_SIZE));
+        return Math.min(preferred, nextPowerOfTwo(srcSize));
+    }
+
+    private static int nextPowerOfTwo(int n) {
+        int p = 1;
+        while (p < n) {
+            p <<= 1;
+        }
+        return p;
+    }
+
+    /**
+     * Copies a block of source values, padding with zeroes where the block
+     * extends past the source bounds.
+     */
+    private static void copyBlock(double[] src, int srcW, int srcH, int x0, int y0,
+            double[] block, int nx, int ny) {
+        
+        final int w = Math.min(nx, srcW - x0);
+        final int h = Math.min(ny, srcH - y0);
+        for (int y = 0; y < ny; y++) {
+            int blockOffset = y * nx;
+            int x = 0;
+            if (y < h) {
+                System.arraycopy(src, (y0 + y) * srcW + x0, block, blockOffset, w);
+                x = w;
+            }
+            for ( ; x < nx; x++) {
+                block[blockOffset + x] = 0;
+            }
+        }
+    }
+
+    /**
+     * Copies the valid part of a transformed block to the destination.
+     */
+    private static void copyResult(double[] block, int nx, int x0, int y0,
+            int blockW, int blockH, double[] dest, int destW, int destH) {
+        
+        final int w = Math.min(blockW, destW - x0);
+        final int h = Math.min(blockH, destH - y0);
+        for (int y = 0; y < h; y++) {
+            System.arraycopy(block, y * nx, dest, (y0 + y) * destW + x0, w);
+        }
+    }
+
+    /**
+     * Gets (creating if necessary) the kernel spectrum for a block size.
+     */
+    private Spectrum getSpectrum(int nx, int ny) {
+        Long key = Long.valueOf(((long) nx << 32) | ny);
+        synchronized (spectra) {
+            Spectrum s = spectra.get(key);
+            if (s == null) {
+                s = new Spectrum(nx, ny);
+                spectra.put(key, s);
+            }
+            return s;
+        }
+    }
+
+    /**
+     * Transforms for a given block size together with the kernel spectrum.
+     * Instances are read-only once constructed.
+     */
+    private final class Spectrum {
+        final FFT fftX;
+        final FFT fftY;
+        final double[] kernelRe;
+        final double[] kernelIm;
+
+        Spectrum(int nx, int ny) {
+            fftX = new FFT(nx);
+            fftY = new FFT(ny);
+            kernelRe = new double[nx * ny];
+            kernelIm = new double[nx * ny];
+            for (int u = 0; u < kernelH; u++) {
+                System.arraycopy(weights, u * kernelW, kernelRe, u * nx, kernelW);
+            }
+            transform(kernelRe, kernelIm, false);
+        }
+
+        /**
+         * Two dimensional transform of a block in place: rows then columns.
+         * The inverse transform includes scaling.
+         */
+        void transform(double[] re, double[] im, boolean inverse) {
+            final int nx = fftX.n;
+            final int ny = fftY.n;
+            
+            for (int y = 0; y < ny; y++) {
+                fftX.transform(re, im, y * nx, 1, inverse);
+            }
+            for (int x = 0; x < nx; x++) {
+                fftY.transform(re, im, x, nx, inverse);
+            }
+            
+            if (inverse) {
+                final double scale = 1.0 / (nx * ny);
+                for (int k = 0; k < re.length; k++) {
+                    re[k] *= scale;
+                    im[k] *= scale;
+                }
+            }
+        }
+    }
+
+    /**
+     * Radix-2 complex FFT of a fixed length with precomputed tables.
+     */
+    private static final class FFT {
+        final int n;
+        final int[] reversed;
+        final double[] cos;
+        final double[] sin;
+
+        FFT(int n) {
+            this.n = n;
+            reversed = new int[n];
+            int bits = Integer.numberOfTrailingZeros(n);
+            for (int i = 0; i < n; i++) {
+                reversed[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+            }
+            cos = new double[n / 2];
+            sin = new double[n / 2];
+            for (int i = 0; i < n / 2; i++) {
+                double angle = -2 * Math.PI * i / n;
+                cos[i] = Math.cos(angle);
+                sin[i] = Math.sin(angle);
+            }
+        }
+
+        /**
+         * Transforms, in place, the n elements starting at {@code offset}
+         * and spaced by {@code stride}. The inverse transform is unscaled.
+         */
+        void transform(double[] re, double[] im, int offset, int stride, boolean inverse) {
+            for (int i = 0; i < n; i++) {
+                int j = reversed[i];
+                if (j > i) {
+                    int a = offset + i * stride;
+                    int b = offset + j * stride;
+                    double t = re[a]; re[a] = re[b]; re[b] = t;
+                    t = im[a]; im[a] = im[b]; im[b] = t;
+                }
+            }
+            
+            final double sign = inverse ? -1 : 1;
+            for (int len = 2; len <= n; len <<= 1) {
+                final int half = len >> 1;
+                final int step = n / len;
+                for (int start = 0; start < n; start += len) {
+                    for (int k = 0; k < half; k++) {
+                        double wr = cos[k * step];
+                        double wi = sign * sin[k * step];
+                        int a = offset + (start + k) * stride;
+                        int b = a + half * stride;
+                        double tr = re[b] * wr - im[b] * wi;
+                        double ti = re[b] * wi + im[b] * wr;
+                        re[b] = re[a] - tr;
+                        im[b] = im[a] - ti;
+                        re[a] += tr;
+                        im[a] += ti;
+                    }
+                }
+            }
+        }
+    }
+    
+}
@@ -0,0 +1,95 @@
+/* 
+ *  Copyright (c) 2013, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+
+package org.jaitools.media.jai.maskedconvolve;
+
+/**
+ * Base class for the fast convolution methods used by 
+ * {@code MaskedConvolveOpImage} with large kernels. A correlator calculates
+ * the kernel-weighted sum of source values for each kernel position lying
+ * wholly within a source array:
+ * <pre>
+ *   dest[j * destW + i] = sum over u, v of weight[u][v] * src[(j + u) * srcW + i + v]
+ * </pre>
+ * where {@code destW = srcW - kernelW + 1} and {@code destH = srcH - kernelH + 1}.
+ * Inactive kernel cells have zero weight.
+ *
+ * @author Michael Bedward
+ * @since 1.5
+ * @version $Id$
+ */
+abstract class KernelCorrelator {
+    
+    /** Kernel width. */
+    protected final int kernelW;
+    
+    /** Kernel height. */
+    protected final int kernelH;
+
+    /**
+     * Creates a new correlator.
+     * 
+     * @param kernelW kernel width
+     * @param kernelH kernel height
+     */
+    protected KernelCorrelator(int kernelW, int kernelH) {
+        this.kernelW = kernelW;
+        this.kernelH = kernelH;
+    }
+
+    /**
+     * Calculates kernel-weighted sums over a source array.
+     * 
+     * @param src source values (row-major)
+     * @param srcW source width
+     * @param srcH source height
+     * @param dest destination array for sums, of length 
+     *     {@code (srcW - kernelW + 1) * (srcH - kernelH + 1)}
+     */
+    abstract void correlate(double[] src, int srcW, int srcH, double[] dest);
+
+    /**
+     * Gets an upper bound on the absolute error of the sums calculated by 
+     * {@link #correlate(double[], int, int, double[])}, beyond that of 
+     * summing directly in double precision.
+     * 
+     * @param maxAbs the largest absolute source value
+     * @param srcW source width
+     * @param srcH source height
+     * 
+     * @return the error bound (zero if no worse than direct summation)
+     */
+    abstract double getErrorBound(double maxAbs, int srcW, int srcH);
+
+    /**
+     * Creates a correlator of the same type which counts active kernel 
+     * cells, ie. with a weight of 1 for each active cell.
+     * 
+     * @return a new correlator
+     */
+    abstract KernelCorrelator createCounter();
+    
+}
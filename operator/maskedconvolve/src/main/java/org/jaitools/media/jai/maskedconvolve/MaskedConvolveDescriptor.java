@@ -56,7 +56,16 @@ import org.jaitools.numeric.Range;
  * is required it is better to use the standard "Convolve" operator as it will
  * be faster.
  * <p>
- * 
+ *
+ * Separable kernels (those which are the product of a column vector and a row vector,
+ * such as box and Gaussian kernels) are convolved as two 1-D passes. Other large kernels
+ * are convolved using fast Fourier transforms when neither source masking nor strict
+ * NO_DATA handling is in effect and the destination type is not double. The method is
+ * chosen automatically. FFT results whose error bound (which grows with the largest
+ * source value in the tile) could reach the rounding granularity of the result are
+ * recalculated directly.
+ * <p>
+ *
  * With this operator, a given destination pixel will have a <i>nil</i> result if any
  * of the following are true:
  * <ul>
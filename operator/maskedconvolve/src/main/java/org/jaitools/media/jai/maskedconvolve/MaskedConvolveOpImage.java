@@ -43,7 +43,8 @@ import javax.media.jai.RasterAccessor;
 import javax.media.jai.RasterFormatTag;
 
 import org.jaitools.CollectionFactory;
-import org.jaitools.numeric.CompareOp;
+import org.jaitools.imageutils.ROIMask;
+import org.jaitools.numeric.NoDataSet;
 import org.jaitools.numeric.Range;
 
 /**
@@ -84,6 +85,30 @@ public class MaskedConvolveOpImage extends AreaOpImage {
      */
     public final static float KERNEL_TOL = 1.0e-6F;
 
+    /* Number of active kernel cells */
+    private final int numActiveCells;
+
+    /*
+     * Separable kernels with at least this many active cells are
+     * convolved as two 1-D passes
+     */
+    private static final int SEPARABLE_MIN_KERNEL_CELLS = 9;
+
+    /*
+     * Other kernels with at least this many active cells are convolved
+     * using FFTs when there is no source masking or strict NO_DATA handling
+     * and the destination is not double (whose precision FFT rounding
+     * would exceed)
+     */
+    private static final int FFT_MIN_KERNEL_CELLS = 49;
+
+    /* 
+     * Fast convolution method chosen for the kernel (or null for direct
+     * convolution) and its companion for counting active cells
+     */
+    private final KernelCorrelator correlator;
+    private final KernelCorrelator counter;
+
     /* ROI and options */
     private final ROI roi;
     private final boolean maskSrc;
@@ -93,10 +118,14 @@ public class MaskedConvolveOpImage extends AreaOpImage {
     private final boolean noDataDefined;
     /* Whether any NO_DATA values in a pixel neighbourhood prevent convolution */
     private final boolean strictNodata;
-    /* List of Numbers to treat as NO_DATA */
-    private final List<Double> noDataNumbers;
-    /* List of Ranges to treat as NO_DATA */
-    private final List<Range<Double>> noDataRanges;
+    /* NO_DATA values and ranges */
+    private final NoDataSet noData;
+    /* 
+     * NO_DATA flags for all values of the source data type (byte and short
+     * sources only)
+     */
+    private final boolean[] noDataLookup;
+    private final int noDataLookupType;
     /*
      * The value to write to the destination when there is no
      * convolution result
@@ -193,9 +222,11 @@ public class MaskedConvolveOpImage extends AreaOpImage {
 
         kernelData = kernel.getKernelData();
         kernelActive = new boolean[kernelData.length];
+        int numActive = 0;
         for (int i = 0; i < kernelData.length; i++) {
             if (Math.abs(kernelData[i]) > KERNEL_TOL) {
                 kernelActive[i] = true;
+                numActive++;
             } else {
                 kernelActive[i] = false;
             }
@@ -211,13 +242,13 @@ public class MaskedConvolveOpImage extends AreaOpImage {
         if (noDataValues != null && !noDataValues.isEmpty()) {
             noDataDefined = true;
             this.strictNodata = strictNodata;
-            noDataNumbers = CollectionFactory.list();
-            noDataRanges = CollectionFactory.list();
+            List<Double> noDataNumbers = CollectionFactory.list();
+            List<Range<Double>> noDataRanges = CollectionFactory.list();
 
             for (Object oelem : noDataValues) {
                 if (oelem instanceof Number) {
                     double dz = ((Number) oelem).doubleValue();
-                    this.noDataNumbers.add(dz);
+                    noDataNumbers.add(dz);
 
                 } else if (oelem instanceof Range) {
                     Range r = (Range) oelem;
@@ -225,7 +256,7 @@ public class MaskedConvolveOpImage extends AreaOpImage {
                     Double max = r.getMax().doubleValue();
                     Range<Double> rd = new Range<Double>(
                             min, r.isMinIncluded(), max, r.isMaxIncluded());
-                    this.noDataRanges.add(rd);
+                    noDataRanges.add(rd);
 
                 } else {
                     // This should have been picked up by validateParameters
@@ -235,12 +266,31 @@ public class MaskedConvolveOpImage extends AreaOpImage {
                             + "noDataValues Collection");
                 }
             }
+            
+            noData = new NoDataSet(noDataNumbers, noDataRanges);
+            noDataLookupType = source.getSampleModel().getDataType();
+            noDataLookup = noData.createLookup(noDataLookupType);
+            
         } else {
             noDataDefined = false;
             this.strictNodata = false;
-            noDataNumbers = null;
-            noDataRanges = null;
+            noData = null;
+            noDataLookup = null;
+            noDataLookupType = DataBuffer.TYPE_UNDEFINED;
+        }
+        
+        numActiveCells = numActive;
+        KernelCorrelator kc = null;
+        if (numActiveCells >= SEPARABLE_MIN_KERNEL_CELLS && kernelW > 1 && kernelH > 1) {
+            kc = SeparableCorrelator.create(kernelData, kernelActive, kernelW, kernelH);
         }
+        if (kc == null && numActiveCells >= FFT_MIN_KERNEL_CELLS
+                && !this.maskSrc && !this.strictNodata
+                && getSampleModel().getDataType() != DataBuffer.TYPE_DOUBLE) {
+            kc = new FFTCorrelator(kernelData, kernelActive, kernelW, kernelH);
+        }
+        correlator = kc;
+        counter = kc == null ? null : kc.createCounter();
     }
 
     /**
@@ -270,7 +320,23 @@ public class MaskedConvolveOpImage extends AreaOpImage {
                 new RasterAccessor(dest, destRect,
                 formatTags[1], getColorModel());
 
-        convolve(srcAcc, destAcc);
+        // the ROI is rasterized once for the source and destination areas
+        // rather than being tested for every kernel cell
+        boolean[] srcMask = maskSrc ? getMask(srcRect) : null;
+        boolean[] destMask = maskDest ? getMask(destRect) : null;
+
+        convolve(srcAcc, destAcc, srcMask, destMask);
+    }
+
+    /**
+     * Gets flags (row-major) for the pixels within the ROI.
+     * 
+     * @param rect pixel bounds
+     * @return the flags or {@code null} if all pixels are within the ROI
+     */
+    private boolean[] getMask(Rectangle rect) {
+        ROIMask mask = ROIMask.create(roi, rect);
+        return mask.isAllInside() ? null : mask.getData();
     }
 
     /**
@@ -279,8 +345,11 @@ public class MaskedConvolveOpImage extends AreaOpImage {
      * 
      * @param srcAcc source raster accessor
      * @param destAcc dest raster accessor
+     * @param srcMask source ROI flags or {@code null} for no masking
+     * @param destMask destination ROI flags or {@code null} for no masking
      */
-    private void convolve(RasterAccessor srcAcc, RasterAccessor destAcc) {
+    private void convolve(RasterAccessor srcAcc, RasterAccessor destAcc,
+            boolean[] srcMask, boolean[] destMask) {
         destWidth = destAcc.getWidth();
         destHeight = destAcc.getHeight();
         destBands = destAcc.getNumBands();
@@ -294,25 +363,27 @@ public class MaskedConvolveOpImage extends AreaOpImage {
         srcPixelStride = srcAcc.getPixelStride();
         srcScanlineStride = srcAcc.getScanlineStride();
 
-        switch (destAcc.getDataType()) {
-            case DataBuffer.TYPE_BYTE:
-                convolveAsByteData(srcAcc, destAcc);
-                break;
-            case DataBuffer.TYPE_INT:
-                convolveAsIntData(srcAcc, destAcc);
-                break;
-            case DataBuffer.TYPE_SHORT:
-                convolveAsShortData(srcAcc, destAcc);
-                break;
-            case DataBuffer.TYPE_USHORT:
-                convolveAsUShortData(srcAcc, destAcc);
-                break;
-            case DataBuffer.TYPE_FLOAT:
-                convolveAsFloatData(srcAcc, destAcc);
-                break;
-            case DataBuffer.TYPE_DOUBLE:
-                convolveAsDoubleData(srcAcc, destAcc);
-                break;
+        if (correlator == null || !convolveFast(srcAcc, destAcc, srcMask, destMask)) {
+            switch (destAcc.getDataType()) {
+                case DataBuffer.TYPE_BYTE:
+                    convolveAsByteData(srcAcc, destAcc, srcMask, destMask);
+                    break;
+                case DataBuffer.TYPE_INT:
+                    convolveAsIntData(srcAcc, destAcc, srcMask, destMask);
+                    break;
+                case DataBuffer.TYPE_SHORT:
+                    convolveAsShortData(srcAcc, destAcc, srcMask, destMask);
+                    break;
+                case DataBuffer.TYPE_USHORT:
+                    convolveAsUShortData(srcAcc, destAcc, srcMask, destMask);
+                    break;
+                case DataBuffer.TYPE_FLOAT:
+                    convolveAsFloatData(srcAcc, destAcc, srcMask, destMask);
+                    break;
+                case DataBuffer.TYPE_DOUBLE:
+                    convolveAsDoubleData(srcAcc, destAcc, srcMask, destMask);
+                    break;
+            }
         }
 
         if (destAcc.isDataCopy()) {
@@ -331,24 +402,397 @@ public class MaskedConvolveOpImage extends AreaOpImage {
      * @return {@code true} if a NODATA value; {@code false} otherwise
      */
     private boolean isNoData(double value) {
-        if (noDataDefined) {
-            for (Double d : noDataNumbers) {
-                if (CompareOp.aequal(value, d)) {
-                    return true;
+        return noDataDefined && noData.contains(value);
+    }
+
+    /**
+     * Gets flags (row-major) for the NODATA values in a source band.
+     * Each value is classified once here rather than for each kernel
+     * position that it falls under.
+     * 
+     * @param srcAcc source raster accessor
+     * @param band the band
+     * 
+     * @return the flags or {@code null} if no NODATA values are defined
+     */
+    private boolean[] getNoDataMask(RasterAccessor srcAcc, int band) {
+        if (!noDataDefined) {
+            return null;
+        }
+        
+        final int w = srcAcc.getWidth();
+        final int h = srcAcc.getHeight();
+        final int dataType = srcAcc.getDataType();
+        final boolean[] lookup = dataType == noDataLookupType ? noDataLookup : null;
+        
+        boolean[] mask = new boolean[w * h];
+        int lineOffset = srcBandOffsets[band];
+        int k = 0;
+        
+        for (int y = 0; y < h; y++, lineOffset += srcScanlineStride) {
+            int offset = lineOffset;
+
+            switch (dataType) {
+                case DataBuffer.TYPE_BYTE: {
+                    byte[] data = srcAcc.getByteDataArray(band);
+                    for (int x = 0; x < w; x++, offset += srcPixelStride) {
+                        int value = data[offset] & 0xff;
+                        mask[k++] = lookup != null ? lookup[value] : isNoData(value);
+                    }
+                    break;
+                }
+
+                case DataBuffer.TYPE_SHORT: {
+                    short[] data = srcAcc.getShortDataArray(band);
+                    for (int x = 0; x < w; x++, offset += srcPixelStride) {
+                        int value = data[offset];
+                        mask[k++] = lookup != null ? lookup[value - Short.MIN_VALUE] : isNoData(value);
+                    }
+                    break;
+                }
+
+                case DataBuffer.TYPE_USHORT: {
+                    short[] data = srcAcc.getShortDataArray(band);
+                    for (int x = 0; x < w; x++, offset += srcPixelStride) {
+                        int value = data[offset] & 0xffff;
+                        mask[k++] = lookup != null ? lookup[value] : isNoData(value);
+                    }
+                    break;
+                }
+
+                case DataBuffer.TYPE_INT: {
+                    // int values are convolved as floats
+                    int[] data = srcAcc.getIntDataArray(band);
+                    for (int x = 0; x < w; x++, offset += srcPixelStride) {
+                        mask[k++] = isNoData((float) data[offset]);
+                    }
+                    break;
+                }
+
+                case DataBuffer.TYPE_FLOAT: {
+                    float[] data = srcAcc.getFloatDataArray(band);
+                    for (int x = 0; x < w; x++, offset += srcPixelStride) {
+                        mask[k++] = isNoData(data[offset]);
+                    }
+                    break;
+                }
+
+                case DataBuffer.TYPE_DOUBLE: {
+                    double[] data = srcAcc.getDoubleDataArray(band);
+                    for (int x = 0; x < w; x++, offset += srcPixelStride) {
+                        mask[k++] = isNoData(data[offset]);
+                    }
+                    break;
+                }
+            }
+        }
+        
+        return mask;
+    }
+
+    /**
+     * Convolves using the separable or FFT method chosen for the kernel.
+     * Source values excluded by the ROI or as NODATA are set to zero, and the
+     * counts of valid cells and strict NODATA hits for each kernel position 
+     * are themselves calculated as correlations of indicator arrays with the
+     * active kernel cells. Where the correlator's error bound, given the 
+     * largest source value, could reach the rounding granularity of a result
+     * (one float ulp) that result is recalculated by direct summation.
+     * 
+     * @param srcAcc source raster accessor
+     * @param destAcc dest raster accessor
+     * @param srcMask source ROI flags or {@code null} for no masking
+     * @param destMask destination ROI flags or {@code null} for no masking
+     * 
+     * @return {@code true} if convolution was performed; {@code false} if the
+     *     source contains NaN or infinite values which must be left to 
+     *     direct convolution
+     */
+    private boolean convolveFast(RasterAccessor srcAcc, RasterAccessor destAcc,
+            boolean[] srcMask, boolean[] destMask) {
+        
+        final int srcW = srcAcc.getWidth();
+        final int srcH = srcAcc.getHeight();
+        final int srcN = srcW * srcH;
+        final int destN = destWidth * destHeight;
+        
+        double[][] sums = new double[destBands][];
+        boolean[][] hasResult = new boolean[destBands][];
+        
+        for (int band = 0; band < destBands; band++) {
+            double[] values = getSourceValues(srcAcc, band);
+            boolean[] noDataMask = getNoDataMask(srcAcc, band);
+            
+            double[] valid = minKernelCells > 0 ? new double[srcN] : null;
+            double[] strict = strictNodata ? new double[srcN] : null;
+            boolean anyExcluded = false;
+            boolean anyStrict = false;
+            double maxAbs = 0;
+            
+            for (int k = 0; k < srcN; k++) {
+                boolean included = srcMask == null || srcMask[k];
+                if (included && noDataMask != null && noDataMask[k]) {
+                    if (strict != null) {
+                        strict[k] = 1;
+                        anyStrict = true;
+                    }
+                    included = false;
+                }
+                
+                if (included) {
+                    if (Double.isNaN(values[k]) || Double.isInfinite(values[k])) {
+                        return false;
+                    }
+                    maxAbs = Math.max(maxAbs, Math.abs(values[k]));
+                    if (valid != null) {
+                        valid[k] = 1;
+                    }
+                } else {
+                    values[k] = 0;
+                    anyExcluded = true;
+                }
+            }
+            
+            sums[band] = new double[destN];
+            correlator.correlate(values, srcW, srcH, sums[band]);
+            
+            double errorBound = correlator.getErrorBound(maxAbs, srcW, srcH);
+            if (errorBound > 0) {
+                double[] sum = sums[band];
+                for (int j = 0, k = 0; j < destHeight; j++) {
+                    for (int i = 0; i < destWidth; i++, k++) {
+                        if (errorBound >= Math.ulp((float) sum[k])) {
+                            sum[k] = getDirectSum(values, srcW, i, j);
+                        }
+                    }
+                }
+            }
+            
+            double[] counts = null;
+            if (valid != null && anyExcluded) {
+                counts = new double[destN];
+                counter.correlate(valid, srcW, srcH, counts);
+            }
+            
+            double[] hits = null;
+            if (anyStrict) {
+                hits = new double[destN];
+                counter.correlate(strict, srcW, srcH, hits);
+            }
+            
+            boolean[] ok = new boolean[destN];
+            for (int k = 0; k < destN; k++) {
+                int count = counts == null ? numActiveCells : (int) Math.round(counts[k]);
+                ok[k] = (destMask == null || destMask[k])
+                        && (hits == null || hits[k] < 0.5)
+                        && count >= minKernelCells;
+            }
+            hasResult[band] = ok;
+        }
+        
+        for (int band = 0; band < destBands; band++) {
+            setDestValues(destAcc, band, sums[band], hasResult[band]);
+        }
+        
+        return true;
+    }
+
+    /**
+     * Sums kernel-weighted source values directly for one destination pixel.
+     * 
+     * @param values source values (row-major) with excluded values set to zero
+     * @param srcW source width
+     * @param i destination pixel column
+     * @param j destination pixel row
+     * 
+     * @return the sum
+     */
+    private double getDirectSum(double[] values, int srcW, int i, int j) {
+        double sum = 0;
+        int kernelOffset = 0;
+        for (int u = 0; u < kernelH; u++, kernelOffset += kernelW) {
+            int offset = (j + u) * srcW + i;
+            for (int v = 0; v < kernelW; v++) {
+                if (kernelActive[kernelOffset + v]) {
+                    sum += values[offset + v] * kernelData[kernelOffset + v];
                 }
             }
+        }
+        return sum;
+    }
 
-            for (Range r : noDataRanges) {
-                if (r.contains(value)) {
-                    return true;
+    /**
+     * Gets the values (row-major) of a source band.
+     * 
+     * @param srcAcc source raster accessor
+     * @param band the band
+     * 
+     * @return source values
+     */
+    private double[] getSourceValues(RasterAccessor srcAcc, int band) {
+        final int w = srcAcc.getWidth();
+        final int h = srcAcc.getHeight();
+        
+        double[] values = new double[w * h];
+        int lineOffset = srcBandOffsets[band];
+        int k = 0;
+        
+        for (int y = 0; y < h; y++, lineOffset += srcScanlineStride) {
+            int offset = lineOffset;
+
+            switch (srcAcc.getDataType()) {
+                case DataBuffer.TYPE_BYTE: {
+                    byte[] data = srcAcc.getByteDataArray(band);
+                    for (int x = 0; x < w; x++, offset += srcPixelStride) {
+                        values[k++] = data[offset] & 0xff;
+                    }
+                    break;
+                }
+
+                case DataBuffer.TYPE_SHORT: {
+                    short[] data = srcAcc.getShortDataArray(band);
+                    for (int x = 0; x < w; x++, offset += srcPixelStride) {
+                        values[k++] = data[offset];
+                    }
+                    break;
+                }
+
+                case DataBuffer.TYPE_USHORT: {
+                    short[] data = srcAcc.getShortDataArray(band);
+                    for (int x = 0; x < w; x++, offset += srcPixelStride) {
+                        values[k++] = data[offset] & 0xffff;
+                    }
+                    break;
+                }
+
+                case DataBuffer.TYPE_INT: {
+                    int[] data = srcAcc.getIntDataArray(band);
+                    for (int x = 0; x < w; x++, offset += srcPixelStride) {
+                        values[k++] = data[offset];
+                    }
+                    break;
+                }
+
+                case DataBuffer.TYPE_FLOAT: {
+                    float[] data = srcAcc.getFloatDataArray(band);
+                    for (int x = 0; x < w; x++, offset += srcPixelStride) {
+                        values[k++] = data[offset];
+                    }
+                    break;
+                }
+
+                case DataBuffer.TYPE_DOUBLE: {
+                    double[] data = srcAcc.getDoubleDataArray(band);
+                    for (int x = 0; x < w; x++, offset += srcPixelStride) {
+                        values[k++] = data[offset];
+                    }
+                    break;
                 }
             }
         }
+        
+        return values;
+    }
+
+    /**
+     * Writes convolution results for a destination band, rounding and 
+     * clamping as for direct convolution.
+     * 
+     * @param destAcc dest raster accessor
+     * @param band the band
+     * @param sums convolution sums (row-major)
+     * @param hasResult flags for the pixels with a convolution result; 
+     *     others are set to the nil value
+     */
+    private void setDestValues(RasterAccessor destAcc, int band, 
+            double[] sums, boolean[] hasResult) {
+        
+        int lineOffset = dstBandOffsets[band];
+        int k = 0;
+        
+        for (int j = 0; j < destHeight; j++, lineOffset += dstScanlineStride) {
+            int offset = lineOffset;
+            
+            switch (destAcc.getDataType()) {
+                case DataBuffer.TYPE_BYTE: {
+                    byte[] data = destAcc.getByteDataArray(band);
+                    int nilValue = nilValueNumber.intValue();
+                    for (int i = 0; i < destWidth; i++, k++, offset += dstPixelStride) {
+                        int val = hasResult[k] ? (int) (sums[k] + 0.5) : nilValue;
+                        if (val < 0) {
+                            val = 0;
+                        } else if (val > 255) {
+                            val = 255;
+                        }
+                        data[offset] = (byte) val;
+                    }
+                    break;
+                }
+
+                case DataBuffer.TYPE_SHORT: {
+                    short[] data = destAcc.getShortDataArray(band);
+                    int nilValue = nilValueNumber.intValue();
+                    for (int i = 0; i < destWidth; i++, k++, offset += dstPixelStride) {
+                        int val = hasResult[k] ? (int) (sums[k] + 0.5) : nilValue;
+                        if (val < Short.MIN_VALUE) {
+                            val = Short.MIN_VALUE;
+                        } else if (val > Short.MAX_VALUE) {
+                            val = Short.MAX_VALUE;
+                        }
+                        data[offset] = (short) val;
+                    }
+                    break;
+                }
+
+                case DataBuffer.TYPE_USHORT: {
+                    short[] data = destAcc.getShortDataArray(band);
+                    int nilValue = nilValueNumber.intValue();
+                    for (int i = 0; i < destWidth; i++, k++, offset += dstPixelStride) {
+                        int val = hasResult[k] ? (int) (sums[k] + 0.5) : nilValue;
+                        if (val < 0) {
+                            val = 0;
+                        } else if (val > 0xffff) {
+                            val = 0xffff;
+                        }
+                        data[offset] = (short) val;
+                    }
+                    break;
+                }
 
-        return false;
+                case DataBuffer.TYPE_INT: {
+                    int[] data = destAcc.getIntDataArray(band);
+                    int nilValue = nilValueNumber.intValue();
+                    for (int i = 0; i < destWidth; i++, k++, offset += dstPixelStride) {
+                        data[offset] = hasResult[k] ? (int) (sums[k] + 0.5) : nilValue;
+                    }
+                    break;
+                }
+
+                case DataBuffer.TYPE_FLOAT: {
+                    float[] data = destAcc.getFloatDataArray(band);
+                    float nilValue = nilValueNumber.floatValue();
+                    for (int i = 0; i < destWidth; i++, k++, offset += dstPixelStride) {
+                        data[offset] = hasResult[k] ? (float) sums[k] : nilValue;
+                    }
+                    break;
+                }
+
+                case DataBuffer.TYPE_DOUBLE: {
+                    double[] data = destAcc.getDoubleDataArray(band);
+                    double nilValue = nilValueNumber.doubleValue();
+                    for (int i = 0; i < destWidth; i++, k++, offset += dstPixelStride) {
+                        data[offset] = hasResult[k] ? sums[k] : nilValue;
+                    }
+                    break;
+                }
+            }
+        }
     }
 
-    private void convolveAsByteData(RasterAccessor srcAcc, RasterAccessor destAcc) {
+    private void convolveAsByteData(RasterAccessor srcAcc, RasterAccessor destAcc,
+            boolean[] srcMask, boolean[] destMask) {
+
+        final int srcMaskWidth = srcAcc.getWidth();
 
         byte srcData[][] = srcAcc.getByteDataArrays();
         byte destData[][] = destAcc.getByteDataArrays();
@@ -356,35 +800,33 @@ public class MaskedConvolveOpImage extends AreaOpImage {
         int nilValue = nilValueNumber.intValue();
 
         for (int k = 0; k < destBands; k++) {
-            int destY = destAcc.getY();
+            boolean[] noDataMask = getNoDataMask(srcAcc, k);
             byte destBandData[] = destData[k];
             byte srcBandData[] = srcData[k];
             int srcScanlineOffset = srcBandOffsets[k];
             int dstScanlineOffset = dstBandOffsets[k];
-            for (int j = 0; j < destHeight; j++, destY++) {
-                int destX = destAcc.getX();
+            for (int j = 0; j < destHeight; j++) {
                 int srcPixelOffset = srcScanlineOffset;
                 int dstPixelOffset = dstScanlineOffset;
 
-                for (int i = 0; i < destWidth; i++, destX++) {
+                for (int i = 0; i < destWidth; i++) {
                     int val = 0;
                     int count = 0;
                     float convSum = 0.5f;
                     boolean hasResult = true;
                     
-                    if (!maskDest || roi.contains(destX, destY)) {
-                        int srcY = destY - kernelKeyY;
+                    if (destMask == null || destMask[j * destWidth + i]) {
+                        int srcMaskOffset = j * srcMaskWidth + i;
                         int kernelOffset = 0;
                         int imageVerticalOffset = srcPixelOffset;
                         
-                        for (int u = 0; hasResult && u < kernelH; u++, srcY++) {
-                            int srcX = destX - kernelKeyX;
+                        for (int u = 0; hasResult && u < kernelH; u++, srcMaskOffset += srcMaskWidth) {
                             int imageOffset = imageVerticalOffset;
-                            for (int v = 0; hasResult && v < kernelW; v++, srcX++) {
+                            for (int v = 0; hasResult && v < kernelW; v++) {
                                 if (kernelActive[kernelOffset + v]) {
-                                    if (!maskSrc || roi.contains(srcX, srcY)) {
+                                    if (srcMask == null || srcMask[srcMaskOffset + v]) {
                                         float fval = ((int) srcBandData[imageOffset] & 0xff);
-                                        if (isNoData(fval)) {
+                                        if (noDataMask != null && noDataMask[srcMaskOffset + v]) {
                                             if (strictNodata) {
                                                 // no convolution performed
                                                 hasResult = false;
@@ -428,7 +870,10 @@ public class MaskedConvolveOpImage extends AreaOpImage {
         }
     }
 
-    private void convolveAsShortData(RasterAccessor srcAcc, RasterAccessor destAcc) {
+    private void convolveAsShortData(RasterAccessor srcAcc, RasterAccessor destAcc,
+            boolean[] srcMask, boolean[] destMask) {
+
+        final int srcMaskWidth = srcAcc.getWidth();
 
         short destData[][] = destAcc.getShortDataArrays();
         short srcData[][] = srcAcc.getShortDataArrays();
@@ -436,35 +881,33 @@ public class MaskedConvolveOpImage extends AreaOpImage {
         int nilValue = nilValueNumber.intValue();
 
         for (int k = 0; k < destBands; k++) {
-            int y = destAcc.getY();
+            boolean[] noDataMask = getNoDataMask(srcAcc, k);
             short destBandData[] = destData[k];
             short srcBandData[] = srcData[k];
             int srcScanlineOffset = srcBandOffsets[k];
             int dstScanlineOffset = dstBandOffsets[k];
-            for (int j = 0; j < destHeight; j++, y++) {
-                int x = destAcc.getX();
+            for (int j = 0; j < destHeight; j++) {
                 int srcPixelOffset = srcScanlineOffset;
                 int dstPixelOffset = dstScanlineOffset;
 
-                for (int i = 0; i < destWidth; i++, x++) {
+                for (int i = 0; i < destWidth; i++) {
                     int val = 0;
                     int count = 0;
                     float convSum = 0.5F;
                     boolean hasResult = true;
                     
-                    if (!maskDest || roi.contains(x, y)) {
-                        int srcY = y - kernelKeyY;
+                    if (destMask == null || destMask[j * destWidth + i]) {
+                        int srcMaskOffset = j * srcMaskWidth + i;
                         int kernelOffset = 0;
                         int imageVerticalOffset = srcPixelOffset;
                         
-                        for (int u = 0; hasResult && u < kernelH; u++, srcY++) {
-                            int srcX = x - kernelKeyX;
+                        for (int u = 0; hasResult && u < kernelH; u++, srcMaskOffset += srcMaskWidth) {
                             int imageOffset = imageVerticalOffset;
-                            for (int v = 0; hasResult && v < kernelW; v++, srcX++) {
+                            for (int v = 0; hasResult && v < kernelW; v++) {
                                 if (kernelActive[kernelOffset + v]) {
-                                    if (!maskSrc || roi.contains(srcX, srcY)) {
+                                    if (srcMask == null || srcMask[srcMaskOffset + v]) {
                                         float fval = srcBandData[imageOffset];
-                                        if (isNoData(fval)) {
+                                        if (noDataMask != null && noDataMask[srcMaskOffset + v]) {
                                             if (strictNodata) {
                                                 // no convolution performed
                                                 hasResult = false;
@@ -507,7 +950,10 @@ public class MaskedConvolveOpImage extends AreaOpImage {
         }
     }
 
-    private void convolveAsUShortData(RasterAccessor srcAcc, RasterAccessor destAcc) {
+    private void convolveAsUShortData(RasterAccessor srcAcc, RasterAccessor destAcc,
+            boolean[] srcMask, boolean[] destMask) {
+
+        final int srcMaskWidth = srcAcc.getWidth();
 
         short destData[][] = destAcc.getShortDataArrays();
         short srcData[][] = srcAcc.getShortDataArrays();
@@ -515,35 +961,33 @@ public class MaskedConvolveOpImage extends AreaOpImage {
         int nilValue = nilValueNumber.intValue();
 
         for (int k = 0; k < destBands; k++) {
-            int y = destAcc.getY();
+            boolean[] noDataMask = getNoDataMask(srcAcc, k);
             short destBandData[] = destData[k];
             short srcBandData[] = srcData[k];
             int srcScanlineOffset = srcBandOffsets[k];
             int dstScanlineOffset = dstBandOffsets[k];
-            for (int j = 0; j < destHeight; j++, y++) {
-                int x = destAcc.getX();
+            for (int j = 0; j < destHeight; j++) {
                 int srcPixelOffset = srcScanlineOffset;
                 int dstPixelOffset = dstScanlineOffset;
 
-                for (int i = 0; i < destWidth; i++, x++) {
+                for (int i = 0; i < destWidth; i++) {
                     int val = 0;
                     int count = 0;
                     float convSum = 0.5F;
                     boolean hasResult = true;
                     
-                    if (!maskDest || roi.contains(x, y)) {
-                        int srcY = y - kernelKeyY;
+                    if (destMask == null || destMask[j * destWidth + i]) {
+                        int srcMaskOffset = j * srcMaskWidth + i;
                         int kernelOffset = 0;
                         int imageVerticalOffset = srcPixelOffset;
                         
-                        for (int u = 0; hasResult && u < kernelH; u++, srcY++) {
-                            int srcX = x - kernelKeyX;
+                        for (int u = 0; hasResult && u < kernelH; u++, srcMaskOffset += srcMaskWidth) {
                             int imageOffset = imageVerticalOffset;
-                            for (int v = 0; hasResult && v < kernelW; v++, srcX++) {
+                            for (int v = 0; hasResult && v < kernelW; v++) {
                                 if (kernelActive[kernelOffset + v]) {
-                                    if (!maskSrc || roi.contains(srcX, srcY)) {
+                                    if (srcMask == null || srcMask[srcMaskOffset + v]) {
                                         float fval = (srcBandData[imageOffset] & 0xffff);
-                                        if (isNoData(fval)) {
+                                        if (noDataMask != null && noDataMask[srcMaskOffset + v]) {
                                             if (strictNodata) {
                                                 // no convolution performed
                                                 hasResult = false;
@@ -586,7 +1030,10 @@ public class MaskedConvolveOpImage extends AreaOpImage {
         }
     }
 
-    private void convolveAsIntData(RasterAccessor srcAcc, RasterAccessor destAcc) {
+    private void convolveAsIntData(RasterAccessor srcAcc, RasterAccessor destAcc,
+            boolean[] srcMask, boolean[] destMask) {
+
+        final int srcMaskWidth = srcAcc.getWidth();
 
         int destData[][] = destAcc.getIntDataArrays();
         int srcData[][] = srcAcc.getIntDataArrays();
@@ -594,34 +1041,32 @@ public class MaskedConvolveOpImage extends AreaOpImage {
         int nilValue = nilValueNumber.intValue();
 
         for (int k = 0; k < destBands; k++) {
-            int y = destAcc.getY();
+            boolean[] noDataMask = getNoDataMask(srcAcc, k);
             int destBandData[] = destData[k];
             int srcBandData[] = srcData[k];
             int srcScanlineOffset = srcBandOffsets[k];
             int dstScanlineOffset = dstBandOffsets[k];
-            for (int j = 0; j < destHeight; j++, y++) {
-                int x = destAcc.getX();
+            for (int j = 0; j < destHeight; j++) {
                 int srcPixelOffset = srcScanlineOffset;
                 int dstPixelOffset = dstScanlineOffset;
 
-                for (int i = 0; i < destWidth; i++, x++) {
+                for (int i = 0; i < destWidth; i++) {
                     float convSum = 0.5F;
                     int count = 0;
                     boolean hasResult = true;
 
-                    if (!maskDest || roi.contains(x, y)) {
-                        int srcY = y - kernelKeyY;
+                    if (destMask == null || destMask[j * destWidth + i]) {
+                        int srcMaskOffset = j * srcMaskWidth + i;
                         int kernelOffset = 0;
                         int imageVerticalOffset = srcPixelOffset;
                         
-                        for (int u = 0; hasResult && u < kernelH; u++, srcY++) {
-                            int srcX = x - kernelKeyX;
+                        for (int u = 0; hasResult && u < kernelH; u++, srcMaskOffset += srcMaskWidth) {
                             int imageOffset = imageVerticalOffset;
-                            for (int v = 0; hasResult && v < kernelW; v++, srcX++) {
+                            for (int v = 0; hasResult && v < kernelW; v++) {
                                 if (kernelActive[kernelOffset + v]) {
-                                    if (!maskSrc || roi.contains(srcX, srcY)) {
+                                    if (srcMask == null || srcMask[srcMaskOffset + v]) {
                                         float fval = (srcBandData[imageOffset]);
-                                        if (isNoData(fval)) {
+                                        if (noDataMask != null && noDataMask[srcMaskOffset + v]) {
                                             if (strictNodata) {
                                                 // no convolution performed
                                                 hasResult = false;
@@ -657,7 +1102,10 @@ public class MaskedConvolveOpImage extends AreaOpImage {
         }
     }
 
-    private void convolveAsFloatData(RasterAccessor srcAcc, RasterAccessor destAcc) {
+    private void convolveAsFloatData(RasterAccessor srcAcc, RasterAccessor destAcc,
+            boolean[] srcMask, boolean[] destMask) {
+
+        final int srcMaskWidth = srcAcc.getWidth();
 
         float destData[][] = destAcc.getFloatDataArrays();
         float srcData[][] = srcAcc.getFloatDataArrays();
@@ -665,34 +1113,32 @@ public class MaskedConvolveOpImage extends AreaOpImage {
         float nilValue = nilValueNumber.floatValue();
 
         for (int k = 0; k < destBands; k++) {
-            int y = destAcc.getY();
+            boolean[] noDataMask = getNoDataMask(srcAcc, k);
             float destBandData[] = destData[k];
             float srcBandData[] = srcData[k];
             int srcScanlineOffset = srcBandOffsets[k];
             int dstScanlineOffset = dstBandOffsets[k];
-            for (int j = 0; j < destHeight; j++, y++) {
-                int x = destAcc.getX();
+            for (int j = 0; j < destHeight; j++) {
                 int srcPixelOffset = srcScanlineOffset;
                 int dstPixelOffset = dstScanlineOffset;
 
-                for (int i = 0; i < destWidth; i++, x++) {
+                for (int i = 0; i < destWidth; i++) {
                     float convSum = 0.0F;
                     int count = 0;
                     boolean hasResult = true;
                     
-                    if (!maskDest || roi.contains(x, y)) {
-                        int srcY = y - kernelKeyY;
+                    if (destMask == null || destMask[j * destWidth + i]) {
+                        int srcMaskOffset = j * srcMaskWidth + i;
                         int kernelOffset = 0;
                         int imageVerticalOffset = srcPixelOffset;
                         
-                        for (int u = 0; hasResult && u < kernelH; u++, srcY++) {
-                            int srcX = x - kernelKeyX;
+                        for (int u = 0; hasResult && u < kernelH; u++, srcMaskOffset += srcMaskWidth) {
                             int imageOffset = imageVerticalOffset;
-                            for (int v = 0; hasResult && v < kernelW; v++, srcX++) {
+                            for (int v = 0; hasResult && v < kernelW; v++) {
                                 if (kernelActive[kernelOffset + v]) {
-                                    if (!maskSrc || roi.contains(srcX, srcY)) {
+                                    if (srcMask == null || srcMask[srcMaskOffset + v]) {
                                         float fval = (srcBandData[imageOffset]);
-                                        if (isNoData(fval)) {
+                                        if (noDataMask != null && noDataMask[srcMaskOffset + v]) {
                                             if (strictNodata) {
                                                 // no convolution performed
                                                 hasResult = false;
@@ -728,7 +1174,10 @@ public class MaskedConvolveOpImage extends AreaOpImage {
         }
     }
 
-    private void convolveAsDoubleData(RasterAccessor srcAcc, RasterAccessor destAcc) {
+    private void convolveAsDoubleData(RasterAccessor srcAcc, RasterAccessor destAcc,
+            boolean[] srcMask, boolean[] destMask) {
+
+        final int srcMaskWidth = srcAcc.getWidth();
 
         double destData[][] = destAcc.getDoubleDataArrays();
         double srcData[][] = srcAcc.getDoubleDataArrays();
@@ -736,33 +1185,31 @@ public class MaskedConvolveOpImage extends AreaOpImage {
         double nilValue = nilValueNumber.doubleValue();
 
         for (int k = 0; k < destBands; k++) {
-            int y = destAcc.getY();
+            boolean[] noDataMask = getNoDataMask(srcAcc, k);
             double destBandData[] = destData[k];
             double srcBandData[] = srcData[k];
             int srcScanlineOffset = srcBandOffsets[k];
             int dstScanlineOffset = dstBandOffsets[k];
-            for (int j = 0; j < destHeight; j++, y++) {
-                int x = destAcc.getX();
+            for (int j = 0; j < destHeight; j++) {
                 int srcPixelOffset = srcScanlineOffset;
                 int dstPixelOffset = dstScanlineOffset;
 
-                for (int i = 0; i < destWidth; i++, x++) {
+                for (int i = 0; i < destWidth; i++) {
                     double convSum = 0.0D;
                     int count = 0;
                     boolean hasResult = true;
                     
-                    if (!maskDest || roi.contains(x, y)) {
-                        int srcY = y - kernelKeyY;
+                    if (destMask == null || destMask[j * destWidth + i]) {
+                        int srcMaskOffset = j * srcMaskWidth + i;
                         int kernelOffset = 0;
                         int imageVerticalOffset = srcPixelOffset;
-                        for (int u = 0; hasResult && u < kernelH; u++, srcY++) {
-                            int srcX = x - kernelKeyX;
+                        for (int u = 0; hasResult && u < kernelH; u++, srcMaskOffset += srcMaskWidth) {
                             int imageOffset = imageVerticalOffset;
-                            for (int v = 0; hasResult && v < kernelW; v++, srcX++) {
+                            for (int v = 0; hasResult && v < kernelW; v++) {
                                 if (kernelActive[kernelOffset + v]) {
-                                    if (!maskSrc || roi.contains(srcX, srcY)) {
+                                    if (srcMask == null || srcMask[srcMaskOffset + v]) {
                                         double dval = (srcBandData[imageOffset]);
-                                        if (isNoData(dval)) {
+                                        if (noDataMask != null && noDataMask[srcMaskOffset + v]) {
                                             if (strictNodata) {
                                                 // no convolution performed
                                                 hasResult = false;
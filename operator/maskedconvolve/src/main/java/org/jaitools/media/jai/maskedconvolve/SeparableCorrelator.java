@@ -0,0 +1,191 @@
+/* 
+ *  Copyright (c) 2013, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+
+package org.jaitools.media.jai.maskedconvolve;
+
+/**
+ * Correlates using a separable (rank 1) kernel as a horizontal pass followed
+ * by a vertical pass, taking {@code kernelW + kernelH} operations per
+ * destination pixel rather than {@code kernelW * kernelH}.
+ *
+ * @author Michael Bedward
+ * @since 1.5
+ * @version $Id$
+ */
+final class SeparableCorrelator extends KernelCorrelator {
+    
+    /*
+     * Maximum difference, relative to the largest kernel value, between
+     * a kernel value and the product of its row and column factors
+     */
+    private static final double RANK_TOL = 1.0e-5;
+
+    private final double[] xWeights;
+    private final double[] yWeights;
+
+    /**
+     * Creates a correlator if the given kernel is separable. This requires
+     * that each kernel value be the product of a column factor and a row
+     * factor (within tolerance) and that the active cells form the product 
+     * of a set of rows and a set of columns.
+     * 
+     * @param data kernel values (row-major)
+     * @param active flags for the active kernel cells
+     * @param w kernel width
+     * @param h kernel height
+     * 
+     * @return a new correlator or {@code null} if the kernel is not separable
+     */
+    static SeparableCorrelator create(float[] data, boolean[] active, int w, int h) {
+        int pivotIndex = 0;
+        for (int i = 1; i < data.length; i++) {
+            if (Math.abs(data[i]) > Math.abs(data[pivotIndex])) {
+                pivotIndex = i;
+            }
+        }
+        if (!active[pivotIndex]) {
+            return null;
+        }
+        
+        final double pivot = data[pivotIndex];
+        final int pivotRow = pivotIndex / w;
+        final int pivotCol = pivotIndex % w;
+        
+        double[] xw = new double[w];
+        double[] yw = new double[h];
+        for (int v = 0; v < w; v++) {
+            xw[v] = data[pivotRow * w + v];
+        }
+        for (int u = 0; u < h; u++) {
+            yw[u] = data[u * w + pivotCol] / pivot;
+        }
+        
+        boolean[] rowActive = new boolean[h];
+        boolean[] colActive = new boolean[w];
+        final double tol = RANK_TOL * Math.abs(pivot);
+        
+        for (int u = 0, k = 0; u < h; u++) {
+            for (int v = 0; v < w; v++, k++) {
+                if (Math.abs(data[k] - yw[u] * xw[v]) > tol) {
+                    return null;
+                }
+                if (active[k]) {
+                    rowActive[u] = true;
+                    colActive[v] = true;
+                }
+            }
+        }
+        
+        for (int u = 0, k = 0; u < h; u++) {
+            for (int v = 0; v < w; v++, k++) {
+                if (active[k] != (rowActive[u] && colActive[v])) {
+                    return null;
+                }
+            }
+        }
+        
+        // inactive rows and columns must contribute nothing
+        for (int v = 0; v < w; v++) {
+            if (!colActive[v]) {
+                xw[v] = 0;
+            }
+        }
+        for (int u = 0; u < h; u++) {
+            if (!rowActive[u]) {
+                yw[u] = 0;
+            }
+        }
+        
+        return new SeparableCorrelator(xw, yw);
+    }
+
+    /**
+     * Private constructor: use {@link #create(float[], boolean[], int, int)}.
+     */
+    private SeparableCorrelator(double[] xWeights, double[] yWeights) {
+        super(xWeights.length, yWeights.length);
+        this.xWeights = xWeights;
+        this.yWeights = yWeights;
+    }
+
+    @Override
+    void correlate(double[] src, int srcW, int srcH, double[] dest) {
+        final int destW = srcW - kernelW + 1;
+        final int destH = srcH - kernelH + 1;
+        
+        // horizontal pass over all source rows
+        double[] rows = new double[srcH * destW];
+        for (int y = 0; y < srcH; y++) {
+            final int rowOffset = y * destW;
+            for (int v = 0; v < kernelW; v++) {
+                final double weight = xWeights[v];
+                if (weight != 0) {
+                    int srcOffset = y * srcW + v;
+                    for (int i = 0; i < destW; i++) {
+                        rows[rowOffset + i] += weight * src[srcOffset + i];
+                    }
+                }
+            }
+        }
+        
+        // vertical pass
+        for (int j = 0; j < destH; j++) {
+            final int destOffset = j * destW;
+            for (int i = 0; i < destW; i++) {
+                dest[destOffset + i] = 0;
+            }
+            for (int u = 0; u < kernelH; u++) {
+                final double weight = yWeights[u];
+                if (weight != 0) {
+                    int rowOffset = (j + u) * destW;
+                    for (int i = 0; i < destW; i++) {
+                        dest[destOffset + i] += weight * rows[rowOffset + i];
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    double getErrorBound(double maxAbs, int srcW, int srcH) {
+        // each sum is formed directly, from kernelW + kernelH products
+        return 0;
+    }
+
+    @Override
+    KernelCorrelator createCounter() {
+        double[] xw = new double[kernelW];
+        double[] yw = new double[kernelH];
+        for (int v = 0; v < kernelW; v++) {
+            xw[v] = xWeights[v] != 0 ? 1 : 0;
+        }
+        for (int u = 0; u < kernelH; u++) {
+            yw[u] = yWeights[u] != 0 ? 1 : 0;
+        }
+        return new SeparableCorrelator(xw, yw);
+    }
+    
+}
@@ -25,9 +25,13 @@
 package org.jaitools.media.jai.maskedconvolve;
 
 import java.awt.Dimension;
+import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
 import java.awt.image.RenderedImage;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 
 import javax.media.jai.BorderExtender;
@@ -47,6 +51,7 @@ import javax.media.jai.registry.RenderedRegistryMode;
 import org.jaitools.imageutils.ImageUtils;
 import org.jaitools.imageutils.iterator.SimpleIterator;
 import org.jaitools.numeric.CompareOp;
+import org.jaitools.numeric.Range;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -108,6 +113,134 @@ public class TestMaskedConvolve {
         compareStandardToMasked(testImg, kernel);
     }
 
+    /**
+     * Compare the results of JAI's standard Convolve
+     * with MaskedConvolve for a separable kernel (convolved
+     * as two 1-D passes) with masking disabled.
+     */
+    @Test
+    public void testSeparable() {
+        int tileW = 128;
+        JAI.setDefaultTileSize(new Dimension(tileW, tileW));
+        RenderedImage testImg = getBorderTestImage(2*tileW, tileW);
+
+        float[] factors = {1f, 2f, 3f, 2f, 1f};
+        float[] data = new float[25];
+        for (int i = 0, k = 0; i < 5; i++) {
+            for (int j = 0; j < 5; j++, k++) {
+                data[k] = factors[i] * factors[j];
+            }
+        }
+        KernelJAI kernel = new KernelJAI(5, 5, data);
+
+        compareStandardToMasked(testImg, kernel);
+    }
+
+    /**
+     * Compare the results of JAI's standard Convolve
+     * with MaskedConvolve for a large, non-separable kernel
+     * (convolved using FFTs) with masking disabled.
+     */
+    @Test
+    public void testLargeKernel() {
+        int tileW = 128;
+        JAI.setDefaultTileSize(new Dimension(tileW, tileW));
+        RenderedImage testImg = getBorderTestImage(2*tileW, tileW);
+
+        float[] data = new float[81];
+        for (int i = 0, k = 0; i < 9; i++) {
+            for (int j = 0; j < 9; j++, k++) {
+                data[k] = (i + 2 * j) % 3;
+            }
+        }
+        KernelJAI kernel = new KernelJAI(9, 9, 0, 0, data);
+
+        compareStandardToMasked(testImg, kernel);
+    }
+
+    /**
+     * A single very large value (eg. an undeclared float fill value) must
+     * not affect results for kernel positions that do not include it when
+     * a large kernel is convolved using FFTs.
+     */
+    @Test
+    public void testLargeKernelWithHugeValue() {
+        final int w = 40;
+        final int hugeX = 5;
+        final int hugeY = 5;
+        
+        Float[] indata = new Float[w * w];
+        Arrays.fill(indata, 1f);
+        indata[hugeY * w + hugeX] = -Float.MAX_VALUE;
+        RenderedImage image = ImageUtils.createImageFromArray(indata, w, w);
+
+        float[] data = new float[81];
+        float kernelSum = 0;
+        for (int i = 0, k = 0; i < 9; i++) {
+            for (int j = 0; j < 9; j++, k++) {
+                data[k] = (i + 2 * j) % 3;
+                kernelSum += data[k];
+            }
+        }
+        KernelJAI kernel = new KernelJAI(9, 9, 0, 0, data);
+
+        ParameterBlockJAI pb = new ParameterBlockJAI("MaskedConvolve");
+        pb.setSource("source0", image);
+        pb.setParameter("kernel", kernel);
+        pb.setParameter("roi", new ROIShape(new Rectangle(0, 0, w, w)));
+        pb.setParameter("maskSource", false);
+        pb.setParameter("maskDest", false);
+
+        BorderExtender border = new BorderExtenderConstant(new double[]{1});
+        RenderingHints hints = new RenderingHints(JAI.KEY_BORDER_EXTENDER, border);
+        RenderedOp op = JAI.create("MaskedConvolve", pb, hints);
+
+        SimpleIterator iter = new SimpleIterator(op, null, null);
+        do {
+            Point pos = iter.getPos();
+            // kernel positions which include the huge value
+            boolean includesHuge = pos.x <= hugeX && pos.x > hugeX - 9 
+                    && pos.y <= hugeY && pos.y > hugeY - 9;
+            
+            if (!includesHuge) {
+                assertEquals(kernelSum, iter.getSample().floatValue(), FTOL);
+            }
+        } while (iter.next());
+    }
+
+    /**
+     * Compare the results of MaskedConvolve with source and destination masking
+     * and a minimum cell count for a separable kernel (convolved as two 1-D
+     * passes) to those for a slightly altered, non-separable kernel (convolved
+     * directly).
+     */
+    @Test
+    public void testSeparableMaskSource() {
+        compareSeparableToDirect(true, null, false, 10);
+    }
+
+    /**
+     * As for {@link #testSeparableMaskSource()} but with NODATA values and
+     * a minimum cell count.
+     */
+    @Test
+    public void testSeparableNonStrictNodata() {
+        Collection<Object> nodata = Collections.<Object>singleton(
+                new Range<Double>(1.0, true, 1.5, true));
+        compareSeparableToDirect(false, nodata, false, 20);
+    }
+
+    /**
+     * As for {@link #testSeparableMaskSource()} but with strict NODATA
+     * handling.
+     */
+    @Test
+    public void testSeparableStrictNodata() {
+        Collection<Object> nodata = Collections.<Object>singleton(
+                new Range<Double>(1.0, true, 1.02, true));
+        compareSeparableToDirect(true, nodata, true, 1);
+    }
+
     /**
      * Compare the results of MaskedConvolve with source masking
      * enabled to those generated "by hand" using standard JAI
@@ -428,6 +561,57 @@ public class TestMaskedConvolve {
     }
 
 
+    /**
+     * Run a comparison of results for a separable kernel and for the same
+     * kernel with one value altered slightly so that it is not separable
+     * and is convolved directly
+     */
+    private void compareSeparableToDirect(boolean maskSrc, Collection<Object> nodata,
+            boolean strict, int minCells) {
+        int tileW = 128;
+        JAI.setDefaultTileSize(new Dimension(tileW, tileW));
+        RenderedImage testImg = getRandomTestImage(1.0f, 5.0f, 2*tileW, tileW);
+
+        float[] factors = {1f, 2f, 3f, 2f, 1f};
+        float[] data = new float[25];
+        for (int i = 0, k = 0; i < 5; i++) {
+            for (int j = 0; j < 5; j++, k++) {
+                data[k] = factors[i] * factors[j];
+            }
+        }
+        KernelJAI separable = new KernelJAI(5, 5, data);
+        
+        final float delta = 5.0e-4f;
+        data[0] += delta;
+        KernelJAI direct = new KernelJAI(5, 5, data);
+
+        ROI roi = new ROIShape(new Ellipse2D.Double(20, -10, 2*tileW - 60, tileW + 5));
+        RenderingHints hints = new RenderingHints(
+                JAI.KEY_BORDER_EXTENDER,
+                BorderExtender.createInstance(BorderExtender.BORDER_ZERO));
+
+        RenderedOp[] results = new RenderedOp[2];
+        KernelJAI[] kernels = {separable, direct};
+        for (int i = 0; i < 2; i++) {
+            ParameterBlockJAI pb = new ParameterBlockJAI("maskedconvolve");
+            pb.setSource("source0", testImg);
+            pb.setParameter("kernel", kernels[i]);
+            pb.setParameter("roi", roi);
+            pb.setParameter("masksource", maskSrc);
+            pb.setParameter("maskdest", true);
+            pb.setParameter("nilValue", -1);
+            pb.setParameter("minCells", minCells);
+            if (nodata != null) {
+                pb.setParameter("nodata", nodata);
+                pb.setParameter("strictNodata", strict);
+            }
+            results[i] = JAI.create("maskedconvolve", pb, hints);
+        }
+
+        // the altered kernel value contributes at most delta * max source value
+        compareImages(results[0], results[1], delta * 5.0f + FTOL);
+    }
+
     /**
      * Run a comparison of results between standard convolution and
      * mssked convolution with masking disabled
@@ -452,6 +636,10 @@ public class TestMaskedConvolve {
     }
 
     private void compareImages(RenderedImage img1, RenderedImage img2) {
+        compareImages(img1, img2, FTOL);
+    }
+
+    private void compareImages(RenderedImage img1, RenderedImage img2, float tol) {
         RectIter iter1 = RectIterFactory.create(img1, null);
         RectIter iter2 = RectIterFactory.create(img2, null);
 
@@ -464,7 +652,7 @@ public class TestMaskedConvolve {
                 assertTrue(
                         String.format("images differ at %d:%d values: %f %f",
                                          x, y, val1, val2),
-                        Math.abs(val1 - val2) < FTOL);
+                        Math.abs(val1 - val2) < tol);
 
                 iter1Done = iter1.nextPixelDone();
                 iter2Done = iter2.nextPixelDone();
@@ -0,0 +1,640 @@
+/* 
+ *  Copyright (c) 2013, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+
+package org.jaitools.media.jai.rangelookup;
+
+import java.awt.image.DataBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.jaitools.numeric.NumberOperations;
+import org.jaitools.numeric.Range;
+
+
+/**
+ * A {@link RangeLookupTable} compiled for a single image data type. This is 
+ * created once by {@link RangeLookupOpImage} so that the per-pixel lookup 
+ * works only with primitive values.
+ * <p>
+ * For byte, short and ushort data, a direct lookup table holding the result for 
+ * every possible source value is built by querying the range lookup table. 
+ * For int, float and double data the lookup items are converted to sorted 
+ * arrays of primitive bounds which are searched with a fixed number of steps. 
+ * Bound comparisons follow the same rules as {@link NumberOperations#compare}, 
+ * using the float and double tolerances in effect when the lookup is compiled.
+ * 
+ * @author Michael Bedward
+ * @since 1.5
+ * @version $Id$
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" })
+final class CompiledRangeLookup {
+    
+    private static final int MODE_TABLE = 0;
+    private static final int MODE_INTEGRAL = 1;
+    private static final int MODE_FLOAT = 2;
+    private static final int MODE_DOUBLE = 3;
+
+    private final int dataType;
+    private final int mode;
+    private final boolean hasDefault;
+    
+    // direct lookup tables for 8 and 16 bit data
+    private byte[] byteTable;
+    private short[] shortTable;
+    
+    // sorted bounds for int, float and double data
+    private int numItems;
+    private long[] lowerLong;
+    private long[] upperLong;
+    private float[] lowerFloat;
+    private float[] upperFloat;
+    private double[] lowerDouble;
+    private double[] upperDouble;
+    private boolean[] lowerIncluded;
+    private boolean[] upperIncluded;
+    private int nanIndex = -1;
+    private float floatTol;
+    private double doubleTol;
+
+    // destination values, indexed as the bounds arrays
+    private int[] intValues;
+    private float[] floatValues;
+    private double[] doubleValues;
+    private int intDefault;
+    private float floatDefault;
+    private double doubleDefault;
+
+
+    /**
+     * Compiles a lookup table.
+     * 
+     * @param table the lookup table
+     * @param dataType the data type (a {@code DataBuffer} constant) of the 
+     *     source and destination samples
+     * @param defaultValue either a value to use for all unmatched source values
+     *     or null to indicate that unmatched values should pass-through to the
+     *     destination
+     * 
+     * @throws IllegalArgumentException if {@code dataType} is not supported
+     */
+    CompiledRangeLookup(RangeLookupTable table, int dataType, Number defaultValue) {
+        this.dataType = dataType;
+        this.hasDefault = defaultValue != null;
+        
+        switch (dataType) {
+            case DataBuffer.TYPE_BYTE:
+                mode = MODE_TABLE;
+                createByteTable(table, defaultValue);
+                break;
+                
+            case DataBuffer.TYPE_SHORT:
+            case DataBuffer.TYPE_USHORT:
+                mode = MODE_TABLE;
+                createShortTable(table, defaultValue);
+                break;
+                
+            case DataBuffer.TYPE_INT:
+            case DataBuffer.TYPE_FLOAT:
+            case DataBuffer.TYPE_DOUBLE:
+                mode = getSearchMode(table);
+                createBounds(table, defaultValue);
+                break;
+                
+            default:
+                throw new IllegalArgumentException("Unsupported data type: " + dataType);
+        }
+    }
+
+    /**
+     * Gets the data type this lookup was compiled for.
+     * 
+     * @return the data type
+     */
+    int getDataType() {
+        return dataType;
+    }
+
+    /**
+     * Looks up a byte value.
+     * 
+     * @param value source value
+     * @return destination value
+     */
+    byte lookup(byte value) {
+        return byteTable[value & 0xff];
+    }
+
+    /**
+     * Looks up a short or ushort value.
+     * 
+     * @param value source value
+     * @return destination value
+     */
+    short lookup(short value) {
+        return shortTable[value & 0xffff];
+    }
+
+    /**
+     * Looks up an int value.
+     * 
+     * @param value source value
+     * @return destination value
+     */
+    int lookup(int value) {
+        int index;
+        switch (mode) {
+            case MODE_INTEGRAL:
+                index = find(value);
+                break;
+                
+            case MODE_FLOAT:
+                index = find((float) value);
+                break;
+                
+            default:
+                index = find((double) value);
+        }
+        
+        if (index >= 0) {
+            return intValues[index];
+        }
+        return hasDefault ? intDefault : value;
+    }
+
+    /**
+     * Looks up a float value.
+     * 
+     * @param value source value
+     * @return destination value
+     */
+    float lookup(float value) {
+        int index = mode == MODE_FLOAT ? find(value) : find((double) value);
+        
+        if (index >= 0) {
+            return floatValues[index];
+        }
+        return hasDefault ? floatDefault : value;
+    }
+
+    /**
+     * Looks up a double value.
+     * 
+     * @param value source value
+     * @return destination value
+     */
+    double lookup(double value) {
+        int index = find(value);
+        
+        if (index >= 0) {
+            return doubleValues[index];
+        }
+        return hasDefault ? doubleDefault : value;
+    }
+
+    /*
+     * Each of the find methods locates the last item whose lower bound admits
+     * the value and then checks that item's upper bound. The search loop always
+     * runs for log2(numItems) steps with a conditional index update in place of
+     * an early exit.
+     */
+    private int find(long value) {
+        final long[] lower = lowerLong;
+        int n = numItems;
+        if (n == 0) {
+            return -1;
+        }
+        
+        int base = 0;
+        while (n > 1) {
+            int half = n >>> 1;
+            base = lower[base + half] <= value ? base + half : base;
+            n -= half;
+        }
+        
+        return lower[base] <= value && value <= upperLong[base] ? base : -1;
+    }
+
+    private int find(float value) {
+        if (Float.isNaN(value)) {
+            return nanIndex;
+        }
+        
+        int n = numItems;
+        if (n == 0) {
+            return -1;
+        }
+        
+        int base = 0;
+        while (n > 1) {
+            int half = n >>> 1;
+            base = admitsLower(value, base + half) ? base + half : base;
+            n -= half;
+        }
+        
+        if (admitsLower(value, base)) {
+            int comp = compare(value, upperFloat[base], floatTol);
+            if (comp < 0 || (comp == 0 && upperIncluded[base])) {
+                return base;
+            }
+        }
+        return -1;
+    }
+
+    private boolean admitsLower(float value, int index) {
+        int comp = compare(value, lowerFloat[index], floatTol);
+        return comp > 0 || (comp == 0 && lowerIncluded[index]);
+    }
+
+    private int find(double value) {
+        if (Double.isNaN(value)) {
+            return nanIndex;
+        }
+        
+        int n = numItems;
+        if (n == 0) {
+            return -1;
+        }
+        
+        int base = 0;
+        while (n > 1) {
+            int half = n >>> 1;
+            base = admitsLower(value, base + half) ? base + half : base;
+            n -= half;
+        }
+        
+        if (admitsLower(value, base)) {
+            int comp = compare(value, upperDouble[base], doubleTol);
+            if (comp < 0 || (comp == 0 && upperIncluded[base])) {
+                return base;
+            }
+        }
+        return -1;
+    }
+
+    private boolean admitsLower(double value, int index) {
+        int comp = compare(value, lowerDouble[index], doubleTol);
+        return comp > 0 || (comp == 0 && lowerIncluded[index]);
+    }
+
+    /*
+     * Primitive versions of the float and double comparisons used by
+     * NumberOperations.compare
+     */
+    private static int compare(float val1, float val2, float tol) {
+        if (Float.isInfinite(val1) || Float.isNaN(val1) ||
+            Float.isInfinite(val2) || Float.isNaN(val2)) {
+            return Float.compare(val1, val2);
+        }
+        
+        if (Math.abs(val1 - val2) < tol) {
+            return 0;
+        }
+        return val1 < val2 ? -1 : 1;
+    }
+
+    private static int compare(double val1, double val2, double tol) {
+        if (Double.isInfinite(val1) || Double.isNaN(val1) ||
+            Double.isInfinite(val2) || Double.isNaN(val2)) {
+            return Double.compare(val1, val2);
+        }
+        
+        if (Math.abs(val1 - val2) < tol) {
+            return 0;
+        }
+        return val1 < val2 ? -1 : 1;
+    }
+
+    /**
+     * Fills the byte lookup table by querying the range lookup table with
+     * every possible source value.
+     */
+    private void createByteTable(RangeLookupTable table, Number defaultValue) {
+        byteTable = new byte[1 << 8];
+        
+        for (int i = 0; i < byteTable.length; i++) {
+            byte val = (byte) i;
+            LookupItem item = table.getLookupItem(val);
+            if (item != null) {
+                byteTable[i] = item.getValue().byteValue();
+            } else {
+                byteTable[i] = hasDefault ? defaultValue.byteValue() : val;
+            }
+        }
+    }
+
+    /**
+     * Fills the short lookup table by querying the range lookup table with
+     * every possible source value. The table is indexed by the unsigned
+     * sample bits for both short and ushort data.
+     */
+    private void createShortTable(RangeLookupTable table, Number defaultValue) {
+        shortTable = new short[1 << 16];
+        
+        for (int i = 0; i < shortTable.length; i++) {
+            LookupItem item;
+            if (dataType == DataBuffer.TYPE_SHORT) {
+                item = table.getLookupItem((short) i);
+            } else {
+                item = table.getLookupItem(i);
+            }
+            
+            if (item != null) {
+                shortTable[i] = item.getValue().shortValue();
+            } else {
+                shortTable[i] = hasDefault ? defaultValue.shortValue() : (short) i;
+            }
+        }
+    }
+
+    /**
+     * Gets the prototype source value class for int, float or double data.
+     */
+    private Number getSourcePrototype() {
+        switch (dataType) {
+            case DataBuffer.TYPE_INT:
+                return Integer.valueOf(0);
+                
+            case DataBuffer.TYPE_FLOAT:
+                return Float.valueOf(0);
+                
+            default:
+                return Double.valueOf(0);
+        }
+    }
+
+    /**
+     * Determines the comparison to use from the source data type and the 
+     * class of the range bounds, as is done by NumberOperations.compare.
+     */
+    private int getSearchMode(RangeLookupTable table) {
+        Number widest = getSourcePrototype();
+        
+        for (Object o : table.getItems()) {
+            Range r = ((LookupItem) o).getRange();
+            Number[] bounds = { r.getMin(), r.getMax() };
+            for (Number bound : bounds) {
+                if (bound != null &&
+                        NumberOperations.highestClass(widest, bound) != widest.getClass()) {
+                    widest = bound;
+                }
+            }
+        }
+        
+        if (widest instanceof Double) {
+            return MODE_DOUBLE;
+        } else if (widest instanceof Float) {
+            return MODE_FLOAT;
+        } else {
+            return MODE_INTEGRAL;
+        }
+    }
+
+    /**
+     * Converts the lookup items to sorted arrays of primitive bounds.
+     */
+    private void createBounds(RangeLookupTable table, Number defaultValue) {
+        floatTol = NumberOperations.getFloatTolerance();
+        doubleTol = NumberOperations.getDoubleTolerance();
+        
+        Number nan = dataType == DataBuffer.TYPE_FLOAT ? 
+                (Number) Float.valueOf(Float.NaN) : (Number) Double.valueOf(Double.NaN);
+        
+        List<Bounds> bounds = new ArrayList<Bounds>();
+        LookupItem nanItem = null;
+        
+        for (Object o : table.getItems()) {
+            LookupItem item = (LookupItem) o;
+            Range r = item.getRange();
+            
+            if (r.isPoint() && r.getMin() == null) {
+                // NaN or infinite point: only a NaN point can match anything
+                if (nanItem == null && dataType != DataBuffer.TYPE_INT && r.contains(nan)) {
+                    nanItem = item;
+                }
+            } else {
+                Bounds b = mode == MODE_INTEGRAL ? 
+                        createIntegralBounds(item) : createBounds(item);
+                if (b != null) {
+                    bounds.add(b);
+                }
+            }
+        }
+        
+        Collections.sort(bounds, new Comparator<Bounds>() {
+            public int compare(Bounds b1, Bounds b2) {
+                int comp = mode == MODE_INTEGRAL ?
+                        (b1.lowerLong < b2.lowerLong ? -1 : (b1.lowerLong > b2.lowerLong ? 1 : 0)) :
+                        Double.compare(b1.lower, b2.lower);
+                
+                if (comp == 0 && b1.lowerIncluded != b2.lowerIncluded) {
+                    // a closed lower bound admits more values so it goes first
+                    comp = b1.lowerIncluded ? -1 : 1;
+                }
+                return comp;
+            }
+        });
+        
+        numItems = bounds.size();
+        int numValues = numItems + (nanItem != null ? 1 : 0);
+        
+        lowerIncluded = new boolean[numItems];
+        upperIncluded = new boolean[numItems];
+        switch (mode) {
+            case MODE_INTEGRAL:
+                lowerLong = new long[numItems];
+                upperLong = new long[numItems];
+                break;
+                
+            case MODE_FLOAT:
+                lowerFloat = new float[numItems];
+                upperFloat = new float[numItems];
+                break;
+                
+            default:
+                lowerDouble = new double[numItems];
+                upperDouble = new double[numItems];
+        }
+        
+        LookupItem[] resultItems = new LookupItem[numValues];
+        for (int i = 0; i < numItems; i++) {
+            Bounds b = bounds.get(i);
+            lowerIncluded[i] = b.lowerIncluded;
+            upperIncluded[i] = b.upperIncluded;
+            
+            switch (mode) {
+                case MODE_INTEGRAL:
+                    lowerLong[i] = b.lowerLong;
+                    upperLong[i] = b.upperLong;
+                    break;
+                    
+                case MODE_FLOAT:
+                    lowerFloat[i] = (float) b.lower;
+                    upperFloat[i] = (float) b.upper;
+                    break;
+                    
+                default:
+                    lowerDouble[i] = b.lower;
+                    upperDouble[i] = b.upper;
+            }
+            
+            resultItems[i] = b.item;
+        }
+        
+        if (nanItem != null) {
+            nanIndex = numItems;
+            resultItems[nanIndex] = nanItem;
+        }
+        
+        switch (dataType) {
+            case DataBuffer.TYPE_INT:
+                intValues = new int[numValues];
+                for (int i = 0; i < numValues; i++) {
+                    intValues[i] = resultItems[i].getValue().intValue();
+                }
+                intDefault = hasDefault ? defaultValue.intValue() : 0;
+                break;
+                
+            case DataBuffer.TYPE_FLOAT:
+                floatValues = new float[numValues];
+                for (int i = 0; i < numValues; i++) {
+                    floatValues[i] = resultItems[i].getValue().floatValue();
+                }
+                floatDefault = hasDefault ? defaultValue.floatValue() : Float.NaN;
+                break;
+                
+            default:
+                doubleValues = new double[numValues];
+                for (int i = 0; i < numValues; i++) {
+                    doubleValues[i] = resultItems[i].getValue().doubleValue();
+                }
+                doubleDefault = hasDefault ? defaultValue.doubleValue() : Double.NaN;
+        }
+    }
+
+    /**
+     * Creates bounds for integral comparison. Open bounds are converted to
+     * the adjacent closed value so that no inclusion flags are needed.
+     * 
+     * @return the bounds or {@code null} if the range contains no integral values
+     */
+    private Bounds createIntegralBounds(LookupItem item) {
+        Range r = item.getRange();
+        Bounds b = new Bounds(item);
+        
+        if (r.isPoint()) {
+            b.lowerLong = b.upperLong = NumberOperations.longValue(r.getMin());
+            
+        } else {
+            if (r.getMin() == null) {
+                b.lowerLong = Long.MIN_VALUE;
+            } else {
+                b.lowerLong = NumberOperations.longValue(r.getMin());
+                if (!r.isMinIncluded()) {
+                    if (b.lowerLong == Long.MAX_VALUE) {
+                        return null;
+                    }
+                    b.lowerLong++ ;
+                }
+            }
+            
+            if (r.getMax() == null) {
+                b.upperLong = Long.MAX_VALUE;
+            } else {
+                b.upperLong = NumberOperations.longValue(r.getMax());
+                if (!r.isMaxIncluded()) {
+                    if (b.upperLong == Long.MIN_VALUE) {
+                        return null;
+                    }
+                    b.upperLong-- ;
+                }
+            }
+        }
+        
+        b.lowerIncluded = b.upperIncluded = true;
+        return b.lowerLong <= b.upperLong ? b : null;
+    }
+
+    /**
+     * Creates bounds for float or double comparison. Unbounded ends are
+     * represented by included infinite values.
+     */
+    private Bounds createBounds(LookupItem item) {
+        Range r = item.getRange();
+        Bounds b = new Bounds(item);
+        
+        if (r.isPoint()) {
+            b.lower = b.upper = toDouble(r.getMin());
+            b.lowerIncluded = b.upperIncluded = true;
+            
+        } else {
+            if (r.getMin() == null) {
+                b.lower = Double.NEGATIVE_INFINITY;
+                b.lowerIncluded = true;
+            } else {
+                b.lower = toDouble(r.getMin());
+                b.lowerIncluded = r.isMinIncluded();
+            }
+            
+            if (r.getMax() == null) {
+                b.upper = Double.POSITIVE_INFINITY;
+                b.upperIncluded = true;
+            } else {
+                b.upper = toDouble(r.getMax());
+                b.upperIncluded = r.isMaxIncluded();
+            }
+        }
+        
+        return b;
+    }
+
+    /**
+     * Converts a bound value as NumberOperations would for the search mode.
+     */
+    private double toDouble(Number value) {
+        return mode == MODE_FLOAT ? 
+                NumberOperations.floatValue(value) : NumberOperations.doubleValue(value);
+    }
+
+    /**
+     * Bounds of a lookup item prior to sorting.
+     */
+    private static class Bounds {
+        final LookupItem item;
+        long lowerLong;
+        long upperLong;
+        double lower;
+        double upper;
+        boolean lowerIncluded;
+        boolean upperIncluded;
+
+        Bounds(LookupItem item) {
+            this.item = item;
+        }
+    }
+}
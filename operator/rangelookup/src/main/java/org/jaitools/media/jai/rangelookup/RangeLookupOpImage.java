@@ -37,9 +37,6 @@ import javax.media.jai.PointOpImage;
 import javax.media.jai.RasterAccessor;
 import javax.media.jai.RasterFormatTag;
 
-import org.jaitools.numeric.Range;
-
-
 /**
  * This is a variation on the JAI {@linkplain javax.media.jai.LookupDescriptor}.
  * It works with a {@linkplain RangeLookupTable} object in which each entry maps
@@ -54,9 +51,7 @@ import org.jaitools.numeric.Range;
 @SuppressWarnings({ "rawtypes", "unchecked" })
 public class RangeLookupOpImage extends PointOpImage {
 
-    private final RangeLookupTable table;
-    private final Number defaultValue;
-    private final boolean hasDefault;
+    private final CompiledRangeLookup lookup;
 
      /**
      * Constructor
@@ -83,9 +78,12 @@ public class RangeLookupOpImage extends PointOpImage {
 
         super(source, layout, config, true);
 
-        this.table = table;
-        this.defaultValue = defaultValue;
-        this.hasDefault = defaultValue != null;
+        /*
+         * Compile the table for the data type that source and destination
+         * samples will be processed as
+         */
+        int dataType = getFormatTags()[1].getFormatTagID() & RasterAccessor.DATATYPE_MASK;
+        this.lookup = new CompiledRangeLookup(table, dataType, defaultValue);
     }
 
     /**
@@ -124,10 +122,8 @@ public class RangeLookupOpImage extends PointOpImage {
                 lookupAsIntData(srcAcc, destAcc);
                 break;
             case DataBuffer.TYPE_SHORT:
-                lookupAsShortData(srcAcc, destAcc);
-                break;
             case DataBuffer.TYPE_USHORT:
-                lookupAsUShortData(srcAcc, destAcc);
+                lookupAsShortData(srcAcc, destAcc);
                 break;
             case DataBuffer.TYPE_FLOAT:
                 lookupAsFloatData(srcAcc, destAcc);
@@ -160,43 +156,17 @@ public class RangeLookupOpImage extends PointOpImage {
         int srcPixelStride = srcAcc.getPixelStride();
         int srcScanlineStride = srcAcc.getScanlineStride();
 
-        Range lastRange = null;
-        
-        byte typedDefaultValue = hasDefault ? defaultValue.byteValue() : Byte.MIN_VALUE;
-        byte destinationValue = typedDefaultValue;
-        
         for (int k = 0; k < destBands; k++) {
-            int destY = destAcc.getY();
             byte destBandData[] = destData[k];
             byte srcBandData[] = srcData[k];
             int srcScanlineOffset = srcBandOffsets[k];
             int dstScanlineOffset = dstBandOffsets[k];
-            for (int j = 0; j < destHeight; j++, destY++) {
-                int destX = destAcc.getX();
+            for (int j = 0; j < destHeight; j++) {
                 int srcPixelOffset = srcScanlineOffset;
                 int dstPixelOffset = dstScanlineOffset;
 
-                for (int i = 0; i < destWidth; i++, destX++) {
-                    // input value
-                    byte val = (byte) (srcBandData[srcPixelOffset] & 0xff);
-
-                    // === destination value
-                    if (lastRange == null || !lastRange.contains(val)) {
-                        // nullify the current rane
-                        lastRange = null;
-
-                        // get a new one if the value falls within some
-                        LookupItem item = table.getLookupItem(val);
-                        if (item != null) {
-                            lastRange = item.getRange();
-                            destinationValue = item.getValue().byteValue();
-                        } else {
-                            // no match: set destination to default value (if defined)
-                            // or source value
-                            destinationValue = hasDefault ? typedDefaultValue : val;
-                        }
-                    }
-                    destBandData[dstPixelOffset] = destinationValue;
+                for (int i = 0; i < destWidth; i++) {
+                    destBandData[dstPixelOffset] = lookup.lookup(srcBandData[srcPixelOffset]);
                     srcPixelOffset += srcPixelStride;
                     dstPixelOffset += dstPixelStride;
                 }
@@ -206,6 +176,10 @@ public class RangeLookupOpImage extends PointOpImage {
         }
     }
 
+    /*
+     * Used for both short and ushort data: the compiled lookup
+     * table is indexed by the unsigned sample bits.
+     */
     private void lookupAsShortData(RasterAccessor srcAcc, RasterAccessor destAcc) {
         short srcData[][] = srcAcc.getShortDataArrays();
         short destData[][] = destAcc.getShortDataArrays();
@@ -219,104 +193,19 @@ public class RangeLookupOpImage extends PointOpImage {
 
         int[] srcBandOffsets = srcAcc.getBandOffsets();
         int srcPixelStride = srcAcc.getPixelStride();
-        int srcScanlineStride = srcAcc.getScanlineStride();    
-        
-        Range lastRange = null;
-        
-        short typedDefaultValue = hasDefault ? defaultValue.shortValue() : Short.MIN_VALUE;
-        short destinationValue = typedDefaultValue;
-        
-        for (int k = 0; k < destBands; k++) {
-            int destY = destAcc.getY();
-            short destBandData[] = destData[k];
-            short srcBandData[] = srcData[k];
-            int srcScanlineOffset = srcBandOffsets[k];
-            int dstScanlineOffset = dstBandOffsets[k];
-            for (int j = 0; j < destHeight; j++, destY++) {
-                int destX = destAcc.getX();
-                int srcPixelOffset = srcScanlineOffset;
-                int dstPixelOffset = dstScanlineOffset;
-
-                for (int i = 0; i < destWidth; i++, destX++) {
-                    short val = srcBandData[srcPixelOffset];
-                    // === destination value
-                    if (lastRange == null || !lastRange.contains(val)) {
-                        // nullify the current rane
-                        lastRange = null;
-
-                        // get a new one if the value falls within some
-                        LookupItem item = table.getLookupItem(val);
-                        if (item != null) {
-                            lastRange = item.getRange();
-                            destinationValue = item.getValue().shortValue();
-                        } else {
-                            // no match: set destination to default value (if defined)
-                            // or source value
-                            destinationValue = hasDefault ? typedDefaultValue : val;
-                        }
-                    }
-                    destBandData[dstPixelOffset] = destinationValue;
-                    srcPixelOffset += srcPixelStride;
-                    dstPixelOffset += dstPixelStride;
-                }
-                srcScanlineOffset += srcScanlineStride;
-                dstScanlineOffset += dstScanlineStride;
-            }
-        }
-    }
-
-    private void lookupAsUShortData(RasterAccessor srcAcc, RasterAccessor destAcc) {
-        short srcData[][] = srcAcc.getShortDataArrays();
-        short destData[][] = destAcc.getShortDataArrays();
-        int destWidth = destAcc.getWidth();
-        int destHeight = destAcc.getHeight();
-        int destBands = destAcc.getNumBands();
-
-        int[] dstBandOffsets = destAcc.getBandOffsets();
-        int dstPixelStride = destAcc.getPixelStride();
-        int dstScanlineStride = destAcc.getScanlineStride();
-
-        int[] srcBandOffsets = srcAcc.getBandOffsets();
-        int srcPixelStride = srcAcc.getPixelStride();
-        int srcScanlineStride = srcAcc.getScanlineStride();        
-
-        Range lastRange = null;
-        
-        short typedDefaultValue = hasDefault ? defaultValue.shortValue() : 0;
-        short destinationValue = typedDefaultValue;
+        int srcScanlineStride = srcAcc.getScanlineStride();
 
         for (int k = 0; k < destBands; k++) {
-            int destY = destAcc.getY();
             short destBandData[] = destData[k];
             short srcBandData[] = srcData[k];
             int srcScanlineOffset = srcBandOffsets[k];
             int dstScanlineOffset = dstBandOffsets[k];
-            for (int j = 0; j < destHeight; j++, destY++) {
-                int destX = destAcc.getX();
+            for (int j = 0; j < destHeight; j++) {
                 int srcPixelOffset = srcScanlineOffset;
                 int dstPixelOffset = dstScanlineOffset;
 
-                for (int i = 0; i < destWidth; i++, destX++) {
-                    int val = srcBandData[srcPixelOffset]  & 0xffff;
-                    
-                    // === destination value
-                    if(lastRange==null|| !lastRange.contains(val)){
-                        // nullify the current range
-                        lastRange=null;
-                        
-                        // get a new one if the value falls within some
-                        LookupItem item = table.getLookupItem(val);
-
-                        if (item != null) {
-                            lastRange = item.getRange();
-                            destinationValue = item.getValue().shortValue();
-                        } else {
-                            // no match: set destination to default value (if defined)
-                            // or source value
-                            destinationValue = hasDefault ? typedDefaultValue : (short) val;
-                        }
-                    }                    
-                    destBandData[dstPixelOffset] = destinationValue;
+                for (int i = 0; i < destWidth; i++) {
+                    destBandData[dstPixelOffset] = lookup.lookup(srcBandData[srcPixelOffset]);
                     srcPixelOffset += srcPixelStride;
                     dstPixelOffset += dstPixelStride;
                 }
@@ -339,44 +228,19 @@ public class RangeLookupOpImage extends PointOpImage {
 
         int[] srcBandOffsets = srcAcc.getBandOffsets();
         int srcPixelStride = srcAcc.getPixelStride();
-        int srcScanlineStride = srcAcc.getScanlineStride();        
-
-        Range lastRange = null;
-        
-        int typedDefaultValue = hasDefault ? defaultValue.intValue() : Integer.MIN_VALUE;
-        int destinationValue = typedDefaultValue;
+        int srcScanlineStride = srcAcc.getScanlineStride();
 
         for (int k = 0; k < destBands; k++) {
-            int destY = destAcc.getY();
             int destBandData[] = destData[k];
             int srcBandData[] = srcData[k];
             int srcScanlineOffset = srcBandOffsets[k];
             int dstScanlineOffset = dstBandOffsets[k];
-            for (int j = 0; j < destHeight; j++, destY++) {
-                int destX = destAcc.getX();
+            for (int j = 0; j < destHeight; j++) {
                 int srcPixelOffset = srcScanlineOffset;
                 int dstPixelOffset = dstScanlineOffset;
 
-                for (int i = 0; i < destWidth; i++, destX++) {
-                    int val = srcBandData[srcPixelOffset];
-                    // === destination value
-                    if (lastRange == null || !lastRange.contains(val)) {
-                        // nullify the current range
-                        lastRange = null;
-
-                        // get a new one if the value falls within some
-                        LookupItem item = table.getLookupItem(val);
-
-                        if (item != null) {
-                            lastRange = item.getRange();
-                            destinationValue = item.getValue().intValue();
-                        } else {
-                            // no match: set destination to default value (if defined)
-                            // or source value
-                            destinationValue = hasDefault ? typedDefaultValue : val;
-                        }
-                    }
-                    destBandData[dstPixelOffset] = destinationValue;
+                for (int i = 0; i < destWidth; i++) {
+                    destBandData[dstPixelOffset] = lookup.lookup(srcBandData[srcPixelOffset]);
                     srcPixelOffset += srcPixelStride;
                     dstPixelOffset += dstPixelStride;
                 }
@@ -399,43 +263,19 @@ public class RangeLookupOpImage extends PointOpImage {
 
         int[] srcBandOffsets = srcAcc.getBandOffsets();
         int srcPixelStride = srcAcc.getPixelStride();
-        int srcScanlineStride = srcAcc.getScanlineStride();        
-
-        Range lastRange = null;
-        
-        float typedDefaultValue = hasDefault ? defaultValue.floatValue() : Float.NaN;
-        float destinationValue = typedDefaultValue;
+        int srcScanlineStride = srcAcc.getScanlineStride();
 
         for (int k = 0; k < destBands; k++) {
-            int destY = destAcc.getY();
             float destBandData[] = destData[k];
             float srcBandData[] = srcData[k];
             int srcScanlineOffset = srcBandOffsets[k];
             int dstScanlineOffset = dstBandOffsets[k];
-            for (int j = 0; j < destHeight; j++, destY++) {
-                int destX = destAcc.getX();
+            for (int j = 0; j < destHeight; j++) {
                 int srcPixelOffset = srcScanlineOffset;
                 int dstPixelOffset = dstScanlineOffset;
 
-                for (int i = 0; i < destWidth; i++, destX++) {
-                    float val = srcBandData[srcPixelOffset];
-                    // === destination value
-                    if (lastRange == null || !lastRange.contains(val)) {
-                        // nullify the current range
-                        lastRange = null;
-
-                        // get a new one if the value falls within some
-                        LookupItem item = table.getLookupItem(val);
-                        if (item != null) {
-                            lastRange = item.getRange();
-                            destinationValue = item.getValue().floatValue();
-                        } else {
-                            // no match: set destination to default value (if defined)
-                            // or source value
-                            destinationValue = hasDefault ? typedDefaultValue : val;
-                        }
-                    }
-                    destBandData[dstPixelOffset] = destinationValue;
+                for (int i = 0; i < destWidth; i++) {
+                    destBandData[dstPixelOffset] = lookup.lookup(srcBandData[srcPixelOffset]);
                     srcPixelOffset += srcPixelStride;
                     dstPixelOffset += dstPixelStride;
                 }
@@ -461,41 +301,17 @@ public class RangeLookupOpImage extends PointOpImage {
         int srcPixelStride = srcAcc.getPixelStride();
         int srcScanlineStride = srcAcc.getScanlineStride();
 
-        Range lastRange = null;
-        
-        double typedDefaultValue = hasDefault ? defaultValue.doubleValue() : Double.NaN;
-        double destinationValue = typedDefaultValue;
-
         for (int k = 0; k < destBands; k++) {
-            int destY = destAcc.getY();
             double destBandData[] = destData[k];
             double srcBandData[] = srcData[k];
             int srcScanlineOffset = srcBandOffsets[k];
             int dstScanlineOffset = dstBandOffsets[k];
-            for (int j = 0; j < destHeight; j++, destY++) {
-                int destX = destAcc.getX();
+            for (int j = 0; j < destHeight; j++) {
                 int srcPixelOffset = srcScanlineOffset;
                 int dstPixelOffset = dstScanlineOffset;
 
-                for (int i = 0; i < destWidth; i++, destX++) {
-                    double val = srcBandData[srcPixelOffset];
-                    // === destination value
-                    if (lastRange == null || !lastRange.contains(val)) {
-                        // nullify the current range
-                        lastRange = null;
-
-                        // get a new one if the value falls within some
-                        LookupItem item = table.getLookupItem(val);
-                        if (item != null) {
-                            lastRange = item.getRange();
-                            destinationValue = item.getValue().doubleValue();
-                        } else {
-                            // no match: set destination to default value (if defined)
-                            // or source value
-                            destinationValue = hasDefault ? typedDefaultValue : val;
-                        }
-                    }
-                    destBandData[dstPixelOffset] = destinationValue;
+                for (int i = 0; i < destWidth; i++) {
+                    destBandData[dstPixelOffset] = lookup.lookup(srcBandData[srcPixelOffset]);
                     srcPixelOffset += srcPixelStride;
                     dstPixelOffset += dstPixelStride;
                 }
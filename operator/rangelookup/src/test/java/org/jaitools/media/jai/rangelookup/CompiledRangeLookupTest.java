@@ -0,0 +1,205 @@
+/* 
+ *  Copyright (c) 2013, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+
+package org.jaitools.media.jai.rangelookup;
+
+import java.awt.image.DataBuffer;
+
+import org.jaitools.numeric.Range;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+/**
+ * Tests for CompiledRangeLookup. Results are checked against lookups done
+ * directly with the source table.
+ * 
+ * @author Michael Bedward
+ * @since 1.5
+ * @version $Id$
+ */
+public class CompiledRangeLookupTest extends TestBase {
+
+    @Test
+    public void byteTable() throws Exception {
+        System.out.println("   compiled lookup with byte data");
+        
+        RangeLookupTable<Integer, Integer> table = createTableFromBreaks(
+                new Integer[] {10, 100, 200}, new Integer[] {1, 2, 3, 4});
+        
+        for (Integer defaultValue : new Integer[] {null, 0}) {
+            CompiledRangeLookup lookup = 
+                    new CompiledRangeLookup(table, DataBuffer.TYPE_BYTE, defaultValue);
+            
+            for (int i = 0; i < 256; i++) {
+                byte val = (byte) i;
+                LookupItem<Integer, Integer> item = table.getLookupItem((int) val & 0xff);
+                byte expected = item != null ? item.getValue().byteValue() : val;
+                assertEquals(expected, lookup.lookup(val));
+            }
+        }
+    }
+
+    @Test
+    public void shortAndUShortTables() throws Exception {
+        System.out.println("   compiled lookup with short and ushort data");
+        
+        RangeLookupTable.Builder<Integer, Integer> builder = 
+                new RangeLookupTable.Builder<Integer, Integer>();
+        builder.add(Range.create(-1000, true, -10, false), 1)
+               .add(Range.create(0, true, 0, true), 2)
+               .add(Range.create(5, false, 40000, true), 3);
+        RangeLookupTable<Integer, Integer> table = builder.build();
+        
+        final short defaultValue = -1;
+        CompiledRangeLookup shortLookup = 
+                new CompiledRangeLookup(table, DataBuffer.TYPE_SHORT, defaultValue);
+        CompiledRangeLookup ushortLookup = 
+                new CompiledRangeLookup(table, DataBuffer.TYPE_USHORT, null);
+        
+        for (int i = Short.MIN_VALUE; i <= Short.MAX_VALUE; i++) {
+            short val = (short) i;
+            
+            LookupItem<Integer, Integer> item = table.getLookupItem(i);
+            short expected = item != null ? item.getValue().shortValue() : defaultValue;
+            assertEquals(expected, shortLookup.lookup(val));
+            
+            int uval = val & 0xffff;
+            item = table.getLookupItem(uval);
+            expected = item != null ? item.getValue().shortValue() : val;
+            assertEquals(expected, ushortLookup.lookup(val));
+        }
+    }
+
+    @Test
+    public void intBreakpoints() throws Exception {
+        System.out.println("   compiled lookup with int data");
+        
+        RangeLookupTable.Builder<Integer, Integer> builder = 
+                new RangeLookupTable.Builder<Integer, Integer>();
+        builder.add(Range.create(null, false, -50, true), 1)
+               .add(Range.create(-20, false, -10, false), 2)
+               .add(Range.create(0, true, 0, true), 3)
+               .add(Range.create(1, false, 2, false), 4)
+               .add(Range.create(7, true, 9, true), 5)
+               .add(Range.create(100, false, null, false), 6);
+        RangeLookupTable<Integer, Integer> table = builder.build();
+        
+        CompiledRangeLookup lookup = new CompiledRangeLookup(table, DataBuffer.TYPE_INT, null);
+        
+        for (int val = -200; val <= 200; val++) {
+            LookupItem<Integer, Integer> item = table.getLookupItem(val);
+            int expected = item != null ? item.getValue() : val;
+            assertEquals(expected, lookup.lookup(val));
+        }
+        
+        assertEquals(1, lookup.lookup(Integer.MIN_VALUE));
+        assertEquals(6, lookup.lookup(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void intDataWithDoubleRanges() throws Exception {
+        System.out.println("   compiled lookup with int data and double ranges");
+        
+        RangeLookupTable<Double, Integer> table = createTableFromBreaks(
+                new Double[] {-2.5, 0.0, 3.5, 10.0}, new Integer[] {1, 2, 3, 4, 5});
+        
+        CompiledRangeLookup lookup = new CompiledRangeLookup(table, DataBuffer.TYPE_INT, 0);
+        
+        for (int val = -20; val <= 20; val++) {
+            LookupItem item = ((RangeLookupTable) table).getLookupItem(val);
+            int expected = item != null ? item.getValue().intValue() : 0;
+            assertEquals(expected, lookup.lookup(val));
+        }
+    }
+
+    @Test
+    public void floatBreakpoints() throws Exception {
+        System.out.println("   compiled lookup with float data");
+        
+        RangeLookupTable.Builder<Float, Integer> builder = 
+                new RangeLookupTable.Builder<Float, Integer>();
+        builder.add(Range.create(-1.0f, true, 0.0f, false), 1)
+               .add(Range.create(0.5f, true, 0.5f, true), 2)
+               .add(Range.create(1.0f, false, 2.0f, true), 3)
+               .add(Range.create(5.0f, true, null, false), 4);
+        RangeLookupTable<Float, Integer> table = builder.build();
+        
+        CompiledRangeLookup lookup = new CompiledRangeLookup(table, DataBuffer.TYPE_FLOAT, null);
+        
+        // step size chosen to hit values within the float comparison
+        // tolerance of the range bounds
+        for (int i = -30000; i <= 70000; i++) {
+            float val = i * 1.0e-4f;
+            LookupItem<Float, Integer> item = table.getLookupItem(val);
+            float expected = item != null ? item.getValue().floatValue() : val;
+            assertEquals(expected, lookup.lookup(val), 0.0f);
+        }
+        
+        assertTrue(Float.isNaN(lookup.lookup(Float.NaN)));
+        assertEquals(4.0f, lookup.lookup(Float.POSITIVE_INFINITY), 0.0f);
+        assertEquals(Float.NEGATIVE_INFINITY, lookup.lookup(Float.NEGATIVE_INFINITY), 0.0f);
+    }
+
+    @Test
+    public void doubleBreakpoints() throws Exception {
+        System.out.println("   compiled lookup with double data");
+        
+        RangeLookupTable<Double, Integer> table = createTableFromBreaks(
+                new Double[] {-1.0, 0.0, 0.25, 1.0e6}, new Integer[] {1, 2, 3, 4, 5});
+        
+        CompiledRangeLookup lookup = new CompiledRangeLookup(table, DataBuffer.TYPE_DOUBLE, -1);
+        
+        double[] values = {
+            Double.NEGATIVE_INFINITY, -1.5, -1.0, -1.0 - 1.0e-9, -0.5, 0.0, 1.0e-9, 
+            0.25, 0.2499999999, 0.3, 1.0e6, 1.0e6 - 1.0, 1.0e7, Double.POSITIVE_INFINITY 
+        };
+        
+        for (double val : values) {
+            LookupItem<Double, Integer> item = table.getLookupItem(val);
+            double expected = item != null ? item.getValue().doubleValue() : -1;
+            assertEquals(expected, lookup.lookup(val), 0.0);
+        }
+        
+        // no NaN item so the default value is returned
+        assertEquals(-1.0, lookup.lookup(Double.NaN), 0.0);
+    }
+
+    @Test
+    public void emptyTable() throws Exception {
+        System.out.println("   compiled lookup with empty table");
+        
+        RangeLookupTable<Integer, Integer> table = 
+                new RangeLookupTable.Builder<Integer, Integer>().build();
+        
+        CompiledRangeLookup lookup = new CompiledRangeLookup(table, DataBuffer.TYPE_INT, null);
+        assertEquals(42, lookup.lookup(42));
+        
+        lookup = new CompiledRangeLookup(table, DataBuffer.TYPE_DOUBLE, 0);
+        assertEquals(0.0, lookup.lookup(42.0), 0.0);
+    }
+}
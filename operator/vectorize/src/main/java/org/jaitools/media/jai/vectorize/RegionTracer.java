@@ -0,0 +1,378 @@
+/* 
+ *  Copyright (c) 2013, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+
+package org.jaitools.media.jai.vectorize;
+
+import java.util.BitSet;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequenceFactory;
+
+import org.jaitools.CollectionFactory;
+
+/**
+ * Vectorizes regions by connected component labelling. Rows of pixel values
+ * are added in order and labelled on the fly, using union-find to join 
+ * provisional labels which meet on later rows. The rings of each region are 
+ * then traced directly from the label raster, so there is no intermediate 
+ * linework to node and polygonize.
+ * <p>
+ * Regions are 4-connected. Where two pixels of the same region meet only 
+ * diagonally, the region's ring is traced through the shared vertex so that 
+ * shells and holes may touch at a point but never cross themselves. Rings 
+ * only have vertices where their direction changes.
+ * 
+ * @author Michael Bedward
+ * @since 1.5
+ * @version $Id$
+ */
+final class RegionTracer {
+    
+    // Directions, in clockwise order (with y increasing downwards)
+    private static final int EAST = 0;
+    private static final int[] DX = {1, 0, -1, 0};
+    private static final int[] DY = {0, 1, 0, -1};
+
+    // Offsets, from a vertex, of the pixels ahead-left and ahead-right
+    // of the direction of travel
+    private static final int[] AL_DX = {0, 0, -1, -1};
+    private static final int[] AL_DY = {-1, 0, 0, -1};
+    private static final int[] AR_DX = {0, -1, -1, 0};
+    private static final int[] AR_DY = {0, 0, -1, -1};
+
+    private final int minX;
+    private final int minY;
+    private final int width;
+    private final int height;
+    
+    // Label of each pixel (0 for pixels not in any region)
+    private final int[] labels;
+    
+    // Union-find forest and value for provisional labels
+    private int[] parent;
+    private double[] labelValues;
+    private int numLabels;
+
+    // Previous row, used to join regions across rows
+    private double[] prevValues;
+    private boolean[] prevInclude;
+    private int row;
+    
+    /**
+     * Creates a new instance.
+     * 
+     * @param minX X ordinate of the left-most pixel column
+     * @param minY Y ordinate of the top-most pixel row
+     * @param width number of pixel columns
+     * @param height number of pixel rows
+     */
+    RegionTracer(int minX, int minY, int width, int height) {
+        this.minX = minX;
+        this.minY = minY;
+        this.width = width;
+        this.height = height;
+        
+        labels = new int[width * height];
+        parent = new int[Math.max(width, 16)];
+        labelValues = new double[parent.length];
+        prevValues = new double[width];
+        prevInclude = new boolean[width];
+    }
+
+    /**
+     * Labels the next row of pixels. Rows must be added in order, 
+     * from top to bottom.
+     * 
+     * @param values pixel values for the row
+     * @param include flags for the pixels that belong to a region; pixels 
+     *        with {@code false} are outside all regions
+     */
+    void addRow(double[] values, boolean[] include) {
+        if (row >= height) {
+            throw new IllegalStateException("All rows have been added");
+        }
+        
+        final int offset = row * width;
+        for (int x = 0; x < width; x++) {
+            int label = 0;
+            if (include[x]) {
+                final double value = values[x];
+                int left = 0;
+                if (x > 0 && include[x - 1] 
+                        && VectorizeOpImage.isDifferent(values[x - 1], value) == 0) {
+                    left = labels[offset + x - 1];
+                }
+                
+                int up = 0;
+                if (row > 0 && prevInclude[x] 
+                        && VectorizeOpImage.isDifferent(prevValues[x], value) == 0) {
+                    up = labels[offset - width + x];
+                }
+                
+                if (left == 0 && up == 0) {
+                    label = newLabel(value);
+                } else if (up == 0) {
+                    label = left;
+                } else {
+                    label = up;
+                    if (left != 0 && left != up) {
+                        union(left, up);
+                    }
+                }
+            }
+            labels[offset + x] = label;
+        }
+        
+        System.arraycopy(values, 0, prevValues, 0, width);
+        System.arraycopy(include, 0, prevInclude, 0, width);
+        row++;
+    }
+
+    /**
+     * Resolves the region labels and traces the rings of each region.
+     * Polygons are returned in the order of the first pixel of their 
+     * region (row by row), with the region value as user data.
+     * 
+     * @param factory the factory used to create polygons
+     * 
+     * @return the polygons
+     */
+    List<Geometry> getPolygons(GeometryFactory factory) {
+        if (row < height) {
+            throw new IllegalStateException("Only " + row + " of " + height + " rows added");
+        }
+        
+        final double[] regionValues = resolveLabels();
+        final int numRegions = regionValues.length - 1;
+        
+        double[][] shells = new double[numRegions + 1][];
+        List<List<double[]>> holes = CollectionFactory.list();
+        for (int i = 0; i <= numRegions; i++) {
+            holes.add(null);
+        }
+        
+        // Every ring has at least one edge running east along the top of
+        // one of its region's pixels, so scanning for unvisited top edges
+        // finds them all. The first ring found for a region is its shell.
+        BitSet visited = new BitSet(labels.length);
+        RingBuffer buffer = new RingBuffer();
+        for (int y = 0, index = 0; y < height; y++) {
+            for (int x = 0; x < width; x++, index++) {
+                int label = labels[index];
+                if (label != 0 && 
+                        (y == 0 || labels[index - width] != label) &&
+                        !visited.get(index)) {
+                    
+                    double[] ring = traceRing(x, y, label, visited, buffer);
+                    if (shells[label] == null) {
+                        shells[label] = ring;
+                    } else {
+                        List<double[]> regionHoles = holes.get(label);
+                        if (regionHoles == null) {
+                            regionHoles = CollectionFactory.list();
+                            holes.set(label, regionHoles);
+                        }
+                        regionHoles.add(ring);
+                    }
+                }
+            }
+        }
+        
+        List<Geometry> polygons = CollectionFactory.list();
+        for (int label = 1; label <= numRegions; label++) {
+            List<double[]> regionHoles = holes.get(label);
+            LinearRing[] holeRings = null;
+            if (regionHoles != null) {
+                holeRings = new LinearRing[regionHoles.size()];
+                for (int i = 0; i < holeRings.length; i++) {
+                    holeRings[i] = createRing(factory, regionHoles.get(i));
+                }
+            }
+            
+            Polygon poly = factory.createPolygon(createRing(factory, shells[label]), holeRings);
+            poly.setUserData(regionValues[label]);
+            polygons.add(poly);
+            
+            shells[label] = null;
+            holes.set(label, null);
+        }
+        
+        return polygons;
+    }
+    
+    /**
+     * Replaces provisional labels with final region labels, numbered from 1
+     * in order of each region's first pixel.
+     * 
+     * @return region values indexed by final label (element 0 is unused)
+     */
+    private double[] resolveLabels() {
+        int[] finalLabel = new int[numLabels + 1];
+        double[] values = new double[numLabels + 1];
+        int numRegions = 0;
+        
+        // a root is always the lowest provisional label in its set, so it
+        // is resolved before any of the labels joined to it
+        for (int i = 1; i <= numLabels; i++) {
+            int root = find(i);
+            if (root == i) {
+                finalLabel[i] = ++numRegions;
+                values[numRegions] = labelValues[i];
+            } else {
+                finalLabel[i] = finalLabel[root];
+            }
+        }
+        
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = finalLabel[labels[i]];
+        }
+        
+        parent = null;
+        labelValues = null;
+        
+        double[] regionValues = new double[numRegions + 1];
+        System.arraycopy(values, 0, regionValues, 0, numRegions + 1);
+        return regionValues;
+    }
+    
+    /**
+     * Traces a ring, keeping the region on the right, starting east along
+     * the top edge of the given pixel.
+     * 
+     * @return packed ring coordinates
+     */
+    private double[] traceRing(int startX, int startY, int label, BitSet visited, RingBuffer buffer) {
+        buffer.clear();
+        buffer.add(startX + minX, startY + minY);
+        
+        int x = startX;
+        int y = startY;
+        int dir = EAST;
+        do {
+            if (dir == EAST) {
+                visited.set(y * width + x);
+            }
+            x += DX[dir];
+            y += DY[dir];
+            
+            int nextDir;
+            if (labelAt(x + AL_DX[dir], y + AL_DY[dir]) == label) {
+                // turn left; this also keeps diagonal pixels of the
+                // region on the same ring
+                nextDir = (dir + 3) % 4;
+            } else if (labelAt(x + AR_DX[dir], y + AR_DY[dir]) == label) {
+                nextDir = dir;
+            } else {
+                nextDir = (dir + 1) % 4;
+            }
+            
+            if (nextDir != dir) {
+                buffer.add(x + minX, y + minY);
+                dir = nextDir;
+            }
+        } while (x != startX || y != startY || dir != EAST);
+        
+        return buffer.toArray();
+    }
+    
+    private int labelAt(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return 0;
+        }
+        return labels[y * width + x];
+    }
+    
+    private int newLabel(double value) {
+        numLabels++;
+        if (numLabels == parent.length) {
+            int[] p = new int[parent.length * 2];
+            System.arraycopy(parent, 0, p, 0, parent.length);
+            parent = p;
+            
+            double[] v = new double[p.length];
+            System.arraycopy(labelValues, 0, v, 0, labelValues.length);
+            labelValues = v;
+        }
+        parent[numLabels] = numLabels;
+        labelValues[numLabels] = value;
+        return numLabels;
+    }
+    
+    private int find(int label) {
+        while (parent[label] != label) {
+            parent[label] = parent[parent[label]];
+            label = parent[label];
+        }
+        return label;
+    }
+    
+    private void union(int a, int b) {
+        int ra = find(a);
+        int rb = find(b);
+        if (ra < rb) {
+            parent[rb] = ra;
+        } else if (rb < ra) {
+            parent[ra] = rb;
+        }
+    }
+    
+    private static LinearRing createRing(GeometryFactory factory, double[] coords) {
+        return factory.createLinearRing(
+                PackedCoordinateSequenceFactory.DOUBLE_FACTORY.create(coords, 2));
+    }
+    
+    /**
+     * A growable buffer for ring coordinates.
+     */
+    private static class RingBuffer {
+        private double[] data = new double[64];
+        private int size;
+        
+        void clear() {
+            size = 0;
+        }
+        
+        void add(double x, double y) {
+            if (size + 2 > data.length) {
+                double[] d = new double[data.length * 2];
+                System.arraycopy(data, 0, d, 0, size);
+                data = d;
+            }
+            data[size++] = x;
+            data[size++] = y;
+        }
+        
+        double[] toArray() {
+            double[] coords = new double[size];
+            System.arraycopy(data, 0, coords, 0, size);
+            return coords;
+        }
+    }
+}
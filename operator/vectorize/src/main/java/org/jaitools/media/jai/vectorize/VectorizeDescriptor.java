@@ -94,6 +94,25 @@ import javax.media.jai.registry.RenderedRegistryMode;
  * be straightforward to identify such unwanted polygons and filter them from
  * the result set.
  * <p>
+ * Large images can be vectorized in parallel by setting the "numThreads"
+ * parameter to a value other than 1. The image is then divided into blocks, 
+ * aligned with source image tiles where possible, which are traced 
+ * separately. Polygons that lie within a block are used directly, while those 
+ * that meet polygons of the same value across block edges are merged with them. 
+ * The regions are the same as those from sequential vectorizing, but polygons
+ * may be returned in a different order and their rings may start at different
+ * vertices. Unless removeCollinear is true, merged polygons also keep a 
+ * vertex wherever their boundary crossed a block edge.
+ * <p>
+ * For categorical rasters, setting "vectorizeMethod" to {@link #METHOD_LABEL_REGIONS}
+ * is usually much faster. Connected regions are first labelled and the rings
+ * of each region are then traced directly, with no intermediate boundary 
+ * lines. Rings only have vertices at their corners, so removeCollinear has no
+ * effect, and this method always runs sequentially. Where two pixels of a 
+ * region meet only diagonally, the region's shell or holes touch at that 
+ * vertex, and polygons are returned in the order of their first pixel 
+ * (row by row).
+ * <p>
  * 
  * The following parameters control the vectorizing process:
  * <table border="1" cellpadding="3">
@@ -163,6 +182,25 @@ import javax.media.jai.registry.RenderedRegistryMode;
  * {@link #FILTER_MERGE_RANDOM}<br>
  * {@link #FILTER_DELETE}<br></td>
  * </tr>
+ * 
+ * <tr>
+ * <td>numThreads</td>
+ * <td>Integer</td>
+ * <td>1</td>
+ * <td>
+ * Number of threads to use. If 1, the image is vectorized sequentially.
+ * If 0, the number of available processors is used.
+ * </td>
+ * </tr>
+ * 
+ * <tr>
+ * <td>vectorizeMethod</td>
+ * <td>Integer</td>
+ * <td>{@link #METHOD_POLYGONIZE}</td>
+ * <td>The method used to construct polygons. Must be one of:<br>
+ * {@link #METHOD_POLYGONIZE}<br>
+ * {@link #METHOD_LABEL_REGIONS}<br></td>
+ * </tr>
  * </table>
  * 
  * @see com.vividsolutions.jts.geom.Polygon
@@ -194,6 +232,17 @@ public class VectorizeDescriptor extends OperationDescriptorImpl {
      * Filter small polygons by simple deletion.
      */
     public static final int FILTER_DELETE = 2;
+    
+    /**
+     * Construct polygons by tracing region boundaries as lines which
+     * are then polygonized. This is the default.
+     */
+    public static final int METHOD_POLYGONIZE = 0;
+    /**
+     * Construct polygons by labelling connected regions and tracing 
+     * the rings of each region directly.
+     */
+    public static final int METHOD_LABEL_REGIONS = 1;
 
     static final int ROI_ARG = 0;
     static final int BAND_ARG = 1;
@@ -202,6 +251,8 @@ public class VectorizeDescriptor extends OperationDescriptorImpl {
     static final int REMOVE_COLLINEAR_ARG = 4;
     static final int FILTER_SMALL_POLYS_ARG = 5;
     static final int FILTER_METHOD_ARG = 6;
+    static final int NUM_THREADS_ARG = 7;
+    static final int VECTORIZE_METHOD_ARG = 8;
 
     private static final String[] paramNames = {
         "roi",
@@ -210,7 +261,9 @@ public class VectorizeDescriptor extends OperationDescriptorImpl {
         "insideEdges",
         "removeCollinear",
         "filterThreshold",
-        "filterMethod"
+        "filterMethod",
+        "numThreads",
+        "vectorizeMethod"
     };
 
     private static final Class[] paramClasses = {
@@ -220,6 +273,8 @@ public class VectorizeDescriptor extends OperationDescriptorImpl {
          Boolean.class,
          Boolean.class,
          Double.class,
+         Integer.class,
+         Integer.class,
          Integer.class
     };
 
@@ -230,7 +285,9 @@ public class VectorizeDescriptor extends OperationDescriptorImpl {
          Boolean.TRUE,
          Boolean.TRUE,
          Double.valueOf(0.0),
-         FILTER_MERGE_LARGEST
+         FILTER_MERGE_LARGEST,
+         Integer.valueOf(1),
+         METHOD_POLYGONIZE
     };
 
     /** Constructor. */
@@ -259,7 +316,11 @@ public class VectorizeDescriptor extends OperationDescriptorImpl {
                     {"arg5Desc", paramNames[5] + " (Double, default=0) " +
                               "area (fractional pixels) below which polygons will be filtered"},
                     {"arg6Desc", paramNames[6] + " (Integer, default=FILTER_MERGE_LARGEST) " +
-                              "filter method to use for polygons smaller than threshold area"}
+                              "filter method to use for polygons smaller than threshold area"},
+                    {"arg7Desc", paramNames[7] + " (Integer, default=1) " +
+                              "number of threads to use, or 0 for the number of available processors"},
+                    {"arg8Desc", paramNames[8] + " (Integer, default=METHOD_POLYGONIZE) " +
+                              "method used to construct polygons"}
                 },
                 new String[]{RenderedRegistryMode.MODE_NAME},   // supported modes
                 
@@ -295,6 +356,24 @@ public class VectorizeDescriptor extends OperationDescriptorImpl {
                 msg.append("Invalid filter method: ").append(filterMethod);
             }
         }
+        
+        if (ok) {
+            Object numThreads = pb.getObjectParameter(NUM_THREADS_ARG);
+            if (numThreads != null && (Integer) numThreads < 0) {
+                ok = false;
+                msg.append("numThreads must not be negative: ").append(numThreads);
+            }
+        }
+        
+        if (ok) {
+            Object method = pb.getObjectParameter(VECTORIZE_METHOD_ARG);
+            if (method != null && 
+                    !(METHOD_POLYGONIZE == (Integer) method || 
+                      METHOD_LABEL_REGIONS == (Integer) method)) {
+                ok = false;
+                msg.append("Invalid vectorize method: ").append(method);
+            }
+        }
         return ok;
     }
 
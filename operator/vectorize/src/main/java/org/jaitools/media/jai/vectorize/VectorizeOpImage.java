@@ -25,9 +25,12 @@
 
 package org.jaitools.media.jai.vectorize;
 
+import java.awt.Rectangle;
 import java.awt.image.RenderedImage;
 import java.lang.ref.SoftReference;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
@@ -36,25 +39,40 @@ import java.util.Random;
 import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import javax.media.jai.PlanarImage;
 import javax.media.jai.ROI;
 import javax.media.jai.iterator.RandomIter;
 import javax.media.jai.iterator.RandomIterFactory;
+import javax.media.jai.iterator.RectIter;
+import javax.media.jai.iterator.RectIterFactory;
 
+import com.vividsolutions.jts.algorithm.locate.IndexedPointInAreaLocator;
+import com.vividsolutions.jts.algorithm.locate.PointOnGeometryLocator;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.CoordinateArrays;
+import com.vividsolutions.jts.geom.CoordinateSequence;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LineSegment;
 import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Location;
 import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.geom.Polygon;
 import com.vividsolutions.jts.geom.PrecisionModel;
 import com.vividsolutions.jts.geom.impl.PackedCoordinateSequenceFactory;
-import com.vividsolutions.jts.index.quadtree.Quadtree;
+import com.vividsolutions.jts.index.strtree.STRtree;
 import com.vividsolutions.jts.operation.polygonize.Polygonizer;
+import com.vividsolutions.jts.operation.union.CascadedPolygonUnion;
 
 import org.jaitools.CollectionFactory;
+import org.jaitools.DaemonThreadFactory;
+import org.jaitools.imageutils.ROIMask;
 import org.jaitools.jts.Utils;
 import org.jaitools.media.jai.AttributeOpImage;
 
@@ -132,6 +150,10 @@ public class VectorizeOpImage extends AttributeOpImage {
     // Default values used for "inside" when not vectorizing
     // boundaries between adjacent inside regions
     private static final int INSIDE_FLAG_VALUE = 1;
+    
+    // Approximate width and height of the blocks traced separately
+    // when vectorizing in parallel
+    private static final int BLOCK_SIZE = 512;
 
     // Source image band being processed
     private final int band;
@@ -146,15 +168,6 @@ public class VectorizeOpImage extends AttributeOpImage {
     // Proxy value used when inside edges are not being vectorized
     // (ie. insideEdges == false)
     private Double inside = null;
-
-    // Segments of vertical boundary under construction
-    private Map<Integer, LineSegment> vertLines;
-
-    // Segments of horizontal boundary under construction
-    private LineSegment horizLine;
-
-    // Holds lines, constructed from boundary segments, to be polygonized
-    private List<LineString> lines;
     
     // Factory for construction of JTS Geometry objects
     private final static GeometryFactory GEOMETRY_FACTORY= new GeometryFactory(new PrecisionModel(10));
@@ -174,6 +187,12 @@ public class VectorizeOpImage extends AttributeOpImage {
     
     private Random rr;
     
+    // Number of threads to use for boundary tracing
+    private final int numThreads;
+    
+    // Method used to construct polygons
+    private final int vectorizeMethod;
+    
 
     /**
      * Creates a new instance of the operator.
@@ -200,6 +219,14 @@ public class VectorizeOpImage extends AttributeOpImage {
      *        {@link VectorizeDescriptor#FILTER_MERGE_LARGEST},
      *        {@link VectorizeDescriptor#FILTER_MERGE_RANDOM}, or
      *        {@link VectorizeDescriptor#FILTER_DELETE}
+     * 
+     * @param numThreads number of threads to use; if greater than 1, image
+     *        blocks are traced in parallel; if 0, the number of available
+     *        processors is used
+     * 
+     * @param vectorizeMethod method used to construct polygons; must be either
+     *        {@link VectorizeDescriptor#METHOD_POLYGONIZE} or
+     *        {@link VectorizeDescriptor#METHOD_LABEL_REGIONS}
      */
     public VectorizeOpImage(RenderedImage source,
             ROI roi,
@@ -208,7 +235,9 @@ public class VectorizeOpImage extends AttributeOpImage {
             boolean insideEdges,
             boolean removeCollinear,
             double filterThreshold,
-            int filterMethod) {
+            int filterMethod,
+            int numThreads,
+            int vectorizeMethod) {
             
         super(source, roi);
                 
@@ -225,6 +254,8 @@ public class VectorizeOpImage extends AttributeOpImage {
         this.removeCollinear=removeCollinear;
         this.filterThreshold = filterThreshold;
         this.filterMethod = filterMethod;
+        this.numThreads = numThreads > 0 ? numThreads : Runtime.getRuntime().availableProcessors();
+        this.vectorizeMethod = vectorizeMethod;
     }
 
     /**
@@ -248,151 +279,315 @@ public class VectorizeOpImage extends AttributeOpImage {
     protected String[] getAttributeNames() {
         return new String[] {VectorizeDescriptor.VECTOR_PROPERTY_NAME};
     }
-    
+        
 
     /**
      * Runs the polygon creation and filtering steps.
      */
     private void doVectorize() {
-        lines = CollectionFactory.list();
-        vertLines = CollectionFactory.map();
+        if (!insideEdges) {
+            setInsideValue();
+        }
         
-        vectorizeBoundaries();
-        List<Geometry> polys = assemblePolygons();
+        List<Geometry> polys;
+        if (vectorizeMethod == VectorizeDescriptor.METHOD_LABEL_REGIONS) {
+            polys = labelRegions();
+            
+        } else {
+            PlanarImage src = getSourceImage(0);
+            int[] xEdges = blockEdges(srcBounds.x, srcBounds.width, 
+                    src.getNumXTiles(), src.getTileWidth(), src.getTileGridXOffset());
+            int[] yEdges = blockEdges(srcBounds.y, srcBounds.height, 
+                    src.getNumYTiles(), src.getTileHeight(), src.getTileGridYOffset());
+
+            if (numThreads > 1 && (xEdges.length > 2 || yEdges.length > 2)) {
+                polys = vectorizeBlocks(xEdges, yEdges);
+            } else {
+                polys = new BoundaryTracer().vectorize(srcBounds);
+            }
+        }
         
         if (filterThreshold > 0) {
             filterSmallPolygons(polys);
         }
         cachedVectors = new SoftReference<List<Geometry>>(polys);
     }
-        
+
     /**
-     * Polygonizess the boundary segments that have been collected by the 
-     * vectorizing algorithm and, if the field {@code insideEdges} is TRUE,
-     * assigns the value of the source image band to each polygon's user data
-     * field.
+     * Creates polygons by labelling connected regions in the source image
+     * and tracing their rings directly.
+     * 
+     * @return the polygons
      */
-    private List<Geometry> assemblePolygons() {
-
-        List<Geometry> polygons = CollectionFactory.list();
-        RandomIter imgIter = RandomIterFactory.create(getSourceImage(0), null);
-        Polygonizer polygonizer = new Polygonizer();
+    private List<Geometry> labelRegions() {
+        final int width = srcBounds.width;
+        RegionTracer tracer = new RegionTracer(srcBounds.x, srcBounds.y, width, srcBounds.height);
         
-        try {
-            polygonizer.add(lines);
-            Collection<Geometry> rawPolys = polygonizer.getPolygons();
+        double[] values = new double[width];
+        boolean[] include = new boolean[width];
+        
+        RectIter iter = RectIterFactory.create(getSourceImage(0), srcBounds);
+        int iband = 0;
+        iter.startBands();
+        while (iband < band && !iter.nextBandDone()) {
+            iband++;
+        }
 
-            for (Iterator it = rawPolys.iterator(); it.hasNext();) {
-                Polygon poly = (Polygon) it.next();
-                
-                // Remove the geometry and free some memory
-                it.remove();
+        int y = srcBounds.y;
+        iter.startLines();
+        while (!iter.finishedLines()) {
+            boolean[] roiRow = null;
+            if (roi != null) {
+                ROIMask mask = ROIMask.create(roi, new Rectangle(srcBounds.x, y, width, 1));
+                roiRow = mask.isAllInside() ? null : mask.getData();
+            }
 
-                if (removeCollinear) {
-                    poly = Utils.removeCollinearVertices(poly);
-                }
-                
-                // Get interior point by going to the minimum boundary
-                // coordinate and then addign half cell width to X and Y
-                // ordinates. Since we are vectorizing around the edges of
-                // raster cells this should always work.
-                Coordinate[] coords = poly.getExteriorRing().getCoordinates();
-                Coordinate minCoord = CoordinateArrays.minCoordinate(coords);
-                Coordinate insideCoord = new Coordinate(
-                        minCoord.x + 0.5, minCoord.y + 0.5);
-
-                Point insidePt = GEOMETRY_FACTORY.createPoint(insideCoord);
-                if (!poly.contains(insidePt)) {
-                    throw new RuntimeException("Can't locate interior point for polygon");
-                }
+            iter.startPixels();
+            for (int i = 0; i < width; i++) {
+                double value = iter.getSampleDouble();
+                include[i] = (roiRow == null || roiRow[i]) && !isOutside(value);
+                values[i] = insideEdges ? value : inside;
+                iter.nextPixel();
+            }
+            tracer.addRow(values, include);
+            iter.nextLine();
+            y++;
+        }
+        
+        return tracer.getPolygons(PACKED_FACTORY);
+    }
 
-                //
-                // now get the value and save it for future usage
-                //
-                double val = imgIter.getSampleDouble(
-                        (int) insideCoord.x, (int) insideCoord.y, band);
-                
-                if ((roi == null || roi.contains(insideCoord.x, insideCoord.y)) && !isOutside(val)) {
-                    // if we don't clone the polygon the results will share coordinate objects
-                    // which will backfire if any c.s. visitor is used later
-                    // since all geometries end up in the heap also better use packed c.s.
-                    poly = (Polygon) PACKED_FACTORY.createGeometry(poly);
-                    if (insideEdges) {
-                        poly.setUserData(val);
-                    } else {
-                        poly.setUserData(inside);
-                    }
-                    polygons.add(poly);
+    /**
+     * Divides the source image into blocks and traces them in parallel.
+     * Each block is vectorized as if it were a separate image. Polygons which 
+     * do not touch an internal block edge are final. Those which do are 
+     * merged with the polygons of the same value that they meet across block 
+     * edges.
+     * 
+     * @param xEdges X ordinates of the block edges
+     * @param yEdges Y ordinates of the block edges
+     * 
+     * @return the polygons
+     */
+    private List<Geometry> vectorizeBlocks(int[] xEdges, int[] yEdges) {
+        final int numCols = xEdges.length - 1;
+        final int numRows = yEdges.length - 1;
+        
+        List<BlockResult> blocks = CollectionFactory.list();
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(numThreads, numCols * numRows),
+                new DaemonThreadFactory(Thread.NORM_PRIORITY, "vectorize"));
+        try {
+            List<Future<BlockResult>> futures = CollectionFactory.list();
+            for (int row = 0; row < numRows; row++) {
+                for (int col = 0; col < numCols; col++) {
+                    Rectangle area = new Rectangle(xEdges[col], yEdges[row], 
+                            xEdges[col + 1] - xEdges[col], yEdges[row + 1] - yEdges[row]);
+                    futures.add(executor.submit(new BlockTask(area)));
                 }
             }
-            return polygons;
+            
+            for (Future<BlockResult> future : futures) {
+                blocks.add(future.get());
+            }
+            
+        } catch (ExecutionException execEx) {
+            Throwable cause = execEx.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+
+        } catch (InterruptedException intEx) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while vectorizing", intEx);
+
         } finally {
-            // release resources
-            imgIter.done();
+            executor.shutdownNow();
         }
+        
+        return mergeBlocks(blocks, numCols);
     }
 
-
     /**
-     * Vectorizes the boundaries of regions of uniform value in the source image.
+     * Gets the positions of block edges along one image axis. If the
+     * source image has more than one tile along the axis, block edges fall
+     * on tile edges.
+     * 
+     * @param min minimum image ordinate
+     * @param length image width or height
+     * @param numTiles number of source image tiles along the axis
+     * @param tileSize source image tile width or height
+     * @param gridOffset source image tile grid offset
+     * 
+     * @return block edge ordinates including {@code min} and {@code min + length}
      */
-    private void vectorizeBoundaries() {
-        // array treated as a 2x2 matrix of double values used as a moving window
-        double[] sample = new double[4];
-
-        // array treated as a 2x2 matrix of boolean flags used to indicate which
-        // sampling window pixels are within the source image and ROI (if used)
-        boolean[] flag = new boolean[4];
+    private static int[] blockEdges(int min, int length, int numTiles, int tileSize, int gridOffset) {
+        int blockSize = BLOCK_SIZE;
+        int offset = min;
+        if (numTiles > 1) {
+            blockSize = tileSize * Math.max(1, BLOCK_SIZE / tileSize);
+            offset = gridOffset;
+        }
+        
+        List<Integer> edges = CollectionFactory.list();
+        edges.add(min);
+        
+        final int max = min + length;
+        int edge = offset + ((min - offset) / blockSize) * blockSize;
+        while (edge <= min) {
+            edge += blockSize;
+        }
+        for (; edge < max; edge += blockSize) {
+            edges.add(edge);
+        }
+        edges.add(max);
 
-        RandomIter imageIter = RandomIterFactory.create(getSourceImage(0), null);
-        if (!insideEdges) {
-            setInsideValue();
+        int[] result = new int[edges.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = edges.get(i);
         }
-        final Double OUT = outsideValues.first();
+        return result;
+    }
 
-        try {
-            // NOTE: the for-loop indices are set to emulate a one pixel width border
-            // around the source image area
-            for (int y = srcBounds.y - 1; y < srcBounds.y + srcBounds.height; y++) {
-                sample[TR] = sample[BR] = OUT;
-                flag[TR] = flag[BR] = false;
-
-                boolean yFlag = srcBounds.contains(srcBounds.x, y);
-                boolean yNextFlag = srcBounds.contains(srcBounds.x, y + 1);
-
-                for (int x = srcBounds.x - 1; x < srcBounds.x + srcBounds.width; x++) {
-                    sample[TL] = sample[TR];
-                    flag[TL] = flag[TR];
-                    sample[BL] = sample[BR];
-                    flag[BL] = flag[BR];
-
-                    flag[TR] = yFlag && srcBounds.contains(x + 1, y) && 
-                            (roi == null || roi.contains(x + 1, y));
+    /**
+     * Joins the polygons from image blocks. Polygons of the same value which
+     * meet across a block edge are grouped and unioned; all others are
+     * returned unchanged.
+     * 
+     * @param blocks block results in row-major order
+     * @param numCols number of blocks per row
+     * 
+     * @return the polygons
+     */
+    private List<Geometry> mergeBlocks(List<BlockResult> blocks, int numCols) {
+        final int numBlocks = blocks.size();
+        int[] offset = new int[numBlocks];
+        int total = 0;
+        for (int i = 0; i < numBlocks; i++) {
+            offset[i] = total;
+            total += blocks.get(i).polys.size();
+        }
+        
+        // union-find forest of polygon indices
+        int[] parent = new int[total];
+        for (int i = 0; i < total; i++) {
+            parent[i] = i;
+        }
+        
+        for (int i = 0; i < numBlocks; i++) {
+            BlockResult block = blocks.get(i);
+            if ((i + 1) % numCols != 0) {
+                BlockResult right = blocks.get(i + 1);
+                joinAcrossEdge(block, block.right, offset[i], right, right.left, offset[i + 1], parent);
+            }
+            if (i + numCols < numBlocks) {
+                BlockResult below = blocks.get(i + numCols);
+                joinAcrossEdge(block, block.bottom, offset[i], below, below.top, offset[i + numCols], parent);
+            }
+        }
+        
+        int[] groupSize = new int[total];
+        for (int i = 0; i < total; i++) {
+            groupSize[findRoot(parent, i)]++ ;
+        }
+        
+        List<Geometry> polys = CollectionFactory.list();
+        Map<Integer, List<Geometry>> groups = CollectionFactory.map();
+        int id = 0;
+        for (BlockResult block : blocks) {
+            for (Geometry poly : block.polys) {
+                int root = findRoot(parent, id++);
+                if (groupSize[root] == 1) {
+                    polys.add(poly);
+                } else {
+                    List<Geometry> group = groups.get(root);
+                    if (group == null) {
+                        group = CollectionFactory.list();
+                        groups.put(root, group);
+                    }
+                    group.add(poly);
                     
-                    flag[BR] = yNextFlag && srcBounds.contains(x + 1, y + 1) && 
-                            (roi == null || roi.contains(x + 1, y + 1));
-
-                    sample[TR] = (flag[TR] ? imageIter.getSampleDouble(x + 1, y, band) : OUT);
-                    if (isOutside(sample[TR])) {
-                        sample[TR] = OUT;
-                    } else if (!insideEdges) {
-                        sample[TR] = inside;
+                    if (group.size() == groupSize[root]) {
+                        groups.remove(root);
+                        polys.add(unionGroup(group));
                     }
+                }
+            }
+        }
+        
+        return polys;
+    }
 
-                    sample[BR] = (flag[BR] ? imageIter.getSampleDouble(x + 1, y + 1, band) : OUT);
-                    if (isOutside(sample[BR])) {
-                        sample[BR] = OUT;
-                    } else if (!insideEdges) {
-                        sample[BR] = inside;
-                    }
-                    updateCoordList(x, y, sample);
+    /**
+     * Links polygons which have the same value on either side of the edge
+     * between two blocks.
+     * 
+     * @param a first block
+     * @param aEdge polygon index for each pixel along the edge in the first block
+     * @param aOffset index of the first block's first polygon in {@code parent}
+     * @param b second block
+     * @param bEdge polygon index for each pixel along the edge in the second block
+     * @param bOffset index of the second block's first polygon in {@code parent}
+     * @param parent union-find forest
+     */
+    private static void joinAcrossEdge(BlockResult a, int[] aEdge, int aOffset,
+            BlockResult b, int[] bEdge, int bOffset, int[] parent) {
+        
+        int prevA = -1, prevB = -1;
+        for (int k = 0; k < aEdge.length; k++) {
+            final int ia = aEdge[k];
+            final int ib = bEdge[k];
+            if (ia < 0 || ib < 0 || (ia == prevA && ib == prevB)) {
+                continue;
+            }
+            prevA = ia;
+            prevB = ib;
+            
+            double va = ((Number) a.polys.get(ia).getUserData()).doubleValue();
+            double vb = ((Number) b.polys.get(ib).getUserData()).doubleValue();
+            if (isDifferent(va, vb) == 0) {
+                int ra = findRoot(parent, aOffset + ia);
+                int rb = findRoot(parent, bOffset + ib);
+                if (ra < rb) {
+                    parent[rb] = ra;
+                } else if (rb < ra) {
+                    parent[ra] = rb;
                 }
             }
-        } finally {
-            imageIter.done();
         }
     }
-    
+
+    /**
+     * Finds the root of a union-find tree, halving the path on the way.
+     */
+    private static int findRoot(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /**
+     * Unions the parts of a polygon which were traced in separate blocks.
+     * 
+     * @param group the parts, all with the same value
+     * 
+     * @return the merged polygon
+     */
+    private Geometry unionGroup(List<Geometry> group) {
+        Geometry merged = CascadedPolygonUnion.union(group);
+        if (removeCollinear) {
+            // normalizing starts each ring at its minimum vertex, which is
+            // always a corner, so that any block edge vertex can be removed
+            merged.normalize();
+            merged = Utils.removeCollinearVertices(merged);
+        }
+        merged = PACKED_FACTORY.createGeometry(merged);
+        merged.setUserData(group.get(0).getUserData());
+        return merged;
+    }
 
     /**
      * Sets the proxy value used for "inside" cells when inside edges
@@ -414,252 +609,6 @@ public class VectorizeOpImage extends AttributeOpImage {
         }
     }
 
-
-    /**
-     * Controls the construction of line segments that border regions of uniform data
-     * in the raster. See the {@linkplain #nbrConfig} method for more details.
-     *
-     * @param xpixel index of the image col in the top left cell of the 2x2 data window
-     * @param ypixel index of the image row in the top left cell of the 2x2 data window
-     * @param sample current sampling window data
-     */
-    private void updateCoordList(int xpixel, int ypixel, double[] sample) {
-        LineSegment seg;
-        int xvec = xpixel + 1;
-        int yvec = ypixel + 1;
-
-        int configIndex = nbrConfig(sample);
-        switch (configIndex) {
-            case 0:
-                /*
-                 * Vertical edge:
-                 * 
-                 *   AB
-                 *   AB
-                 * 
-                 * No update required.
-                 */
-                break;
-
-            case 1:
-                /*
-                 * Corner:
-                 * 
-                 *   AA
-                 *   AB
-                 * 
-                 * Begin new horizontal.
-                 * Begin new vertical.
-                 */
-                horizLine = new LineSegment();
-                horizLine.p0.x = xvec;
-
-                seg = new LineSegment();
-                seg.p0.y = yvec;
-                vertLines.put(xvec, seg);
-                break;
-
-            case 2:
-                /*
-                 * Horizontal edge:
-                 * 
-                 *   AA
-                 *   BB
-                 * 
-                 * No update required.
-                 */
-                break;
-
-            case 3:
-                /*
-                 * Corner:
-                 * 
-                 *   AA
-                 *   BA
-                 * 
-                 * End current horizontal. 
-                 * Begin new vertical.
-                 */
-                horizLine.p1.x = xvec;
-                addHorizLine(yvec);
-                horizLine = null;
-
-                seg = new LineSegment();
-                seg.p0.y = yvec;
-                vertLines.put(xvec, seg);
-                break;
-
-            case 4:
-                /*
-                 * Corner:
-                 * 
-                 *   AB
-                 *   BB
-                 * 
-                 * End current horizontal. 
-                 * End current vertical.
-                 */
-                horizLine.p1.x = xvec;
-                addHorizLine(yvec);
-                horizLine = null;
-
-                seg = vertLines.get(xvec);
-                seg.p1.y = yvec;
-                addVertLine(xvec);
-                vertLines.remove(xvec);
-                break;
-
-            case 5:
-                /*
-                 * Corner:
-                 * 
-                 *   AB
-                 *   AA
-                 * 
-                 * Begin new horizontal. 
-                 * End current vertical.
-                 */
-                horizLine = new LineSegment();
-                horizLine.p0.x = xvec;
-
-                seg = vertLines.get(xvec);
-                seg.p1.y = yvec;
-                addVertLine(xvec);
-                vertLines.remove(xvec);
-                break;
-
-            case 6:
-                /*
-                 * T-junction:
-                 * 
-                 *   AB
-                 *   CC
-                 * 
-                 * End current horizontal. 
-                 * Begin new horizontal. 
-                 * End current vertical.
-                 */
-                horizLine.p1.x = xvec;
-                addHorizLine(yvec);
-
-                horizLine.p0.x = xvec;
-
-                seg = vertLines.get(xvec);
-                seg.p1.y = yvec;
-                addVertLine(xvec);
-                vertLines.remove(xvec);
-                break;
-
-            case 7:
-                /*
-                 * T-junction:
-                 * 
-                 *   AA
-                 *   BC
-                 * 
-                 * End current horizontal. 
-                 * Begin new horizontal. 
-                 * Begin new vertical.
-                 */
-                horizLine.p1.x = xvec;
-                addHorizLine(yvec);
-
-                horizLine.p0.x = xvec;
-
-                seg = new LineSegment();
-                seg.p0.y = yvec;
-                vertLines.put(xvec, seg);
-                break;
-
-            case 8:
-                /*
-                 * T-junction:
-                 * 
-                 *   AB
-                 *   CB
-                 * 
-                 * End current horizontal.
-                 * End current vertical.
-                 * Begin new vertical.
-                 */
-                horizLine.p1.x = xvec;
-                addHorizLine(yvec);
-                horizLine = null;
-
-                seg = vertLines.get(xvec);
-                seg.p1.y = yvec;
-                addVertLine(xvec);
-
-                seg = new LineSegment();
-                seg.p0.y = yvec;
-                vertLines.put(xvec, seg);
-                break;
-
-            case 9:
-                /*
-                 * T-junction:
-                 * 
-                 *   AB
-                 *   AC
-                 * 
-                 * Begin new horizontal.
-                 * End current vertical.
-                 * Begin new vertical.
-                 */
-                horizLine = new LineSegment();
-                horizLine.p0.x = xvec;
-
-                seg = vertLines.get(xvec);
-                seg.p1.y = yvec;
-                addVertLine(xvec);
-
-                seg = new LineSegment();
-                seg.p0.y = yvec;
-                vertLines.put(xvec, seg);
-                break;
-
-            case 10:
-            case 11:
-            case 12:
-            case 13:
-                /*
-                 * Cross:
-                 * 
-                 *   AB  AB  AB  AB
-                 *   BC  CA  BA  CD
-                 * 
-                 * End current horizontal.
-                 * Begin new horizontal.
-                 * End current vertical.
-                 * Begin new vertical.
-                 */
-                horizLine.p1.x = xvec;
-                addHorizLine(yvec);
-
-                horizLine.p0.x = xvec;
-
-                seg = vertLines.get(xvec);
-                seg.p1.y = yvec;
-                addVertLine(xvec);
-
-                seg = new LineSegment();
-                seg.p0.y = yvec;
-                vertLines.put(xvec, seg);
-                break;
-
-            case 14:
-                /*
-                 * Uniform:
-                 * 
-                 *   AA
-                 *   AA
-                 * 
-                 * No update required.
-                 */
-                break;
-        }
-    }
-
     /**
      * Examines the values in the 2x2 sample window and returns
      * the integer id of the configuration (0 - 14) based on
@@ -683,33 +632,6 @@ public class VectorizeOpImage extends AttributeOpImage {
         return NBR_CONFIG_LOOKUP.get(flag);
     }
 
-    /**
-     * Creates a LineString for a newly constructed horizontal border segment
-     * @param y y ordinate of the line
-     */
-    private void addHorizLine(int y) {
-        Coordinate[] coords = new Coordinate[] { 
-            new Coordinate(horizLine.p0.x, y),
-            new Coordinate(horizLine.p1.x, y) 
-        };
-
-        lines.add(GEOMETRY_FACTORY.createLineString(coords));
-    }
-
-    /**
-     * Creates a LineString for a newly constructed vertical border segment
-     * @param x x ordinate of the line
-     */
-    private void addVertLine(int x) {
-        
-        Coordinate[] coords = new Coordinate[] {
-            new Coordinate(x, vertLines.get(x).p0.y),
-            new Coordinate(x, vertLines.get(x).p1.y)
-        };
-        
-        lines.add(GEOMETRY_FACTORY.createLineString(coords));
-    }
-
     private boolean isOutside(double value) {
         for (Double d : outsideValues) {
             if (isDifferent(d, value) == 0) {
@@ -727,7 +649,7 @@ public class VectorizeOpImage extends AttributeOpImage {
      * @param b second value
      * @return 1 if the values are different; 0 otherwise
      */
-    private static int isDifferent(double a, double b) {
+    static int isDifferent(double a, double b) {
         if (Double.isNaN(a) ^ Double.isNaN(b)) {
             return 1;
         } else if (Double.isNaN(a) && Double.isNaN(b)) {
@@ -745,23 +667,44 @@ public class VectorizeOpImage extends AttributeOpImage {
      * Filters small polygons from the list of initial polygons using either
      * deletion or merging as specified by the filterMethod parameter.
      * <p>
-     * The list of small polygons is processed repeatedly until empty or
-     * no more can be removed by merging to neighbouring polygons.
+     * When merging, the neighbours of each small polygon are found once 
+     * using a spatial index. Small polygons are then assigned to the groups
+     * formed by the other polygons, in the same order as if they were merged 
+     * one at a time, with the list of small polygons being processed 
+     * repeatedly until empty or no more can be assigned. A small polygon 
+     * neighbours a group if it shares boundary segments with any polygon 
+     * already in the group. Each group is then merged with a single cascaded
+     * union. Small polygons that cannot be assigned are discarded.
+     * <p>
+     * Before merging, the polygons are put into a fixed order since the order 
+     * in which they are returned by the polygonizer can vary between runs. 
+     * This makes the results for a given random seed reproducible.
      * 
      * @param polys initial polygons
      */
     private void filterSmallPolygons(List<Geometry> polys) {
-        List<Geometry> toFilter = CollectionFactory.list();
-        List<Geometry> holdOver = CollectionFactory.list();
-        
-        ListIterator<Geometry> polysIter = polys.listIterator();
-        while (polysIter.hasNext()) {
-            Geometry poly = polysIter.next();
-            if (poly.getArea() < filterThreshold) {
-                polysIter.remove();
-                if (filterMethod != VectorizeDescriptor.FILTER_DELETE) {
-                    toFilter.add(poly);
-                }
+        if (filterMethod != VectorizeDescriptor.FILTER_DELETE) {
+            sortByMinVertex(polys);
+        }
+        
+        final int numPolys = polys.size();
+        
+        // The group of each polygon is its own index for polygons above the
+        // threshold area or, for small polygons, the index of the polygon
+        // they are merged with (-1 until assigned)
+        int[] group = new int[numPolys];
+        double[] area = new double[numPolys];
+        double[] groupArea = new double[numPolys];
+        List<Integer> toFilter = CollectionFactory.list();
+        
+        for (int i = 0; i < numPolys; i++) {
+            area[i] = polys.get(i).getArea();
+            if (area[i] < filterThreshold) {
+                group[i] = -1;
+                toFilter.add(i);
+            } else {
+                group[i] = i;
+                groupArea[i] = area[i];
             }
         }
         
@@ -769,152 +712,829 @@ public class VectorizeOpImage extends AttributeOpImage {
             return;
         }
         
-        /*
-         * TODO: set some threshold number of small polygons to 
-         * create a spatial index ?
-         */
-        
-        Quadtree spIndex = new Quadtree();
-        for (Geometry poly : polys) {
-            spIndex.insert(poly.getEnvelopeInternal(), poly);
+        if (filterMethod == VectorizeDescriptor.FILTER_DELETE || toFilter.size() == numPolys) {
+            ListIterator<Geometry> polysIter = polys.listIterator();
+            for (int i = 0; i < numPolys; i++) {
+                polysIter.next();
+                if (group[i] < 0) {
+                    polysIter.remove();
+                }
+            }
+            return;
         }
-
-        /*
-         * 
-         */
+        
+        List<List<Integer>> nbrs = findNbrs(polys, toFilter);
+        
+        // Sequence number of the last merge into each group (0 for none)
+        int[] lastMerge = new int[numPolys];
+        int numMerges = 0;
+        
         boolean foundMergers;
         do {
             foundMergers = false;
             
-            ListIterator<Geometry> filterIter = toFilter.listIterator();
+            ListIterator<Integer> filterIter = toFilter.listIterator();
             while (filterIter.hasNext()) {
-                Geometry smallPoly = filterIter.next();
-                filterIter.remove();
-
-                List nbrs = spIndex.query(smallPoly.getEnvelopeInternal());
-                Geometry selectedNbr = null;
-                if (!nbrs.isEmpty()) {
-                    switch (filterMethod) {
-                        case VectorizeDescriptor.FILTER_MERGE_LARGEST:
-                            selectedNbr = getLargestNbr(smallPoly, nbrs);
-                            break;
-
-                        case VectorizeDescriptor.FILTER_MERGE_RANDOM:
-                            selectedNbr = getRandomNbr(smallPoly, nbrs);
-                            break;
-
-                        default:
-                            throw new IllegalArgumentException("Invalid filterMethod value");
-                    }
+                int index = filterIter.next();
+                int target;
+                switch (filterMethod) {
+                    case VectorizeDescriptor.FILTER_MERGE_LARGEST:
+                        target = getLargestNbr(nbrs.get(index), group, groupArea);
+                        break;
+
+                    case VectorizeDescriptor.FILTER_MERGE_RANDOM:
+                        target = getRandomNbr(nbrs.get(index), group);
+                        break;
+
+                    default:
+                        throw new IllegalArgumentException("Invalid filterMethod value");
                 }
-
-                if (selectedNbr != null) {
+                
+                if (target >= 0) {
                     foundMergers = true;
-                    spIndex.remove(selectedNbr.getEnvelopeInternal(), selectedNbr);
-                    removePolygon(polys, selectedNbr);
-                    
-                    Geometry merged = selectedNbr.union(smallPoly);
-                    merged.setUserData(selectedNbr.getUserData());
-                    spIndex.insert(merged.getEnvelopeInternal(), merged);
-                    polys.add(merged);
-
+                    filterIter.remove();
+                    group[index] = target;
+                    groupArea[target] += area[index];
+                    lastMerge[target] = ++numMerges;
+                }
+                // otherwise no merger was possible but it might be later 
+                // when other polys have been merged, so hold over
+            }
+        } while (foundMergers && !toFilter.isEmpty());
+        
+        List<List<Geometry>> members = CollectionFactory.list();
+        for (int i = 0; i < numPolys; i++) {
+            List<Geometry> groupMembers = null;
+            if (lastMerge[i] > 0) {
+                groupMembers = CollectionFactory.list();
+                groupMembers.add(polys.get(i));
+            }
+            members.add(groupMembers);
+        }
+        
+        int[] groupBySeq = new int[numMerges + 1];
+        List<Geometry> filtered = CollectionFactory.list();
+        for (int i = 0; i < numPolys; i++) {
+            if (group[i] == i) {
+                if (lastMerge[i] == 0) {
+                    filtered.add(polys.get(i));
                 } else {
-                    // no merger was possible but it might be later when other
-                    // polys have been merged, so hold over
-                    holdOver.add(smallPoly);
+                    groupBySeq[lastMerge[i]] = i;
                 }
+            } else if (group[i] >= 0) {
+                members.get(group[i]).add(polys.get(i));
             }
+        }
+        
+        // merged polygons follow the others, ordered by their last merge
+        for (int seq = 1; seq <= numMerges; seq++) {
+            List<Geometry> groupMembers = members.get(groupBySeq[seq]);
+            if (groupMembers != null && lastMerge[groupBySeq[seq]] == seq) {
+                Geometry merged = CascadedPolygonUnion.union(groupMembers);
+                merged.setUserData(groupMembers.get(0).getUserData());
+                filtered.add(merged);
+            }
+        }
+        
+        polys.clear();
+        polys.addAll(filtered);
+    }
+    
+    /**
+     * Sorts polygons by their lowest (x then y) vertex. Since polygon 
+     * vertices lie on pixel corners, and the pixel above and to the right
+     * of the lowest vertex belongs to the polygon, this vertex is unique 
+     * to each polygon.
+     * 
+     * @param polys the polygons to sort
+     */
+    private static void sortByMinVertex(List<Geometry> polys) {
+        final int numPolys = polys.size();
+        final Coordinate[] minVertex = new Coordinate[numPolys];
+        Integer[] order = new Integer[numPolys];
+        for (int i = 0; i < numPolys; i++) {
+            minVertex[i] = CoordinateArrays.minCoordinate(polys.get(i).getCoordinates());
+            order[i] = i;
+        }
+        
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer i1, Integer i2) {
+                return minVertex[i1].compareTo(minVertex[i2]);
+            }
+        });
+        
+        List<Geometry> sorted = CollectionFactory.list();
+        for (Integer i : order) {
+            sorted.add(polys.get(i));
+        }
+        polys.clear();
+        polys.addAll(sorted);
+    }
+    
+    /**
+     * Finds the neighbours of each small polygon: those polygons with which
+     * it shares one or more boundary segments (ie. lineal intersection).
+     * Candidates are found with a spatial index and tested with an indexed
+     * point locator, which is much cheaper than {@code Geometry.relate} when 
+     * the candidate is a large polygon.
+     * 
+     * @param polys all polygons
+     * @param small indices of the small polygons, in ascending order
+     * 
+     * @return for each polygon, the indices of its neighbours if it is
+     *         small, or {@code null} otherwise
+     */
+    private List<List<Integer>> findNbrs(List<Geometry> polys, List<Integer> small) {
+        final int numPolys = polys.size();
+        STRtree spIndex = new STRtree();
+        for (int i = 0; i < numPolys; i++) {
+            spIndex.insert(polys.get(i).getEnvelopeInternal(), i);
+        }
+        
+        PointOnGeometryLocator[] locators = new PointOnGeometryLocator[numPolys];
+        List<List<Integer>> nbrs = CollectionFactory.list();
+        for (int i = 0; i < numPolys; i++) {
+            nbrs.add(null);
+        }
+        for (Integer index : small) {
+            nbrs.set(index, CollectionFactory.<Integer>list());
+        }
+        
+        for (Integer index : small) {
+            Geometry smallPoly = polys.get(index);
+            List<Integer> smallNbrs = nbrs.get(index);
             
-            toFilter.addAll(holdOver);
-            holdOver.clear();
-            
-        } while (foundMergers && !toFilter.isEmpty());
+            for (Object o : spIndex.query(smallPoly.getEnvelopeInternal())) {
+                int other = (Integer) o;
+                List<Integer> otherNbrs = nbrs.get(other);
+                
+                // pairs of small polygons are only tested once
+                if (other == index || (otherNbrs != null && other < index)) {
+                    continue;
+                }
+                
+                if (locators[other] == null) {
+                    locators[other] = new IndexedPointInAreaLocator(polys.get(other));
+                }
+                
+                if (sharesBoundary(smallPoly, locators[other])) {
+                    smallNbrs.add(other);
+                    if (otherNbrs != null) {
+                        otherNbrs.add(index);
+                    }
+                }
+            }
+        }
+        
+        return nbrs;
+    }
+
+    /**
+     * Tests if a polygon shares one or more boundary segments with another 
+     * polygon. Since polygon vertices lie on pixel corners, this is the case 
+     * if the mid-point of any unit edge of the polygon's boundary lies on 
+     * the other polygon's boundary.
+     * 
+     * @param poly the polygon
+     * @param other locator for the other polygon
+     * 
+     * @return {@code true} if the boundaries have lineal intersection
+     */
+    private static boolean sharesBoundary(Geometry poly, PointOnGeometryLocator other) {
+        Coordinate mid = new Coordinate();
+        
+        for (int n = 0; n < poly.getNumGeometries(); n++) {
+            Polygon p = (Polygon) poly.getGeometryN(n);
+            for (int r = -1; r < p.getNumInteriorRing(); r++) {
+                LineString ring = r < 0 ? p.getExteriorRing() : p.getInteriorRingN(r);
+                CoordinateSequence seq = ring.getCoordinateSequence();
+                
+                for (int i = 1; i < seq.size(); i++) {
+                    double x0 = seq.getX(i - 1);
+                    double y0 = seq.getY(i - 1);
+                    double dx = seq.getX(i) - x0;
+                    double dy = seq.getY(i) - y0;
+                    int numEdges = (int) Math.max(1, Math.round(Math.abs(dx) + Math.abs(dy)));
+                    
+                    for (int k = 0; k < numEdges; k++) {
+                        double f = (k + 0.5) / numEdges;
+                        mid.x = x0 + f * dx;
+                        mid.y = y0 + f * dy;
+                        if (other.locate(mid) == Location.BOUNDARY) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        
+        return false;
     }
 
     /**
-     * Gets the largest neighbour of the given small polygon.
+     * Gets the largest (area) group neighbouring a small polygon.
      * 
-     * @param smallPoly the small polygon
-     * @param nbrs list of potential neighbours
+     * @param nbrs indices of the small polygon's neighbours
+     * @param group current group of each polygon
+     * @param groupArea current area of each group
      * 
-     * @return the largest neighbouring polygon; or {@code null} if
-     *         no neighbour could be found
+     * @return the largest neighbouring group; or -1 if no neighbour
+     *         has been assigned to a group
      */
-    private Geometry getLargestNbr(Geometry smallPoly, List nbrs) {
-        Geometry largestNbr = null;
-        ListIterator nbrsIter = nbrs.listIterator();
+    private int getLargestNbr(List<Integer> nbrs, int[] group, double[] groupArea) {
+        int largest = -1;
         double maxArea = 0;
 
-        while (nbrsIter.hasNext()) {
-            Geometry g = (Geometry) nbrsIter.next();
-            // Check that boundaries have lineal intersection
-            if (smallPoly.relate(g, "****1****")) {
-                double area = g.getArea();
-                if (area > maxArea) {
-                    maxArea = area;
-                    largestNbr = g;
-                }
-            } else {
-                nbrsIter.remove();
+        for (Integer nbr : nbrs) {
+            int g = group[nbr];
+            if (g >= 0 && groupArea[g] > maxArea) {
+                maxArea = groupArea[g];
+                largest = g;
             }
         }
 
-        return largestNbr;
+        return largest;
     }
 
     /**
-     * Selects a random neighbour of the given small polygon.
+     * Selects a random group neighbouring a small polygon.
      * 
-     * @param smallPoly the small polygon
-     * @param nbrs list of potential neighbours
+     * @param nbrs indices of the small polygon's neighbours
+     * @param group current group of each polygon
      * 
-     * @return the selected neighbouring polygon; or {@code null} if
-     *         no neighbour could be found
+     * @return the selected neighbouring group; or -1 if no neighbour
+     *         has been assigned to a group
      */
-    private Geometry getRandomNbr(Geometry smallPoly, List nbrs) {
-        Geometry selected = null;
-        ListIterator nbrsIter = nbrs.listIterator();
-
-        while (nbrsIter.hasNext()) {
-            Geometry g = (Geometry) nbrsIter.next();
-            // Check that boundaries have lineal intersection
-            if (!smallPoly.relate(g, "****1****")) {
-                nbrsIter.remove();
+    private int getRandomNbr(List<Integer> nbrs, int[] group) {
+        List<Integer> groups = CollectionFactory.list();
+        for (Integer nbr : nbrs) {
+            int g = group[nbr];
+            if (g >= 0 && !groups.contains(g)) {
+                groups.add(g);
             }
         }
 
-        if (!nbrs.isEmpty()) {
-            if (rr == null) rr = new Random();
-            int index = rr.nextInt(nbrs.size());
-            selected = (Geometry) nbrs.get(index);
+        if (groups.isEmpty()) {
+            return -1;
         }
         
-        return selected;
+        if (rr == null) rr = new Random();
+        return groups.get(rr.nextInt(groups.size()));
     }
 
-    
     /**
-     * Remove a polygon from the list of polygons. 
-     * 
-     * TODO: remove this method when JTS 1.12 is released with its fix for
-     * Geometry.equals(Object o)
-     * 
-     * @param polys list of current polygons
-     * @param toRemove polygon to remove
-     * 
-     * @throws RuntimeException if the polygon is not found
+     * Sets the seed used to select neighbours when small polygons are
+     * merged with {@link VectorizeDescriptor#FILTER_MERGE_RANDOM}, so that
+     * results can be reproduced. This is intended for unit tests and must
+     * be called before the vectors are first requested.
+     *
+     * @param seed the seed
      */
-    private void removePolygon(List<Geometry> polys, Geometry toRemove) {
-        int k = 0;
-        for (Geometry p : polys) {
-            if (p.equalsExact(toRemove, EPSILON)) {
-                polys.remove(k);
-                return;
+    synchronized void setRandomSeed(long seed) {
+        rr = new Random(seed);
+    }
+
+    /**
+     * Traces the boundaries of regions in an area of the source image and
+     * assembles them into polygons. The state of a trace is held by the
+     * instance, so that image blocks can be traced in parallel using one
+     * instance for each.
+     */
+    private class BoundaryTracer {
+
+        // ROI flags for the area being traced, or null if there is no ROI
+        // or the area lies wholly inside it
+        private ROIMask roiMask;
+
+        // Segments of vertical boundary under construction
+        private Map<Integer, LineSegment> vertLines;
+
+        // Segments of horizontal boundary under construction
+        private LineSegment horizLine;
+
+        // Holds lines, constructed from boundary segments, to be polygonized
+        private List<LineString> lines;
+
+        /**
+         * Vectorizes an area of the source image. Pixels outside the area 
+         * are treated as outside values.
+         * 
+         * @param area the area to vectorize
+         * 
+         * @return polygons with their region values as user data
+         */
+        List<Geometry> vectorize(Rectangle area) {
+            lines = CollectionFactory.list();
+            vertLines = CollectionFactory.map();
+            if (roi != null) {
+                // the mask gives the same flags as roi.contains, whether the
+                // area is a block traced in parallel or the whole image
+                roiMask = ROIMask.create(roi, area);
+                if (roiMask.isAllInside()) {
+                    roiMask = null;
+                }
+            }
+            
+            try {
+                traceBoundaries(area);
+                return assemblePolygons();
+                
+            } finally {
+                roiMask = null;
+                lines = null;
+                vertLines = null;
             }
-            k++ ;
         }
+
+        /**
+         * Tests whether a pixel within the area being traced is within the
+         * ROI, if there is one.
+         */
+        private boolean inRoi(int x, int y) {
+            return roiMask == null || roiMask.contains(x, y);
+        }
+
+        /**
+         * Polygonizess the boundary segments that have been collected by the 
+         * vectorizing algorithm and, if the field {@code insideEdges} is TRUE,
+         * assigns the value of the source image band to each polygon's user data
+         * field.
+         */
+        private List<Geometry> assemblePolygons() {
+
+            List<Geometry> polygons = CollectionFactory.list();
+            RandomIter imgIter = RandomIterFactory.create(getSourceImage(0), null);
+            Polygonizer polygonizer = new Polygonizer();
         
-        throw new RuntimeException("Failed to remove polygon");
+            try {
+                polygonizer.add(lines);
+                Collection<Geometry> rawPolys = polygonizer.getPolygons();
+
+                for (Iterator it = rawPolys.iterator(); it.hasNext();) {
+                    Polygon poly = (Polygon) it.next();
+                
+                    // Remove the geometry and free some memory
+                    it.remove();
+
+                    if (removeCollinear) {
+                        poly = Utils.removeCollinearVertices(poly);
+                    }
+                
+                    // Get interior point by going to the minimum boundary
+                    // coordinate and then addign half cell width to X and Y
+                    // ordinates. Since we are vectorizing around the edges of
+                    // raster cells this should always work.
+                    Coordinate[] coords = poly.getExteriorRing().getCoordinates();
+                    Coordinate minCoord = CoordinateArrays.minCoordinate(coords);
+                    Coordinate insideCoord = new Coordinate(
+                            minCoord.x + 0.5, minCoord.y + 0.5);
+
+                    Point insidePt = GEOMETRY_FACTORY.createPoint(insideCoord);
+                    if (!poly.contains(insidePt)) {
+                        throw new RuntimeException("Can't locate interior point for polygon");
+                    }
+
+                    //
+                    // now get the value and save it for future usage
+                    //
+                    double val = imgIter.getSampleDouble(
+                            (int) insideCoord.x, (int) insideCoord.y, band);
+                
+                    // use the same ROI test as when tracing so that the parts of a
+                    // region traced in separate blocks are all kept or all dropped
+                    if (inRoi((int) minCoord.x, (int) minCoord.y) && !isOutside(val)) {
+                        // if we don't clone the polygon the results will share coordinate objects
+                        // which will backfire if any c.s. visitor is used later
+                        // since all geometries end up in the heap also better use packed c.s.
+                        poly = (Polygon) PACKED_FACTORY.createGeometry(poly);
+                        if (insideEdges) {
+                            poly.setUserData(val);
+                        } else {
+                            poly.setUserData(inside);
+                        }
+                        polygons.add(poly);
+                    }
+                }
+                return polygons;
+            } finally {
+                // release resources
+                imgIter.done();
+            }
+        }
+
+
+        /**
+         * Vectorizes the boundaries of regions of uniform value in an area
+         * of the source image.
+         * 
+         * @param area the area to trace
+         */
+        private void traceBoundaries(Rectangle area) {
+            // array treated as a 2x2 matrix of double values used as a moving window
+            double[] sample = new double[4];
+
+            // array treated as a 2x2 matrix of boolean flags used to indicate which
+            // sampling window pixels are within the source image and ROI (if used)
+            boolean[] flag = new boolean[4];
+
+            RandomIter imageIter = RandomIterFactory.create(getSourceImage(0), null);
+            final Double OUT = outsideValues.first();
+
+            try {
+                // NOTE: the for-loop indices are set to emulate a one pixel width border
+                // around the area
+                for (int y = area.y - 1; y < area.y + area.height; y++) {
+                    sample[TR] = sample[BR] = OUT;
+                    flag[TR] = flag[BR] = false;
+
+                    boolean yFlag = area.contains(area.x, y);
+                    boolean yNextFlag = area.contains(area.x, y + 1);
+
+                    for (int x = area.x - 1; x < area.x + area.width; x++) {
+                        sample[TL] = sample[TR];
+                        flag[TL] = flag[TR];
+                        sample[BL] = sample[BR];
+                        flag[BL] = flag[BR];
+
+                        flag[TR] = yFlag && area.contains(x + 1, y) && 
+                                inRoi(x + 1, y);
+                    
+                        flag[BR] = yNextFlag && area.contains(x + 1, y + 1) && 
+                                inRoi(x + 1, y + 1);
+
+                        sample[TR] = (flag[TR] ? imageIter.getSampleDouble(x + 1, y, band) : OUT);
+                        if (isOutside(sample[TR])) {
+                            sample[TR] = OUT;
+                        } else if (!insideEdges) {
+                            sample[TR] = inside;
+                        }
+
+                        sample[BR] = (flag[BR] ? imageIter.getSampleDouble(x + 1, y + 1, band) : OUT);
+                        if (isOutside(sample[BR])) {
+                            sample[BR] = OUT;
+                        } else if (!insideEdges) {
+                            sample[BR] = inside;
+                        }
+                        updateCoordList(x, y, sample);
+                    }
+                }
+            } finally {
+                imageIter.done();
+            }
+        }
+
+        /**
+         * Controls the construction of line segments that border regions of uniform data
+         * in the raster. See the {@linkplain VectorizeOpImage#nbrConfig} method for more details.
+         *
+         * @param xpixel index of the image col in the top left cell of the 2x2 data window
+         * @param ypixel index of the image row in the top left cell of the 2x2 data window
+         * @param sample current sampling window data
+         */
+        private void updateCoordList(int xpixel, int ypixel, double[] sample) {
+            LineSegment seg;
+            int xvec = xpixel + 1;
+            int yvec = ypixel + 1;
+
+            int configIndex = nbrConfig(sample);
+            switch (configIndex) {
+                case 0:
+                    /*
+                     * Vertical edge:
+                     * 
+                     *   AB
+                     *   AB
+                     * 
+                     * No update required.
+                     */
+                    break;
+
+                case 1:
+                    /*
+                     * Corner:
+                     * 
+                     *   AA
+                     *   AB
+                     * 
+                     * Begin new horizontal.
+                     * Begin new vertical.
+                     */
+                    horizLine = new LineSegment();
+                    horizLine.p0.x = xvec;
+
+                    seg = new LineSegment();
+                    seg.p0.y = yvec;
+                    vertLines.put(xvec, seg);
+                    break;
+
+                case 2:
+                    /*
+                     * Horizontal edge:
+                     * 
+                     *   AA
+                     *   BB
+                     * 
+                     * No update required.
+                     */
+                    break;
+
+                case 3:
+                    /*
+                     * Corner:
+                     * 
+                     *   AA
+                     *   BA
+                     * 
+                     * End current horizontal. 
+                     * Begin new vertical.
+                     */
+                    horizLine.p1.x = xvec;
+                    addHorizLine(yvec);
+                    horizLine = null;
+
+                    seg = new LineSegment();
+                    seg.p0.y = yvec;
+                    vertLines.put(xvec, seg);
+                    break;
+
+                case 4:
+                    /*
+                     * Corner:
+                     * 
+                     *   AB
+                     *   BB
+                     * 
+                     * End current horizontal. 
+                     * End current vertical.
+                     */
+                    horizLine.p1.x = xvec;
+                    addHorizLine(yvec);
+                    horizLine = null;
+
+                    seg = vertLines.get(xvec);
+                    seg.p1.y = yvec;
+                    addVertLine(xvec);
+                    vertLines.remove(xvec);
+                    break;
+
+                case 5:
+                    /*
+                     * Corner:
+                     * 
+                     *   AB
+                     *   AA
+                     * 
+                     * Begin new horizontal. 
+                     * End current vertical.
+                     */
+                    horizLine = new LineSegment();
+                    horizLine.p0.x = xvec;
+
+                    seg = vertLines.get(xvec);
+                    seg.p1.y = yvec;
+                    addVertLine(xvec);
+                    vertLines.remove(xvec);
+                    break;
+
+                case 6:
+                    /*
+                     * T-junction:
+                     * 
+                     *   AB
+                     *   CC
+                     * 
+                     * End current horizontal. 
+                     * Begin new horizontal. 
+                     * End current vertical.
+                     */
+                    horizLine.p1.x = xvec;
+                    addHorizLine(yvec);
+
+                    horizLine.p0.x = xvec;
+
+                    seg = vertLines.get(xvec);
+                    seg.p1.y = yvec;
+                    addVertLine(xvec);
+                    vertLines.remove(xvec);
+                    break;
+
+                case 7:
+                    /*
+                     * T-junction:
+                     * 
+                     *   AA
+                     *   BC
+                     * 
+                     * End current horizontal. 
+                     * Begin new horizontal. 
+                     * Begin new vertical.
+                     */
+                    horizLine.p1.x = xvec;
+                    addHorizLine(yvec);
+
+                    horizLine.p0.x = xvec;
+
+                    seg = new LineSegment();
+                    seg.p0.y = yvec;
+                    vertLines.put(xvec, seg);
+                    break;
+
+                case 8:
+                    /*
+                     * T-junction:
+                     * 
+                     *   AB
+                     *   CB
+                     * 
+                     * End current horizontal.
+                     * End current vertical.
+                     * Begin new vertical.
+                     */
+                    horizLine.p1.x = xvec;
+                    addHorizLine(yvec);
+                    horizLine = null;
+
+                    seg = vertLines.get(xvec);
+                    seg.p1.y = yvec;
+                    addVertLine(xvec);
+
+                    seg = new LineSegment();
+                    seg.p0.y = yvec;
+                    vertLines.put(xvec, seg);
+                    break;
+
+                case 9:
+                    /*
+                     * T-junction:
+                     * 
+                     *   AB
+                     *   AC
+                     * 
+                     * Begin new horizontal.
+                     * End current vertical.
+                     * Begin new vertical.
+                     */
+                    horizLine = new LineSegment();
+                    horizLine.p0.x = xvec;
+
+                    seg = vertLines.get(xvec);
+                    seg.p1.y = yvec;
+                    addVertLine(xvec);
+
+                    seg = new LineSegment();
+                    seg.p0.y = yvec;
+                    vertLines.put(xvec, seg);
+                    break;
+
+                case 10:
+                case 11:
+                case 12:
+                case 13:
+                    /*
+                     * Cross:
+                     * 
+                     *   AB  AB  AB  AB
+                     *   BC  CA  BA  CD
+                     * 
+                     * End current horizontal.
+                     * Begin new horizontal.
+                     * End current vertical.
+                     * Begin new vertical.
+                     */
+                    horizLine.p1.x = xvec;
+                    addHorizLine(yvec);
+
+                    horizLine.p0.x = xvec;
+
+                    seg = vertLines.get(xvec);
+                    seg.p1.y = yvec;
+                    addVertLine(xvec);
+
+                    seg = new LineSegment();
+                    seg.p0.y = yvec;
+                    vertLines.put(xvec, seg);
+                    break;
+
+                case 14:
+                    /*
+                     * Uniform:
+                     * 
+                     *   AA
+                     *   AA
+                     * 
+                     * No update required.
+                     */
+                    break;
+            }
+        }
+
+        /**
+         * Creates a LineString for a newly constructed horizontal border segment
+         * @param y y ordinate of the line
+         */
+        private void addHorizLine(int y) {
+            Coordinate[] coords = new Coordinate[] { 
+                new Coordinate(horizLine.p0.x, y),
+                new Coordinate(horizLine.p1.x, y) 
+            };
+
+            lines.add(GEOMETRY_FACTORY.createLineString(coords));
+        }
+
+        /**
+         * Creates a LineString for a newly constructed vertical border segment
+         * @param x x ordinate of the line
+         */
+        private void addVertLine(int x) {
+        
+            Coordinate[] coords = new Coordinate[] {
+                new Coordinate(x, vertLines.get(x).p0.y),
+                new Coordinate(x, vertLines.get(x).p1.y)
+            };
+        
+            lines.add(GEOMETRY_FACTORY.createLineString(coords));
+        }
+    }
+
+    /**
+     * Vectorizes one block of the source image.
+     */
+    private class BlockTask implements Callable<BlockResult> {
+        private final Rectangle area;
+
+        BlockTask(Rectangle area) {
+            this.area = area;
+        }
+
+        public BlockResult call() {
+            List<Geometry> polys = new BoundaryTracer().vectorize(area);
+            return new BlockResult(area, polys);
+        }
+    }
+
+    /**
+     * Polygons traced for a block of the source image. For each pixel along
+     * each edge of the block, the index of the polygon which covers it is
+     * recorded, or -1 if there is none.
+     */
+    private static class BlockResult {
+        final List<Geometry> polys;
+        final int[] left;
+        final int[] right;
+        final int[] top;
+        final int[] bottom;
+
+        BlockResult(Rectangle area, List<Geometry> polys) {
+            this.polys = polys;
+            left = newEdge(area.height);
+            right = newEdge(area.height);
+            top = newEdge(area.width);
+            bottom = newEdge(area.width);
+            
+            final int maxX = area.x + area.width;
+            final int maxY = area.y + area.height;
+            
+            // Edges between a polygon and the outside of the block can 
+            // only be on the polygon's exterior ring
+            for (int i = 0; i < polys.size(); i++) {
+                Polygon poly = (Polygon) polys.get(i);
+                CoordinateSequence cs = poly.getExteriorRing().getCoordinateSequence();
+                for (int k = 1; k < cs.size(); k++) {
+                    double x0 = cs.getX(k - 1);
+                    double y0 = cs.getY(k - 1);
+                    double x1 = cs.getX(k);
+                    double y1 = cs.getY(k);
+                    
+                    if (x0 == x1) {
+                        if (x0 == area.x) {
+                            mark(left, y0 - area.y, y1 - area.y, i);
+                        } else if (x0 == maxX) {
+                            mark(right, y0 - area.y, y1 - area.y, i);
+                        }
+                    } else if (y0 == y1) {
+                        if (y0 == area.y) {
+                            mark(top, x0 - area.x, x1 - area.x, i);
+                        } else if (y0 == maxY) {
+                            mark(bottom, x0 - area.x, x1 - area.x, i);
+                        }
+                    }
+                }
+            }
+        }
+
+        private static int[] newEdge(int length) {
+            int[] edge = new int[length];
+            Arrays.fill(edge, -1);
+            return edge;
+        }
+
+        private static void mark(int[] edge, double from, double to, int index) {
+            int lo = (int) Math.min(from, to);
+            int hi = (int) Math.max(from, to);
+            for (int i = lo; i < hi; i++) {
+                edge[i] = index;
+            }
+        }
     }
 
 }
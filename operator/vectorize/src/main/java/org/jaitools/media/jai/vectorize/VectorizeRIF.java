@@ -80,9 +80,15 @@ public class VectorizeRIF implements RenderedImageFactory {
             filterThreshold = 0;
         }
         int filterMethod = paramBlock.getIntParameter(VectorizeDescriptor.FILTER_METHOD_ARG);
+        
+        Object threads = paramBlock.getObjectParameter(VectorizeDescriptor.NUM_THREADS_ARG);
+        int numThreads = threads != null ? (Integer) threads : 1;
+        
+        Object method = paramBlock.getObjectParameter(VectorizeDescriptor.VECTORIZE_METHOD_ARG);
+        int vectorizeMethod = method != null ? (Integer) method : VectorizeDescriptor.METHOD_POLYGONIZE;
 
         return new VectorizeOpImage(paramBlock.getRenderedSource(0), roi, band, outsideValues, 
-                insideEdges, removeCollinear, filterThreshold, filterMethod);
+                insideEdges, removeCollinear, filterThreshold, filterMethod, numThreads, vectorizeMethod);
     }
 }
 
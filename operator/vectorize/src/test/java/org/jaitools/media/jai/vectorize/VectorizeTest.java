@@ -27,11 +27,14 @@ package org.jaitools.media.jai.vectorize;
 
 import java.awt.Rectangle;
 import java.awt.image.RenderedImage;
+import java.util.ArrayList;
 import java.util.Set;
 import java.util.List;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Random;
 
@@ -43,12 +46,16 @@ import javax.media.jai.RenderedOp;
 import javax.media.jai.TiledImage;
 import javax.media.jai.registry.RenderedRegistryMode;
 
+import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.Polygon;
 
 import org.jaitools.imageutils.ImageUtils;
+import org.jaitools.imageutils.ROIGeometry;
+import org.jaitools.numeric.NumberOperations;
 
 import org.junit.Before;
 import org.junit.Test;
+import static org.junit.Assert.*;
 
 /**
  * General unit tests for the Vectorize operator.
@@ -344,6 +351,41 @@ public class VectorizeTest extends TestBase {
         assertPolygons(expected, polys);
     }
     
+    /**
+     * Vectorize a region with a hole, containing a second region, using
+     * the region labelling method.
+     */
+    @Test
+    public void labelRegionsWithHole() throws Exception {
+        final int IMAGE_WIDTH = 6;
+        final int IMAGE_HEIGHT = 5;
+        RenderedImage src = ImageUtils.createImageFromArray(
+                new Integer[] {
+                    0, 0, 0, 0, 0, 0,
+                    0, 1, 1, 1, 1, 0,
+                    0, 1, 2, 2, 1, 0,
+                    0, 1, 1, 1, 1, 0,
+                    0, 0, 0, 0, 0, 0
+                },
+                IMAGE_WIDTH, IMAGE_HEIGHT);
+
+        args.put("outsideValues", Collections.singleton(Integer.valueOf(0)));
+        args.put("vectorizeMethod", VectorizeDescriptor.METHOD_LABEL_REGIONS);
+        RenderedOp dest = doOp(src, args);
+        List<Polygon> polys = getPolygons(dest, 2);
+
+        ExpectedPoly[] expected = {
+            new ExpectedPoly(
+                    "POLYGON ((1 1, 5 1, 5 4, 1 4, 1 1), (2 2, 2 3, 4 3, 4 2, 2 2))",
+                    Integer.valueOf(1)),
+            new ExpectedPoly(
+                    "POLYGON ((2 2, 4 2, 4 3, 2 3, 2 2))",
+                    Integer.valueOf(2))
+        };
+
+        assertPolygons(expected, polys);
+    }
+
     /**
      * Test image has alternating square blocks of pixels
      * with value of 0 or 1 like a chessboard pattern.
@@ -367,6 +409,56 @@ public class VectorizeTest extends TestBase {
         getPolygons(dest, 1);
     }
 
+    /**
+     * Chessboard image large enough to be vectorized in several blocks,
+     * with squares that straddle block edges. Polygons traced in parallel
+     * should be whole squares.
+     */
+    @Test
+    public void chessboardParallel() throws Exception {
+        final int IMAGE_WIDTH = 1200;
+        final int SQUARE_WIDTH = 300;
+        final int NUM_SQUARES_ACROSS = 4;
+        final int NUM_SQUARES = 16;
+
+        Valuer valuer = new Valuer() {
+            public int getValue(int areaX, int areaY) {
+                return (areaX % 2 == areaY % 2 ? 1 : 0);
+            }
+        };
+
+        RenderedImage src = createChessboardImage(IMAGE_WIDTH, SQUARE_WIDTH, valuer);
+        args.put("numThreads", 4);
+        RenderedOp dest = doOp(src, args);
+        List<Polygon> polys = getPolygons(dest, NUM_SQUARES);
+
+        ExpectedPoly[] expected = new ExpectedPoly[NUM_SQUARES];
+        int n = 0;
+        for (int i = 0; i < NUM_SQUARES_ACROSS; i++) {
+            int ymin = i * SQUARE_WIDTH;
+            int ymax = ymin + SQUARE_WIDTH;
+            for (int j = 0; j < NUM_SQUARES_ACROSS; j++) {
+                int xmin = j * SQUARE_WIDTH;
+                int xmax = xmin + SQUARE_WIDTH;
+
+                String wkt = String.format("POLYGON((%d %d, %d %d, %d %d, %d %d, %d %d))",
+                        xmin, ymin,
+                        xmin, ymax,
+                        xmax, ymax,
+                        xmax, ymin,
+                        xmin, ymin);
+
+                expected[n++] = new ExpectedPoly(wkt, valuer.getValue(j, i));
+            }
+        }
+
+        assertPolygons(expected, polys);
+
+        args.put("insideEdges", Boolean.FALSE);
+        dest = doOp(src, args);
+        getPolygons(dest, 1);
+    }
+
     /**
      * Test image has alternating square blocks of pixels
      * with value of 0 or 1 like a chessboard pattern. When
@@ -439,6 +531,52 @@ public class VectorizeTest extends TestBase {
         assertPolygons(expected, getPolygons(dest, 1));
     }
     
+    /**
+     * Chessboard image with an {@code ROIGeometry} whose edges pass through
+     * pixel corners, vectorized in several blocks and in a single trace.
+     * Both should apply the same pixel rule for the ROI and give the same
+     * polygons.
+     */
+    @Test
+    public void roiGeometryParallelMatchesSequential() throws Exception {
+        final int IMAGE_WIDTH = 1200;
+        final int SQUARE_WIDTH = 300;
+
+        RenderedImage src = createChessboardImage(IMAGE_WIDTH, SQUARE_WIDTH,
+                new Valuer() {
+                    public int getValue(int areaX, int areaY) {
+                        return (areaX % 2 == areaY % 2 ? 1 : 0);
+                    }
+                });
+
+        Geometry diamond = reader.read("POLYGON((600 50, 1150 600, 600 1150, 50 600, 600 50))");
+        args.put("roi", new ROIGeometry(diamond));
+
+        args.put("numThreads", 1);
+        RenderedOp dest = doOp(src, args);
+        Collection<Polygon> expected = (Collection<Polygon>) 
+                dest.getProperty(VectorizeDescriptor.VECTOR_PROPERTY_NAME);
+        assertTrue(expected.size() > 1);
+
+        args.put("numThreads", 4);
+        dest = doOp(src, args);
+        List<Polygon> polys = getPolygons(dest, expected.size());
+
+        for (Polygon exp : expected) {
+            boolean found = false;
+            for (Iterator<Polygon> it = polys.iterator(); it.hasNext() && !found; ) {
+                Polygon poly = it.next();
+                if (poly.equals(exp)) {
+                    assertEquals(0, NumberOperations.compare(
+                            (Number) exp.getUserData(), (Number) poly.getUserData()));
+                    it.remove();
+                    found = true;
+                }
+            }
+            assertTrue("Polygon not found in parallel result", found);
+        }
+    }
+    
     /**
      * An ROI created from an image such that pixels alternate
      * between included and excluded. A very small source image
@@ -467,6 +605,195 @@ public class VectorizeTest extends TestBase {
         getPolygons(dest, 50);
     }
     
+    /**
+     * Speckle image used to test the filtering of small polygons. Two large
+     * regions (1 and 2) have an enclosed speckle (5), a speckle on the
+     * boundary between them (6) and, in region 2, a speckle (7) enclosed
+     * by a ring (8) that is itself below the filter threshold.
+     */
+    private static final Integer[] SPECKLES = {
+        1, 1, 1, 1, 1, 1, 2, 2, 2, 2,
+        1, 1, 1, 1, 1, 1, 2, 8, 8, 8,
+        1, 1, 5, 1, 1, 1, 2, 8, 7, 8,
+        1, 1, 1, 1, 1, 1, 2, 8, 8, 8,
+        1, 1, 1, 1, 1, 1, 2, 2, 2, 2,
+        1, 1, 1, 1, 1, 6, 2, 2, 2, 2,
+        1, 1, 1, 1, 1, 1, 2, 2, 2, 2,
+        1, 1, 1, 1, 1, 1, 2, 2, 2, 2,
+        1, 1, 1, 1, 1, 1, 2, 2, 2, 2,
+        1, 1, 1, 1, 1, 1, 2, 2, 2, 2
+    };
+    
+    private static final int SPECKLES_WIDTH = 10;
+    private static final double SPECKLES_THRESHOLD = 10.0;
+    private static final double EPS = 1.0e-8;
+    
+    /**
+     * Merging small polygons into their largest neighbour: the boundary
+     * speckle goes to region 1.
+     */
+    @Test
+    public void filterMergeLargest() throws Exception {
+        List<Polygon> polys = filterSpeckles(VectorizeDescriptor.FILTER_MERGE_LARGEST, 0);
+        
+        assertEquals(60.0, getArea(polys, 1), EPS);
+        assertEquals(40.0, getArea(polys, 2), EPS);
+        
+        ExpectedPoly[] expected = {
+            new ExpectedPoly("POLYGON((0 0, 0 10, 6 10, 6 0, 0 0))", 1),
+            new ExpectedPoly("POLYGON((6 0, 6 10, 10 10, 10 0, 6 0))", 2)
+        };
+        assertFilteredPolygons(expected, polys);
+    }
+    
+    /**
+     * Merging small polygons into a random neighbour. The boundary speckle
+     * is the only one with a choice; with the seeds used here it goes to 
+     * region 2 and then region 1.
+     */
+    @Test
+    public void filterMergeRandom() throws Exception {
+        List<Polygon> polys = filterSpeckles(VectorizeDescriptor.FILTER_MERGE_RANDOM, 0);
+        
+        assertEquals(59.0, getArea(polys, 1), EPS);
+        assertEquals(41.0, getArea(polys, 2), EPS);
+        
+        ExpectedPoly[] expected = {
+            new ExpectedPoly("POLYGON((0 0, 0 10, 6 10, 6 6, 5 6, 5 5, 6 5, 6 0, 0 0))", 1),
+            new ExpectedPoly("POLYGON((5 5, 5 6, 6 6, 6 10, 10 10, 10 0, 6 0, 6 5, 5 5))", 2)
+        };
+        assertFilteredPolygons(expected, polys);
+        
+        polys = filterSpeckles(VectorizeDescriptor.FILTER_MERGE_RANDOM, 1);
+        
+        assertEquals(60.0, getArea(polys, 1), EPS);
+        assertEquals(40.0, getArea(polys, 2), EPS);
+        
+        expected = new ExpectedPoly[] {
+            new ExpectedPoly("POLYGON((0 0, 0 10, 6 10, 6 0, 0 0))", 1),
+            new ExpectedPoly("POLYGON((6 0, 6 10, 10 10, 10 0, 6 0))", 2)
+        };
+        assertFilteredPolygons(expected, polys);
+    }
+    
+    /**
+     * Deleting small polygons leaves holes and notches in the large ones.
+     */
+    @Test
+    public void filterDelete() throws Exception {
+        List<Polygon> polys = filterSpeckles(VectorizeDescriptor.FILTER_DELETE, 0);
+        
+        assertEquals(58.0, getArea(polys, 1), EPS);
+        assertEquals(31.0, getArea(polys, 2), EPS);
+        
+        ExpectedPoly[] expected = {
+            new ExpectedPoly("POLYGON((0 0, 0 10, 6 10, 6 6, 5 6, 5 5, 6 5, 6 0, 0 0), "
+                    + "(2 2, 3 2, 3 3, 2 3, 2 2))", 1),
+            new ExpectedPoly("POLYGON((6 0, 6 10, 10 10, 10 4, 7 4, 7 1, 10 1, 10 0, 6 0))", 2)
+        };
+        assertFilteredPolygons(expected, polys);
+    }
+    
+    /**
+     * The enclosed speckle's only neighbour is the small ring around it. 
+     * It should be merged after the ring, into the group that the ring 
+     * joined, leaving region 2 without a hole.
+     */
+    @Test
+    public void filterMergeChained() throws Exception {
+        int[] methods = {
+            VectorizeDescriptor.FILTER_MERGE_LARGEST,
+            VectorizeDescriptor.FILTER_MERGE_RANDOM
+        };
+        
+        for (int method : methods) {
+            List<Polygon> polys = filterSpeckles(method, 1);
+            
+            Polygon region2 = null;
+            for (Polygon poly : polys) {
+                int value = ((Number) poly.getUserData()).intValue();
+                assertTrue(value == 1 || value == 2);
+                if (value == 2) {
+                    region2 = poly;
+                }
+            }
+            
+            assertNotNull(region2);
+            assertEquals(0, region2.getNumInteriorRing());
+            assertTrue(region2.contains(reader.read("POLYGON((7 1, 7 4, 10 4, 10 1, 7 1))")));
+        }
+    }
+    
+
+    /**
+     * Vectorizes the speckle image with small polygon filtering. The 
+     * operator is created directly so that the random seed can be set.
+     * 
+     * @param filterMethod the filter method
+     * @param seed seed for {@link VectorizeDescriptor#FILTER_MERGE_RANDOM}
+     * 
+     * @return the polygons, of which there should be two
+     */
+    private List<Polygon> filterSpeckles(int filterMethod, long seed) {
+        RenderedImage src = ImageUtils.createImageFromArray(SPECKLES, SPECKLES_WIDTH, SPECKLES_WIDTH);
+        VectorizeOpImage op = new VectorizeOpImage(src, null, 0, null, true, true, 
+                SPECKLES_THRESHOLD, filterMethod, 1, VectorizeDescriptor.METHOD_POLYGONIZE);
+        op.setRandomSeed(seed);
+        
+        List<Geometry> geoms = op.getAttribute(VectorizeDescriptor.VECTOR_PROPERTY_NAME);
+        assertEquals(2, geoms.size());
+        
+        List<Polygon> polys = new ArrayList<Polygon>();
+        for (Geometry geom : geoms) {
+            assertTrue(geom instanceof Polygon);
+            polys.add((Polygon) geom);
+        }
+        return polys;
+    }
+    
+    /**
+     * Gets the total area of the polygons with a given value.
+     * 
+     * @param polys the polygons
+     * @param value the value
+     * 
+     * @return the total area
+     */
+    private double getArea(List<Polygon> polys, int value) {
+        double area = 0;
+        for (Polygon poly : polys) {
+            if (((Number) poly.getUserData()).intValue() == value) {
+                area += poly.getArea();
+            }
+        }
+        return area;
+    }
+    
+    /**
+     * Asserts that each expected polygon is topologically equal to an 
+     * observed polygon with the same value. Merged polygons can retain
+     * collinear vertices, so {@link #assertPolygons} is not used.
+     * 
+     * @param expected expected polygons
+     * @param observed observed polygons
+     */
+    private void assertFilteredPolygons(ExpectedPoly[] expected, List<Polygon> observed) 
+            throws Exception {
+        for (ExpectedPoly ep : expected) {
+            Geometry poly = reader.read(ep.wkt);
+            Polygon match = null;
+            for (Polygon p : observed) {
+                if (p.equals(poly)) {
+                    match = p;
+                    break;
+                }
+            }
+            
+            assertNotNull("Polygon not found: " + ep.wkt, match);
+            assertEquals("User data does not match",
+                    0, NumberOperations.compare((Number) match.getUserData(), ep.value));
+        }
+    }
 
     /**
      * Interface used with the {@link #createChessboardImage} method. 
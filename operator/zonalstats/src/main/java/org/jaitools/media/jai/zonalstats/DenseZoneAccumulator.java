@@ -0,0 +1,439 @@
+/* 
+ *  Copyright (c) 2013, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+
+package org.jaitools.media.jai.zonalstats;
+
+import java.awt.Rectangle;
+import java.awt.image.DataBuffer;
+import java.awt.image.RenderedImage;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Set;
+
+import javax.media.jai.RasterAccessor;
+
+import org.jaitools.numeric.DoubleIntervals;
+import org.jaitools.numeric.Statistic;
+
+
+/**
+ * Accumulates zonal statistics in flat primitive arrays indexed by zone ID.
+ * Used by {@link ZonalStatsOpImage} in place of a map of
+ * {@code StreamingSampleStats} objects when the zone image has a data type
+ * with a bounded range (byte, short or ushort) and all requested statistics
+ * can be derived from running moments and extrema.
+ * <p>
+ * Sample values are read directly from {@code RasterAccessor} data arrays a
+ * row at a time. Each value is classified in the same way as by the statistics
+ * processors (NaN, NoData, excluded, accepted); accepted values update a
+ * running count, mean and sum of squared differences (Welford's method, as
+ * used by {@code MeanVarianceProcessor}), sum, minimum and maximum.
+ * <p>
+ * Instances are not thread-safe. For parallel use, each thread works with
+ * its own accumulator and the results are combined with {@link #merge}.
+ *
+ * @author Michael Bedward
+ * @since 1.5
+ * @version $Id$
+ */
+final class DenseZoneAccumulator {
+
+    /** Statistics which can be calculated by this class. */
+    static final Set<Statistic> SUPPORTED = EnumSet.of(
+            Statistic.MIN, Statistic.MAX, Statistic.RANGE,
+            Statistic.MEAN, Statistic.SDEV, Statistic.VARIANCE,
+            Statistic.SUM);
+
+    private final int minZone;
+    private final int numZones;
+    private final int[] srcBands;
+    private final int numBands;
+    private final DoubleIntervals noDataRanges;
+    private final DoubleIntervals excludedRanges;
+
+    /* Number of data image pixels offered, indexed by zone */
+    private final long[] numOffered;
+
+    /* 
+     * The following arrays are indexed by zone * numBands + band index
+     */
+    private final long[] numAccepted;
+    private final long[] numNaN;
+    private final long[] numNoData;
+    private final double[] mean;
+    private final double[] sumSqDiff;
+    private final double[] sum;
+    private final double[] min;
+    private final double[] max;
+
+    /* Row buffers */
+    private int[] zoneRow;
+    private double[][] dataRows;
+
+    /**
+     * Tests if the dense accumulator can be used.
+     *
+     * @param zoneImage the zone image
+     * @param stats the statistics required (including those implied by
+     *     the requested ones, eg. SDEV and VARIANCE for MEAN)
+     *
+     * @return {@code true} if the zone image data type has a bounded range
+     *     and all statistics are supported
+     */
+    static boolean isApplicable(RenderedImage zoneImage, Collection<Statistic> stats) {
+        switch (zoneImage.getSampleModel().getDataType()) {
+            case DataBuffer.TYPE_BYTE:
+            case DataBuffer.TYPE_SHORT:
+            case DataBuffer.TYPE_USHORT:
+                return SUPPORTED.containsAll(stats);
+
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Creates a new accumulator.
+     *
+     * @param zoneDataType data type of the zone image (byte, short or ushort)
+     * @param srcBands data image bands to process
+     * @param noDataRanges ranges of data values to treat as NoData, or {@code null}
+     * @param excludedRanges ranges of data values to exclude, or {@code null}
+     */
+    DenseZoneAccumulator(int zoneDataType, Integer[] srcBands,
+            DoubleIntervals noDataRanges, DoubleIntervals excludedRanges) {
+
+        switch (zoneDataType) {
+            case DataBuffer.TYPE_BYTE:
+                minZone = 0;
+                numZones = 1 << 8;
+                break;
+
+            case DataBuffer.TYPE_SHORT:
+                minZone = Short.MIN_VALUE;
+                numZones = 1 << 16;
+                break;
+
+            case DataBuffer.TYPE_USHORT:
+                minZone = 0;
+                numZones = 1 << 16;
+                break;
+
+            default:
+                throw new IllegalArgumentException("Zone data type must be byte, short or ushort");
+        }
+
+        this.numBands = srcBands.length;
+        this.srcBands = new int[numBands];
+        for (int k = 0; k < numBands; k++) {
+            this.srcBands[k] = srcBands[k];
+        }
+
+        this.noDataRanges = noDataRanges;
+        this.excludedRanges = excludedRanges;
+
+        final int n = numZones * numBands;
+        numOffered = new long[numZones];
+        numAccepted = new long[n];
+        numNaN = new long[n];
+        numNoData = new long[n];
+        mean = new double[n];
+        sumSqDiff = new double[n];
+        sum = new double[n];
+        min = new double[n];
+        max = new double[n];
+    }
+
+    /**
+     * Accumulates data for the pixels in the given rectangle.
+     *
+     * @param dataAcc accessor for the data image samples within {@code rect}
+     * @param zoneAcc accessor for the zone image samples within {@code rect}
+     * @param rect the rectangle to process
+     * @param roiMask optional flags (row-major) for the pixels within the ROI;
+     *     pixels outside it are ignored
+     */
+    void accumulate(RasterAccessor dataAcc, RasterAccessor zoneAcc, Rectangle rect, boolean[] roiMask) {
+        final int w = rect.width;
+        if (zoneRow == null || zoneRow.length < w) {
+            zoneRow = new int[w];
+            dataRows = new double[numBands][w];
+        }
+
+        for (int y = 0; y < rect.height; y++) {
+            readZoneRow(zoneAcc, y, w);
+            for (int k = 0; k < numBands; k++) {
+                readDataRow(dataAcc, srcBands[k], y, w, dataRows[k]);
+            }
+
+            for (int x = 0; x < w; x++) {
+                if (roiMask != null && !roiMask[y * w + x]) {
+                    continue;
+                }
+
+                final int z = zoneRow[x] - minZone;
+                numOffered[z]++;
+
+                int index = z * numBands;
+                for (int k = 0; k < numBands; k++, index++) {
+                    final double value = dataRows[k][x];
+
+                    if (Double.isNaN(value)) {
+                        numNaN[index]++;
+                        numNoData[index]++;
+
+                    } else if (noDataRanges != null && noDataRanges.contains(value)) {
+                        numNoData[index]++;
+
+                    } else if (excludedRanges == null || !excludedRanges.contains(value)) {
+                        final long n = numAccepted[index];
+                        if (n == 0) {
+                            mean[index] = value;
+                            sumSqDiff[index] = 0.0;
+                            min[index] = max[index] = value;
+
+                        } else {
+                            final double oldMean = mean[index];
+                            final double newMean = oldMean + (value - oldMean) / (n + 1);
+                            sumSqDiff[index] += (value - oldMean) * (value - newMean);
+                            mean[index] = newMean;
+
+                            if (value > max[index]) {
+                                max[index] = value;
+                            }
+                            if (value < min[index]) {
+                                min[index] = value;
+                            }
+                        }
+                        sum[index] += value;
+                        numAccepted[index] = n + 1;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges the data held by another accumulator into this one.
+     *
+     * @param other the other accumulator
+     */
+    void merge(DenseZoneAccumulator other) {
+        for (int z = 0; z < numZones; z++) {
+            numOffered[z] += other.numOffered[z];
+        }
+
+        for (int index = 0; index < numAccepted.length; index++) {
+            numNaN[index] += other.numNaN[index];
+            numNoData[index] += other.numNoData[index];
+
+            final long nb = other.numAccepted[index];
+            if (nb == 0) {
+                continue;
+            }
+
+            final long na = numAccepted[index];
+            if (na == 0) {
+                mean[index] = other.mean[index];
+                sumSqDiff[index] = other.sumSqDiff[index];
+                min[index] = other.min[index];
+                max[index] = other.max[index];
+
+            } else {
+                final double n = (double) na + nb;
+                final double delta = other.mean[index] - mean[index];
+                mean[index] += delta * (nb / n);
+                sumSqDiff[index] += other.sumSqDiff[index] + delta * delta * (na * (nb / n));
+                if (other.max[index] > max[index]) {
+                    max[index] = other.max[index];
+                }
+                if (other.min[index] < min[index]) {
+                    min[index] = other.min[index];
+                }
+            }
+            sum[index] += other.sum[index];
+            numAccepted[index] = na + nb;
+        }
+    }
+
+    /**
+     * Adds results to a {@code ZonalStats} object. Results are added by band,
+     * then zone, then statistic, for each zone in which at least one pixel
+     * was offered.
+     *
+     * @param zs the object to receive the results
+     * @param stats the statistics, in the order in which results are added
+     */
+    void addResults(ZonalStats zs, Collection<Statistic> stats) {
+        for (int k = 0; k < numBands; k++) {
+            for (int z = 0; z < numZones; z++) {
+                if (numOffered[z] == 0) {
+                    continue;
+                }
+
+                final int index = z * numBands + k;
+                for (Statistic stat : stats) {
+                    zs.addResult(new Result(srcBands[k], z + minZone, stat, null,
+                            getValue(stat, index),
+                            numOffered[z], numAccepted[index],
+                            numNaN[index], numNoData[index]));
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the value of a statistic, following the conventions of
+     * the statistics processors.
+     */
+    private double getValue(Statistic stat, int index) {
+        final long n = numAccepted[index];
+        if (n == 0) {
+            return Double.NaN;
+        }
+
+        switch (stat) {
+            case MIN:
+                return min[index];
+
+            case MAX:
+                return max[index];
+
+            case RANGE:
+                return max[index] - min[index];
+
+            case MEAN:
+                return mean[index];
+
+            case SDEV:
+                return n > 1 ? Math.sqrt(sumSqDiff[index] / (n - 1)) : Double.NaN;
+
+            case VARIANCE:
+                return n > 1 ? sumSqDiff[index] / (n - 1) : Double.NaN;
+
+            case SUM:
+                return sum[index];
+
+            default:
+                throw new IllegalArgumentException(stat + " not supported");
+        }
+    }
+
+    /**
+     * Reads a row of zone values.
+     */
+    private void readZoneRow(RasterAccessor acc, int y, int w) {
+        final int stride = acc.getPixelStride();
+        int pos = acc.getBandOffset(0) + y * acc.getScanlineStride();
+
+        switch (acc.getDataType()) {
+            case DataBuffer.TYPE_BYTE: {
+                final byte[] src = acc.getByteDataArray(0);
+                for (int x = 0; x < w; x++, pos += stride) {
+                    zoneRow[x] = src[pos] & 0xff;
+                }
+                break;
+            }
+
+            case DataBuffer.TYPE_USHORT: {
+                final short[] src = acc.getShortDataArray(0);
+                for (int x = 0; x < w; x++, pos += stride) {
+                    zoneRow[x] = src[pos] & 0xffff;
+                }
+                break;
+            }
+
+            case DataBuffer.TYPE_SHORT: {
+                final short[] src = acc.getShortDataArray(0);
+                for (int x = 0; x < w; x++, pos += stride) {
+                    zoneRow[x] = src[pos];
+                }
+                break;
+            }
+
+            default:
+                throw new IllegalStateException("Unexpected zone data type: " + acc.getDataType());
+        }
+    }
+
+    /**
+     * Reads a row of data values for one band.
+     */
+    private static void readDataRow(RasterAccessor acc, int band, int y, int w, double[] dest) {
+        final int stride = acc.getPixelStride();
+        int pos = acc.getBandOffset(band) + y * acc.getScanlineStride();
+
+        switch (acc.getDataType()) {
+            case DataBuffer.TYPE_BYTE: {
+                final byte[] src = acc.getByteDataArray(band);
+                for (int x = 0; x < w; x++, pos += stride) {
+                    dest[x] = src[pos] & 0xff;
+                }
+                break;
+            }
+
+            case DataBuffer.TYPE_USHORT: {
+                final short[] src = acc.getShortDataArray(band);
+                for (int x = 0; x < w; x++, pos += stride) {
+                    dest[x] = src[pos] & 0xffff;
+                }
+                break;
+            }
+
+            case DataBuffer.TYPE_SHORT: {
+                final short[] src = acc.getShortDataArray(band);
+                for (int x = 0; x < w; x++, pos += stride) {
+                    dest[x] = src[pos];
+                }
+                break;
+            }
+
+            case DataBuffer.TYPE_INT: {
+                final int[] src = acc.getIntDataArray(band);
+                for (int x = 0; x < w; x++, pos += stride) {
+                    dest[x] = src[pos];
+                }
+                break;
+            }
+
+            case DataBuffer.TYPE_FLOAT: {
+                final float[] src = acc.getFloatDataArray(band);
+                for (int x = 0; x < w; x++, pos += stride) {
+                    dest[x] = src[pos];
+                }
+                break;
+            }
+
+            case DataBuffer.TYPE_DOUBLE: {
+                final double[] src = acc.getDoubleDataArray(band);
+                for (int x = 0; x < w; x++, pos += stride) {
+                    dest[x] = src[pos];
+                }
+                break;
+            }
+        }
+    }
+}
@@ -179,6 +179,14 @@ public class ZonalStats {
         setResults(band, zone, stats, null);
     }
 
+    /**
+     * Store a single result. Package-private method used by
+     * {@code ZonalStatsOpImage}.
+     */
+    void addResult(Result r) {
+        results.add(r);
+    }
+
     /**
      * Get the integer IDs read from the zone image. If a zone image
      * was not used all results are treated as being in zone 0.
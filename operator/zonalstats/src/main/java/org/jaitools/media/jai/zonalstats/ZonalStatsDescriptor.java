@@ -89,6 +89,14 @@ import org.jaitools.numeric.Statistic;
  * As well as being excluded from calculations of statistics, the frequency of 
  * NODATA values is tracked by the operator and can be retrieved from the results.
  * <p>
+ * Statistics for large images are calculated in parallel: the data image is
+ * divided into bands of rows which are processed separately, and the partial
+ * results for each zone are merged. The "numThreads" parameter controls the
+ * number of threads used. Setting it to 1 processes the image sequentially.
+ * Results for statistics such as the mean may differ from a sequential pass
+ * by floating point rounding, while those for the approximate median may differ
+ * slightly more because the remedian depends on the order of values.
+ * <p>
  * Example of use...
  * <pre><code>
  * RenderedImage myData = ...
@@ -252,6 +260,12 @@ import org.jaitools.numeric.Statistic;
  * <td>Ranges of values to treat specifically as NODATA
  * </td><td>null (no NODATA values defined)</td>
  * </tr>
+ * <tr>
+ * <td>numThreads</td><td>Integer</td>
+ * <td>Number of threads to use when calculating statistics. If 0, the
+ * number of available processors is used.</td>
+ * <td>0</td>
+ * </tr>
  * </table>
  *
  * @see Result
@@ -287,6 +301,7 @@ public class ZonalStatsDescriptor extends OperationDescriptorImpl {
     static final int RANGES_TYPE_ARG = 5;
     static final int RANGE_LOCAL_STATS_ARG = 6;
     static final int NODATA_RANGES_ARG = 7;
+    static final int NUM_THREADS_ARG = 8;
 
     private static final String[] paramNames = {
         "stats", 
@@ -296,7 +311,8 @@ public class ZonalStatsDescriptor extends OperationDescriptorImpl {
         "ranges", 
         "rangesType", 
         "rangeLocalStats", 
-        "noDataRanges"
+        "noDataRanges",
+        "numThreads"
     };
 
     private static final Class<?>[] paramClasses = {
@@ -307,7 +323,8 @@ public class ZonalStatsDescriptor extends OperationDescriptorImpl {
         Collection.class, 
         Range.Type.class, 
         Boolean.class, 
-        Collection.class 
+        Collection.class,
+        Integer.class
     };
 
     private static final Object[] paramDefaults = {
@@ -317,7 +334,8 @@ public class ZonalStatsDescriptor extends OperationDescriptorImpl {
         (Collection) null, 
         Range.Type.UNDEFINED, 
         Boolean.FALSE, 
-        (Collection) null
+        (Collection) null,
+        Integer.valueOf(0)
     };
     
 
@@ -373,6 +391,11 @@ public class ZonalStatsDescriptor extends OperationDescriptorImpl {
                         String.format("%s (default %s) - an optional Collection of Ranges "
                             + "defining values to treat as NODATA",
                             paramNames[NODATA_RANGES_ARG], paramDefaults[NODATA_RANGES_ARG])},
+                {
+                        "arg8Desc",
+                        String.format("%s (default %s) - number of threads to use, "
+                            + "or 0 for the number of available processors",
+                            paramNames[NUM_THREADS_ARG], paramDefaults[NUM_THREADS_ARG])},
 
         },
 
@@ -477,6 +500,14 @@ public class ZonalStatsDescriptor extends OperationDescriptorImpl {
             }
         }
 
+        Object numThreads = pb.getObjectParameter(NUM_THREADS_ARG);
+        if (numThreads != null) {
+            if (!(numThreads instanceof Integer) || (Integer) numThreads < 0) {
+                msg.append(paramNames[NUM_THREADS_ARG]).append(" arg has to be a non-negative Integer");
+                return false;
+            }
+        }
+
         // CHECKING BANDS
         Object bandsObject = pb.getObjectParameter(BAND_ARG);
         Integer[] bands = null;
@@ -29,6 +29,7 @@ import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.NoninvertibleTransformException;
+import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.util.Collection;
 import java.util.List;
@@ -36,6 +37,12 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import javax.media.jai.AreaOpImage;
@@ -43,9 +50,14 @@ import javax.media.jai.ImageLayout;
 import javax.media.jai.NullOpImage;
 import javax.media.jai.OpImage;
 import javax.media.jai.ROI;
+import javax.media.jai.RasterAccessor;
+import javax.media.jai.RasterFormatTag;
 
 import org.jaitools.CollectionFactory;
+import org.jaitools.DaemonThreadFactory;
+import org.jaitools.imageutils.ROIMask;
 import org.jaitools.imageutils.iterator.SimpleIterator;
+import org.jaitools.numeric.DoubleIntervals;
 import org.jaitools.numeric.Range;
 import org.jaitools.numeric.RangeUtils;
 import org.jaitools.numeric.Statistic;
@@ -56,6 +68,17 @@ import org.jaitools.numeric.StreamingSampleStats;
  * Calculates image summary statistics for a data image within zones defined by
  * a integral valued zone image. If a zone image is not provided all data image
  * pixels are treated as being in the same zone (zone 0).
+ * <p>
+ * Unless range local statistics are requested, the data image is divided into
+ * bands of rows (aligned with tile rows where there are enough of them) which
+ * are processed in parallel. Each task accumulates its own partial statistics
+ * per zone and these are merged when all tasks have finished.
+ * <p>
+ * When the zone image is of byte, short or ushort data type, no zone transform
+ * is used, and the statistics requested are limited to those derived from running
+ * moments and extrema (MIN, MAX, RANGE, MEAN, SDEV, VARIANCE, SUM), a faster
+ * path is used which reads samples directly from raster data arrays and
+ * accumulates results in arrays indexed by zone ID.
  *
  * @see ZonalStatsDescriptor Description of the algorithm and example
  *
@@ -93,6 +116,9 @@ public class ZonalStatsOpImage extends NullOpImage {
      * from statistics computations */
     private Range.Type rangesType;
 
+    /** Number of threads to use when compiling statistics */
+    private final int numThreads;
+
     private SortedSet<Integer> zones;
 
     /**
@@ -143,6 +169,63 @@ public class ZonalStatsOpImage extends NullOpImage {
             Range.Type rangesType,
             final boolean rangeLocalStats,
             Collection<Range<Double>> noDataRanges) {
+        
+        this(dataImage, zoneImage, config, layout, stats, bands, roi, dataToZoneTransform,
+                ranges, rangesType, rangeLocalStats, noDataRanges, 0);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param dataImage a {@code RenderedImage} from which data values will be read.
+     *
+     * @param zoneImage an optional {@code RenderedImage} of integral data type that defines
+     *     the zones for which to calculate summary data.
+     *
+     * @param config configurable attributes of the image (see {@link AreaOpImage}).
+     *
+     * @param layout an optional {@code ImageLayout} object.
+     *
+     * @param stats an array of {@code Statistic} constants specifying the data required.
+     *
+     * @param bands the data image band to process.
+     *
+     * @param roi an optional {@code ROI} for data image masking.
+     *
+     * @param dataToZoneTransform an optional {@code AffineTransform} which maps data 
+     *     image positions to zone image positions
+     *
+     * @param ranges an optional list of {@link Range} objects defining values to include or
+     *     exclude (de pending on {@code rangesType} from the calculations; may be
+     *     {@code null} or empty
+     * 
+     * @param rangesType specifies whether the {@code ranges} argument defines values
+     *     to include or exclude
+     *
+     * @param rangeLocalStats if {@code true}, the statistics should be computed for ranges,
+     *     separately.
+     *
+     * @param noDataRanges an optional list of {@link Range} objects defining values to
+     *     treat as NODATA
+     * 
+     * @param numThreads number of threads to use when compiling statistics; if 0
+     *     the number of available processors is used
+     * 
+     * @see ZonalStatsDescriptor
+     * @see Statistic
+     */
+    public ZonalStatsOpImage(RenderedImage dataImage, RenderedImage zoneImage,
+            Map<?, ?> config,
+            ImageLayout layout,
+            Statistic[] stats,
+            Integer[] bands,
+            ROI roi,
+            AffineTransform dataToZoneTransform,
+            Collection<Range<Double>> ranges,
+            Range.Type rangesType,
+            final boolean rangeLocalStats,
+            Collection<Range<Double>> noDataRanges,
+            int numThreads) {
 
         super(dataImage, layout, config, OpImage.OP_COMPUTE_BOUND);
 
@@ -202,6 +285,8 @@ public class ZonalStatsOpImage extends NullOpImage {
                 this.noDataRanges.add(new Range<Double>(r));
             }
         }
+
+        this.numThreads = numThreads > 0 ? numThreads : Runtime.getRuntime().availableProcessors();
     }
 
     /**
@@ -271,63 +356,48 @@ public class ZonalStatsOpImage extends NullOpImage {
         return sampleStats;
     }
 
+    /**
+     * Creates a {@link StreamingSampleStats} object for the single zone used
+     * when no zone image was provided, and adds it to the provided
+     * {@code resultsPerBand} {@code Map}.
+     *
+     * @param resultsPerBand {@code Map} of results by zone id
+     * @param zone integer zone id
+     *
+     * @return a new {@code StreamingSampleStats} object
+     */
+    private StreamingSampleStats setupUnzonedStats(Map<Integer, StreamingSampleStats> resultsPerBand, Integer zone) {
+        StreamingSampleStats sampleStats = new StreamingSampleStats(rangesType);
+        for (Range<Double> r : ranges) {
+            sampleStats.addRange(r);
+        }
+        for (Range<Double> r : noDataRanges) {
+            sampleStats.addNoDataRange(r);
+        }
+        sampleStats.setStatistics(stats);
+        resultsPerBand.put(zone, sampleStats);
+        return sampleStats;
+    }
+
     /**
      * Used to calculate statistics when a zone image was provided.
      *
      * @return the results as a {@code ZonalStats} instance
      */
     private ZonalStats compileZonalStatistics() {
-
-        Map<Integer, Map<Integer, StreamingSampleStats>> results = CollectionFactory.sortedMap();
-        for( Integer srcBand : srcBands) {
-            Map<Integer, StreamingSampleStats> resultsPerBand = CollectionFactory.sortedMap();
-            results.put(srcBand, resultsPerBand);
-        }
-
-        SimpleIterator dataIter = new SimpleIterator(dataImage, dataImageBounds, null);
-        SimpleIterator zoneIter = new SimpleIterator(zoneImage, zoneImageBounds, null);
-        
-        if (dataToZoneTransform == null) { // Identity transform assumed
-            do {
-                if (roi == null || roi.contains(dataIter.getPos())) {
-                    for (Integer band : srcBands) {
-                        Map<Integer, StreamingSampleStats> resultPerBand = results.get(band);
-
-                        int zone = zoneIter.getSample().intValue();
-                        StreamingSampleStats sss = resultPerBand.get(zone);
-                        if (sss == null) {
-                            // init the zoned stats lazily
-                            sss = setupZoneStats(resultPerBand, zone);
-                        }
-                        sss.offer(dataIter.getSample(band).doubleValue());
-                    }
-                }
-                zoneIter.next();
-            } while( dataIter.next() );
-
-        } else {
-            Point zonePos = new Point();
-            do {
-                if (roi == null || roi.contains(dataIter.getPos())) {
-                    dataToZoneTransform.transform(dataIter.getPos(), zonePos);
-
-                    for (Integer band : srcBands) {
-                        Map<Integer, StreamingSampleStats> resultPerBand = results.get(band);
-                        int zone = zoneIter.getSample(zonePos.x, zonePos.y, 0).intValue();
-
-                        StreamingSampleStats sss = resultPerBand.get(zone);
-                        if (sss == null) {
-                            // init the zoned stats lazily
-                            sss = setupZoneStats(resultPerBand, zone);
-                        }
-                        sss.offer(dataIter.getSample(band).doubleValue());
-                    }
-                }
-            } while (!dataIter.next());
+        // The dense path bypasses setupZoneStats so it is only used
+        // when that method has not been overridden
+        if (dataToZoneTransform == null && getClass() == ZonalStatsOpImage.class) {
+            StreamingSampleStats template = new StreamingSampleStats(Range.Type.EXCLUDE);
+            template.setStatistics(stats);
+            Set<Statistic> allStats = template.getStatistics();
+            
+            if (DenseZoneAccumulator.isApplicable(zoneImage, allStats)) {
+                return compileDenseZonalStatistics(allStats);
+            }
         }
         
-        dataIter.done();
-        zoneIter.done();
+        Map<Integer, Map<Integer, StreamingSampleStats>> results = accumulateAll(null);
 
         // collect all found zones
         Set<Integer> zonesFound = new TreeSet<Integer>();
@@ -348,43 +418,182 @@ public class ZonalStatsOpImage extends NullOpImage {
     }
 
     /**
-     * Used to calculate statistics when no zone image was provided.
+     * Used to calculate statistics with a {@link DenseZoneAccumulator} when
+     * the zone image has a bounded range of integer values. Each thread
+     * works with its own accumulator, taking bands of rows in turn
+     * from the list returned by {@linkplain #partition()}.
+     *
+     * @param allStats statistics to report, including those implied by
+     *     the requested statistics
      *
      * @return the results as a {@code ZonalStats} instance
      */
-    private ZonalStats compileUnzonedStatistics() {
-        buildZoneList();
-        Integer zoneID = zones.first();
+    private ZonalStats compileDenseZonalStatistics(Collection<Statistic> allStats) {
+        final List<Rectangle> parts = partition();
+        final AtomicInteger nextPart = new AtomicInteger(0);
+        final int numWorkers = Math.min(numThreads, parts.size());
 
-        // create the stats
-        final StreamingSampleStats sampleStatsPerBand[] = new StreamingSampleStats[srcBands.length];
-        for (int index = 0; index < srcBands.length; index++) {
-            final StreamingSampleStats sampleStats = new StreamingSampleStats(rangesType);
-            for (Range<Double> r : ranges) {
-                sampleStats.addRange(r);
+        DenseZoneAccumulator acc;
+        if (numWorkers == 1) {
+            acc = new DenseTask(parts, nextPart).call();
+
+        } else {
+            List<DenseZoneAccumulator> partials = CollectionFactory.list();
+            ExecutorService executor = Executors.newFixedThreadPool(
+                    numWorkers, new DaemonThreadFactory(Thread.NORM_PRIORITY, "zonalstats"));
+            try {
+                List<Future<DenseZoneAccumulator>> futures = CollectionFactory.list();
+                for (int i = 0; i < numWorkers; i++) {
+                    futures.add(executor.submit(new DenseTask(parts, nextPart)));
+                }
+                for (Future<DenseZoneAccumulator> future : futures) {
+                    partials.add(future.get());
+                }
+
+            } catch (ExecutionException execEx) {
+                Throwable cause = execEx.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IllegalStateException(cause);
+
+            } catch (InterruptedException intEx) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while compiling statistics", intEx);
+
+            } finally {
+                executor.shutdownNow();
             }
-            for (Range<Double> r : noDataRanges) {
-                sampleStats.addNoDataRange(r);
+
+            acc = partials.get(0);
+            for (int i = 1; i < partials.size(); i++) {
+                acc.merge(partials.get(i));
             }
-            sampleStats.setStatistics(stats);
-            sampleStatsPerBand[index] = sampleStats;
         }
 
-        SimpleIterator dataIter = new SimpleIterator(dataImage, dataImageBounds, null);
-        do {
-            if (roi == null || roi.contains(dataIter.getPos())) {
-                for (int k = 0; k < srcBands.length; k++) {
-                    double value = dataIter.getSample(srcBands[k]).doubleValue();
-                    sampleStatsPerBand[k].offer(value);
+        ZonalStats zs = new ZonalStats();
+        acc.addResults(zs, allStats);
+        return zs;
+    }
+
+    /**
+     * Task which creates a {@link DenseZoneAccumulator} and feeds it the
+     * pixels within bands of rows taken from a shared list until none
+     * remain.
+     */
+    private class DenseTask implements Callable<DenseZoneAccumulator> {
+        private final List<Rectangle> parts;
+        private final AtomicInteger nextPart;
+
+        DenseTask(List<Rectangle> parts, AtomicInteger nextPart) {
+            this.parts = parts;
+            this.nextPart = nextPart;
+        }
+
+        public DenseZoneAccumulator call() {
+            DenseZoneAccumulator acc = new DenseZoneAccumulator(
+                    zoneImage.getSampleModel().getDataType(), srcBands,
+                    noDataRanges.isEmpty() ? null : new DoubleIntervals(noDataRanges),
+                    ranges.isEmpty() ? null : new DoubleIntervals(ranges));
+
+            RasterFormatTag dataTag = RasterAccessor.findCompatibleTags(
+                    new RenderedImage[]{dataImage}, dataImage)[0];
+            RasterFormatTag zoneTag = RasterAccessor.findCompatibleTags(
+                    new RenderedImage[]{zoneImage}, zoneImage)[0];
+
+            // data image pixels with no corresponding zone image pixel are ignored
+            Rectangle zoneBounds = new Rectangle(zoneImage.getMinX(), zoneImage.getMinY(),
+                    zoneImage.getWidth(), zoneImage.getHeight());
+
+            final boolean sameTileGrid = 
+                    zoneImage.getTileGridXOffset() == dataImage.getTileGridXOffset() &&
+                    zoneImage.getTileGridYOffset() == dataImage.getTileGridYOffset() &&
+                    zoneImage.getTileWidth() == dataImage.getTileWidth() &&
+                    zoneImage.getTileHeight() == dataImage.getTileHeight();
+
+            final int tileW = dataImage.getTileWidth();
+            final int tileH = dataImage.getTileHeight();
+            final int gridX = dataImage.getTileGridXOffset();
+            final int gridY = dataImage.getTileGridYOffset();
+
+            int index;
+            while ((index = nextPart.getAndIncrement()) < parts.size()) {
+                Rectangle part = parts.get(index).intersection(zoneBounds);
+                if (part.isEmpty()) {
+                    continue;
+                }
+
+                int minTx = toTile(part.x, gridX, tileW);
+                int maxTx = toTile(part.x + part.width - 1, gridX, tileW);
+                int minTy = toTile(part.y, gridY, tileH);
+                int maxTy = toTile(part.y + part.height - 1, gridY, tileH);
+
+                for (int ty = minTy; ty <= maxTy; ty++) {
+                    for (int tx = minTx; tx <= maxTx; tx++) {
+                        Rectangle tileRect = new Rectangle(
+                                gridX + tx * tileW, gridY + ty * tileH, tileW, tileH);
+                        Rectangle rect = tileRect.intersection(part);
+                        if (rect.isEmpty()) {
+                            continue;
+                        }
+                        
+                        // the ROI is rasterized here, rather than tested
+                        // pixel by pixel, since ROI contains methods are not
+                        // safe to call from several threads
+                        boolean[] roiMask = null;
+                        if (roi != null) {
+                            ROIMask mask = ROIMask.create(roi, rect);
+                            if (mask.isAllOutside()) {
+                                continue;
+                            }
+                            roiMask = mask.isAllInside() ? null : mask.getData();
+                        }
+
+                        Raster data = dataImage.getTile(tx, ty);
+                        Raster zone = sameTileGrid ? 
+                                zoneImage.getTile(tx, ty) : zoneImage.getData(rect);
+
+                        acc.accumulate(
+                                new RasterAccessor(data, rect, dataTag, dataImage.getColorModel()),
+                                new RasterAccessor(zone, rect, zoneTag, zoneImage.getColorModel()),
+                                rect, roiMask);
+                    }
                 }
             }
-        } while (dataIter.next() );
-        dataIter.done();
+
+            return acc;
+        }
+    }
+
+    /**
+     * Converts an image ordinate to a tile index.
+     */
+    private static int toTile(int pos, int gridOffset, int tileSize) {
+        int d = pos - gridOffset;
+        return d >= 0 ? d / tileSize : (d + 1) / tileSize - 1;
+    }
+
+    /**
+     * Used to calculate statistics when no zone image was provided.
+     *
+     * @return the results as a {@code ZonalStats} instance
+     */
+    private ZonalStats compileUnzonedStatistics() {
+        buildZoneList();
+        Integer zoneID = zones.first();
+
+        Map<Integer, Map<Integer, StreamingSampleStats>> results = accumulateAll(zoneID);
 
         // get the results
         final ZonalStats zs = new ZonalStats();
         for (int index = 0; index < srcBands.length; index++) {
-            final StreamingSampleStats sampleStats = sampleStatsPerBand[index];
+            Map<Integer, StreamingSampleStats> resultsPerBand = results.get(srcBands[index]);
+            StreamingSampleStats sampleStats = resultsPerBand.get(zoneID);
+            if (sampleStats == null) {
+                // no data image pixels were within the ROI
+                sampleStats = setupUnzonedStats(resultsPerBand, zoneID);
+            }
+            
             List<Range> inclRanges = null;
             if (ranges != null && !ranges.isEmpty()) {
                 switch (rangesType) {
@@ -404,6 +613,235 @@ public class ZonalStatsOpImage extends NullOpImage {
         return zs;
     }
 
+    /**
+     * Accumulates statistics for the whole data image. The image is divided into
+     * bands of rows (see {@linkplain #partition()}) which are processed in parallel
+     * when more than one thread is available. The partial results for each zone
+     * are then merged.
+     *
+     * @param unzonedID the zone id to use for all pixels when there is no zone
+     *     image; ignored otherwise
+     *
+     * @return results by source band and zone id
+     */
+    private Map<Integer, Map<Integer, StreamingSampleStats>> accumulateAll(Integer unzonedID) {
+        List<Rectangle> parts = partition();
+
+        if (parts.size() == 1) {
+            return accumulate(parts.get(0), unzonedID);
+        }
+
+        List<Map<Integer, Map<Integer, StreamingSampleStats>>> partials = CollectionFactory.list();
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(numThreads, parts.size()),
+                new DaemonThreadFactory(Thread.NORM_PRIORITY, "zonalstats"));
+        try {
+            List<Future<Map<Integer, Map<Integer, StreamingSampleStats>>>> futures =
+                    CollectionFactory.list();
+            for (Rectangle part : parts) {
+                futures.add(executor.submit(new AccumulateTask(part, unzonedID)));
+            }
+            for (Future<Map<Integer, Map<Integer, StreamingSampleStats>>> future : futures) {
+                partials.add(future.get());
+            }
+
+        } catch (ExecutionException execEx) {
+            Throwable cause = execEx.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+
+        } catch (InterruptedException intEx) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while compiling statistics", intEx);
+
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // merge the partial results in image order
+        Map<Integer, Map<Integer, StreamingSampleStats>> results = partials.get(0);
+        for (int i = 1; i < partials.size(); i++) {
+            Map<Integer, Map<Integer, StreamingSampleStats>> partial = partials.get(i);
+            for (Integer band : srcBands) {
+                Map<Integer, StreamingSampleStats> resultsPerBand = results.get(band);
+                for (Map.Entry<Integer, StreamingSampleStats> e : partial.get(band).entrySet()) {
+                    StreamingSampleStats sss = resultsPerBand.get(e.getKey());
+                    if (sss == null) {
+                        resultsPerBand.put(e.getKey(), e.getValue());
+                    } else {
+                        sss.merge(e.getValue());
+                    }
+                }
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Divides the data image bounds into bands of rows to be processed in
+     * parallel. Bands follow tile rows if there are at least two per thread;
+     * otherwise the rows are divided evenly.
+     *
+     * @return list of bounds
+     */
+    private List<Rectangle> partition() {
+        List<Rectangle> parts = CollectionFactory.list();
+        final int height = dataImageBounds.height;
+
+        if (numThreads == 1 || height < 2) {
+            parts.add(dataImageBounds);
+
+        } else if (dataImage.getNumYTiles() >= 2 * numThreads) {
+            final int tileHeight = dataImage.getTileHeight();
+            final int minTileY = dataImage.getMinTileY();
+            for (int ty = minTileY; ty < minTileY + dataImage.getNumYTiles(); ty++) {
+                Rectangle tileRow = new Rectangle(dataImageBounds.x,
+                        dataImage.getTileGridYOffset() + ty * tileHeight,
+                        dataImageBounds.width, tileHeight);
+                Rectangle part = tileRow.intersection(dataImageBounds);
+                if (!part.isEmpty()) {
+                    parts.add(part);
+                }
+            }
+
+        } else {
+            final int numParts = Math.min(height, 4 * numThreads);
+            int y = dataImageBounds.y;
+            for (int i = 0; i < numParts; i++) {
+                int nextY = dataImageBounds.y + (int) ((long) height * (i + 1) / numParts);
+                parts.add(new Rectangle(dataImageBounds.x, y, dataImageBounds.width, nextY - y));
+                y = nextY;
+            }
+        }
+
+        return parts;
+    }
+
+    /**
+     * Accumulates statistics for the data image pixels within the given bounds.
+     * {@code StreamingSampleStats} objects are created lazily for each zone
+     * as it is encountered.
+     *
+     * @param bounds the bounds to process
+     * @param unzonedID the zone id to use for all pixels when there is no zone
+     *     image; ignored otherwise
+     *
+     * @return results by source band and zone id
+     */
+    private Map<Integer, Map<Integer, StreamingSampleStats>> accumulate(Rectangle bounds, Integer unzonedID) {
+        Map<Integer, Map<Integer, StreamingSampleStats>> results = CollectionFactory.sortedMap();
+        
+        @SuppressWarnings("unchecked")
+        Map<Integer, StreamingSampleStats>[] resultsByIndex = new Map[srcBands.length];
+        for (int k = 0; k < srcBands.length; k++) {
+            Map<Integer, StreamingSampleStats> resultsPerBand = CollectionFactory.sortedMap();
+            results.put(srcBands[k], resultsPerBand);
+            resultsByIndex[k] = resultsPerBand;
+        }
+
+        SimpleIterator dataIter = new SimpleIterator(dataImage, bounds, null);
+        SimpleIterator zoneIter = null;
+        Point zonePos = null;
+        Rectangle zoneBounds = null;
+        if (zoneImage != null) {
+            if (dataToZoneTransform == null) {
+                // Identity transform assumed: the zone iterator moves in step 
+                // with the data iterator
+                zoneIter = new SimpleIterator(zoneImage, bounds, null);
+                zoneBounds = new Rectangle(zoneImage.getMinX(), zoneImage.getMinY(),
+                        zoneImage.getWidth(), zoneImage.getHeight());
+            } else {
+                zoneIter = new SimpleIterator(zoneImage, zoneImageBounds, null);
+                zonePos = new Point();
+            }
+        }
+
+        // data and (identity transform) zone values are read a row at a time
+        double[][] dataRows = new double[srcBands.length][];
+        int[] zoneRow = null;
+        
+        Point dataPos = new Point();
+        do {
+            dataIter.getPos(dataPos);
+            for (int k = 0; k < srcBands.length; k++) {
+                dataRows[k] = dataIter.getRowDouble(dataRows[k], srcBands[k]);
+            }
+            if (zoneBounds != null) {
+                zoneRow = zoneIter.getRowInt(zoneRow, 0);
+            }
+            
+            // the ROI is rasterized a row at a time, rather than tested
+            // pixel by pixel, since ROI contains methods are not safe to
+            // call from several threads
+            boolean[] roiRow = null;
+            if (roi != null) {
+                ROIMask mask = ROIMask.create(roi,
+                        new Rectangle(bounds.x, dataPos.y, bounds.width, 1));
+                roiRow = mask.isAllInside() ? null : mask.getData();
+            }
+            
+            for (int i = 0; i < bounds.width; i++, dataPos.x++) {
+                if (roiRow == null || roiRow[i]) {
+                    Integer zone;
+                    if (zoneIter == null) {
+                        zone = unzonedID;
+                    } else if (zonePos == null) {
+                        // data pixels with no corresponding zone pixel are ignored
+                        zone = zoneBounds.contains(dataPos) ? zoneRow[i] : null;
+                    } else {
+                        dataToZoneTransform.transform(dataPos, zonePos);
+                        Number zoneVal = zoneIter.getSample(zonePos.x, zonePos.y, 0);
+                        zone = zoneVal == null ? null : zoneVal.intValue();
+                    }
+
+                    if (zone != null) {
+                        for (int k = 0; k < srcBands.length; k++) {
+                            StreamingSampleStats sss = resultsByIndex[k].get(zone);
+                            if (sss == null) {
+                                // init the zoned stats lazily
+                                sss = zoneIter == null ? 
+                                        setupUnzonedStats(resultsByIndex[k], zone) :
+                                        setupZoneStats(resultsByIndex[k], zone);
+                            }
+                            sss.offer(dataRows[k][i]);
+                        }
+                    }
+                }
+            }
+            
+            if (zoneBounds != null) {
+                zoneIter.nextRow();
+            }
+        } while (dataIter.nextRow());
+
+        dataIter.done();
+        if (zoneIter != null) {
+            zoneIter.done();
+        }
+
+        return results;
+    }
+
+    /**
+     * Task to accumulate statistics for part of the data image.
+     */
+    private class AccumulateTask implements Callable<Map<Integer, Map<Integer, StreamingSampleStats>>> {
+        private final Rectangle bounds;
+        private final Integer unzonedID;
+
+        AccumulateTask(Rectangle bounds, Integer unzonedID) {
+            this.bounds = bounds;
+            this.unzonedID = unzonedID;
+        }
+
+        public Map<Integer, Map<Integer, StreamingSampleStats>> call() {
+            return accumulate(bounds, unzonedID);
+        }
+    }
+
     /**
      * Used to calculate statistics when range local statistics are required.
      *
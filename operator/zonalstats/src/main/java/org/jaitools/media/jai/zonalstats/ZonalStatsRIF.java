@@ -65,7 +65,7 @@ public class ZonalStatsRIF implements RenderedImageFactory {
      *
      * @param paramBlock specifies the source image, the optional zone image,
      * and the following parameters: "stats", "band", "roi", "zoneTransform", "ranges",
-     * "rangesType", "rangeLocalStats"
+     * "rangesType", "rangeLocalStats", "noDataRanges", "numThreads"
      *
      * @param renderHints optional RenderingHints object
      */
@@ -98,6 +98,9 @@ public class ZonalStatsRIF implements RenderedImageFactory {
         Object rngType = paramBlock.getObjectParameter(ZonalStatsDescriptor.RANGES_TYPE_ARG);
         Range.Type rangesType = rngType != null ? (Range.Type) rngType : rng != null ? Range.Type.EXCLUDE : Range.Type.UNDEFINED;
 
+        Object threads = paramBlock.getObjectParameter(ZonalStatsDescriptor.NUM_THREADS_ARG);
+        int numThreads = threads != null ? (Integer) threads : 0;
+
         SampleModel sm = layout.getSampleModel(null);
         if (sm == null || sm.getNumBands() != stats.length) {
 
@@ -139,7 +142,8 @@ public class ZonalStatsRIF implements RenderedImageFactory {
                 ranges,
                 rangesType,
                 rangeLocalStats,
-                noDataRanges
+                noDataRanges,
+                numThreads
                 );
     }
 }
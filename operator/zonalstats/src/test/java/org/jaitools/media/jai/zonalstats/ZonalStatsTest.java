@@ -40,13 +40,18 @@ import javax.media.jai.ImageLayout;
 import javax.media.jai.JAI;
 import javax.media.jai.ParameterBlockJAI;
 import javax.media.jai.PlanarImage;
+import javax.media.jai.ROI;
 import javax.media.jai.RenderedOp;
 import javax.media.jai.TiledImage;
 import javax.media.jai.iterator.RectIter;
 import javax.media.jai.iterator.RectIterFactory;
 import javax.media.jai.iterator.WritableRectIter;
 
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
 import org.jaitools.CollectionFactory;
+import org.jaitools.imageutils.ROIGeometry;
 import org.jaitools.numeric.Range;
 import org.jaitools.numeric.Statistic;
 
@@ -419,6 +424,146 @@ public class ZonalStatsTest {
         }
     }
 
+    @Test
+    public void testParallelMatchesSequential() {
+        System.out.println("   test parallel results match sequential results");
+
+        RenderedImage zoneImage = createRandomImage(0, 9);
+        Statistic[] stats = {
+            Statistic.MIN, Statistic.MAX, Statistic.MEAN, Statistic.SDEV,
+            Statistic.SUM, Statistic.MEDIAN
+        };
+
+        List<Result> expected = null;
+        for (int numThreads : new int[]{1, 4}) {
+            ParameterBlockJAI pb = new ParameterBlockJAI("ZonalStats");
+            pb.setSource("dataImage", dataImage);
+            pb.setSource("zoneImage", zoneImage);
+            pb.setParameter("stats", stats);
+            pb.setParameter("numThreads", numThreads);
+
+            RenderedOp op = JAI.create("ZonalStats", pb);
+            ZonalStats zs = (ZonalStats) op.getProperty(ZonalStatsDescriptor.ZONAL_STATS_PROPERTY);
+            List<Result> results = zs.results();
+
+            if (expected == null) {
+                expected = results;
+                assertEquals(10 * stats.length, expected.size());
+
+            } else {
+                assertEquals(expected.size(), results.size());
+                for (int i = 0; i < results.size(); i++) {
+                    Result exp = expected.get(i);
+                    Result r = results.get(i);
+                    assertEquals(exp.getZone(), r.getZone());
+                    assertEquals(exp.getStatistic(), r.getStatistic());
+                    assertEquals(exp.getNumAccepted(), r.getNumAccepted());
+                    assertEquals(exp.getValue(), r.getValue(), EPS);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testParallelWithROIMatchesSequential() {
+        System.out.println("   test parallel results with an ROI match sequential results");
+
+        ROI roi = new ROIGeometry(new GeometryFactory().createPoint(
+                new Coordinate(WIDTH / 2, HEIGHT / 2)).buffer(HEIGHT / 2 - 3));
+
+        ParameterBlockJAI pb = new ParameterBlockJAI("format");
+        pb.setSource("source0", createRandomImage(0, 9));
+        pb.setParameter("dataType", DataBuffer.TYPE_BYTE);
+        RenderedImage byteZones = JAI.create("format", pb);
+
+        // MEDIAN requires the generic path; the others use dense accumulators 
+        // with a byte zone image
+        Statistic[][] statSets = {
+            {Statistic.MIN, Statistic.MAX, Statistic.MEAN, Statistic.MEDIAN},
+            {Statistic.MIN, Statistic.MAX, Statistic.MEAN, Statistic.SUM}
+        };
+
+        for (Statistic[] stats : statSets) {
+            List<Result> expected = null;
+            for (int numThreads : new int[]{1, 4}) {
+                pb = new ParameterBlockJAI("ZonalStats");
+                pb.setSource("dataImage", dataImage);
+                pb.setSource("zoneImage", byteZones);
+                pb.setParameter("stats", stats);
+                pb.setParameter("roi", roi);
+                pb.setParameter("numThreads", numThreads);
+
+                RenderedOp op = JAI.create("ZonalStats", pb);
+                ZonalStats zs = (ZonalStats) op.getProperty(ZonalStatsDescriptor.ZONAL_STATS_PROPERTY);
+                List<Result> results = zs.results();
+
+                if (expected == null) {
+                    expected = results;
+                    assertFalse(expected.isEmpty());
+
+                } else {
+                    assertEquals(expected.size(), results.size());
+                    for (int i = 0; i < results.size(); i++) {
+                        Result exp = expected.get(i);
+                        Result r = results.get(i);
+                        assertEquals(exp.getZone(), r.getZone());
+                        assertEquals(exp.getStatistic(), r.getStatistic());
+                        assertEquals(exp.getNumOffered(), r.getNumOffered());
+                        assertEquals(exp.getNumAccepted(), r.getNumAccepted());
+                        assertEquals(exp.getValue(), r.getValue(), EPS);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDenseZonesMatchGeneric() {
+        System.out.println("   test results for byte zone image match int zone image");
+
+        RenderedImage intZones = createRandomImage(0, 9);
+
+        ParameterBlockJAI pb = new ParameterBlockJAI("format");
+        pb.setSource("source0", intZones);
+        pb.setParameter("dataType", DataBuffer.TYPE_BYTE);
+        RenderedImage byteZones = JAI.create("format", pb);
+
+        List<Range<Double>> noDataRanges = CollectionFactory.list();
+        noDataRanges.add(Range.create(0.0, true, 1.0, true));
+
+        List<Result> expected = null;
+        for (RenderedImage zoneImage : new RenderedImage[]{intZones, byteZones}) {
+            pb = new ParameterBlockJAI("ZonalStats");
+            pb.setSource("dataImage", dataImage);
+            pb.setSource("zoneImage", zoneImage);
+            pb.setParameter("stats", new Statistic[]{Statistic.MIN, Statistic.MEAN, Statistic.SUM});
+            pb.setParameter("noDataRanges", noDataRanges);
+
+            RenderedOp op = JAI.create("ZonalStats", pb);
+            ZonalStats zs = (ZonalStats) op.getProperty(ZonalStatsDescriptor.ZONAL_STATS_PROPERTY);
+            List<Result> results = zs.results();
+
+            if (expected == null) {
+                expected = results;
+                // MIN, MAX, RANGE, MEAN, SDEV, VARIANCE, SUM for each of 10 zones
+                assertEquals(70, expected.size());
+
+            } else {
+                assertEquals(expected.size(), results.size());
+                for (int i = 0; i < results.size(); i++) {
+                    Result exp = expected.get(i);
+                    Result r = results.get(i);
+                    assertEquals(exp.getZone(), r.getZone());
+                    assertEquals(exp.getStatistic(), r.getStatistic());
+                    assertEquals(exp.getNumOffered(), r.getNumOffered());
+                    assertEquals(exp.getNumAccepted(), r.getNumAccepted());
+                    assertEquals(exp.getNumNoData(), r.getNumNoData());
+                    assertEquals(exp.getValue(), r.getValue(), EPS);
+                }
+            }
+        }
+    }
+
     private void assertSingleResult(RenderedOp op, Statistic stat, Double value) {
         ZonalStats stats = (ZonalStats) op.getProperty(ZonalStatsDescriptor.ZONAL_STATS_PROPERTY);
         Result r = stats.band(0).zone(0).statistic(stat).results().get(0);
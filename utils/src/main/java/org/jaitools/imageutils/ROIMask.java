@@ -0,0 +1,263 @@
+/* 
+ *  Copyright (c) 2013, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+
+package org.jaitools.imageutils;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.util.Arrays;
+
+import javax.media.jai.ROI;
+import javax.media.jai.ROIShape;
+
+
+/**
+ * A rasterized view of an {@code ROI} over a rectangle of image pixels.
+ * Operators which test the same pixels against an ROI many times (eg. for
+ * each cell of a kernel) can create a mask for the area being computed and
+ * then read the flags from an array.
+ * <p>
+ * The flags are identical to those given by {@code roi.contains(x, y)}.
+ * For vector ROIs ({@link ROIGeometry} and {@link ROIShape}) whole blocks of
+ * pixels lying within, or clear of, the ROI are identified with rectangle
+ * tests so that per-pixel tests are only required near the ROI boundary.
+ * Masks for rectangles wholly inside or outside the ROI are reported by
+ * {@link #isAllInside()} and {@link #isAllOutside()}, allowing callers to
+ * skip the mask altogether.
+ * <p>
+ * Masks can be created concurrently for the same ROI, eg. by operators 
+ * computing tiles in parallel, even though the {@code contains} and 
+ * {@code intersects} methods of {@code ROIGeometry} and JAI's image-backed
+ * {@code ROI} share working objects between calls. Tests against vector
+ * ROIs are made while holding the ROI's lock, and image-backed ROIs are
+ * read directly from their image.
+ * <pre><code>
+ * ROIMask mask = ROIMask.create(roi, tileBounds);
+ * if (!mask.isAllInside()) {
+ *     boolean[] flags = mask.getData();
+ *     // flags are stored by row
+ *     ...
+ * }
+ * </code></pre>
+ *
+ * @author Michael Bedward
+ * @since 1.5
+ * @version $Id$
+ */
+public class ROIMask {
+    
+    /* Blocks of this number of pixels or fewer are tested pixel by pixel */
+    private static final int MIN_BLOCK_PIXELS = 16;
+    
+    private final Rectangle bounds;
+    private final boolean[] data;
+    private int numInside;
+
+    /**
+     * Creates a mask for the given ROI and pixel rectangle.
+     * 
+     * @param roi the ROI
+     * @param bounds pixel bounds of the mask
+     * @return a new mask
+     * 
+     * @throws IllegalArgumentException if either argument is {@code null}
+     */
+    public static ROIMask create(ROI roi, Rectangle bounds) {
+        if (roi == null) {
+            throw new IllegalArgumentException("roi must not be null");
+        }
+        if (bounds == null) {
+            throw new IllegalArgumentException("bounds must not be null");
+        }
+        
+        ROIMask mask = new ROIMask(bounds);
+        if (!bounds.isEmpty()) {
+            if (roi.getClass() == ROI.class) {
+                mask.fillFromImage(roi.getAsImage());
+                
+            } else if (roi instanceof ROIGeometry || roi instanceof ROIShape) {
+                synchronized (roi) {
+                    mask.fillBlock(roi, bounds.x, bounds.y, bounds.width, bounds.height);
+                }
+                
+            } else {
+                synchronized (roi) {
+                    mask.fillPixels(roi, bounds.x, bounds.y, bounds.width, bounds.height);
+                }
+            }
+        }
+        
+        return mask;
+    }
+
+    /**
+     * Private constructor: use {@link #create(ROI, Rectangle)}.
+     */
+    private ROIMask(Rectangle bounds) {
+        this.bounds = new Rectangle(bounds);
+        this.data = new boolean[Math.max(0, bounds.width) * Math.max(0, bounds.height)];
+        this.numInside = 0;
+    }
+
+    /**
+     * Gets the pixel bounds of this mask.
+     * 
+     * @return a copy of the bounds
+     */
+    public Rectangle getBounds() {
+        return new Rectangle(bounds);
+    }
+
+    /**
+     * Tests if all pixels within the mask bounds are inside the ROI.
+     * 
+     * @return {@code true} if all pixels are inside
+     */
+    public boolean isAllInside() {
+        return numInside == data.length;
+    }
+
+    /**
+     * Tests if all pixels within the mask bounds are outside the ROI.
+     * 
+     * @return {@code true} if all pixels are outside
+     */
+    public boolean isAllOutside() {
+        return numInside == 0;
+    }
+
+    /**
+     * Tests if the given pixel is inside the ROI.
+     * 
+     * @param x pixel X ordinate
+     * @param y pixel Y ordinate
+     * 
+     * @return {@code true} if the pixel is inside the ROI; {@code false} if 
+     *     it is outside the ROI or the mask bounds
+     */
+    public boolean contains(int x, int y) {
+        if (bounds.contains(x, y)) {
+            return data[(y - bounds.y) * bounds.width + x - bounds.x];
+        }
+        return false;
+    }
+
+    /**
+     * Gets the mask flags, stored by row, with {@code true} indicating
+     * pixels inside the ROI. The flag for pixel {@code (x, y)} is at index
+     * {@code (y - minY) * width + x - minX}. The array is owned by this 
+     * mask and should not be modified.
+     * 
+     * @return mask flags
+     */
+    public boolean[] getData() {
+        return data;
+    }
+
+    /**
+     * Sets flags for a block of pixels, testing the whole block against the
+     * ROI and subdividing it if it straddles the ROI boundary. The test 
+     * rectangle extends half a pixel beyond the block's pixel positions so
+     * that pixels lying on the boundary of a vector ROI are always resolved
+     * with a per-pixel test.
+     */
+    private void fillBlock(ROI roi, int x, int y, int w, int h) {
+        if (w * h <= MIN_BLOCK_PIXELS) {
+            fillPixels(roi, x, y, w, h);
+            return;
+        }
+        
+        final double rx = x - 0.5;
+        final double ry = y - 0.5;
+        if (!roi.intersects(rx, ry, w, h)) {
+            // flags are already false
+            return;
+        }
+        
+        if (roi.contains(rx, ry, w, h)) {
+            for (int yy = y; yy < y + h; yy++) {
+                int k = (yy - bounds.y) * bounds.width + x - bounds.x;
+                Arrays.fill(data, k, k + w, true);
+            }
+            numInside += w * h;
+            return;
+        }
+        
+        if (w >= h) {
+            int w2 = w / 2;
+            fillBlock(roi, x, y, w2, h);
+            fillBlock(roi, x + w2, y, w - w2, h);
+        } else {
+            int h2 = h / 2;
+            fillBlock(roi, x, y, w, h2);
+            fillBlock(roi, x, y + h2, w, h - h2);
+        }
+    }
+
+    /**
+     * Sets flags from the binary image of an image-backed ROI, treating 
+     * pixels with a sample value of 1 or more as inside (as does 
+     * {@code ROI.contains}).
+     */
+    private void fillFromImage(RenderedImage image) {
+        Rectangle imageBounds = new Rectangle(image.getMinX(), image.getMinY(),
+                image.getWidth(), image.getHeight());
+        Rectangle r = bounds.intersection(imageBounds);
+        if (r.isEmpty()) {
+            return;
+        }
+        
+        Raster raster = image.getData(r);
+        int[] samples = new int[r.width];
+        for (int y = r.y; y < r.y + r.height; y++) {
+            raster.getSamples(r.x, y, r.width, 1, 0, samples);
+            int k = (y - bounds.y) * bounds.width + r.x - bounds.x;
+            for (int i = 0; i < r.width; i++, k++) {
+                if (samples[i] >= 1) {
+                    data[k] = true;
+                    numInside++ ;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets flags for a block of pixels by testing each one against the ROI.
+     */
+    private void fillPixels(ROI roi, int x, int y, int w, int h) {
+        for (int yy = y; yy < y + h; yy++) {
+            int k = (yy - bounds.y) * bounds.width + x - bounds.x;
+            for (int xx = x; xx < x + w; xx++, k++) {
+                if (roi.contains(xx, yy)) {
+                    data[k] = true;
+                    numInside++ ;
+                }
+            }
+        }
+    }
+    
+}
@@ -28,8 +28,11 @@ package org.jaitools.imageutils.iterator;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.util.Arrays;
 import java.util.List;
 
 import javax.media.jai.iterator.RandomIter;
@@ -40,6 +43,12 @@ import org.jaitools.CollectionFactory;
 
 /**
  * Base class for image iterators with row-column (line-pixel) movement.
+ * <p>
+ * As well as moving pixel by pixel, the iterator can be used to read a whole
+ * row of the current sub-bound at a time with the {@code getRowInt}, 
+ * {@code getRowFloat} and {@code getRowDouble} methods and then advanced to
+ * the next row with {@link #nextRow()}. Rows are read in bulk from the image
+ * tiles without creating a {@code Number} object per sample.
  * 
  * @author michael
  */
@@ -142,6 +151,10 @@ public abstract class AbstractSimpleIterator {
     // the current delegate position
     private final Point delegatePos;
 
+    // buffer reused by the row methods for spans which do not begin
+    // at the start of the caller's array
+    private Object rowBuffer;
+
     
     /**
      * Creates a new instance. The helper object is provided by a sub-class 
@@ -325,6 +338,34 @@ public abstract class AbstractSimpleIterator {
         return false;
     }
 
+    /**
+     * Tests if this iterator can be advanced to another row, ie. if a call to
+     * {@link #nextRow()} would return {@code true}.
+     * 
+     * @return {@code true} if there is another row in the current sub-bound
+     *     or another sub-bound; {@code false} otherwise
+     */
+    public boolean hasNextRow() {
+        return (currentSubBound < lastSubBound || mainPos.y < endSubPos.y);
+    }
+
+    /**
+     * Advances the iterator to the start of the next row (line) in the current
+     * sub-bound or, if the iterator is in the last row, to the first position
+     * of the next sub-bound. It is always safe to call this method speculatively.
+     * 
+     * @return {@code true} if the iterator was successfully advanced;
+     *     {@code false} if it was already in the last row of its bounds
+     */
+    public boolean nextRow() {
+        if (hasNextRow()) {
+            mainPos.x = endSubPos.x;
+            return next();
+        }
+        
+        return false;
+    }
+
     /**
      * Resets the iterator to its first position.
      */
@@ -552,6 +593,180 @@ public abstract class AbstractSimpleIterator {
         }
     }
     
+    /**
+     * Gets the current row of the current sub-bound as integer values from the
+     * specified image band. The row spans the full width of the sub-bound, 
+     * regardless of the iterator's X position, and parts beyond the bounds of
+     * the target image are set to the outside value, as returned by {@link #getSample(int)}
+     * (or zero if there is none).
+     * The iterator's position is unchanged.
+     * <p>
+     * If {@code dest} is {@code null} or not equal in length to the sub-bound 
+     * width a new array will be allocated, otherwise the provided array is filled.
+     * In either case, the destination array is returned for convenience.
+     * 
+     * @param dest destination array or {@code null}
+     * @param band image band
+     * @return the filled destination array
+     * 
+     * @throws IllegalArgumentException if {@code band} is out of range
+     */
+    public int[] getRowInt(int[] dest, int band) {
+        checkBandArg(band);
+        final int width = endSubPos.x - startSubPos.x + 1;
+        if (dest == null || dest.length != width) {
+            dest = new int[width];
+        }
+        
+        Rectangle span = getRowSpan();
+        if (span.isEmpty() || span.width < width) {
+            Number outside = getOutsideValueForImage();
+            Arrays.fill(dest, outside == null ? 0 : outside.intValue());
+        }
+        
+        if (!span.isEmpty()) {
+            readRowSpan(dest, span, band);
+        }
+        
+        return dest;
+    }
+
+    /**
+     * Gets the current row of the current sub-bound as float values from the
+     * specified image band. The row spans the full width of the sub-bound, 
+     * regardless of the iterator's X position, and parts beyond the bounds of
+     * the target image are set to the outside value, as returned by {@link #getSample(int)}
+     * (or zero if there is none).
+     * The iterator's position is unchanged.
+     * <p>
+     * If {@code dest} is {@code null} or not equal in length to the sub-bound 
+     * width a new array will be allocated, otherwise the provided array is filled.
+     * In either case, the destination array is returned for convenience.
+     * 
+     * @param dest destination array or {@code null}
+     * @param band image band
+     * @return the filled destination array
+     * 
+     * @throws IllegalArgumentException if {@code band} is out of range
+     */
+    public float[] getRowFloat(float[] dest, int band) {
+        checkBandArg(band);
+        final int width = endSubPos.x - startSubPos.x + 1;
+        if (dest == null || dest.length != width) {
+            dest = new float[width];
+        }
+        
+        Rectangle span = getRowSpan();
+        if (span.isEmpty() || span.width < width) {
+            Number outside = getOutsideValueForImage();
+            Arrays.fill(dest, outside == null ? 0 : outside.floatValue());
+        }
+        
+        if (!span.isEmpty()) {
+            readRowSpan(dest, span, band);
+        }
+        
+        return dest;
+    }
+
+    /**
+     * Gets the current row of the current sub-bound as double values from the
+     * specified image band. The row spans the full width of the sub-bound, 
+     * regardless of the iterator's X position, and parts beyond the bounds of
+     * the target image are set to the outside value, as returned by {@link #getSample(int)}
+     * (or zero if there is none).
+     * The iterator's position is unchanged.
+     * <p>
+     * If {@code dest} is {@code null} or not equal in length to the sub-bound 
+     * width a new array will be allocated, otherwise the provided array is filled.
+     * In either case, the destination array is returned for convenience.
+     * 
+     * @param dest destination array or {@code null}
+     * @param band image band
+     * @return the filled destination array
+     * 
+     * @throws IllegalArgumentException if {@code band} is out of range
+     */
+    public double[] getRowDouble(double[] dest, int band) {
+        checkBandArg(band);
+        final int width = endSubPos.x - startSubPos.x + 1;
+        if (dest == null || dest.length != width) {
+            dest = new double[width];
+        }
+        
+        Rectangle span = getRowSpan();
+        if (span.isEmpty() || span.width < width) {
+            Number outside = getOutsideValueForImage();
+            Arrays.fill(dest, outside == null ? 0 : outside.doubleValue());
+        }
+        
+        if (!span.isEmpty()) {
+            readRowSpan(dest, span, band);
+        }
+        
+        return dest;
+    }
+
+    /**
+     * Reads the part of the current row which lies within the target image
+     * into a destination array, walking across tiles. Where the span begins
+     * at the start of the array, samples are read straight into it; otherwise
+     * they pass through the reusable row buffer.
+     * 
+     * @param dest destination array ({@code int[]}, {@code float[]} or {@code double[]})
+     * @param span the row span (must not be empty)
+     * @param band image band
+     */
+    private void readRowSpan(Object dest, Rectangle span, int band) {
+        final RenderedImage image = getImageOrFail();
+        final int spanEnd = span.x + span.width;
+        
+        int x = span.x;
+        while (x < spanEnd) {
+            Raster tile = getTile(image, x, span.y);
+            int n = Math.min(spanEnd, tile.getMinX() + tile.getWidth()) - x;
+            int offset = x - startSubPos.x;
+            if (offset == 0) {
+                readSamples(tile, x, span.y, n, band, dest);
+            } else {
+                Object buffer = getRowBuffer(dest);
+                readSamples(tile, x, span.y, n, band, buffer);
+                System.arraycopy(buffer, 0, dest, offset, n);
+            }
+            x += n;
+        }
+    }
+
+    /**
+     * Reads samples from a single tile row into the start of an array.
+     */
+    private static void readSamples(Raster tile, int x, int y, int n, int band, Object dest) {
+        if (dest instanceof int[]) {
+            tile.getSamples(x, y, n, 1, band, (int[]) dest);
+        } else if (dest instanceof float[]) {
+            tile.getSamples(x, y, n, 1, band, (float[]) dest);
+        } else {
+            tile.getSamples(x, y, n, 1, band, (double[]) dest);
+        }
+    }
+
+    /**
+     * Gets a buffer of the same array type as {@code values} and at least
+     * as long. The buffer is allocated on first use and reused by later
+     * calls, so that bulk row access does not allocate per call.
+     * 
+     * @param values an {@code int[]}, {@code float[]} or {@code double[]} array
+     * @return the buffer
+     */
+    protected Object getRowBuffer(Object values) {
+        final int length = Array.getLength(values);
+        if (rowBuffer == null || rowBuffer.getClass() != values.getClass()
+                || Array.getLength(rowBuffer) < length) {
+            rowBuffer = Array.newInstance(values.getClass().getComponentType(), length);
+        }
+        return rowBuffer;
+    }
+
     /**
      * Closes this iterator and frees resources including the iterator's 
      * reference to the source image. Attempting to use the iterator after
@@ -570,34 +785,108 @@ public abstract class AbstractSimpleIterator {
      */
     protected void setDelegatePosition() {
         if (isInsideDelegateBounds()) {
+            // jumps in either direction take the same time regardless of
+            // distance (short of moving to another tile)
             int dy = mainPos.y - delegatePos.y;
-            if (dy < 0) {
-                delegateIter.startLines();
-                delegatePos.y = delegateBounds.y;
-                dy = mainPos.y - delegateBounds.y;
-            }
-
-            while (dy > 0) {
-                delegateIter.nextLineDone();
-                delegatePos.y++ ;
-                dy--;
+            if (dy != 0) {
+                delegateIter.jumpLines(dy);
+                delegatePos.y = mainPos.y;
             }
 
             int dx = mainPos.x - delegatePos.x;
-            if (dx < 0) {
-                delegateIter.startPixels();
-                delegatePos.x = delegateBounds.x;
-                dx = mainPos.x - delegateBounds.x;
+            if (dx != 0) {
+                delegateIter.jumpPixels(dx);
+                delegatePos.x = mainPos.x;
             }
+        }
+    }
 
-            while (dx > 0) {
-                delegateIter.nextPixelDone();
-                delegatePos.x++ ;
-                dx--;
-            }
+    /**
+     * Gets the bounds of the current row of the current sub-bound.
+     * 
+     * @return the row bounds
+     */
+    protected Rectangle getRowBounds() {
+        return new Rectangle(startSubPos.x, mainPos.y, endSubPos.x - startSubPos.x + 1, 1);
+    }
+
+    /**
+     * Gets the part of the current row of the current sub-bound which lies
+     * within the target image.
+     * 
+     * @return the row span (may be empty)
+     */
+    protected Rectangle getRowSpan() {
+        return getRowBounds().intersection(delegateBounds);
+    }
+
+    /**
+     * Gets the outside value as it is returned by {@link #getSample(int)},
+     * ie. converted to the data type of the target image.
+     * 
+     * @return the outside value or {@code null}
+     */
+    private Number getOutsideValueForImage() {
+        switch (imageDataType) {
+            case DataBuffer.TYPE_DOUBLE:
+                return outsideValue_Double;
+                
+            case DataBuffer.TYPE_FLOAT:
+                return outsideValue_Float;
+                
+            default:
+                return outsideValue_Integer;
         }
     }
 
+    /**
+     * Gets the target image, checking that it is still available.
+     * 
+     * @return the target image
+     * @throws IllegalStateException if the image has been deleted
+     */
+    protected RenderedImage getImageOrFail() {
+        RenderedImage image = imageRef.get();
+        if (image == null) {
+            throw new IllegalStateException("Target image has been deleted");
+        }
+        return image;
+    }
+
+    /**
+     * Gets the image tile containing a pixel.
+     * 
+     * @param image the target image
+     * @param x pixel X ordinate
+     * @param y pixel Y ordinate
+     * @return the tile
+     */
+    protected Raster getTile(RenderedImage image, int x, int y) {
+        return image.getTile(getTileX(image, x), getTileY(image, y));
+    }
+
+    /**
+     * Gets the tile grid column containing a pixel X ordinate.
+     * 
+     * @param image the target image
+     * @param x pixel X ordinate
+     * @return tile X index
+     */
+    protected int getTileX(RenderedImage image, int x) {
+        return pixelToTile(x, image.getTileGridXOffset(), image.getTileWidth());
+    }
+
+    /**
+     * Gets the tile grid row containing a pixel Y ordinate.
+     * 
+     * @param image the target image
+     * @param y pixel Y ordinate
+     * @return tile Y index
+     */
+    protected int getTileY(RenderedImage image, int y) {
+        return pixelToTile(y, image.getTileGridYOffset(), image.getTileHeight());
+    }
+
     /**
      * Tests if the iterator is currently positioned inside the delegate
      * iterator's area (which must lie within the image bounds).
@@ -28,9 +28,13 @@ package org.jaitools.imageutils.iterator;
 import java.awt.Dimension;
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.util.Arrays;
 
+import javax.media.jai.PlanarImage;
+
 /**
  * An image iterator that passes a moving window over an image.
  * <p>
@@ -78,6 +82,12 @@ import java.util.Arrays;
  * beyond the image will be filled with a specified outside value. By default this is zero
  * but an alternative value can be provided via the {@code outsideValue} argument to the full
  * constructor.
+ * <p>
+ * Image data are read a whole line at a time into primitive line buffers, which
+ * are used as a ring: when the iterator moves down, only the new lines are read
+ * and the lines already held are reused in place. The {@code getWindowInt}, 
+ * {@code getWindowFloat} and {@code getWindowDouble} methods copy values directly
+ * from these buffers without creating {@code Number} objects.
  * 
  * @author Michael Bedward
  * @since 1.2
@@ -91,14 +101,21 @@ public class WindowIterator {
     private final int leftPadding;
     private final int rightPadding;
     private final int topPadding;
-    private final int bottomPadding;
 
-    // data buffer dimensions: band, line, pixel
-    private final Number[][][] buffers;
+    // data buffer dimensions: band, line, pixel; lines are used as a
+    // ring with the top line of the data window at topLine
+    private final double[][][] buffers;
+    private int topLine;
     
-    private final Number[][] destBuffer;
     private final int bufferWidth;
     
+    // holds samples read from a tile before copying them to a line buffer
+    private final double[] lineData;
+    
+    private final RenderedImage image;
+    private final Rectangle imageBounds;
+    private final int imageDataType;
+    
     private final Rectangle iterBounds;
     private final int numImageBands;
     private final int xstep;
@@ -107,10 +124,9 @@ public class WindowIterator {
     private final Point mainPos;
     private final Point lowerRightPos;
     
-    private final SimpleIterator delegate;
-    
-    // Value to use for out-of-bounds parts of the data window
-    private Number outsideValue;
+    // Value to use for out-of-bounds parts of the data window, converted
+    // to the image data type
+    private final double outsideValue;
 
     /**
      * Creates a new iterator. The iterator will advance one pixel at each
@@ -204,49 +220,44 @@ public class WindowIterator {
         leftPadding = keyElement.x;
         rightPadding = windowDim.width - keyElement.x - 1;
         topPadding = keyElement.y;
-        bottomPadding = windowDim.height - keyElement.y - 1;
-
-        // The delegate terator's bounds take into account the position of
-        // the ke element in the data window
-        Rectangle delegateBounds = new Rectangle(
-                iterBounds.x - leftPadding, iterBounds.y - topPadding,
-                iterBounds.width + leftPadding + rightPadding,
-                iterBounds.height + topPadding + bottomPadding);
 
-        this.delegate = new SimpleIterator(
-                image, delegateBounds, outsideValue, SimpleIterator.Order.IMAGE_X_Y);
+        this.image = image;
+        this.imageBounds = new Rectangle(
+                image.getMinX(), image.getMinY(), image.getWidth(), image.getHeight());
+        this.imageDataType = image.getSampleModel().getDataType();
 
         this.windowDim = new Dimension(windowDim);
-        this.outsideValue = outsideValue;
+
+        switch (imageDataType) {
+            case DataBuffer.TYPE_DOUBLE:
+                this.outsideValue = outsideValue.doubleValue();
+                break;
+                
+            case DataBuffer.TYPE_FLOAT:
+                this.outsideValue = outsideValue.floatValue();
+                break;
+                
+            default:
+                this.outsideValue = outsideValue.intValue();
+        }
 
         this.numImageBands = image.getSampleModel().getNumBands();
 
         bufferWidth = iterBounds.width + leftPadding + rightPadding;
-        buffers = new Number[numImageBands][][];
-
-        for (int b = 0; b < numImageBands; b++) {
-            Number[][] bandBuffer = new Number[windowDim.height][];
-            for (int i = 0; i < windowDim.height; i++) {
-                Number[] ar = new Number[bufferWidth];
-                Arrays.fill(ar, this.outsideValue);
-                bandBuffer[i] = ar;
-            }
-            buffers[b] = bandBuffer;
-        }
-
-        this.destBuffer = new Number[numImageBands][];
-        for (int b = 0; b < numImageBands; b++) {
-            destBuffer[b] = new Number[windowDim.width * windowDim.height];
-        }
+        buffers = new double[numImageBands][windowDim.height][bufferWidth];
+        lineData = new double[bufferWidth];
 
         this.xstep = xstep;
         this.ystep = ystep;
         
-        readData(0);
         mainPos = new Point(iterBounds.x, iterBounds.y);
         lowerRightPos = new Point(
                 iterBounds.x + iterBounds.width - 1,
                 iterBounds.y + iterBounds.height - 1);
+        
+        for (int y = 0; y < windowDim.height; y++) {
+            readLine(y, mainPos.y - topPadding + y);
+        }
     }
 
     /**
@@ -324,11 +335,23 @@ public class WindowIterator {
             dest = new Number[windowDim.height][windowDim.width];
         }
 
-        loadDestBuffer(band);
-        int k = 0;
+        final int minx = mainPos.x - iterBounds.x;
         for (int y = 0; y < windowDim.height; y++) {
+            double[] line = buffers[band][bufferLine(y)];
             for (int x = 0; x < windowDim.width; x++) {
-                dest[y][x] = destBuffer[band][k++];
+                double value = line[minx + x];
+                switch (imageDataType) {
+                    case DataBuffer.TYPE_DOUBLE:
+                        dest[y][x] = Double.valueOf(value);
+                        break;
+                        
+                    case DataBuffer.TYPE_FLOAT:
+                        dest[y][x] = Float.valueOf((float) value);
+                        break;
+                        
+                    default:
+                        dest[y][x] = Integer.valueOf((int) value);
+                }
             }
         }
         return dest;
@@ -365,11 +388,12 @@ public class WindowIterator {
             dest = new int[windowDim.height][windowDim.width];
         }
 
-        loadDestBuffer(band);
-        int k = 0;
+        final int minx = mainPos.x - iterBounds.x;
         for (int y = 0; y < windowDim.height; y++) {
+            double[] line = buffers[band][bufferLine(y)];
+            int[] destLine = dest[y];
             for (int x = 0; x < windowDim.width; x++) {
-                dest[y][x] = destBuffer[band][k++].intValue();
+                destLine[x] = (int) line[minx + x];
             }
         }
         return dest;
@@ -406,11 +430,12 @@ public class WindowIterator {
             dest = new float[windowDim.height][windowDim.width];
         }
 
-        loadDestBuffer(band);
-        int k = 0;
+        final int minx = mainPos.x - iterBounds.x;
         for (int y = 0; y < windowDim.height; y++) {
+            double[] line = buffers[band][bufferLine(y)];
+            float[] destLine = dest[y];
             for (int x = 0; x < windowDim.width; x++) {
-                dest[y][x] = destBuffer[band][k++].floatValue();
+                destLine[x] = (float) line[minx + x];
             }
         }
         return dest;
@@ -447,77 +472,76 @@ public class WindowIterator {
             dest = new double[windowDim.height][windowDim.width];
         }
 
-        loadDestBuffer(band);
-        int k = 0;
+        final int minx = mainPos.x - iterBounds.x;
         for (int y = 0; y < windowDim.height; y++) {
-            for (int x = 0; x < windowDim.width; x++) {
-                dest[y][x] = destBuffer[band][k++].doubleValue();
-            }
+            System.arraycopy(buffers[band][bufferLine(y)], minx, dest[y], 0, windowDim.width);
         }
         return dest;
     }
 
     /**
-     * Helper for the getWindow methods. Loads the destination buffer from
-     * the line buffers.
+     * Gets the index of the line buffer holding a data window line.
      */
-    private void loadDestBuffer(int band) {
-        final int minx = mainPos.x - iterBounds.x;
-        final int bufx = minx + leftPadding;
-        final int maxx = bufx + rightPadding;
-
-        int k = 0;
-        for (int y = 0; y < windowDim.height; y++) {
-            for (int x = minx, winX = 0; x <= maxx; x++, winX++) {
-                destBuffer[band][k++] = buffers[band][y][x];
-            }
-        }
+    private int bufferLine(int windowLine) {
+        return (topLine + windowLine) % windowDim.height;
     }
 
+    /**
+     * Reads the lines which have come into the data window after the 
+     * iterator has moved down. Lines still within the window are kept in
+     * place and the ring of line buffers is rotated instead.
+     */
     private void readNextData() {
-        moveLinesUp();
-        skipImageLines();
-        int topBufferLine = Math.max(windowDim.height - ystep, 0);
-        readData(topBufferLine);
-    }
-
-    private void readData(int topBufferLine) {
-        for (int line = topBufferLine; line < windowDim.height; line++) {
-            for (int x = 0; x < bufferWidth; x++) {
-                for (int b = 0; b < numImageBands; b++) {
-                    buffers[b][line][x] = delegate.getSample(b);
-                }
-                delegate.next();
-            }
+        final int height = windowDim.height;
+        final int windowMinY = mainPos.y - topPadding;
+        
+        int firstNewLine = 0;
+        if (ystep < height) {
+            topLine = (topLine + ystep) % height;
+            firstNewLine = height - ystep;
         }
-    }
-
-    private void skipImageLines() {
-        int nlines = ystep - windowDim.height;
-        if (nlines > 0) {
-            Point pos = delegate.getPos();
-            delegate.setPos(pos.x, pos.y + nlines);
+        
+        for (int y = firstNewLine; y < height; y++) {
+            readLine(bufferLine(y), windowMinY + y);
         }
     }
-    
+
     /**
-     * Moves lines up in the data buffer by ystep.
+     * Reads an image line into a line buffer for each band. Parts of the line
+     * beyond the image bounds are filled with the outside value.
+     * 
+     * @param line index of the line buffer
+     * @param imageY image line to read
      */
-    private void moveLinesUp() {
+    private void readLine(int line, int imageY) {
+        final int bufferMinX = iterBounds.x - leftPadding;
+        final int minX = Math.max(bufferMinX, imageBounds.x);
+        final int maxX = Math.min(bufferMinX + bufferWidth, imageBounds.x + imageBounds.width);
+        
+        if (imageY < imageBounds.y || imageY >= imageBounds.y + imageBounds.height || minX >= maxX) {
+            for (int b = 0; b < numImageBands; b++) {
+                Arrays.fill(buffers[b][line], outsideValue);
+            }
+            return;
+        }
+        
         for (int b = 0; b < numImageBands; b++) {
-            if (ystep >= windowDim.height) {
-                // just fill lines with the outside value
-                for (int y = 0; y < windowDim.height; y++) {
-                    Arrays.fill(buffers[b][y], outsideValue);
-                }
-            } else {
-                // shuffle lines up, avoiding cost of allocating new memory
-                for (int y = ystep, ynew = 0; y < windowDim.height; y++, ynew++) {
-                    Number[] temp = buffers[b][ynew];
-                    buffers[b][ynew] = buffers[b][y];
-                    Arrays.fill(temp, outsideValue);
-                    buffers[b][y] = temp;
-                }
+            Arrays.fill(buffers[b][line], 0, minX - bufferMinX, outsideValue);
+            Arrays.fill(buffers[b][line], maxX - bufferMinX, bufferWidth, outsideValue);
+        }
+        
+        final int tileY = PlanarImage.YToTileY(imageY, image.getTileGridYOffset(), image.getTileHeight());
+        final int minTileX = PlanarImage.XToTileX(minX, image.getTileGridXOffset(), image.getTileWidth());
+        final int maxTileX = PlanarImage.XToTileX(maxX - 1, image.getTileGridXOffset(), image.getTileWidth());
+        
+        for (int tileX = minTileX; tileX <= maxTileX; tileX++) {
+            Raster tile = image.getTile(tileX, tileY);
+            int x0 = Math.max(minX, tile.getMinX());
+            int x1 = Math.min(maxX, tile.getMinX() + tile.getWidth());
+            
+            for (int b = 0; b < numImageBands; b++) {
+                tile.getSamples(x0, imageY, x1 - x0, 1, b, lineData);
+                System.arraycopy(lineData, 0, buffers[b][line], x0 - bufferMinX, x1 - x0);
             }
         }
     }
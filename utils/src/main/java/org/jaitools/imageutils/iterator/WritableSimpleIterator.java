@@ -29,6 +29,7 @@ import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.image.DataBuffer;
 import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
 import java.awt.image.WritableRenderedImage;
 
 import javax.media.jai.iterator.RectIter;
@@ -235,4 +236,172 @@ public class WritableSimpleIterator extends AbstractSimpleIterator {
         return (setPos(x, y) && setSample(band, value));
     }
 
+    /**
+     * Sets the current row of the current sub-bound in the specified image band
+     * from an int array. The array must span the full width of the 
+     * sub-bound, regardless of the iterator's X position. Values for positions
+     * beyond the bounds of the image are ignored. The iterator's position is
+     * unchanged.
+     * 
+     * @param values the new values
+     * @param band the image band
+     * @return {@code true} if any image values were set; {@code false} if the 
+     *     row lies wholly outside the bounds of the image
+     * 
+     * @throws IllegalArgumentException if {@code values} is {@code null} or
+     *     not equal in length to the sub-bound width; or if {@code band} is 
+     *     out of range
+     */
+    public boolean setRow(int[] values, int band) {
+        final Rectangle row = checkRowArgs(values == null ? -1 : values.length, band);
+        final Rectangle span = getRowSpan();
+        if (span.isEmpty()) {
+            return false;
+        }
+        
+        final WritableRenderedImage image = (WritableRenderedImage) getImageOrFail();
+        final int ty = getTileY(image, span.y);
+        
+        int x = span.x;
+        while (x < span.x + span.width) {
+            final int tx = getTileX(image, x);
+            WritableRaster tile = image.getWritableTile(tx, ty);
+            try {
+                int n = Math.min(span.x + span.width, tile.getMinX() + tile.getWidth()) - x;
+                if (x == row.x) {
+                    tile.setSamples(x, span.y, n, 1, band, values);
+                } else {
+                    int[] samples = (int[]) getRowBuffer(values);
+                    System.arraycopy(values, x - row.x, samples, 0, n);
+                    tile.setSamples(x, span.y, n, 1, band, samples);
+                }
+                x += n;
+                
+            } finally {
+                image.releaseWritableTile(tx, ty);
+            }
+        }
+        
+        return true;
+    }
+
+    /**
+     * Sets the current row of the current sub-bound in the specified image band
+     * from a float array. The array must span the full width of the 
+     * sub-bound, regardless of the iterator's X position. Values for positions
+     * beyond the bounds of the image are ignored. The iterator's position is
+     * unchanged.
+     * 
+     * @param values the new values
+     * @param band the image band
+     * @return {@code true} if any image values were set; {@code false} if the 
+     *     row lies wholly outside the bounds of the image
+     * 
+     * @throws IllegalArgumentException if {@code values} is {@code null} or
+     *     not equal in length to the sub-bound width; or if {@code band} is 
+     *     out of range
+     */
+    public boolean setRow(float[] values, int band) {
+        final Rectangle row = checkRowArgs(values == null ? -1 : values.length, band);
+        final Rectangle span = getRowSpan();
+        if (span.isEmpty()) {
+            return false;
+        }
+        
+        final WritableRenderedImage image = (WritableRenderedImage) getImageOrFail();
+        final int ty = getTileY(image, span.y);
+        
+        int x = span.x;
+        while (x < span.x + span.width) {
+            final int tx = getTileX(image, x);
+            WritableRaster tile = image.getWritableTile(tx, ty);
+            try {
+                int n = Math.min(span.x + span.width, tile.getMinX() + tile.getWidth()) - x;
+                if (x == row.x) {
+                    tile.setSamples(x, span.y, n, 1, band, values);
+                } else {
+                    float[] samples = (float[]) getRowBuffer(values);
+                    System.arraycopy(values, x - row.x, samples, 0, n);
+                    tile.setSamples(x, span.y, n, 1, band, samples);
+                }
+                x += n;
+                
+            } finally {
+                image.releaseWritableTile(tx, ty);
+            }
+        }
+        
+        return true;
+    }
+
+    /**
+     * Sets the current row of the current sub-bound in the specified image band
+     * from a double array. The array must span the full width of the 
+     * sub-bound, regardless of the iterator's X position. Values for positions
+     * beyond the bounds of the image are ignored. The iterator's position is
+     * unchanged.
+     * 
+     * @param values the new values
+     * @param band the image band
+     * @return {@code true} if any image values were set; {@code false} if the 
+     *     row lies wholly outside the bounds of the image
+     * 
+     * @throws IllegalArgumentException if {@code values} is {@code null} or
+     *     not equal in length to the sub-bound width; or if {@code band} is 
+     *     out of range
+     */
+    public boolean setRow(double[] values, int band) {
+        final Rectangle row = checkRowArgs(values == null ? -1 : values.length, band);
+        final Rectangle span = getRowSpan();
+        if (span.isEmpty()) {
+            return false;
+        }
+        
+        final WritableRenderedImage image = (WritableRenderedImage) getImageOrFail();
+        final int ty = getTileY(image, span.y);
+        
+        int x = span.x;
+        while (x < span.x + span.width) {
+            final int tx = getTileX(image, x);
+            WritableRaster tile = image.getWritableTile(tx, ty);
+            try {
+                int n = Math.min(span.x + span.width, tile.getMinX() + tile.getWidth()) - x;
+                if (x == row.x) {
+                    tile.setSamples(x, span.y, n, 1, band, values);
+                } else {
+                    double[] samples = (double[]) getRowBuffer(values);
+                    System.arraycopy(values, x - row.x, samples, 0, n);
+                    tile.setSamples(x, span.y, n, 1, band, samples);
+                }
+                x += n;
+                
+            } finally {
+                image.releaseWritableTile(tx, ty);
+            }
+        }
+        
+        return true;
+    }
+
+    /**
+     * Checks the arguments to the setRow methods.
+     * 
+     * @param length length of the values array (-1 if {@code null})
+     * @param band image band
+     * @return bounds of the current row
+     */
+    private Rectangle checkRowArgs(int length, int band) {
+        checkBandArg(band);
+        if (length < 0) {
+            throw new IllegalArgumentException("values must not be null");
+        }
+        
+        Rectangle row = getRowBounds();
+        if (length != row.width) {
+            throw new IllegalArgumentException(String.format(
+                    "values length (%d) does not match the row width (%d)", length, row.width));
+        }
+        return row;
+    }
+
 }
@@ -29,7 +29,6 @@ import java.util.List;
 import java.util.Map;
 
 import org.jaitools.CollectionFactory;
-import org.jaitools.numeric.Range.Type;
 
 
 /**
@@ -64,6 +63,10 @@ public abstract class AbstractProcessor implements Processor {
     /* Ranges of data values to treat as NoData and exclude from calculations */
     private List<Range<Double>> noDataRanges;
 
+    /* Compiled forms of ranges and noDataRanges; null when they need rebuilding */
+    private DoubleIntervals compiledRanges;
+    private DoubleIntervals compiledNoDataRanges;
+
 
     /**
      * Default constructor.
@@ -96,6 +99,7 @@ public abstract class AbstractProcessor implements Processor {
         if (noData != null) {
             // copy the input Range defensively
             noDataRanges.add(new Range<Double>(noData));
+            compiledNoDataRanges = null;
         }
     }
 
@@ -105,6 +109,7 @@ public abstract class AbstractProcessor implements Processor {
     public void addNoDataValue(Double noData) {
         if (noData != null && !noData.isNaN()) {
             noDataRanges.add(new Range<Double>(noData));
+            compiledNoDataRanges = null;
         }
     }
 
@@ -140,6 +145,79 @@ public abstract class AbstractProcessor implements Processor {
         }
     }
 
+    /**
+     * Offers a primitive sample value to the processor. This is equivalent
+     * to {@linkplain #offer(Double)} but avoids boxing.
+     *
+     * @param sample the sample value
+     */
+    public void offer(double sample) {
+        numOffered++;
+        if (update(sample)) {
+            numAccepted++;
+        }
+    }
+
+    /**
+     * Offers a run of primitive sample values to the processor. This is
+     * equivalent to calling {@linkplain #offer(double)} for each value in turn.
+     *
+     * @param samples array holding the sample values
+     * @param offset index of the first value to offer
+     * @param length number of values to offer
+     *
+     * @throws IndexOutOfBoundsException if {@code offset} and {@code length}
+     *         do not describe a valid portion of {@code samples}
+     */
+    public void offer(double[] samples, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > samples.length) {
+            throw new IndexOutOfBoundsException(
+                    "offset " + offset + " and length " + length +
+                    " out of bounds for array of length " + samples.length);
+        }
+        
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            offer(samples[i]);
+        }
+    }
+
+    /**
+     * Merges the state of another processor into this one. Afterwards this
+     * processor gives the results it would have had if it had been offered
+     * all of the samples offered to both processors. This allows the samples
+     * in a large data set to be divided between processors, working separately
+     * (eg. in different threads), whose partial results are combined at the end.
+     * <p>
+     * Both processors should have been set up with the same ranges and NoData
+     * ranges. The other processor is not modified.
+     *
+     * @param other the processor to merge into this one; must be of the same
+     *        class as this processor
+     *
+     * @throws IllegalArgumentException if {@code other} is {@code null}, this
+     *         processor, or of a different class
+     * @throws UnsupportedOperationException if this processor does not support
+     *         merging
+     */
+    public void merge(Processor other) {
+        if (other == null || other == this) {
+            throw new IllegalArgumentException("other must be a different, non-null processor");
+        }
+        if (other.getClass() != getClass()) {
+            throw new IllegalArgumentException(
+                    "Cannot merge " + other.getClass().getName() + " into " + getClass().getName());
+        }
+
+        AbstractProcessor ap = (AbstractProcessor) other;
+        mergeStatistics(ap);
+
+        numOffered += ap.numOffered;
+        numAccepted += ap.numAccepted;
+        numNaN += ap.numNaN;
+        numNoData += ap.numNoData;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -161,6 +239,39 @@ public abstract class AbstractProcessor implements Processor {
      */
     protected abstract boolean update(Double sample);
 
+    /**
+     * Processes a primitive sample value. The default implementation boxes the
+     * value and calls {@linkplain #update(Double)}. Sub-classes should override
+     * this method, and have {@code update(Double)} delegate to it, to avoid
+     * boxing.
+     * 
+     * @param sample the sample value
+     *
+     * @return {@code true} if the sample is accepted;
+     *         {@code false} otherwise
+     */
+    protected boolean update(double sample) {
+        return update(Double.valueOf(sample));
+    }
+
+    /**
+     * Merges the statistics held by another processor into this one. This is
+     * called by {@linkplain #merge(Processor)}, which has already checked that
+     * {@code other} is of the same class as this processor, before the sample
+     * counts are combined: {@linkplain #getNumAccepted()} still returns the
+     * number of samples accepted by this processor alone.
+     * <p>
+     * The default implementation throws an exception. Sub-classes that
+     * support merging should override it.
+     *
+     * @param other the processor to merge into this one
+     *
+     * @throws UnsupportedOperationException if merging is not supported
+     */
+    protected void mergeStatistics(AbstractProcessor other) {
+        throw new UnsupportedOperationException(getClass().getName() + " does not support merging");
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -171,6 +282,7 @@ public abstract class AbstractProcessor implements Processor {
             }
             // copy the input Range defensively
             ranges.add(new Range<Double>(range));
+            compiledRanges = null;
         }
     }
 
@@ -188,6 +300,7 @@ public abstract class AbstractProcessor implements Processor {
             }
             // copy the input Range defensively
             ranges.add(new Range<Double>(range));
+            compiledRanges = null;
         }
     }
 
@@ -229,37 +342,51 @@ public abstract class AbstractProcessor implements Processor {
         if (sample == null) {
             return false;
         }
-        if (sample.isNaN()) {
+        return isAccepted(sample.doubleValue());
+    }
+
+    /**
+     * Tests whether a primitive sample value will be accepted for calculations
+     * by the processor. This is equivalent to {@linkplain #isAccepted(Double)}
+     * but avoids boxing.
+     *
+     * @param sample the sample value
+     *
+     * @return true if the sample is accepted in compliance with the ranges settings.
+     *         false otherwise
+     */
+    public boolean isAccepted(double sample) {
+        if (Double.isNaN(sample)) {
             numNaN++;
             numNoData++;
             return false;
         }
 
-        if (noDataRanges != null){
-            for (Range<Double> r : noDataRanges) {
-                if (r.contains(sample)) {
-                    numNoData++;
-                    return false;
-                }
+        if (!noDataRanges.isEmpty()) {
+            if (compiledNoDataRanges == null) {
+                compiledNoDataRanges = new DoubleIntervals(noDataRanges);
+            }
+            if (compiledNoDataRanges.contains(sample)) {
+                numNoData++;
+                return false;
             }
         }
 
-        if (ranges == null || ranges.isEmpty()) {
+        if (ranges.isEmpty()) {
             return true;
         }
 
-        boolean isAccepted = rangesType == Type.INCLUDE ? false : true;
-        for (Range<Double> r : ranges) {
-            switch (rangesType) {
-                case EXCLUDE:
-                    isAccepted &= !r.contains(sample);
-                    break;
-                case INCLUDE:
-                    isAccepted |= r.contains(sample);
-                    break;
-            }
+        if (compiledRanges == null) {
+            compiledRanges = new DoubleIntervals(ranges);
+        }
+        switch (rangesType) {
+            case EXCLUDE:
+                return !compiledRanges.contains(sample);
+            case INCLUDE:
+                return compiledRanges.contains(sample);
+            default:
+                return true;
         }
-        return isAccepted;
     }
 
     /**
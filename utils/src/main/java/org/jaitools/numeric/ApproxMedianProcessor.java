@@ -118,6 +118,13 @@ public class ApproxMedianProcessor extends AbstractProcessor {
      * {@inheritDoc}
      */
     protected boolean update(Double sample) {
+        return sample != null && update(sample.doubleValue());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected boolean update(double sample) {
     	if (isAccepted(sample)) {
             if (buf0.isFull()) {
                 cascade(0);
@@ -130,6 +137,38 @@ public class ApproxMedianProcessor extends AbstractProcessor {
         return false;
     }
 
+    /**
+     * {@inheritDoc}
+     * Values held at each level of the other processor's buffer hierarchy are
+     * added to the same level of this processor's hierarchy, so that each keeps
+     * its weight in the remedian calculation.
+     */
+    protected void mergeStatistics(AbstractProcessor other) {
+        ApproxMedianProcessor amp = (ApproxMedianProcessor) other;
+        for (int level = 0; level < amp.buffers.size(); level++) {
+            Buffer src = amp.buffers.get(level);
+            for (int i = 0; i < src.pos; i++) {
+                add(level, src.data[i]);
+            }
+        }
+        needsCalculation = true;
+    }
+
+    /*
+     * Adds a value to the buffer at the given level, creating the buffer
+     * if necessary and cascading it first if it is full.
+     */
+    private void add(int level, double value) {
+        while (buffers.size() <= level) {
+            buffers.add(new Buffer());
+        }
+        Buffer buf = buffers.get(level);
+        if (buf.isFull()) {
+            cascade(level);
+        }
+        buf.add(value);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,209 @@
+/* 
+ *  Copyright (c) 2013, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+
+package org.jaitools.numeric;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * A set of {@code Range<Double>} objects compiled into sorted primitive
+ * arrays for fast membership tests. Used by {@linkplain AbstractProcessor},
+ * and by operators that classify sample values themselves, so that include,
+ * exclude and NoData ranges can be checked for each sample without boxing
+ * or iterating over the original list.
+ * <p>
+ * <b>This class is for internal use by JAITools.</b> It is public only so that
+ * operators in other packages can share it; it is not part of the supported
+ * API and may change or be removed without notice.
+ * <p>
+ * Membership gives the same result as testing each source range with
+ * {@linkplain Range#contains(Comparable)}, including the tolerance applied by
+ * {@linkplain NumberOperations} when comparing values. Intervals are split
+ * into two groups by whether their lower bound is included. Within each group
+ * they are sorted by lower bound so that a binary search finds those whose lower
+ * bound admits the sample, and prefix maxima of the upper bounds then tell
+ * whether any of them also admits the sample.
+ * <p>
+ * NaN samples are not handled here: callers deal with them before testing
+ * for membership.
+ *
+ * @author Michael Bedward
+ * @since 1.5
+ * @version $Id$
+ */
+public final class DoubleIntervals {
+
+    private final Group closedLower;
+    private final Group openLower;
+
+    /**
+     * Compiles the given ranges.
+     *
+     * @param ranges the ranges
+     */
+    public DoubleIntervals(Collection<Range<Double>> ranges) {
+        int n = ranges.size();
+        double[][] closed = new double[n][];
+        double[][] open = new double[n][];
+        int nc = 0, no = 0;
+
+        for (Range<Double> r : ranges) {
+            Double min = r.getMin();
+            Double max = r.getMax();
+            double[] iv;
+
+            if (r.isPoint()) {
+                // NaN and infinite points contain no non-NaN value
+                if (min == null) {
+                    continue;
+                }
+                iv = new double[] {min, min, 1};
+                closed[nc++] = iv;
+
+            } else {
+                // an unbounded end is equivalent to an included infinite value
+                double lo = min == null ? Double.NEGATIVE_INFINITY : min;
+                double hi = max == null ? Double.POSITIVE_INFINITY : max;
+                boolean hiIncluded = max == null || r.isMaxIncluded();
+                iv = new double[] {lo, hi, hiIncluded ? 1 : 0};
+
+                if (min == null || r.isMinIncluded()) {
+                    closed[nc++] = iv;
+                } else {
+                    open[no++] = iv;
+                }
+            }
+        }
+
+        closedLower = new Group(closed, nc, true);
+        openLower = new Group(open, no, false);
+    }
+
+    /**
+     * Tests if a value is contained in any of the compiled ranges.
+     *
+     * @param value the value (must not be NaN)
+     *
+     * @return {@code true} if the value is in at least one range
+     */
+    public boolean contains(double value) {
+        double tol = NumberOperations.getDoubleTolerance();
+        return closedLower.contains(value, tol) || openLower.contains(value, tol);
+    }
+
+    /**
+     * Compares two values in the same way as {@code NumberOperations.compare}
+     * for {@code Double} arguments.
+     */
+    private static int compare(double val1, double val2, double tol) {
+        if (Double.isInfinite(val1) || Double.isNaN(val1) ||
+            Double.isInfinite(val2) || Double.isNaN(val2)) {
+            return Double.compare(val1, val2);
+        }
+
+        if (Math.abs(val1 - val2) < tol) {
+            return 0;
+        }
+        return val1 < val2 ? -1 : 1;
+    }
+
+
+    /**
+     * Intervals sharing the same lower bound type, sorted by lower bound.
+     */
+    private static final class Group {
+
+        private static final Comparator<double[]> BY_LOWER = new Comparator<double[]>() {
+            public int compare(double[] a, double[] b) {
+                return Double.compare(a[0], b[0]);
+            }
+        };
+
+        private final boolean lowerIncluded;
+        private final double[] lower;
+
+        /*
+         * Maximum upper bound over intervals 0..i with, respectively, included
+         * and excluded upper bounds; NaN where there are none
+         */
+        private final double[] maxUpperIncluded;
+        private final double[] maxUpperExcluded;
+
+        Group(double[][] intervals, int n, boolean lowerIncluded) {
+            this.lowerIncluded = lowerIncluded;
+
+            Arrays.sort(intervals, 0, n, BY_LOWER);
+            lower = new double[n];
+            maxUpperIncluded = new double[n];
+            maxUpperExcluded = new double[n];
+
+            double maxIn = Double.NaN;
+            double maxEx = Double.NaN;
+            for (int i = 0; i < n; i++) {
+                double[] iv = intervals[i];
+                lower[i] = iv[0];
+                if (iv[2] != 0) {
+                    maxIn = Double.isNaN(maxIn) ? iv[1] : Math.max(maxIn, iv[1]);
+                } else {
+                    maxEx = Double.isNaN(maxEx) ? iv[1] : Math.max(maxEx, iv[1]);
+                }
+                maxUpperIncluded[i] = maxIn;
+                maxUpperExcluded[i] = maxEx;
+            }
+        }
+
+        boolean contains(double value, double tol) {
+            // number of leading intervals whose lower bound admits the value
+            int lo = 0, hi = lower.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (admitsLower(value, lower[mid], tol)) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            if (lo == 0) {
+                return false;
+            }
+
+            double max = maxUpperIncluded[lo - 1];
+            if (!Double.isNaN(max) && compare(value, max, tol) <= 0) {
+                return true;
+            }
+            max = maxUpperExcluded[lo - 1];
+            return !Double.isNaN(max) && compare(value, max, tol) < 0;
+        }
+
+        private boolean admitsLower(double value, double bound, double tol) {
+            int comp = compare(value, bound, tol);
+            return lowerIncluded ? comp >= 0 : comp > 0;
+        }
+    }
+
+}
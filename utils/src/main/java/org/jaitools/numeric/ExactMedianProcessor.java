@@ -25,15 +25,13 @@
 
 package org.jaitools.numeric;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.List;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.jaitools.CollectionFactory;
-
 
 /**
  * Processor for the exact median {@code Statistic.MEDIAN}.
@@ -53,7 +51,11 @@ public class ExactMedianProcessor extends AbstractProcessor {
 
     private static final Set<Statistic> SUPPORTED = Collections.singleton(Statistic.MEDIAN);
 
-    private List<Double> values = CollectionFactory.list();
+    /* Largest array size that the VM can reliably allocate */
+    private static final int MAX_VALUES = Integer.MAX_VALUE - 8;
+
+    private double[] values = new double[64];
+    private int numValues = 0;
     private boolean calculationRequired = true;
     private double median;
 
@@ -74,7 +76,29 @@ public class ExactMedianProcessor extends AbstractProcessor {
     @Override
     public final void offer(Double sample) {
         numOffered++ ;
+        checkCapacity();
 
+        if (update(sample)) {
+            numAccepted++ ;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * The same limit on the number of stored values applies as for
+     * {@linkplain #offer(Double)}.
+     */
+    @Override
+    public final void offer(double sample) {
+        numOffered++ ;
+        checkCapacity();
+
+        if (update(sample)) {
+            numAccepted++ ;
+        }
+    }
+
+    private void checkCapacity() {
         if (getNumAccepted() >= Integer.MAX_VALUE) {
             // only log a warning for the first extraneous value
             if (getNumOffered() == Integer.MAX_VALUE) {
@@ -82,10 +106,6 @@ public class ExactMedianProcessor extends AbstractProcessor {
                         Level.WARNING, "Too many values for exact median calculation");
             }
         }
-
-        if (update(sample)) {
-            numAccepted++ ;
-        }
     }
 
     /**
@@ -93,8 +113,16 @@ public class ExactMedianProcessor extends AbstractProcessor {
      */
     @Override
     protected boolean update(Double sample) {
-        if (isAccepted(sample)) {
-            values.add(sample);
+        return sample != null && update(sample.doubleValue());
+    }
+
+    /**
+     * {@inheritDoc}.
+     */
+    @Override
+    protected boolean update(double sample) {
+        if (isAccepted(sample) && ensureCapacity(numValues + 1L)) {
+            values[numValues++] = sample;
             calculationRequired = true;
             return true;
         }
@@ -102,6 +130,43 @@ public class ExactMedianProcessor extends AbstractProcessor {
         return false;
     }
 
+    /**
+     * {@inheritDoc}
+     * The values stored by the other processor are copied into this one.
+     *
+     * @throws IllegalStateException if the combined number of values would
+     *         exceed the maximum that can be stored
+     */
+    @Override
+    protected void mergeStatistics(AbstractProcessor other) {
+        ExactMedianProcessor emp = (ExactMedianProcessor) other;
+        if (!ensureCapacity((long) numValues + emp.numValues)) {
+            throw new IllegalStateException("Too many values for exact median calculation");
+        }
+        System.arraycopy(emp.values, 0, values, numValues, emp.numValues);
+        numValues += emp.numValues;
+        calculationRequired = true;
+    }
+
+    /*
+     * Grows the values array if necessary to hold the required number
+     * of values. Returns false if this is not possible.
+     */
+    private boolean ensureCapacity(long required) {
+        if (required <= values.length) {
+            return true;
+        }
+        if (required > MAX_VALUES) {
+            return false;
+        }
+
+        int capacity = (int) Math.min(Math.max((long) values.length * 2, required), MAX_VALUES);
+        double[] grown = new double[capacity];
+        System.arraycopy(values, 0, grown, 0, numValues);
+        values = grown;
+        return true;
+    }
+
     /**
      * {@inheritDoc}.
      */
@@ -112,12 +177,12 @@ public class ExactMedianProcessor extends AbstractProcessor {
             }
 
             if (calculationRequired) {
-                Collections.sort(values);
-                int n0 = (int) getNumAccepted() / 2;
-                if (getNumAccepted() % 2 == 1) {
-                    median = values.get(n0);
+                Arrays.sort(values, 0, numValues);
+                int n0 = numValues / 2;
+                if (numValues % 2 == 1) {
+                    median = values[n0];
                 } else {
-                    median = (values.get(n0) + values.get(n0 - 1)) / 2;
+                    median = (values[n0] + values[n0 - 1]) / 2;
                 }
                 calculationRequired = false;
             }
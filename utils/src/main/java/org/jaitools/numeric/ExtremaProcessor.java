@@ -64,6 +64,14 @@ public class ExtremaProcessor extends AbstractProcessor {
      */
     @Override
     protected boolean update(Double sample) {
+        return sample != null && update(sample.doubleValue());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean update(double sample) {
         if (isAccepted(sample)) {
             if (getNumAccepted() == 0) {
                 min = max = sample;
@@ -82,6 +90,30 @@ public class ExtremaProcessor extends AbstractProcessor {
         return false;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void mergeStatistics(AbstractProcessor other) {
+        ExtremaProcessor ep = (ExtremaProcessor) other;
+        if (ep.getNumAccepted() == 0) {
+            return;
+        }
+
+        if (getNumAccepted() == 0) {
+            min = ep.min;
+            max = ep.max;
+
+        } else {
+            if (ep.max > max) {
+                max = ep.max;
+            }
+            if (ep.min < min) {
+                min = ep.min;
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
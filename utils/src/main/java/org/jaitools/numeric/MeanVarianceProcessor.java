@@ -74,6 +74,14 @@ public class MeanVarianceProcessor extends AbstractProcessor {
      */
     @Override
     protected boolean update(Double sample) {
+        return sample != null && update(sample.doubleValue());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean update(double sample) {
     	if (isAccepted(sample)) {
             if (getNumAccepted() == 0) {  // first value
                 mOld = mNew = sample;
@@ -89,6 +97,33 @@ public class MeanVarianceProcessor extends AbstractProcessor {
         return false;
     }
 
+    /**
+     * {@inheritDoc}
+     * Uses the pairwise update of Chan et al. to combine the running
+     * means and sums of squared differences.
+     */
+    @Override
+    protected void mergeStatistics(AbstractProcessor other) {
+        MeanVarianceProcessor mvp = (MeanVarianceProcessor) other;
+        final long nb = mvp.getNumAccepted();
+        if (nb == 0) {
+            return;
+        }
+
+        final long na = getNumAccepted();
+        if (na == 0) {
+            mOld = mNew = mvp.mNew;
+            s = mvp.s;
+
+        } else {
+            final double n = (double) na + nb;
+            final double delta = mvp.mNew - mNew;
+            mNew = mNew + delta * (nb / n);
+            s = s + mvp.s + delta * delta * (na * (nb / n));
+            mOld = mNew;
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,193 @@
+/* 
+ *  Copyright (c) 2013, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+
+package org.jaitools.numeric;
+
+import java.awt.image.DataBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A set of NODATA values and ranges compiled for fast classification of
+ * image samples. Used by operators which test each sample they read, such 
+ * as {@code MaskedConvolve} and {@code Contour}.
+ * <p>
+ * A sample is NODATA if it is equal, within the tolerance used by 
+ * {@linkplain CompareOp#aequal(double, double)}, to any of the values, or
+ * if it is contained in any of the ranges as tested by 
+ * {@linkplain Range#contains(double)}. Values are held in a sorted array 
+ * and ranges are compiled into {@linkplain DoubleIntervals}, so each test 
+ * takes logarithmic time without creating objects.
+ * <p>
+ * For sources with byte, short or unsigned short data a lookup table of 
+ * flags for all possible sample values can be obtained with 
+ * {@link #createLookup(int)}.
+ *
+ * @author Michael Bedward
+ * @since 1.5
+ * @version $Id$
+ */
+public final class NoDataSet {
+
+    /* Sorted values (NaN and infinite values, which never match, are excluded) */
+    private final double[] values;
+    
+    /* Ranges as provided and compiled */
+    private final List<Range<Double>> ranges;
+    private final DoubleIntervals intervals;
+
+    /**
+     * Creates a new set.
+     * 
+     * @param values NODATA values (may be {@code null} or empty)
+     * @param ranges NODATA ranges (may be {@code null} or empty)
+     */
+    public NoDataSet(Collection<Double> values, Collection<Range<Double>> ranges) {
+        double[] dv = new double[values == null ? 0 : values.size()];
+        int n = 0;
+        if (values != null) {
+            for (Double d : values) {
+                if (!(d.isNaN() || d.isInfinite())) {
+                    dv[n++] = d;
+                }
+            }
+        }
+        Arrays.sort(dv, 0, n);
+        this.values = n == dv.length ? dv : copy(dv, n);
+        
+        if (ranges == null || ranges.isEmpty()) {
+            this.ranges = null;
+            this.intervals = null;
+        } else {
+            this.ranges = new ArrayList<Range<Double>>(ranges);
+            this.intervals = new DoubleIntervals(this.ranges);
+        }
+    }
+
+    /**
+     * Tests if this set has no values or ranges.
+     * 
+     * @return {@code true} if empty
+     */
+    public boolean isEmpty() {
+        return values.length == 0 && ranges == null;
+    }
+
+    /**
+     * Tests if a value is NODATA.
+     * 
+     * @param value the value to test
+     * @return {@code true} if the value matches a NODATA value or is
+     *     contained in a NODATA range
+     */
+    public boolean contains(double value) {
+        if (values.length > 0) {
+            int index = Arrays.binarySearch(values, value);
+            if (index >= 0) {
+                return true;
+            }
+            
+            // only the nearest values either side can be within tolerance
+            index = -index - 1;
+            if (index < values.length && CompareOp.aequal(value, values[index])) {
+                return true;
+            }
+            if (index > 0 && CompareOp.aequal(value, values[index - 1])) {
+                return true;
+            }
+        }
+        
+        if (ranges == null) {
+            return false;
+        }
+        
+        if (Double.isNaN(value)) {
+            // not handled by DoubleIntervals
+            for (Range<Double> r : ranges) {
+                if (r.contains(value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        return intervals.contains(value);
+    }
+
+    /**
+     * Creates a lookup table of NODATA flags for all values of the given 
+     * data type. Tables are available for {@code DataBuffer.TYPE_BYTE}, 
+     * {@code TYPE_USHORT}, which are indexed by unsigned sample value, 
+     * and {@code TYPE_SHORT}, which is indexed by sample value minus 
+     * {@code Short.MIN_VALUE}.
+     * 
+     * @param dataType data type constant
+     * 
+     * @return the lookup table or {@code null} if the data type is not 
+     *     supported
+     */
+    public boolean[] createLookup(int dataType) {
+        int offset;
+        int size;
+        
+        switch (dataType) {
+            case DataBuffer.TYPE_BYTE:
+                offset = 0;
+                size = 1 << 8;
+                break;
+                
+            case DataBuffer.TYPE_USHORT:
+                offset = 0;
+                size = 1 << 16;
+                break;
+                
+            case DataBuffer.TYPE_SHORT:
+                offset = Short.MIN_VALUE;
+                size = 1 << 16;
+                break;
+                
+            default:
+                return null;
+        }
+        
+        boolean[] lookup = new boolean[size];
+        if (!isEmpty()) {
+            for (int i = 0; i < size; i++) {
+                lookup[i] = contains(i + offset);
+            }
+        }
+        return lookup;
+    }
+    
+    private static double[] copy(double[] src, int n) {
+        double[] dest = new double[n];
+        System.arraycopy(src, 0, dest, 0, n);
+        return dest;
+    }
+
+}
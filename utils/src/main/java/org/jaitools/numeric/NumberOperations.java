@@ -217,7 +217,28 @@ public class NumberOperations {
      * @see #setFloatTolerance(float)
      */
     public static int compare(Number n1, Number n2) {
-        return (int)Math.round(calculate(OpType.COMPARE, n1, n2).doubleValue());
+        ClassInfo ci1 = ClassInfo.get(n1.getClass());
+        ClassInfo ci2 = ClassInfo.get(n2.getClass());
+        ClassInfo ci = ci1.getRank() >= ci2.getRank() ? ci1 : ci2;
+
+        switch (ci) {
+            case BYTE:
+            case SHORT:
+            case INTEGER:
+            case LONG:
+                long val1 = longValue(n1);
+                long val2 = longValue(n2);
+                return (val1 < val2 ? -1 : (val1 > val2 ? 1 : 0));
+
+            case FLOAT:
+                return floatComparison(n1, n2);
+
+            case DOUBLE:
+                return doubleComparison(n1, n2);
+
+            default:
+                throw new UnsupportedOperationException("Unrecognized number class");
+        }
     }
 
     /**
@@ -747,9 +768,21 @@ public class NumberOperations {
      *         are equal
      */
     private static int floatComparison(Number n1, Number n2) {
-        float val1 = floatValue(n1);
-        float val2 = floatValue(n2);
+        return floatComparison(floatValue(n1), floatValue(n2));
+    }
 
+    /**
+     * Compare two primitive float values using the currently set tolerance.
+     * This is used by {@link Range} for its primitive value methods.
+     *
+     * @param val1 first value
+     * @param val2 second value
+     *
+     * @return -1 if the first value is less than the second; 1 if the
+     *         first value is greater than the second; 0 if the two values
+     *         are equal
+     */
+    static int floatComparison(float val1, float val2) {
         if (Float.isInfinite(val1) || Float.isNaN(val1) ||
             Float.isInfinite(val2) || Float.isNaN(val2)) {
             return Float.compare(val1, val2);
@@ -830,9 +863,21 @@ public class NumberOperations {
      *         are equal
      */
     private static int doubleComparison(Number n1, Number n2) {
-        double val1 = doubleValue(n1);
-        double val2 = doubleValue(n2);
+        return doubleComparison(doubleValue(n1), doubleValue(n2));
+    }
 
+    /**
+     * Compare two primitive double values using the currently set tolerance.
+     * This is used by {@link Range} for its primitive value methods.
+     *
+     * @param val1 first value
+     * @param val2 second value
+     *
+     * @return -1 if the first value is less than the second; 1 if the
+     *         first value is greater than the second; 0 if the two values
+     *         are equal
+     */
+    static int doubleComparison(double val1, double val2) {
         if (Double.isInfinite(val1) || Double.isNaN(val1) ||
             Double.isInfinite(val2) || Double.isNaN(val2)) {
             return Double.compare(val1, val2);
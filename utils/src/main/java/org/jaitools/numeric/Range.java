@@ -107,6 +107,20 @@ public class Range<T extends Number & Comparable> {
     private int maxType;
     private boolean isPoint;
 
+    /*
+     * Primitive copies of the finite end-points and the rank of their
+     * class (as given by NumberOperations.ClassInfo) for the primitive
+     * contains methods
+     */
+    private static final int UNSUPPORTED_RANK = -2;
+    private int boundRank;
+    private long minLong;
+    private long maxLong;
+    private float minFloat;
+    private float maxFloat;
+    private double minDouble;
+    private double maxDouble;
+
 
     /**
      * Static create method. This just relieves the tedium of having to specify
@@ -287,6 +301,7 @@ public class Range<T extends Number & Comparable> {
                     "invalid to have min endpoint at Inf  and max endpoint at Neg Inf");
         }
 
+        initPrimitiveBounds();
     }
 
 
@@ -375,6 +390,8 @@ public class Range<T extends Number & Comparable> {
              */
             this.maxIncluded = this.minIncluded = false;
         }
+
+        initPrimitiveBounds();
     }
 
     /**
@@ -392,6 +409,39 @@ public class Range<T extends Number & Comparable> {
         this.maxOpen = other.maxOpen;
         this.maxType = other.maxType;
         this.isPoint = other.isPoint;
+
+        initPrimitiveBounds();
+    }
+
+    /**
+     * Sets the primitive copies of the finite end-points.
+     */
+    private void initPrimitiveBounds() {
+        boundRank = -1;
+        
+        Number[] bounds = {minValue, maxValue};
+        for (Number bound : bounds) {
+            if (bound != null) {
+                NumberOperations.ClassInfo ci = NumberOperations.ClassInfo.get(bound.getClass());
+                if (ci == null) {
+                    boundRank = UNSUPPORTED_RANK;
+                    return;
+                }
+                boundRank = Math.max(boundRank, ci.getRank());
+            }
+        }
+        
+        if (minValue != null) {
+            minLong = NumberOperations.longValue(minValue);
+            minFloat = NumberOperations.floatValue(minValue);
+            minDouble = NumberOperations.doubleValue(minValue);
+        }
+        
+        if (maxValue != null) {
+            maxLong = NumberOperations.longValue(maxValue);
+            maxFloat = NumberOperations.floatValue(maxValue);
+            maxDouble = NumberOperations.doubleValue(maxValue);
+        }
     }
 
     /**
@@ -549,6 +599,199 @@ public class Range<T extends Number & Comparable> {
             throw new UnsupportedOperationException("null values are not supported");
         }
 
+        if (boundRank != UNSUPPORTED_RANK) {
+            if (value instanceof Double) {
+                return contains(value.doubleValue());
+            } else if (value instanceof Float) {
+                return contains(value.floatValue());
+            } else if (value instanceof Integer || value instanceof Short) {
+                return contains(value.intValue());
+            } else if (value instanceof Long) {
+                return contains(value.longValue());
+            } else if (value instanceof Byte) {
+                return contains(value.byteValue());
+            }
+        }
+
+        return containsNumber(value);
+    }
+
+    /**
+     * Tests if this range contains the specified {@code double} value. 
+     * The result is the same as for {@link #contains(Number)} with a
+     * {@code Double} argument but no objects are created.
+     * 
+     * @param value the value
+     * @return {@code true} if the value is within this range; {@code false} otherwise
+     */
+    public boolean contains(double value) {
+        if (boundRank == UNSUPPORTED_RANK) {
+            return containsNumber(value);
+        }
+
+        if (isPoint) {
+            if (minType == FINITE) {
+                return NumberOperations.doubleComparison(minDouble, value) == 0;
+            }
+            return minType == NAN && Double.isNaN(value);
+        }
+
+        // NaN values are always outside a proper interval
+        if (Double.isNaN(value)) {
+            return false;
+        }
+
+        int comp;
+        if (minValue != null) {
+            comp = NumberOperations.doubleComparison(value, minDouble);
+            if (comp < 0 || (!minIncluded && comp == 0)) {
+                return false;
+            }
+        }
+
+        if (maxValue != null) {
+            comp = NumberOperations.doubleComparison(value, maxDouble);
+            if (comp > 0 || (!maxIncluded && comp == 0)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Tests if this range contains the specified {@code float} value. 
+     * The result is the same as for {@link #contains(Number)} with a
+     * {@code Float} argument but no objects are created.
+     * 
+     * @param value the value
+     * @return {@code true} if the value is within this range; {@code false} otherwise
+     */
+    public boolean contains(float value) {
+        if (boundRank == UNSUPPORTED_RANK) {
+            return containsNumber(value);
+        }
+
+        if (boundRank == NumberOperations.ClassInfo.DOUBLE.getRank()) {
+            return contains((double) value);
+        }
+
+        if (isPoint) {
+            if (minType == FINITE) {
+                return NumberOperations.floatComparison(minFloat, value) == 0;
+            }
+            return minType == NAN && Float.isNaN(value);
+        }
+
+        // NaN values are always outside a proper interval
+        if (Float.isNaN(value)) {
+            return false;
+        }
+
+        int comp;
+        if (minValue != null) {
+            comp = NumberOperations.floatComparison(value, minFloat);
+            if (comp < 0 || (!minIncluded && comp == 0)) {
+                return false;
+            }
+        }
+
+        if (maxValue != null) {
+            comp = NumberOperations.floatComparison(value, maxFloat);
+            if (comp > 0 || (!maxIncluded && comp == 0)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Tests if this range contains the specified {@code long} value. 
+     * The result is the same as for {@link #contains(Number)} with a
+     * {@code Long} argument but no objects are created.
+     * 
+     * @param value the value
+     * @return {@code true} if the value is within this range; {@code false} otherwise
+     */
+    public boolean contains(long value) {
+        if (boundRank == UNSUPPORTED_RANK) {
+            return containsNumber(value);
+        }
+        return containsIntegral(value, NumberOperations.ClassInfo.LONG.getRank());
+    }
+
+    /**
+     * Tests if this range contains the specified {@code int} value. 
+     * The result is the same as for {@link #contains(Number)} with an
+     * {@code Integer} argument but no objects are created.
+     * 
+     * @param value the value
+     * @return {@code true} if the value is within this range; {@code false} otherwise
+     */
+    public boolean contains(int value) {
+        if (boundRank == UNSUPPORTED_RANK) {
+            return containsNumber(value);
+        }
+        return containsIntegral(value, NumberOperations.ClassInfo.INTEGER.getRank());
+    }
+
+    /**
+     * Tests if this range contains the specified {@code byte} value. 
+     * The result is the same as for {@link #contains(Number)} with a
+     * {@code Byte} argument (ie. the value is treated as unsigned) 
+     * but no objects are created.
+     * 
+     * @param value the value
+     * @return {@code true} if the value is within this range; {@code false} otherwise
+     */
+    public boolean contains(byte value) {
+        if (boundRank == UNSUPPORTED_RANK) {
+            return containsNumber(value);
+        }
+        return containsIntegral(value & 0xff, NumberOperations.ClassInfo.BYTE.getRank());
+    }
+
+    /**
+     * Helper for the integral contains methods.
+     * 
+     * @param value the value (unsigned for byte values)
+     * @param valueRank rank of the value class
+     * 
+     * @return {@code true} if the value is within this range; {@code false} otherwise
+     */
+    private boolean containsIntegral(long value, int valueRank) {
+        int rank = Math.max(valueRank, boundRank);
+        if (rank == NumberOperations.ClassInfo.DOUBLE.getRank()) {
+            return contains((double) value);
+        } else if (rank == NumberOperations.ClassInfo.FLOAT.getRank()) {
+            return contains((float) value);
+        }
+
+        if (isPoint) {
+            return minType == FINITE && value == minLong;
+        }
+
+        if (minValue != null && (value < minLong || (!minIncluded && value == minLong))) {
+            return false;
+        }
+
+        if (maxValue != null && (value > maxLong || (!maxIncluded && value == maxLong))) {
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Tests if this range contains the specified value using 
+     * {@code NumberOperations.compare}. This is used for values and 
+     * end-points of classes not known to {@code NumberOperations}.
+     * 
+     * @param value the value
+     * @return {@code true} if the value is within this range; {@code false} otherwise
+     */
+    private boolean containsNumber(Number value) {
         if (isPoint) {
             if (minType == FINITE) {
                 return NumberOperations.compare(minValue, value) == 0;
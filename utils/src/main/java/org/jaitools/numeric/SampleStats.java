@@ -36,6 +36,12 @@ import org.jaitools.CollectionFactory;
  * A collection of static methods to calculate summary statistics for
  * a sample of double-valued data. This class is used by both Jiffle
  * and the KernelStats operator.
+ * <p>
+ * Each statistic is available for a {@code Double} array and for a 
+ * segment of a {@code double} array. The primitive versions give the 
+ * same results but do not allocate, so they can be called per-pixel.
+ * Note that {@code median} and {@code mode} reorder the segment unless
+ * a work buffer is supplied.
  *
  * @author Michael Bedward
  * @author Daniele Romagnoli, GeoSolutions S.A.S.
@@ -43,6 +49,9 @@ import org.jaitools.CollectionFactory;
  * @version $Id$
  */
 public class SampleStats {
+
+    /** Sub-ranges below this size are finished with insertion sort. */
+    private static final int SMALL_SEGMENT = 16;
     
     /**
      * Return the maximum of the given values.
@@ -344,4 +353,531 @@ public class SampleStats {
         
         return sum;
     }
+
+    /**
+     * Return the maximum of a segment of a primitive array. This follows
+     * the same rules as {@link #max(java.lang.Double[], boolean)} but
+     * does not allocate.
+     *
+     * @param values sample values
+     * @param offset index of the first sample
+     * @param length number of samples
+     * @param ignoreNaN specifies whether to ignore NaN values
+     * @return max value or Double.NaN if the sample is empty
+     */
+    public static double max(double[] values, int offset, int length, boolean ignoreNaN) {
+        if (values == null || length == 0) {
+            return Double.NaN;
+        }
+        checkBounds(values, offset, length);
+        if (length == 1) {
+            return values[offset];
+        }
+
+        final int end = offset + length;
+        double result = Double.NaN;
+        boolean found = false;
+        for (int i = offset; i < end; i++) {
+            double val = values[i];
+            if (ignoreNaN && Double.isNaN(val)) {
+                continue;
+            }
+            // Double.compare orders NaN above all other values, as the
+            // sorted set used by the Double[] version does
+            if (!found || Double.compare(val, result) > 0) {
+                result = val;
+                found = true;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the mean of a segment of a primitive array. This follows
+     * the same rules as {@link #mean(java.lang.Double[], boolean)}.
+     *
+     * @param values sample values
+     * @param offset index of the first sample
+     * @param length number of samples
+     * @param ignoreNaN specifies whether to ignore NaN values
+     * @return mean value or Double.NaN if the sample is empty
+     */
+    public static double mean(double[] values, int offset, int length, boolean ignoreNaN) {
+        if (values == null || length == 0) {
+            return Double.NaN;
+        }
+        checkBounds(values, offset, length);
+        if (length == 1) {
+            return values[offset];
+        }
+
+        final int end = offset + length;
+        double sum = 0.0d;
+        int n = 0;
+        for (int i = offset; i < end; i++) {
+            double val = values[i];
+            if (Double.isNaN(val)) {
+                if (!ignoreNaN) return Double.NaN;
+            } else {
+                sum += val;
+                n++ ;
+            }
+        }
+
+        return sum / n;
+    }
+
+    /**
+     * Calculates the minimum of a segment of a primitive array. This follows
+     * the same rules as {@link #min(java.lang.Double[], boolean)} but
+     * does not allocate.
+     *
+     * @param values sample values
+     * @param offset index of the first sample
+     * @param length number of samples
+     * @param ignoreNaN specifies whether to ignore NaN values
+     * @return min value or Double.NaN if the sample is empty
+     */
+    public static double min(double[] values, int offset, int length, boolean ignoreNaN) {
+        if (values == null || length == 0) {
+            return Double.NaN;
+        }
+        checkBounds(values, offset, length);
+        if (length == 1) {
+            return values[offset];
+        }
+
+        final int end = offset + length;
+        double result = Double.NaN;
+        boolean found = false;
+        for (int i = offset; i < end; i++) {
+            double val = values[i];
+            if (ignoreNaN && Double.isNaN(val)) {
+                continue;
+            }
+            if (!found || Double.compare(val, result) < 0) {
+                result = val;
+                found = true;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Calculates the median of a segment of a primitive array. The result
+     * is the same as for {@link #median(java.lang.Double[], boolean)} but
+     * the value is found by partial sorting (introselect) which takes 
+     * linear time on average and does not allocate.
+     * <p>
+     * <strong>Note:</strong> the segment is reordered in place. Use
+     * {@link #median(double[], int, int, boolean, double[])} to work
+     * on a copy held in a reusable buffer.
+     *
+     * @param values sample values (need not be pre-sorted)
+     * @param offset index of the first sample
+     * @param length number of samples
+     * @param ignoreNaN specifies whether to ignore NaN values
+     * @return median value or Double.NaN if the sample is empty
+     */
+    public static double median(double[] values, int offset, int length, boolean ignoreNaN) {
+        if (values == null || length == 0) {
+            return Double.NaN;
+        }
+        checkBounds(values, offset, length);
+        if (length == 1) {
+            return values[offset];
+        }
+
+        // NaNs sort above all other values so we move them to the
+        // end of the segment and select from the remainder
+        final int nonNaNEnd = moveNaNsToEnd(values, offset, offset + length);
+        final int n = ignoreNaN ? nonNaNEnd - offset : length;
+
+        if (n == 0) {
+            return Double.NaN;
+        } else if (n == 1) {
+            return values[offset];
+        } else if (n == 2) {
+            return (values[offset] + values[offset + 1]) / 2;
+        }
+
+        final int midHi = offset + n / 2;
+        if (midHi >= nonNaNEnd) {
+            return Double.NaN;
+        }
+
+        select(values, offset, nonNaNEnd, midHi);
+        if (n % 2 != 0) {
+            return values[midHi];
+        }
+
+        // after selection, all values below midHi are <= values[midHi]
+        double lo = values[offset];
+        for (int i = offset + 1; i < midHi; i++) {
+            if (values[i] > lo) lo = values[i];
+        }
+        
+        double result = 0.0d;
+        result += lo;
+        result += values[midHi];
+        return result / 2;
+    }
+
+    /**
+     * Calculates the median of a segment of a primitive array, leaving
+     * the input unchanged. The sample values are copied into {@code work},
+     * which can be re-used between calls to avoid allocation.
+     *
+     * @param values sample values (need not be pre-sorted)
+     * @param offset index of the first sample
+     * @param length number of samples
+     * @param ignoreNaN specifies whether to ignore NaN values
+     * @param work buffer of at least {@code length} elements; may be
+     *        {@code null} in which case a new buffer is allocated
+     * @return median value or Double.NaN if the sample is empty
+     */
+    public static double median(double[] values, int offset, int length, 
+            boolean ignoreNaN, double[] work) {
+        if (values == null || length == 0) {
+            return Double.NaN;
+        }
+        return median(copyToWork(values, offset, length, work), 0, length, ignoreNaN);
+    }
+
+    /**
+     * Calculates the empirical mode of a segment of a primitive array. The
+     * result, including the tie-break rules, is the same as for
+     * {@link #mode(java.lang.Double[], boolean)}. The segment is sorted
+     * and then scanned twice; no other storage is required.
+     * <p>
+     * <strong>Note:</strong> the segment is sorted in place. Use
+     * {@link #mode(double[], int, int, boolean, double[])} to work
+     * on a copy held in a reusable buffer.
+     *
+     * @param values sample values
+     * @param offset index of the first sample
+     * @param length number of samples
+     * @param ignoreNaN specifies whether to ignore NaN values
+     * @return calculated mode or Double.NaN if the sample is empty
+     */
+    public static double mode(double[] values, int offset, int length, boolean ignoreNaN) {
+        if (values == null || length == 0) {
+            return Double.NaN;
+        }
+        checkBounds(values, offset, length);
+
+        // Arrays.sort places NaNs at the end
+        Arrays.sort(values, offset, offset + length);
+        int end = offset + length;
+        if (ignoreNaN) {
+            while (end > offset && Double.isNaN(values[end - 1])) {
+                end-- ;
+            }
+        }
+
+        if (end == offset) {
+            return Double.NaN;
+        } else if (end - offset == 1) {
+            return values[offset];
+        }
+
+        // first pass: find the maximum frequency and how many 
+        // distinct values share it
+        int maxFreq = 0;
+        int numTied = 0;
+        double curVal = values[offset];
+        int curFreq = 1;
+        for (int i = offset + 1; i <= end; i++) {
+            if (i < end && CompareOp.aequal(curVal, values[i])) {
+                curFreq++ ;
+            } else {
+                if (curFreq > maxFreq) {
+                    maxFreq = curFreq;
+                    numTied = 1;
+                } else if (curFreq == maxFreq) {
+                    numTied++ ;
+                }
+                if (i < end) {
+                    curVal = values[i];
+                    curFreq = 1;
+                }
+            }
+        }
+
+        int target = numTied / 2;
+        if (numTied % 2 == 0) target-- ;
+
+        // second pass: return the target value amongst the tied values
+        curVal = values[offset];
+        curFreq = 1;
+        int k = 0;
+        for (int i = offset + 1; i <= end; i++) {
+            if (i < end && CompareOp.aequal(curVal, values[i])) {
+                curFreq++ ;
+            } else {
+                if (curFreq == maxFreq) {
+                    if (k == target) {
+                        return curVal;
+                    }
+                    k++ ;
+                }
+                if (i < end) {
+                    curVal = values[i];
+                    curFreq = 1;
+                }
+            }
+        }
+
+        return Double.NaN;  // not reached
+    }
+
+    /**
+     * Calculates the empirical mode of a segment of a primitive array,
+     * leaving the input unchanged. The sample values are copied into 
+     * {@code work}, which can be re-used between calls to avoid allocation.
+     *
+     * @param values sample values
+     * @param offset index of the first sample
+     * @param length number of samples
+     * @param ignoreNaN specifies whether to ignore NaN values
+     * @param work buffer of at least {@code length} elements; may be
+     *        {@code null} in which case a new buffer is allocated
+     * @return calculated mode or Double.NaN if the sample is empty
+     */
+    public static double mode(double[] values, int offset, int length, 
+            boolean ignoreNaN, double[] work) {
+        if (values == null || length == 0) {
+            return Double.NaN;
+        }
+        return mode(copyToWork(values, offset, length, work), 0, length, ignoreNaN);
+    }
+
+    /**
+     * Calculates the range (max - min) of a segment of a primitive array.
+     * This follows the same rules as {@link #range(java.lang.Double[], boolean)}.
+     *
+     * @param values sample values
+     * @param offset index of the first sample
+     * @param length number of samples
+     * @param ignoreNaN specifies whether to ignore NaN values
+     * @return the range or Double.NaN if the set is empty
+     */
+    public static double range(double[] values, int offset, int length, boolean ignoreNaN) {
+        if (values == null || length == 0) {
+            return Double.NaN;
+        }
+        checkBounds(values, offset, length);
+        if (length == 1) {
+            return 0d;
+        }
+        
+        return max(values, offset, length, ignoreNaN) - min(values, offset, length, ignoreNaN);
+    }
+
+    /**
+     * Calculates the sample variance of a segment of a primitive array
+     * using the running sample algorithm of Welford (1962).
+     *
+     * @param values sample values
+     * @param offset index of the first sample
+     * @param length number of samples
+     * @param ignoreNaN specifies whether to ignore NaN values
+     * @return sample variance
+     */
+    public static double variance(double[] values, int offset, int length, boolean ignoreNaN) {
+        checkBounds(values, offset, length);
+        if (length < 2) {
+            return Double.NaN;
+        }
+
+        double mNew, mOld = 0.0d, s = 0.0d;
+
+        final int end = offset + length;
+        int n = 0;
+        for (int i = offset; i < end; i++) {
+            double val = values[i];
+            if (Double.isNaN(val)) {
+                if (!ignoreNaN) {
+                    return Double.NaN;
+                }
+                
+            } else {
+                n++;
+                if (n == 1) {
+                    mNew = mOld = val;
+                } else {
+                    mNew = mOld + (val - mOld) / n;
+                    s = s + (val - mOld) * (val - mNew);
+                    mOld = mNew;
+                }
+            }
+        }
+
+        if (n > 1) {
+            return s / (n - 1);
+        } else if (n == 1) {
+            return 0.0d;
+        } else {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Calculates the sample standard deviation of a segment of a 
+     * primitive array. 
+     *
+     * @param values sample values
+     * @param offset index of the first sample
+     * @param length number of samples
+     * @param ignoreNaN specifies whether to ignore NaN values
+     * @return sample standard deviation as a double
+     */
+    public static double sdev(double[] values, int offset, int length, boolean ignoreNaN) {
+        double var = variance(values, offset, length, ignoreNaN);
+        return (Double.isNaN(var) ? Double.NaN : Math.sqrt(var));
+    }
+
+    /**
+     * Calculates the sum of a segment of a primitive array.
+     * 
+     * @param values sample values
+     * @param offset index of the first sample
+     * @param length number of samples
+     * @param ignoreNaN specifies whether to ignore NaN values
+     * @return sum of the values
+     */
+    public static double sum(double[] values, int offset, int length, boolean ignoreNaN) {
+        checkBounds(values, offset, length);
+        
+        final int end = offset + length;
+        double sum = 0.0d;
+        for (int i = offset; i < end; i++) {
+            if (Double.isNaN(values[i])) {
+                if (!ignoreNaN) {
+                    return Double.NaN;
+                }
+            } else {
+              sum = sum + values[i];  
+            }
+        }
+        
+        return sum;
+    }
+
+    /**
+     * Checks that a segment lies within an array.
+     */
+    private static void checkBounds(double[] values, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > values.length) {
+            throw new IndexOutOfBoundsException(
+                    "offset " + offset + " and length " + length +
+                    " out of bounds for array of length " + values.length);
+        }
+    }
+
+    /**
+     * Copies a segment into the start of a work buffer, allocating
+     * the buffer if necessary.
+     */
+    private static double[] copyToWork(double[] values, int offset, int length, double[] work) {
+        checkBounds(values, offset, length);
+        if (work == null) {
+            work = new double[length];
+        } else if (work.length < length) {
+            throw new IllegalArgumentException(
+                    "work buffer length " + work.length + " is less than " + length);
+        }
+        System.arraycopy(values, offset, work, 0, length);
+        return work;
+    }
+
+    /**
+     * Moves NaN values to the end of the segment {@code [from, to)}.
+     * 
+     * @return index of the first NaN value, or {@code to} if there are none
+     */
+    private static int moveNaNsToEnd(double[] values, int from, int to) {
+        int end = to;
+        int i = from;
+        while (i < end) {
+            if (Double.isNaN(values[i])) {
+                end-- ;
+                double tmp = values[i];
+                values[i] = values[end];
+                values[end] = tmp;
+            } else {
+                i++ ;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Partially sorts the segment {@code [from, to)}, which must not
+     * contain NaNs, so that {@code values[k]} holds the value it would
+     * have if the segment were sorted, with no larger values before it
+     * and no smaller values after it. This is Hoare's quickselect with
+     * median-of-three pivots, falling back to a full sort of the remaining
+     * sub-range if partitioning is not converging (introselect).
+     */
+    private static void select(double[] values, int from, int to, int k) {
+        int lo = from;
+        int hi = to - 1;
+        int depthLimit = 2 * (32 - Integer.numberOfLeadingZeros(to - from));
+
+        while (hi > lo) {
+            if (hi - lo < SMALL_SEGMENT) {
+                insertionSort(values, lo, hi);
+                return;
+            }
+            if (depthLimit-- == 0) {
+                Arrays.sort(values, lo, hi + 1);
+                return;
+            }
+
+            int mid = (lo + hi) >>> 1;
+            if (values[mid] < values[lo]) swap(values, mid, lo);
+            if (values[hi] < values[lo]) swap(values, hi, lo);
+            if (values[hi] < values[mid]) swap(values, hi, mid);
+            final double pivot = values[mid];
+
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (values[i] < pivot) i++ ;
+                while (values[j] > pivot) j-- ;
+                if (i <= j) {
+                    swap(values, i, j);
+                    i++ ;
+                    j-- ;
+                }
+            }
+
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private static void insertionSort(double[] values, int lo, int hi) {
+        for (int i = lo + 1; i <= hi; i++) {
+            double val = values[i];
+            int j = i - 1;
+            while (j >= lo && values[j] > val) {
+                values[j + 1] = values[j];
+                j-- ;
+            }
+            values[j + 1] = val;
+        }
+    }
+
+    private static void swap(double[] values, int i, int j) {
+        double tmp = values[i];
+        values[i] = values[j];
+        values[j] = tmp;
+    }
 }
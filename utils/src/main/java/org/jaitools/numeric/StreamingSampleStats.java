@@ -384,6 +384,105 @@ public class StreamingSampleStats {
         }
     }
 
+    /**
+     * Offers a primitive sample value. This is equivalent to
+     * {@linkplain #offer(Double)} but avoids boxing.
+     *
+     * @param sample the sample value
+     */
+    public void offer(double sample) {
+        for (int i = 0, n = processors.size(); i < n; i++) {
+            Processor p = processors.get(i);
+            if (p instanceof AbstractProcessor) {
+                ((AbstractProcessor) p).offer(sample);
+            } else {
+                p.offer(Double.valueOf(sample));
+            }
+        }
+    }
+
+    /**
+     * Offers a run of primitive sample values. This is equivalent to
+     * calling {@linkplain #offer(double)} for each value in turn but
+     * lets each processor work through the whole run at once.
+     *
+     * @param samples array holding the sample values
+     * @param offset index of the first value to offer
+     * @param length number of values to offer
+     *
+     * @throws IndexOutOfBoundsException if {@code offset} and {@code length}
+     *         do not describe a valid portion of {@code samples}
+     */
+    public void offer(double[] samples, int offset, int length) {
+        for (int i = 0, n = processors.size(); i < n; i++) {
+            Processor p = processors.get(i);
+            if (p instanceof AbstractProcessor) {
+                ((AbstractProcessor) p).offer(samples, offset, length);
+            } else {
+                if (offset < 0 || length < 0 || offset + length > samples.length) {
+                    throw new IndexOutOfBoundsException(
+                            "offset " + offset + " and length " + length +
+                            " out of bounds for array of length " + samples.length);
+                }
+                for (int k = offset; k < offset + length; k++) {
+                    p.offer(Double.valueOf(samples[k]));
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges the results held by another {@code StreamingSampleStats} object
+     * into this one. Afterwards, this object gives the results that it would
+     * have had if it had been offered all of the samples offered to both objects.
+     * This allows a large data set to be divided into parts which are processed
+     * separately (eg. in different threads), with the partial results being
+     * combined at the end.
+     * <p>
+     * The other object must have been set up with the same statistics and
+     * should have the same ranges and NoData ranges as this object.
+     * It is not modified.
+     *
+     * @param other the object to merge into this one
+     *
+     * @throws IllegalArgumentException if {@code other} is {@code null}, this
+     *         object, or was not set up with the same statistics
+     * @throws UnsupportedOperationException if any of the processors does not
+     *         support merging (ie. is not an {@code AbstractProcessor})
+     */
+    public void merge(StreamingSampleStats other) {
+        if (other == null || other == this) {
+            throw new IllegalArgumentException("other must be a different, non-null object");
+        }
+        if (other.processors.size() != processors.size()) {
+            throw new IllegalArgumentException("other was not set up with the same statistics");
+        }
+
+        // check all processors before merging any
+        List<Processor> matches = CollectionFactory.list();
+        for (Processor p : processors) {
+            if (!(p instanceof AbstractProcessor)) {
+                throw new UnsupportedOperationException(
+                        p.getClass().getName() + " does not support merging");
+            }
+            Processor match = null;
+            for (Processor op : other.processors) {
+                if (op.getClass() == p.getClass()) {
+                    match = op;
+                    break;
+                }
+            }
+            if (match == null) {
+                throw new IllegalArgumentException("other was not set up with the same statistics");
+            }
+            matches.add(match);
+        }
+
+        for (int i = 0; i < processors.size(); i++) {
+            ((AbstractProcessor) processors.get(i)).merge(matches.get(i));
+        }
+    }
+
     /**
      * Searches the list of {@code Processors} for one that supports
      * the given {@code Statistic}.
@@ -43,7 +43,7 @@ public class SumProcessor extends AbstractProcessor {
 
     private static final Set<Statistic> SUPPORTED = Collections.singleton(Statistic.SUM);
 
-    Double sum = 0.0;
+    double sum = 0.0;
 
     /**
      * {@inheritDoc}
@@ -56,6 +56,13 @@ public class SumProcessor extends AbstractProcessor {
      * {@inheritDoc}
      */
     protected boolean update(Double sample) {
+        return sample != null && update(sample.doubleValue());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected boolean update(double sample) {
     	if (isAccepted(sample)) {
             sum += sample;
             return true;
@@ -64,6 +71,13 @@ public class SumProcessor extends AbstractProcessor {
         return false;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    protected void mergeStatistics(AbstractProcessor other) {
+        sum += ((SumProcessor) other).sum;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,221 @@
+/* 
+ *  Copyright (c) 2013, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.tilecache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records activity counters and latencies for a {@linkplain DiskMemTileCache}.
+ * Recording is cheap enough to be always enabled: counting a memory hit, which
+ * is the common case, is a single atomic increment on a cell chosen by thread so
+ * that concurrent readers do not contend for the same cache line. Latencies are
+ * only recorded for disk I/O and for lock waits, where the cost of reading the
+ * clock is negligible in comparison.
+ *
+ * @author Michael Bedward
+ * @since 1.5
+ * @version $Id$
+ */
+final class CacheMetrics {
+
+    private final StripedCounter memoryHits = new StripedCounter();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    private final Histogram diskReads = new Histogram();
+    private final Histogram diskWrites = new Histogram();
+    private final Histogram lockWaits = new Histogram();
+
+
+    /**
+     * A counter spread over several cells, each on its own cache line.
+     */
+    private static final class StripedCounter {
+        // spacing in longs between cells (64 bytes)
+        private static final int PAD = 8;
+
+        private final AtomicLongArray cells;
+        private final int mask;
+
+        StripedCounter() {
+            int n = 1;
+            int procs = Runtime.getRuntime().availableProcessors();
+            while (n < procs && n < 64) {
+                n <<= 1;
+            }
+            mask = n - 1;
+            cells = new AtomicLongArray(n * PAD);
+        }
+
+        void increment() {
+            long id = Thread.currentThread().getId();
+            int h = (int) (id ^ (id >>> 32));
+            h ^= (h >>> 7);
+            cells.incrementAndGet((h & mask) * PAD);
+        }
+
+        long get() {
+            long sum = 0;
+            for (int i = 0; i < cells.length(); i += PAD) {
+                sum += cells.get(i);
+            }
+            return sum;
+        }
+
+        void reset() {
+            for (int i = 0; i < cells.length(); i += PAD) {
+                cells.set(i, 0);
+            }
+        }
+    }
+
+    /**
+     * A concurrently updated latency histogram with power of 2 buckets.
+     */
+    private static final class Histogram {
+        private final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.NUM_BUCKETS);
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            counts.incrementAndGet(LatencyHistogram.bucketFor(nanos));
+            total.addAndGet(nanos);
+
+            long m = max.get();
+            while (nanos > m && !max.compareAndSet(m, nanos)) {
+                m = max.get();
+            }
+        }
+
+        LatencyHistogram snapshot() {
+            long[] c = new long[LatencyHistogram.NUM_BUCKETS];
+            for (int i = 0; i < c.length; i++) {
+                c[i] = counts.get(i);
+            }
+            return new LatencyHistogram(c, total.get(), max.get());
+        }
+
+        void reset() {
+            for (int i = 0; i < counts.length(); i++) {
+                counts.set(i, 0);
+            }
+            total.set(0);
+            max.set(0);
+        }
+    }
+
+
+    /**
+     * Records a tile request served from memory.
+     */
+    void memoryHit() {
+        memoryHits.increment();
+    }
+
+    /**
+     * Records a tile request served by reading from disk.
+     */
+    void diskHit() {
+        diskHits.incrementAndGet();
+    }
+
+    /**
+     * Records a tile request for which the cache had no data.
+     */
+    void miss() {
+        misses.incrementAndGet();
+    }
+
+    /**
+     * Records the removal of a tile from memory.
+     */
+    void eviction() {
+        evictions.incrementAndGet();
+    }
+
+    /**
+     * Records a read of tile data from disk.
+     * 
+     * @param bytes size of the tile data
+     * @param nanos time taken
+     */
+    void diskRead(long bytes, long nanos) {
+        bytesRead.addAndGet(bytes);
+        diskReads.record(nanos);
+    }
+
+    /**
+     * Records a write of tile data to disk.
+     * 
+     * @param bytes size of the tile data
+     * @param nanos time taken
+     */
+    void diskWrite(long bytes, long nanos) {
+        bytesWritten.addAndGet(bytes);
+        diskWrites.record(nanos);
+    }
+
+    /**
+     * Records time spent waiting for a lock.
+     * 
+     * @param nanos wait time
+     */
+    void lockWait(long nanos) {
+        lockWaits.record(nanos);
+    }
+
+    /**
+     * Takes a snapshot of the current values.
+     * 
+     * @return the statistics
+     */
+    CacheStatistics snapshot() {
+        return new CacheStatistics(
+                memoryHits.get(), diskHits.get(), misses.get(), evictions.get(),
+                bytesRead.get(), bytesWritten.get(),
+                diskReads.snapshot(), diskWrites.snapshot(), lockWaits.snapshot());
+    }
+
+    /**
+     * Sets all counters and histograms to zero.
+     */
+    void reset() {
+        memoryHits.reset();
+        diskHits.set(0);
+        misses.set(0);
+        evictions.set(0);
+        bytesRead.set(0);
+        bytesWritten.set(0);
+        diskReads.reset();
+        diskWrites.reset();
+        lockWaits.reset();
+    }
+
+}
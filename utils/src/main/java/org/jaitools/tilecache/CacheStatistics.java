@@ -0,0 +1,202 @@
+/* 
+ *  Copyright (c) 2013, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.tilecache;
+
+/**
+ * A snapshot of the activity counters and latency histograms of a 
+ * {@linkplain DiskMemTileCache}. The values are cumulative since the
+ * cache was created or since {@linkplain DiskMemTileCache#resetStatistics()}
+ * was last called. Counters are read individually without stopping the 
+ * cache, so a snapshot taken while the cache is busy may be very slightly
+ * inconsistent (e.g. the number of hits and misses might not sum exactly
+ * to the number of requests at any one instant).
+ * <p>
+ * Example:
+ * <pre><code>
+ * DiskMemTileCache cache = ...
+ * CacheStatistics stats = cache.getStatistics();
+ * System.out.println("hit ratio: " + stats.getHitRatio());
+ * System.out.println("disk reads: " + stats.getDiskReadLatency());
+ * </code></pre>
+ *
+ * @author Michael Bedward
+ * @since 1.5
+ * @version $Id$
+ */
+public final class CacheStatistics {
+
+    private final long memoryHits;
+    private final long diskHits;
+    private final long misses;
+    private final long evictions;
+    private final long bytesRead;
+    private final long bytesWritten;
+    private final LatencyHistogram diskReadLatency;
+    private final LatencyHistogram diskWriteLatency;
+    private final LatencyHistogram lockWaitLatency;
+
+    CacheStatistics(long memoryHits, long diskHits, long misses, long evictions,
+            long bytesRead, long bytesWritten,
+            LatencyHistogram diskReadLatency,
+            LatencyHistogram diskWriteLatency,
+            LatencyHistogram lockWaitLatency) {
+
+        this.memoryHits = memoryHits;
+        this.diskHits = diskHits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.bytesRead = bytesRead;
+        this.bytesWritten = bytesWritten;
+        this.diskReadLatency = diskReadLatency;
+        this.diskWriteLatency = diskWriteLatency;
+        this.lockWaitLatency = lockWaitLatency;
+    }
+
+    /**
+     * Gets the number of tile requests served from memory. This includes
+     * requests for tiles that had been removed from memory but were still
+     * waiting to be written to disk.
+     * 
+     * @return number of memory hits
+     */
+    public long getMemoryHits() {
+        return memoryHits;
+    }
+
+    /**
+     * Gets the number of tile requests served by reading tile data
+     * from disk.
+     * 
+     * @return number of disk hits
+     */
+    public long getDiskHits() {
+        return diskHits;
+    }
+
+    /**
+     * Gets the number of tile requests for which the cache had no data.
+     * 
+     * @return number of misses
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Gets the total number of tile requests.
+     * 
+     * @return number of requests
+     */
+    public long getRequests() {
+        return memoryHits + diskHits + misses;
+    }
+
+    /**
+     * Gets the proportion of tile requests served from memory or disk.
+     * 
+     * @return hit ratio between 0 and 1, or 0 if there have been no requests
+     */
+    public double getHitRatio() {
+        long n = getRequests();
+        return n == 0 ? 0 : (double) (memoryHits + diskHits) / n;
+    }
+
+    /**
+     * Gets the number of tiles removed from memory to make space 
+     * for other tiles.
+     * 
+     * @return number of evictions
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Gets the number of tile data bytes read from disk.
+     * 
+     * @return bytes read
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Gets the number of tile data bytes written to disk. If disk-cached 
+     * tiles are compressed this is the size of the data before compression.
+     * 
+     * @return bytes written
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Gets the latencies of reading tiles from disk. The count of this
+     * histogram is the number of disk reads, which includes tiles read
+     * ahead of requests.
+     * 
+     * @return disk read latencies
+     */
+    public LatencyHistogram getDiskReadLatency() {
+        return diskReadLatency;
+    }
+
+    /**
+     * Gets the latencies of writing tiles to disk. The count of this
+     * histogram is the number of disk writes.
+     * 
+     * @return disk write latencies
+     */
+    public LatencyHistogram getDiskWriteLatency() {
+        return diskWriteLatency;
+    }
+
+    /**
+     * Gets the times that threads spent waiting for cache locks. Only
+     * waits for locks that were not immediately available are recorded.
+     * 
+     * @return lock wait times
+     */
+    public LatencyHistogram getLockWaitLatency() {
+        return lockWaitLatency;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("memory hits: ").append(memoryHits);
+        sb.append(", disk hits: ").append(diskHits);
+        sb.append(", misses: ").append(misses);
+        sb.append(", evictions: ").append(evictions);
+        sb.append(", bytes read: ").append(bytesRead);
+        sb.append(", bytes written: ").append(bytesWritten);
+        sb.append("\n  disk reads: ").append(diskReadLatency);
+        sb.append("\n  disk writes: ").append(diskWriteLatency);
+        sb.append("\n  lock waits: ").append(lockWaitLatency);
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,186 @@
+/* 
+ *  Copyright (c) 2013, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.tilecache;
+
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.media.jai.CachedTile;
+
+/**
+ * An eviction policy which orders tiles with a {@code Comparator}. This
+ * reproduces the behaviour of earlier versions of {@linkplain DiskMemTileCache}
+ * and is used when a comparator is set with
+ * {@linkplain DiskMemTileCache#setTileComparator(java.util.Comparator)}.
+ * <p>
+ * Resident tiles are kept in a list which is sorted when a tile must be
+ * selected for eviction and the list has changed since it was last sorted.
+ * Prefer {@linkplain LRUEvictionPolicy} for caches holding a large number
+ * of resident tiles.
+ * <p>
+ * The cache updates tile access times without holding the lock under which
+ * tiles are sorted. So that the ordering is consistent while sorting, the
+ * comparator is given a snapshot of each tile which holds the tile's access
+ * time as it was when sorting began and passes other {@code CachedTile} 
+ * methods through to the tile.
+ *
+ * @see TileAccessTimeComparator
+ * 
+ * @author Michael Bedward
+ * @since 1.5
+ * @version $Id$
+ */
+public class ComparatorEvictionPolicy implements EvictionPolicy {
+
+    private final Comparator<CachedTile> comparator;
+    private final List<DiskCachedTile> tiles;
+    private boolean sorted;
+
+    /**
+     * Creates a new policy.
+     * 
+     * @param comparator the comparator used to order tiles from highest to
+     *        lowest priority; if {@code null} a {@link TileAccessTimeComparator}
+     *        is used
+     */
+    public ComparatorEvictionPolicy(Comparator<CachedTile> comparator) {
+        this.comparator = comparator == null ? new TileAccessTimeComparator() : comparator;
+        this.tiles = new ArrayList<DiskCachedTile>();
+        this.sorted = true;
+    }
+
+    /**
+     * Gets the comparator used by this policy.
+     * 
+     * @return the comparator
+     */
+    public Comparator<CachedTile> getComparator() {
+        return comparator;
+    }
+
+    public void add(DiskCachedTile tile) {
+        tiles.add(tile);
+        sorted = false;
+    }
+
+    public void touch(DiskCachedTile tile) {
+        sorted = false;
+    }
+
+    public void remove(DiskCachedTile tile) {
+        int n = tiles.size();
+        if (n > 0 && tiles.get(n - 1) == tile) {
+            // the usual case when evicting tiles
+            tiles.remove(n - 1);
+        } else {
+            tiles.remove(tile);
+        }
+    }
+
+    public DiskCachedTile nextVictim() {
+        if (tiles.isEmpty()) {
+            return null;
+        }
+
+        if (!sorted) {
+            sort(tiles, comparator);
+            sorted = true;
+        }
+        return tiles.get(tiles.size() - 1);
+    }
+
+    /**
+     * Sorts tiles with a comparator which is given snapshots of the tiles'
+     * access times, so that the ordering is consistent even if access times
+     * are updated during the sort.
+     * 
+     * @param tiles the tiles to sort
+     * @param comparator the comparator
+     */
+    static void sort(List<DiskCachedTile> tiles, Comparator<CachedTile> comparator) {
+        final int n = tiles.size();
+        List<TileSnapshot> snapshots = new ArrayList<TileSnapshot>(n);
+        for (DiskCachedTile tile : tiles) {
+            snapshots.add(new TileSnapshot(tile));
+        }
+        
+        Collections.sort(snapshots, comparator);
+        for (int i = 0; i < n; i++) {
+            tiles.set(i, snapshots.get(i).tile);
+        }
+    }
+
+    public void clear() {
+        tiles.clear();
+        sorted = true;
+    }
+
+    public boolean isEmpty() {
+        return tiles.isEmpty();
+    }
+
+    /*
+     * A tile with its access time fixed at the time of creation.
+     */
+    private static final class TileSnapshot implements CachedTile {
+        final DiskCachedTile tile;
+        final long timeStamp;
+
+        TileSnapshot(DiskCachedTile tile) {
+            this.tile = tile;
+            this.timeStamp = tile.getTileTimeStamp();
+        }
+
+        public long getTileTimeStamp() {
+            return timeStamp;
+        }
+
+        public Raster getTile() {
+            return tile.getTile();
+        }
+
+        public RenderedImage getOwner() {
+            return tile.getOwner();
+        }
+
+        public Object getTileCacheMetric() {
+            return tile.getTileCacheMetric();
+        }
+
+        public long getTileSize() {
+            return tile.getTileSize();
+        }
+
+        public int getAction() {
+            return tile.getAction();
+        }
+    }
+
+}
@@ -38,8 +38,12 @@ import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
@@ -197,15 +201,26 @@ public final class DiskCachedTile implements CachedTile {
     private final int tileX;
     private final int tileY;
     private final Object tileCacheMetric;
-    private long timeStamp;
+    private volatile long timeStamp;
+    private final int  dataType;
     private final int  numBanks;
     private final int  dataLen;
     private final long memorySize;
-    private File file;
+    private volatile File file;
+    private final MappedTileStore store;
+    private final TileCodec codec;
+    private volatile boolean stored;
     private final Point location;
     private final boolean isWritable;
 
-    private TileAction action =TileAction.getDefault();
+    /*
+     * Set when the tile has been removed from its cache. Any disk
+     * write which arrives after this (e.g. from a concurrent eviction)
+     * is discarded so that no orphan cache files are left behind.
+     */
+    private boolean disposed;
+
+    private volatile TileAction action =TileAction.getDefault();
 
     /**
      * Get the current cache folder. This is the folder in which
@@ -246,7 +261,8 @@ public final class DiskCachedTile implements CachedTile {
     }
 
     /**
-     * Package-private constructor
+     * Package-private constructor for a tile which will be cached
+     * to its own temporary file.
      *
      * @param id the tile's unique identifier, allocated by the cache
      * @param owner the image to which this tile belongs
@@ -267,6 +283,37 @@ public final class DiskCachedTile implements CachedTile {
                   Raster raster,
                   boolean writeToFile,
                   Object tileCacheMetric) throws IOException {
+        this(id, owner, tileX, tileY, raster, writeToFile, tileCacheMetric, null, null);
+    }
+
+    /**
+     * Package-private constructor
+     *
+     * @param id the tile's unique identifier, allocated by the cache
+     * @param owner the image to which this tile belongs
+     * @param tileX the column index for this tile in the image's tile grid
+     * @param tileY the row index for this tile in the image's tile grid
+     * @param raster the image data for this tile
+     * @param writeToFile if true, the tile's data will be cached to disk
+     *        immediately; if false, disk caching is deferred
+     * @param tileCacheMetric optional tile cache metric for use in scheduling
+     *        (may be {@code null})
+     * @param store the shared store to write the tile's data to or {@code null}
+     *        to cache the tile to its own temporary file
+     * @param codec the codec used to compress the tile's data on disk or 
+     *        {@code null} to store the data uncompressed
+     *
+     * @throws IOException if an attempt to write the tile to disk fails
+     */
+    DiskCachedTile(Object id,
+                  RenderedImage owner,
+                  int tileX,
+                  int tileY,
+                  Raster raster,
+                  boolean writeToFile,
+                  Object tileCacheMetric,
+                  MappedTileStore store,
+                  TileCodec codec) throws IOException {
 
         if (owner == null || raster == null) {
             throw new IllegalArgumentException(
@@ -280,8 +327,11 @@ public final class DiskCachedTile implements CachedTile {
         this.tileCacheMetric = tileCacheMetric;
         this.location = raster.getBounds().getLocation();
         this.isWritable = (raster instanceof WritableRaster);
+        this.store = store;
+        this.codec = codec;
 
         DataBuffer db = raster.getDataBuffer();
+        dataType = db.getDataType();
         numBanks = db.getNumBanks();
         dataLen = db.getSize();
         memorySize = DataBuffer.getDataTypeSize(db.getDataType()) / 8L * dataLen * numBanks;
@@ -293,6 +343,55 @@ public final class DiskCachedTile implements CachedTile {
         setTileTimeStamp(System.currentTimeMillis());
     }
 
+    /**
+     * Package-private constructor for a tile whose data are already held
+     * in a persistent tile store, e.g. from a previous session. The tile's
+     * layout is taken from the owning image's {@code SampleModel}.
+     *
+     * @param id the tile's persistent key
+     * @param owner the image to which this tile belongs
+     * @param tileX the column index for this tile in the image's tile grid
+     * @param tileY the row index for this tile in the image's tile grid
+     * @param tileCacheMetric optional tile cache metric for use in scheduling
+     *        (may be {@code null})
+     * @param store the store holding the tile's data
+     * @param codec the codec with which the data were written or {@code null}
+     *        if they are uncompressed
+     */
+    DiskCachedTile(PersistentTileKey id,
+                  RenderedImage owner,
+                  int tileX,
+                  int tileY,
+                  Object tileCacheMetric,
+                  MappedTileStore store,
+                  TileCodec codec) {
+
+        if (owner == null || store == null) {
+            throw new IllegalArgumentException("owner and store must be non-null");
+        }
+
+        this.id = id;
+        this.ownerRef = new WeakReference<RenderedImage>(owner);
+        this.tileX = tileX;
+        this.tileY = tileY;
+        this.tileCacheMetric = tileCacheMetric;
+        this.location = new Point(
+                tileX * owner.getTileWidth() + owner.getTileGridXOffset(),
+                tileY * owner.getTileHeight() + owner.getTileGridYOffset());
+        this.isWritable = true;
+        this.store = store;
+        this.codec = codec;
+
+        DataBuffer db = owner.getSampleModel().createDataBuffer();
+        dataType = db.getDataType();
+        numBanks = db.getNumBanks();
+        dataLen = db.getSize();
+        memorySize = DataBuffer.getDataTypeSize(db.getDataType()) / 8L * dataLen * numBanks;
+        stored = true;
+
+        setTileTimeStamp(System.currentTimeMillis());
+    }
+
     /**
      * Returns a string representation of this cached tile
      */
@@ -312,7 +411,7 @@ public final class DiskCachedTile implements CachedTile {
                " id = " + ((id instanceof Long)? Long.toHexString(((Long)id).longValue()) : id.toString()) +
                " memorySize = " + Long.toString(memorySize) +
                " timeStamp = " + Long.toString(timeStamp) +
-               " file = " + file.getPath();
+               " file = " + (file == null ? "null" : file.getPath());
     }
 
     /**
@@ -381,18 +480,18 @@ public final class DiskCachedTile implements CachedTile {
     }
 
     /**
-     * Queries if this tile has been cached to disk. This method is
-     * a short-cut for: {@code getFile() != null}.
+     * Queries if this tile has been cached to disk. For a tile with its own
+     * cache file this method is a short-cut for: {@code getFile() != null}.
      * 
      * @return {@code true} if the tile is cached on disk; {@code false} otherwise
      */
     public boolean cachedToDisk() {
-        return file != null;
+        return store == null ? file != null : stored;
     }
 
     /**
      * Gets this tile's disk cache file. Returns {@code null} if the tile has not
-     * been cached to disk.
+     * been cached to disk or if it is held in a cache's shared tile store.
      * 
      * @return the disk cache file for this tile or {@code null}
      */
@@ -402,22 +501,39 @@ public final class DiskCachedTile implements CachedTile {
 
     /**
      * Deletes this tile's disk cache file. If the file could not be deleted
-     * a warning is logged.
+     * a warning is logged. Once this method has been called, later requests
+     * to write the tile's data to disk are ignored.
      */
-    public void deleteDiskCopy() {
-        if (file != null) {
+    public synchronized void deleteDiskCopy() {
+        disposed = true;
+        if (store != null) {
+            store.delete(id);
+            stored = false;
+
+        } else if (file != null) {
             if (!file.delete()) {
                 LOGGER.log(Level.WARNING, 
                         "Unable to delete cached image tile file: {0}", file.getPath());
+            }
         }
     }
+
+    /**
+     * Marks this tile as removed from its cache while leaving its data in
+     * a persistent tile store for use in later sessions. Any subsequent 
+     * disk write is discarded.
+     */
+    synchronized void release() {
+        disposed = true;
     }
 
     /**
      * Gets the unique ID for this tile. The ID is a combination of
      * either the JAI-generated unique ID of the owning image or the image's
      * hash key if a unique ID was not available plus the tile index.
-     * The returned object will be either Long or BigInteger.
+     * The returned object will be either Long or BigInteger, unless the
+     * image has a persistent key in which case it is an object combining
+     * that key and the tile index.
      * 
      * @return tile ID
      */
@@ -479,17 +595,34 @@ public final class DiskCachedTile implements CachedTile {
 
     /**
      * Package-private method that reads data for the raster associated with this tile
-     * from disk
+     * from disk. Reads and writes of the same tile are serialized on the tile
+     * itself so that the cache can perform disk I/O without holding any of its
+     * own locks.
      *
      * @return a new instance of Raster or WritableRaster
      */
-    Raster readData() {
+    synchronized Raster readData() {
         ImageInputStream strm = null;
         DataBuffer dataBuf = null;
         RenderedImage img = ownerRef.get();
         Raster raster = null;
 
-        if (file != null && img != null) {
+        if (codec != null) {
+            if (cachedToDisk() && img != null) {
+                try {
+                    dataBuf = readEncodedData();
+                } catch (IOException ex) {
+                    LOGGER.log(Level.SEVERE, "Failed to read image tile data", ex);
+                    return null;
+                }
+            }
+
+        } else if (store != null) {
+            if (stored && img != null) {
+                dataBuf = store.read(id, dataType, numBanks, dataLen);
+            }
+
+        } else if (file != null && img != null) {
             try {
                 strm = ImageIO.createImageInputStream(file);
 
@@ -589,9 +722,25 @@ public final class DiskCachedTile implements CachedTile {
     /**
      * Write data for the raster associated with this tile to
      * disk. This may be called by <code>DiskMemTileCache</code>
-     * as well as be the tile itself.
+     * as well as be the tile itself. If the tile has already been
+     * removed from the cache the request is ignored.
      */
-    void writeData(Raster raster) throws IOException {
+    synchronized void writeData(Raster raster) throws IOException {
+        if (disposed) {
+            return;
+        }
+
+        if (codec != null) {
+            writeEncodedData(raster.getDataBuffer());
+            return;
+        }
+
+        if (store != null) {
+            store.write(id, raster.getDataBuffer());
+            stored = true;
+            return;
+        }
+
         ImageOutputStream strm = null;
         DataBuffer dataBuf = raster.getDataBuffer();
 
@@ -685,6 +834,58 @@ public final class DiskCachedTile implements CachedTile {
         }
     }
 
+    /**
+     * Reads and decodes compressed tile data from the tile store or 
+     * this tile's file.
+     */
+    private DataBuffer readEncodedData() throws IOException {
+        ByteBuffer buf;
+        if (store != null) {
+            buf = store.readBuffer(id);
+            if (buf == null) {
+                return null;
+            }
+
+        } else {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                byte[] bytes = new byte[(int) raf.length()];
+                raf.readFully(bytes);
+                buf = ByteBuffer.wrap(bytes).order(ByteOrder.nativeOrder());
+            } finally {
+                raf.close();
+            }
+        }
+
+        return codec.decode(buf, dataType, numBanks, dataLen);
+    }
+
+    /**
+     * Compresses and writes tile data to the tile store or this
+     * tile's file.
+     */
+    private void writeEncodedData(DataBuffer dataBuf) throws IOException {
+        ByteOrder order = store != null ? store.getByteOrder() : ByteOrder.nativeOrder();
+        byte[] encoded = codec.encode(dataBuf, order);
+
+        if (store != null) {
+            store.write(id, encoded);
+            stored = true;
+
+        } else {
+            if (file == null) {
+                file = createFile();
+            }
+
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(encoded);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
     /**
      * Create a file to cache the given tile on disk. Presently
      * this method does nothing more than delegate to File.createTempFile
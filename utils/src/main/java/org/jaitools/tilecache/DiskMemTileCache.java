@@ -28,27 +28,43 @@ package org.jaitools.tilecache;
 import java.awt.Point;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
+import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.math.BigInteger;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Observable;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.media.jai.CachedTile;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 import javax.media.jai.PlanarImage;
+import javax.media.jai.RenderedOp;
 import javax.media.jai.TileCache;
 
 import org.jaitools.CollectionFactory;
@@ -79,6 +95,88 @@ import org.jaitools.DaemonThreadFactory;
  * be set to auto-flush resident tiles at regular intervals.
  * <p>
  * 
+ * <h4>Concurrency</h4>
+ * Access to tiles is guarded by a set of lock stripes, with each tile assigned to
+ * a stripe on the basis of its key. By default there is a single stripe, so that
+ * requests for tiles are handled one at a time. When the cache is shared by many
+ * computation threads (e.g. those of JAI's tile scheduler) a higher concurrency
+ * level can be requested with the {@linkplain #KEY_CONCURRENCY_LEVEL} parameter.
+ * Requests for memory-resident tiles do not take any lock; the bookkeeping for
+ * memory use and eviction is serialized separately, and writing evicted tiles
+ * to disk is done after all cache locks have been released.
+ * <p>
+ * 
+ * <h4>Eviction</h4>
+ * The choice of tiles to remove from memory is delegated to an {@linkplain EvictionPolicy}.
+ * The default is {@linkplain LRUEvictionPolicy} which removes the least recently
+ * used tiles and takes constant time per tile. Setting a comparator with
+ * {@linkplain #setTileComparator(java.util.Comparator)} switches to a
+ * {@linkplain ComparatorEvictionPolicy}, which sorts resident tiles as in previous
+ * versions of this class.
+ * <p>
+ * 
+ * <h4>Disk storage</h4>
+ * By default each tile cached to disk is written to its own temporary file. When
+ * the cache is expected to hold a large number of tiles, it can instead be created
+ * with the {@linkplain #KEY_MAPPED_TILE_STORE} parameter set to {@code Boolean.TRUE}.
+ * Tiles are then written into a small number of pre-sized, memory-mapped segment
+ * files whose space is re-used as tiles are removed from the cache.
+ * <p>
+ * Tile data written to disk can optionally be compressed by setting the
+ * {@linkplain #KEY_COMPRESS_DISK_TILES} parameter. Each band of a tile is
+ * then deflated, or stored as a single value if all of its elements are equal.
+ * This greatly reduces disk I/O for categorical data such as classified images
+ * and masks, at the cost of some CPU time.
+ * <p>
+ * 
+ * <h4>Persistence</h4>
+ * Tiles are normally identified by the run-time identity of their owning image,
+ * so that cached data can not outlive the application. To re-use expensive
+ * results in later sessions, create the cache with the {@linkplain #KEY_PERSISTENT_FOLDER}
+ * parameter and give each image whose tiles are to be kept a stable key with
+ * {@linkplain #setPersistentImageKey(RenderedImage, String)}. The data of those
+ * tiles are written to segment files in the persistent folder, and calling
+ * {@linkplain #persist()} saves an index of the tiles. A cache created on the
+ * same folder in a later session serves tiles from the index on request for
+ * any image given the same key, rather than having them computed again.
+ * It is the application's responsibility to choose keys which identify an
+ * image's content (e.g. a hash of the source data and processing parameters).
+ * <pre><code>
+ * Map&lt;String, Object&gt; params = new HashMap&lt;String, Object&gt;();
+ * params.put(DiskMemTileCache.KEY_PERSISTENT_FOLDER, new File("/data/tilecache"));
+ * DiskMemTileCache cache = new DiskMemTileCache(params);
+ * JAI.getDefaultInstance().setTileCache(cache);
+ *
+ * RenderedOp op = ...
+ * cache.setPersistentImageKey(op, "slope-dem42-v1");
+ * ...
+ * cache.persist();
+ * </code></pre>
+ * <p>
+ * 
+ * <h4>Background disk I/O</h4>
+ * By default, tiles evicted from memory are written to disk by the thread whose
+ * request caused the eviction. If the {@linkplain #KEY_IO_THREADS} parameter is
+ * set to a value greater than zero, the cache instead queues these writes to a
+ * pool of background threads, and requests for several tiles via
+ * {@linkplain #getTiles(RenderedImage, Point[])} or {@linkplain #addTiles} cause
+ * neighbouring tiles to be read back into memory ahead of time, provided that 
+ * there is memory to spare. A request for a tile whose data are still queued
+ * for writing is served from memory, and one for a tile being read ahead waits
+ * only for that tile.
+ * <p>
+ * 
+ * <h4>Statistics</h4>
+ * The cache keeps counts of memory hits, disk hits, misses and evictions, the
+ * amount of tile data read from and written to disk, and histograms of disk
+ * read and write times and of time spent waiting for cache locks. These are
+ * always collected, at negligible cost, and can be retrieved as a 
+ * {@linkplain CacheStatistics} snapshot with {@linkplain #getStatistics()}
+ * or published to JMX with {@linkplain #registerMBean(ObjectName)}. Unlike
+ * the diagnostic messages sent to Observers (see {@linkplain #setDiagnostics(boolean)}),
+ * statistics are suitable for monitoring a cache in production use.
+ * <p>
+ * 
  * <h4>Implementation note</h4>
  * Tile polling and auto-flushing of memory resident tiles (if enabled) both run
  * on low-priority background threads. These are marked as daemon threads to 
@@ -91,6 +189,8 @@ import org.jaitools.DaemonThreadFactory;
  * @version $Id$
  * 
  * @see DiskCachedTile
+ * @see CacheStatistics
+ * @see EvictionPolicy
  * @see TileAccessTimeComparator
  */
 public class DiskMemTileCache extends Observable implements TileCache {
@@ -126,6 +226,38 @@ public class DiskMemTileCache extends Observable implements TileCache {
      */
     public static final long DEFAULT_TILE_POLLING_INTERVAL = 2000L;
 
+    /**
+     * The default concurrency level (1), ie. a single lock stripe
+     * for tile access.
+     * 
+     * @see #KEY_CONCURRENCY_LEVEL
+     */
+    public static final int DEFAULT_CONCURRENCY_LEVEL = 1;
+
+    /**
+     * The default size of each segment file (64 * 2^20 = 64Mb) when
+     * using a mapped tile store.
+     * 
+     * @see #KEY_MAPPED_SEGMENT_SIZE
+     */
+    public static final long DEFAULT_MAPPED_SEGMENT_SIZE = 64L * 1024L * 1024L;
+
+    /**
+     * The default number of background I/O threads (0), ie. all disk
+     * I/O is done by the requesting thread.
+     * 
+     * @see #KEY_IO_THREADS
+     */
+    public static final int DEFAULT_IO_THREADS = 0;
+
+    /**
+     * The default compression level (1, ie. fastest) used when compression of
+     * disk-cached tiles is enabled.
+     * 
+     * @see #KEY_COMPRESSION_LEVEL
+     */
+    public static final int DEFAULT_COMPRESSION_LEVEL = 1;
+
 
     // @todo use JAI ParameterList or some other ready-made class for this ?
     private static class ParamDesc {
@@ -184,6 +316,71 @@ public class DiskMemTileCache extends Observable implements TileCache {
      */
     public static final String KEY_AUTO_FLUSH_MEMORY_INTERVAL = "autoflushinterval";
 
+    /**
+     * Key for the parameter controlling the number of lock stripes used
+     * to guard tile access. The value must be numeric and will be treated
+     * as Integer. It is rounded up to the next power of 2. Values less than
+     * 1 are ignored. A value of around the number of threads that will use
+     * the cache concurrently is a sensible choice.
+     * @see #DEFAULT_CONCURRENCY_LEVEL
+     */
+    public static final String KEY_CONCURRENCY_LEVEL = "concurrency";
+
+    /**
+     * Key for the parameter controlling whether tiles are cached to disk in
+     * shared, memory-mapped segment files rather than in a temporary file per
+     * tile. The value must be Boolean. The default is {@code Boolean.FALSE}.
+     * When this option is used, {@linkplain DiskCachedTile#getFile()} returns
+     * {@code null}.
+     * @see #KEY_MAPPED_SEGMENT_SIZE
+     */
+    public static final String KEY_MAPPED_TILE_STORE = "mappedstore";
+
+    /**
+     * Key for the parameter controlling the size, in bytes, of each segment
+     * file when using a mapped tile store. The value must be numeric and will
+     * be treated as Long. Tiles larger than this size are each given a segment
+     * of their own.
+     * @see #KEY_MAPPED_TILE_STORE
+     * @see #DEFAULT_MAPPED_SEGMENT_SIZE
+     */
+    public static final String KEY_MAPPED_SEGMENT_SIZE = "segmentsize";
+
+    /**
+     * Key for the parameter controlling the number of background threads used
+     * for writing evicted tiles to disk and reading tiles ahead of requests.
+     * The value must be numeric and will be treated as Integer. If the value
+     * is 0 (the default) no background I/O is done.
+     * @see #DEFAULT_IO_THREADS
+     */
+    public static final String KEY_IO_THREADS = "iothreads";
+
+    /**
+     * Key for the parameter controlling whether tile data are compressed when
+     * written to disk. The value must be Boolean. The default is {@code Boolean.FALSE}.
+     * @see #KEY_COMPRESSION_LEVEL
+     */
+    public static final String KEY_COMPRESS_DISK_TILES = "compress";
+
+    /**
+     * Key for the deflate compression level used when compression of disk-cached
+     * tiles is enabled. The value must be numeric, from 0 (no compression) to 9
+     * (best compression), and will be treated as Integer.
+     * @see #KEY_COMPRESS_DISK_TILES
+     * @see #DEFAULT_COMPRESSION_LEVEL
+     */
+    public static final String KEY_COMPRESSION_LEVEL = "compressionlevel";
+
+    /**
+     * Key for the parameter specifying the folder in which the data of tiles
+     * of images with a persistent key are stored, together with their index.
+     * The value must be a {@code File}. If it is not provided (the default)
+     * the cache is not persistent.
+     * @see #setPersistentImageKey(RenderedImage, String)
+     * @see #persist()
+     */
+    public static final String KEY_PERSISTENT_FOLDER = "persistentfolder";
+
     private static final Map<String, ParamDesc> paramDescriptors;
     static {
         ParamDesc desc;
@@ -200,13 +397,34 @@ public class DiskMemTileCache extends Observable implements TileCache {
 
         desc = new ParamDesc(KEY_AUTO_FLUSH_MEMORY_INTERVAL, Number.class, DEFAULT_AUTO_FLUSH_MEMORY_INTERVAL);
         paramDescriptors.put( desc.key, desc );
+
+        desc = new ParamDesc(KEY_CONCURRENCY_LEVEL, Number.class, DEFAULT_CONCURRENCY_LEVEL);
+        paramDescriptors.put( desc.key, desc );
+
+        desc = new ParamDesc(KEY_MAPPED_TILE_STORE, Boolean.class, Boolean.FALSE);
+        paramDescriptors.put( desc.key, desc );
+
+        desc = new ParamDesc(KEY_MAPPED_SEGMENT_SIZE, Number.class, DEFAULT_MAPPED_SEGMENT_SIZE);
+        paramDescriptors.put( desc.key, desc );
+
+        desc = new ParamDesc(KEY_IO_THREADS, Number.class, DEFAULT_IO_THREADS);
+        paramDescriptors.put( desc.key, desc );
+
+        desc = new ParamDesc(KEY_COMPRESS_DISK_TILES, Boolean.class, Boolean.FALSE);
+        paramDescriptors.put( desc.key, desc );
+
+        desc = new ParamDesc(KEY_COMPRESSION_LEVEL, Number.class, DEFAULT_COMPRESSION_LEVEL);
+        paramDescriptors.put( desc.key, desc );
+
+        desc = new ParamDesc(KEY_PERSISTENT_FOLDER, File.class, null);
+        paramDescriptors.put( desc.key, desc );
     }
 
     // maximum memory available for resident tiles
-    private long memCapacity;
+    private volatile long memCapacity;
 
     // current memory used for resident tiles
-    private long curMemory;
+    private volatile long curMemory;
 
     /*
      * A value between 0.0 and 1.0 that may be used for memory control
@@ -216,6 +434,20 @@ public class DiskMemTileCache extends Observable implements TileCache {
 
     private boolean writeNewTilesToDisk;
 
+    // shared disk storage for tiles, or null to use a file per tile
+    private volatile MappedTileStore tileStore;
+    private long segmentSize;
+
+    // codec for compressing tiles on disk, or null for uncompressed data
+    private TileCodec codec;
+
+    // disk storage for tiles of images with a persistent key (null if not persistent)
+    private volatile MappedTileStore persistentStore;
+    private File persistentFolder;
+
+    // persistent keys of images (null if not persistent)
+    private final Map<RenderedImage, String> imageKeys;
+
     /**
      * Map of all cached tiles.
      */
@@ -227,29 +459,57 @@ public class DiskMemTileCache extends Observable implements TileCache {
     protected Map<Object, Raster> residentTiles;
 
     /**
-     * A tile comparator used to determine the priority of tiles for
-     * storage in memory.
+     * Tiles sorted according to the current tile priority comparator.
+     * 
+     * @deprecated The cache now orders memory-resident tiles with an
+     *     {@linkplain EvictionPolicy} and no longer maintains a sorted list.
+     *     This field is a read-only view of the resident tiles, sorted with
+     *     {@link #getTileComparator()} each time it is read, and is retained
+     *     only for compatibility with existing sub-classes.
+     */
+    @Deprecated
+    protected List<DiskCachedTile> sortedResidentTiles = new SortedResidentTilesView();
+
+    /**
+     * The policy used to determine the priority of tiles for
+     * storage in memory. Guarded by the eviction lock.
      */
-    private Comparator<CachedTile> comparator;
+    private EvictionPolicy evictionPolicy;
 
-    /* List of tile references that is sorted into tile priority order when
-     * required for memory swapping.
-     * <p>
-     * Implementation note: we use this in preference to a SortedSet or similar
-     * because of the complications of using the remove(obj) method with a sorted
-     * collection, where the comparator is used rather than the equals method.
+    /*
+     * Writable tiles which have been removed from memory but whose data
+     * are still being written to disk. A request for one of these tiles is
+     * served from here rather than by reading a partly written file.
      */
-    
-    /**
-     * Tiles sorted according to the current tile priority comparator.
+    private final ConcurrentMap<Object, EvictedTile> evictedTiles;
+
+    /*
+     * Tiles that are being read from disk ahead of requests. Entries are
+     * added, consumed and cancelled while holding the tile's stripe lock.
      */
-    protected List<DiskCachedTile> sortedResidentTiles;
+    private final ConcurrentMap<Object, ReadAheadTask> readAheadTiles;
+
+    // Background disk I/O (null if not enabled)
+    private final ExecutorService ioService;
+    
+    // Memory held by evicted tiles queued for writing
+    private final AtomicLong pendingWriteMemory = new AtomicLong(0);
+
+    // Activity counters and latencies
+    private final CacheMetrics metrics = new CacheMetrics();
+
+    // Name under which statistics are registered with JMX (null if not registered)
+    private ObjectName mbeanName;
 
     // whether to send cache diagnostics to observers
-    private boolean diagnosticsEnabled;
+    private volatile boolean diagnosticsEnabled;
+    private final Object diagnosticsLock = new Object();
     
-    // Lock for tile access
-    private final ReentrantLock tileLock = new ReentrantLock();
+    // Lock stripes for tile access
+    private final ReentrantLock[] tileLocks;
+
+    // Lock for memory accounting and the choice of tiles to remove from memory
+    private final ReentrantLock evictionLock = new ReentrantLock();
 
     // Variables used for auto-flushing of resident tiles
     private ScheduledExecutorService flushService;
@@ -263,6 +523,119 @@ public class DiskMemTileCache extends Observable implements TileCache {
     private ScheduledFuture tilePollingFuture;
     private long tilePollingInterval = DEFAULT_TILE_POLLING_INTERVAL; 
 
+
+    /**
+     * Read-only view of the memory-resident tiles presented through the
+     * deprecated {@code sortedResidentTiles} field. Each read takes a sorted
+     * snapshot, so this is only suitable for occasional use.
+     */
+    private final class SortedResidentTilesView extends AbstractList<DiskCachedTile> {
+        @Override
+        public DiskCachedTile get(int index) {
+            return snapshot().get(index);
+        }
+
+        @Override
+        public int size() {
+            return snapshot().size();
+        }
+
+        @Override
+        public Iterator<DiskCachedTile> iterator() {
+            return Collections.unmodifiableList(snapshot()).iterator();
+        }
+
+        @SuppressWarnings("unchecked")
+        private List<DiskCachedTile> snapshot() {
+            List<DiskCachedTile> list = new ArrayList<DiskCachedTile>();
+            for (Object key : residentTiles.keySet()) {
+                DiskCachedTile tile = tiles.get(key);
+                if (tile != null) {
+                    list.add(tile);
+                }
+            }
+            ComparatorEvictionPolicy.sort(list, getTileComparator());
+            return list;
+        }
+    }
+
+    /*
+     * A tile removed from memory together with the data that
+     * are to be written to disk.
+     */
+    private static final class EvictedTile {
+        final DiskCachedTile tile;
+        final Raster raster;
+
+        EvictedTile(DiskCachedTile tile, Raster raster) {
+            this.tile = tile;
+            this.raster = raster;
+        }
+    }
+
+    /*
+     * A read of tile data ahead of requests, together with the tile
+     * that it was scheduled for.
+     */
+    private final class ReadAheadTask extends FutureTask<Raster> {
+        final DiskCachedTile tile;
+
+        ReadAheadTask(final DiskCachedTile tile) {
+            super(new Callable<Raster>() {
+                public Raster call() throws Exception {
+                    return readTileData(tile);
+                }
+            });
+            this.tile = tile;
+        }
+    }
+
+
+    /*
+     * Publishes cache statistics to JMX.
+     */
+    private static final class StatisticsMBean implements TileCacheStatisticsMBean {
+        private final DiskMemTileCache cache;
+
+        StatisticsMBean(DiskMemTileCache cache) {
+            this.cache = cache;
+        }
+
+        public int getNumTiles() { return cache.getNumTiles(); }
+        public int getNumResidentTiles() { return cache.getNumResidentTiles(); }
+        public long getMemoryCapacity() { return cache.getMemoryCapacity(); }
+        public long getCurrentMemory() { return cache.getCurrentMemory(); }
+        public long getMemoryHits() { return stats().getMemoryHits(); }
+        public long getDiskHits() { return stats().getDiskHits(); }
+        public long getMisses() { return stats().getMisses(); }
+        public double getHitRatio() { return stats().getHitRatio(); }
+        public long getEvictions() { return stats().getEvictions(); }
+        public long getDiskReads() { return stats().getDiskReadLatency().getCount(); }
+        public long getDiskWrites() { return stats().getDiskWriteLatency().getCount(); }
+        public long getBytesRead() { return stats().getBytesRead(); }
+        public long getBytesWritten() { return stats().getBytesWritten(); }
+        public double getMeanDiskReadMicros() { return mean(stats().getDiskReadLatency()); }
+        public double getP99DiskReadMicros() { return p99(stats().getDiskReadLatency()); }
+        public double getMeanDiskWriteMicros() { return mean(stats().getDiskWriteLatency()); }
+        public double getP99DiskWriteMicros() { return p99(stats().getDiskWriteLatency()); }
+        public long getLockWaits() { return stats().getLockWaitLatency().getCount(); }
+        public double getMeanLockWaitMicros() { return mean(stats().getLockWaitLatency()); }
+        public double getP99LockWaitMicros() { return p99(stats().getLockWaitLatency()); }
+        public void resetStatistics() { cache.resetStatistics(); }
+
+        private CacheStatistics stats() {
+            return cache.getStatistics();
+        }
+
+        private static double mean(LatencyHistogram h) {
+            return h.getMeanNanos() / 1000;
+        }
+
+        private static double p99(LatencyHistogram h) {
+            return h.getPercentileNanos(99) / 1000.0;
+        }
+    }
+
     
     /**
      * Creates a new cache with all parameters set to their default values.
@@ -282,14 +655,54 @@ public class DiskMemTileCache extends Observable implements TileCache {
         }
 
         diagnosticsEnabled = false;
-        tiles = new HashMap<Object, DiskCachedTile>();
-        residentTiles = CollectionFactory.map();
         curMemory = 0L;
         memThreshold = DEFAULT_MEMORY_THRESHOLD;
 
         Object o;
         ParamDesc desc;
 
+        desc = paramDescriptors.get(KEY_CONCURRENCY_LEVEL);
+        int concurrency = ((Number)desc.defaultValue).intValue();
+        o = params.get(desc.key);
+        if (o != null) {
+            if (desc.typeOK(o)) {
+                int ival = ((Number)o).intValue();
+                if (ival > 0) {
+                    concurrency = ival;
+                }
+            }
+        }
+
+        int numStripes = 1;
+        while (numStripes < concurrency) {
+            numStripes <<= 1;
+        }
+        tileLocks = new ReentrantLock[numStripes];
+        for (int i = 0; i < numStripes; i++) {
+            tileLocks[i] = new ReentrantLock();
+        }
+
+        tiles = new ConcurrentHashMap<Object, DiskCachedTile>(16, 0.75f, numStripes);
+        residentTiles = new ConcurrentHashMap<Object, Raster>(16, 0.75f, numStripes);
+        evictedTiles = new ConcurrentHashMap<Object, EvictedTile>(16, 0.75f, numStripes);
+        readAheadTiles = new ConcurrentHashMap<Object, ReadAheadTask>(16, 0.75f, numStripes);
+
+        desc = paramDescriptors.get(KEY_IO_THREADS);
+        int ioThreads = ((Number)desc.defaultValue).intValue();
+        o = params.get(desc.key);
+        if (o != null) {
+            if (desc.typeOK(o)) {
+                ioThreads = ((Number)o).intValue();
+            }
+        }
+
+        if (ioThreads > 0) {
+            ioService = Executors.newFixedThreadPool(ioThreads, 
+                    new DaemonThreadFactory(Thread.NORM_PRIORITY, "cache-io"));
+        } else {
+            ioService = null;
+        }
+
         desc= paramDescriptors.get(KEY_INITIAL_MEMORY_CAPACITY);
         memCapacity = (Long)desc.defaultValue;
         o = params.get(desc.key);
@@ -308,6 +721,58 @@ public class DiskMemTileCache extends Observable implements TileCache {
             }
         }
 
+        desc = paramDescriptors.get(KEY_MAPPED_SEGMENT_SIZE);
+        segmentSize = ((Number)desc.defaultValue).longValue();
+        o = params.get(desc.key);
+        if (o != null) {
+            if (desc.typeOK(o)) {
+                segmentSize = ((Number)o).longValue();
+            }
+        }
+
+        desc = paramDescriptors.get(KEY_MAPPED_TILE_STORE);
+        o = params.get(desc.key);
+        if (o != null) {
+            if (desc.typeOK(o) && (Boolean)o) {
+                tileStore = new MappedTileStore(segmentSize);
+            }
+        }
+
+        desc = paramDescriptors.get(KEY_COMPRESS_DISK_TILES);
+        o = params.get(desc.key);
+        if (o != null) {
+            if (desc.typeOK(o) && (Boolean)o) {
+                desc = paramDescriptors.get(KEY_COMPRESSION_LEVEL);
+                int level = ((Number)desc.defaultValue).intValue();
+                o = params.get(desc.key);
+                if (o != null) {
+                    if (desc.typeOK(o)) {
+                        level = ((Number)o).intValue();
+                    }
+                }
+                codec = new TileCodec(level);
+            }
+        }
+
+        desc = paramDescriptors.get(KEY_PERSISTENT_FOLDER);
+        o = params.get(desc.key);
+        if (o != null) {
+            if (desc.typeOK(o)) {
+                persistentFolder = (File) o;
+                try {
+                    persistentStore = MappedTileStore.open(persistentFolder, segmentSize, codec != null);
+                } catch (IOException ex) {
+                    LOGGER.log(Level.SEVERE, "Unable to open persistent tile store", ex);
+                }
+            }
+        }
+
+        if (persistentStore != null) {
+            imageKeys = Collections.synchronizedMap(new WeakHashMap<RenderedImage, String>());
+        } else {
+            imageKeys = null;
+        }
+
         desc = paramDescriptors.get(KEY_AUTO_FLUSH_MEMORY_INTERVAL);
         autoFlushInterval = ((Number)desc.defaultValue).longValue();
         o = params.get(desc.key);
@@ -328,8 +793,7 @@ public class DiskMemTileCache extends Observable implements TileCache {
             }
         }
 
-        comparator = new TileAccessTimeComparator();
-        sortedResidentTiles = new ArrayList<DiskCachedTile>();
+        evictionPolicy = new LRUEvictionPolicy();
 
         tilePollingService = Executors.newSingleThreadScheduledExecutor(
                 new DaemonThreadFactory(Thread.MIN_PRIORITY, "cache-polling"));
@@ -364,83 +828,80 @@ public class DiskMemTileCache extends Observable implements TileCache {
                 Raster data,
                 Object tileCacheMetric) {
 
-        tileLock.lock();
+        okToFlush.set(false);
+        Object key = getTileId(owner, tileX, tileY);
+        List<EvictedTile> evicted = new ArrayList<EvictedTile>();
 
+        ReentrantLock lock = lockFor(key);
+        acquire(lock);
         try {
-            okToFlush.set(false);
-            Object key = getTileId(owner, tileX, tileY);
             if (tiles.containsKey(key)) {
                 // tile is already cached
                 return;
             }
 
+            // a pending read-ahead can only be for a tile that was removed
+            cancelReadAhead(key);
+
+            MappedTileStore store = key instanceof PersistentTileKey ? persistentStore : tileStore;
+            long t0 = System.nanoTime();
             DiskCachedTile tile = new DiskCachedTile(
-                    key, owner, tileX, tileY, data, writeNewTilesToDisk, tileCacheMetric);
+                    key, owner, tileX, tileY, data, writeNewTilesToDisk, tileCacheMetric, store, codec);
+            if (writeNewTilesToDisk) {
+                metrics.diskWrite(tile.getTileSize(), System.nanoTime() - t0);
+            }
             tiles.put(key, tile);
 
-            if ( makeResident(tile, data) ) {
-                tile.setAction(DiskCachedTile.TileAction.ACTION_ADDED_RESIDENT);
+            if ( makeResident(tile, data, evicted) ) {
+                setTileAction(tile, DiskCachedTile.TileAction.ACTION_ADDED_RESIDENT);
             } else {
-                tile.setAction(DiskCachedTile.TileAction.ACTION_ADDED);
-            }
-
-            if (diagnosticsEnabled) {
-                setChanged();
-                notifyObservers(tile);
+                setTileAction(tile, DiskCachedTile.TileAction.ACTION_ADDED);
             }
 
         } catch (IOException ex) {
             LOGGER.log(Level.SEVERE, "Unable to cache this tile on disk", ex);
             
         } finally {
-            tileLock.unlock();
+            lock.unlock();
         }
+
+        writeEvictedTiles(evicted);
     }
 
     /**
-     * Removes a tile from the cache.
+     * Removes a tile from the cache. If the tile's image has a persistent
+     * key, the tile's data are kept on disk for later sessions.
      * 
      * @param owner the image that this tile belongs to
      * @param tileX the tile column
      * @param tileY the tile row
      */
     public void remove(RenderedImage owner, int tileX, int tileY) {
-        tileLock.lock();
+        okToFlush.set(false);
+        Object key = getTileId(owner, tileX, tileY);
 
+        ReentrantLock lock = lockFor(key);
+        acquire(lock);
         try {
-            okToFlush.set(false);
-            Object key = getTileId(owner, tileX, tileY);
-            DiskCachedTile tile = tiles.get(key);
+            cancelReadAhead(key);
 
+            DiskCachedTile tile = tiles.get(key);
             if (tile == null) {
                 return;
             }
 
-            if (residentTiles.containsKey(key)) {
-                try {
-                    removeResidentTile(key, false);
-
-                } catch (DiskCacheFailedException ex) {
-                    /*
-                     * It would be nicer to just throw this exception
-                     * upwards but we can't in the overidden method
-                     */
-                    LOGGER.log(Level.SEVERE, null, ex);
-                }
+            Raster r = residentTiles.get(key);
+            if (releaseResidentTile(tile)) {
+                setTileAction(tile, DiskCachedTile.TileAction.ACTION_NON_RESIDENT);
             }
 
-            tile.deleteDiskCopy();
-
-            tile.setAction(DiskCachedTile.TileAction.ACTION_REMOVED);
-            if (diagnosticsEnabled) {
-                setChanged();
-                notifyObservers(tile);
-            }
+            disposeTile(tile, r);
+            setTileAction(tile, DiskCachedTile.TileAction.ACTION_REMOVED);
 
             tiles.remove(key);
             
         } finally {
-            tileLock.unlock();
+            lock.unlock();
         }
     }
 
@@ -455,53 +916,123 @@ public class DiskMemTileCache extends Observable implements TileCache {
      * @return the requested tile or {@code null} if the tile was not cached
      */
     public Raster getTile(RenderedImage owner, int tileX, int tileY) {
-        tileLock.lock();
+        okToFlush.set(false);
+        Object key = getTileId(owner, tileX, tileY);
 
-        try {
-            okToFlush.set(false);
-            Raster r = null;
-            Object key = getTileId(owner, tileX, tileY);
+        DiskCachedTile tile = tiles.get(key);
+        MappedTileStore ps = persistentStore;
+        if (tile == null && (ps == null || !ps.contains(key))) {
+            metrics.miss();
+            return null;
+        }
 
-            DiskCachedTile tile = tiles.get(key);
-            if (tile != null) {
+        // is the tile resident ?
+        Raster r = tile == null ? null : residentTiles.get(key);
+        if (r != null) {
+            metrics.memoryHit();
+
+            /*
+             * Only record the access with the eviction policy if that
+             * can be done without waiting
+             */
+            if (evictionLock.tryLock()) {
+                try {
+                    if (residentTiles.containsKey(key)) {
+                        evictionPolicy.touch(tile);
+                    }
+                } finally {
+                    evictionLock.unlock();
+                }
+            }
+
+        } else {
+            List<EvictedTile> evicted = new ArrayList<EvictedTile>();
+
+            ReentrantLock lock = lockFor(key);
+            acquire(lock);
+            try {
+                // check again now that we hold the lock
+                tile = tiles.get(key);
+                boolean reattached = false;
+                if (tile == null) {
+                    // the tile may have been stored in a previous session
+                    tile = reattachTile(owner, tileX, tileY, key);
+                    if (tile == null) {
+                        metrics.miss();
+                        return null;
+                    }
+                    reattached = true;
+                }
 
-                // is the tile resident ?
                 r = residentTiles.get(key);
-                if (r == null) {
+                if (r != null) {
+                    metrics.memoryHit();
+
+                } else {
                     /*
-                     * The tile is not resident. Attempt
-                     * to read it from the disk.
+                     * The tile is not resident. If it is still being
+                     * written to disk following eviction we take its
+                     * data from there; otherwise attempt to read it
+                     * from the disk.
                      */
-                    r = tile.readData();
+                    EvictedTile et = evictedTiles.get(key);
+                    ReadAheadTask readAhead = readAheadTiles.remove(key);
+                    if (readAhead != null && (et != null || readAhead.tile != tile)) {
+                        readAhead.cancel(false);
+                        readAhead = null;
+                    }
+                    
+                    if (et != null) {
+                        r = et.raster;
+                        metrics.memoryHit();
+                    } else if (readAhead != null) {
+                        /*
+                         * The I/O thread only runs the read while holding
+                         * the stripe lock, so the task is either finished 
+                         * or not yet started, in which case we run it here
+                         */
+                        readAhead.run();
+                        r = getReadAheadData(readAhead);
+                    } else {
+                        r = readTileData(tile);
+                    }
+
                     if (r == null) {
                         /* The tile was not cached on disk. It may have
                          * been resident only, and then flushed.
                          */
+                        if (reattached) {
+                            // discard unreadable data from a previous session
+                            tile.deleteDiskCopy();
+                        }
+                        metrics.miss();
                         return null;
                     }
 
-                    if (makeResident(tile, r)) {
-                        tile.setAction(DiskCachedTile.TileAction.ACTION_RESIDENT);
-                        if (diagnosticsEnabled) {
-                            setChanged();
-                            notifyObservers(tile);
-                        }
+                    if (et == null) {
+                        metrics.diskHit();
                     }
-                }
 
-                tile.setAction(DiskCachedTile.TileAction.ACTION_ACCESSED);
-                tile.setTileTimeStamp(System.currentTimeMillis());
+                    if (reattached) {
+                        tiles.put(key, tile);
+                    }
 
-                if (diagnosticsEnabled) {
-                    setChanged();
-                    notifyObservers(tile);
+                    if (makeResident(tile, r, evicted)) {
+                        setTileAction(tile, DiskCachedTile.TileAction.ACTION_RESIDENT);
+                    }
                 }
+
+            } finally {
+                lock.unlock();
             }
 
-            return r;
-        } finally {
-            tileLock.unlock();
+            writeEvictedTiles(evicted);
         }
+
+        tile.setTileTimeStamp(System.currentTimeMillis());
+        setTileAction(tile, DiskCachedTile.TileAction.ACTION_ACCESSED);
+
+        return r;
     }
 
     /**
@@ -512,50 +1043,29 @@ public class DiskMemTileCache extends Observable implements TileCache {
      * @return an array of tile Rasters
      */
     public Raster[] getTiles(RenderedImage owner) {
-        tileLock.lock();
-
-        try {
-            okToFlush.set(false);
-            int minX = owner.getMinTileX();
-            int minY = owner.getMinTileY();
-            int numX = owner.getNumXTiles();
-            int numY = owner.getNumYTiles();
-
-            List<Object> keys = new ArrayList<Object>();
-            for (int y = minY, ny = 0; ny < numY; y++, ny++) {
-                for (int x = minX, nx = 0; nx < numX; x++, nx++) {
-                    Object key = getTileId(owner, x, y);
-                    if (tiles.containsKey(key)) {
-                        keys.add(key);
-                    }
-                }
-            }
-
-            Raster[] rasters = new Raster[keys.size()];
-            int k = 0;
-            for (Object key : keys) {
-                DiskCachedTile tile = tiles.get(key);
-                Raster r = residentTiles.get(tile.getTileId());
-                if (r == null) {
-                    r = tile.readData();
-                    makeResident(tile, r);
-                }
-
-                rasters[k++] = r;
-
-                tile.setTileTimeStamp(System.currentTimeMillis());
-                tile.setAction(DiskCachedTile.TileAction.ACTION_ACCESSED);
-                if (diagnosticsEnabled) {
-                    setChanged();
-                    notifyObservers(tile);
+        okToFlush.set(false);
+        int minX = owner.getMinTileX();
+        int minY = owner.getMinTileY();
+        int numX = owner.getNumXTiles();
+        int numY = owner.getNumYTiles();
+
+        List<Point> indices = new ArrayList<Point>();
+        for (int y = minY, ny = 0; ny < numY; y++, ny++) {
+            for (int x = minX, nx = 0; nx < numX; x++, nx++) {
+                Object key = getTileId(owner, x, y);
+                if (tiles.containsKey(key)) {
+                    indices.add(new Point(x, y));
                 }
             }
+        }
 
-            return rasters;
-            
-        } finally {
-            tileLock.unlock();
+        Raster[] rasters = new Raster[indices.size()];
+        int k = 0;
+        for (Point p : indices) {
+            rasters[k++] = getTile(owner, p.x, p.y);
         }
+
+        return rasters;
     }
 
     /**
@@ -564,15 +1074,10 @@ public class DiskMemTileCache extends Observable implements TileCache {
      * @param owner the image owning the tiles to be removed
      */
     public void removeTiles(RenderedImage owner) {
-        tileLock.lock();
-        try {
-            for (int y = owner.getMinTileY(), ny = 0; ny < owner.getNumYTiles(); y++, ny++) {
-                for (int x = owner.getMinTileX(), nx = 0; nx < owner.getNumXTiles(); x++, nx++) {
-                    remove(owner, x, y);
-                }
+        for (int y = owner.getMinTileY(), ny = 0; ny < owner.getNumYTiles(); y++, ny++) {
+            for (int x = owner.getMinTileX(), nx = 0; nx < owner.getNumXTiles(); x++, nx++) {
+                remove(owner, x, y);
             }
-        } finally {
-            tileLock.unlock();
         }
     }
 
@@ -639,32 +1144,30 @@ public class DiskMemTileCache extends Observable implements TileCache {
      * garbage collected) and, if so, removes them from the cache.
      */
     private void removeNullTiles() {
-        if (!tileLock.tryLock()) {  // jumps the queue of waiting threads
-            return;
+        Set<Object> nullTileKeys = CollectionFactory.set();
+        for (Map.Entry<Object, DiskCachedTile> e : tiles.entrySet()) {
+            if (e.getValue().getOwner() == null) {
+                nullTileKeys.add(e.getKey());
+            }
         }
 
-        try {
-            Set<Object> nullTileKeys = CollectionFactory.set();
-            for (Object key : tiles.keySet()) {
-                DiskCachedTile tile = tiles.get(key);
-                if (tile.getOwner() == null) {
-                    nullTileKeys.add(key);
-                }
+        for (Object key : nullTileKeys) {
+            ReentrantLock lock = lockFor(key);
+            if (!lock.tryLock()) {  // leave it for the next poll
+                continue;
             }
 
-            for (Object key : nullTileKeys) {
-                DiskCachedTile tile = tiles.get(key);
-                tile.deleteDiskCopy();
-                if (residentTiles.containsKey(key)) {
-                    residentTiles.remove(key);
-                    sortedResidentTiles.remove(tile);
-                    curMemory -= tile.getTileSize();
+            try {
+                cancelReadAhead(key);
+                DiskCachedTile tile = tiles.remove(key);
+                if (tile != null) {
+                    Raster r = residentTiles.get(key);
+                    releaseResidentTile(tile);
+                    disposeTile(tile, r);
                 }
-                tiles.remove(key);
+            } finally {
+                lock.unlock();
             }
-
-        } finally {
-            tileLock.unlock();
         }
     }
 
@@ -687,14 +1190,14 @@ public class DiskMemTileCache extends Observable implements TileCache {
                     "tileIndices and tiles args must be the same length");
         }
 
-        tileLock.lock();
-        try {
-            for (int i = 0; i < tiles.length; i++) {
-                add(owner, tileIndices[i].x, tileIndices[i].y, tiles[i], tileCacheMetric);
+        for (int i = 0; i < tiles.length; i++) {
+            add(owner, tileIndices[i].x, tileIndices[i].y, tiles[i], tileCacheMetric);
+        }
+
+        if (ioService != null) {
+            for (Point p : getNeighbourIndices(owner, tileIndices)) {
+                readAhead(owner, p.x, p.y);
             }
-            
-        } finally {
-            tileLock.unlock();
         }
     }
 
@@ -707,49 +1210,207 @@ public class DiskMemTileCache extends Observable implements TileCache {
      * @return data for the requested tiles as Raster objects
      */
     public Raster[] getTiles(RenderedImage owner, Point[] tileIndices) {
-        tileLock.lock();
+        Raster[] r = null;
+
+        if (tileIndices.length > 0) {
+            if (ioService != null) {
+                /*
+                 * Start reading the requested tiles, other than the first, 
+                 * and their neighbours while we deal with the first tile
+                 */
+                for (int i = 1; i < tileIndices.length; i++) {
+                    readAhead(owner, tileIndices[i].x, tileIndices[i].y);
+                }
+                for (Point p : getNeighbourIndices(owner, tileIndices)) {
+                    readAhead(owner, p.x, p.y);
+                }
+            }
+
+            r = new Raster[tileIndices.length];
+            for (int i = 0; i < tileIndices.length; i++) {
+                r[i] = getTile(owner, tileIndices[i].x, tileIndices[i].y);
+            }
+        }
+
+        return r;
+    }
+
+    /**
+     * Gets the indices of tiles which neighbour those given and are 
+     * within the image's tile grid.
+     * 
+     * @param owner the image
+     * @param tileIndices indices of the tiles
+     * 
+     * @return neighbouring tile indices, excluding those in {@code tileIndices}
+     */
+    private Set<Point> getNeighbourIndices(RenderedImage owner, Point[] tileIndices) {
+        final int minX = owner.getMinTileX();
+        final int minY = owner.getMinTileY();
+        final int maxX = minX + owner.getNumXTiles() - 1;
+        final int maxY = minY + owner.getNumYTiles() - 1;
+
+        Set<Point> neighbours = CollectionFactory.orderedSet();
+        for (Point p : tileIndices) {
+            for (int y = Math.max(minY, p.y - 1); y <= Math.min(maxY, p.y + 1); y++) {
+                for (int x = Math.max(minX, p.x - 1); x <= Math.min(maxX, p.x + 1); x++) {
+                    neighbours.add(new Point(x, y));
+                }
+            }
+        }
+
+        for (Point p : tileIndices) {
+            neighbours.remove(p);
+        }
+
+        return neighbours;
+    }
+
+    /**
+     * Schedules a cached, non-resident tile to be read from disk into memory
+     * by a background I/O thread. Nothing is done if the tile is not cached,
+     * is resident or is already being read, or if there is not enough free
+     * memory to hold it without evicting other tiles.
+     * 
+     * @param owner the image that the tile belongs to
+     * @param tileX the tile column
+     * @param tileY the tile row
+     */
+    private void readAhead(RenderedImage owner, int tileX, int tileY) {
+        final Object key = getTileId(owner, tileX, tileY);
+        final DiskCachedTile tile = tiles.get(key);
+
+        if (tile == null || !tile.cachedToDisk() ||
+                residentTiles.containsKey(key) ||
+                evictedTiles.containsKey(key) ||
+                readAheadTiles.containsKey(key) ||
+                tile.getTileSize() > memCapacity - curMemory) {
+            return;
+        }
+
+        final ReadAheadTask task = new ReadAheadTask(tile);
+        if (readAheadTiles.putIfAbsent(key, task) == null) {
+            ioService.execute(new Runnable() {
+                public void run() {
+                    completeReadAhead(key, task);
+                }
+            });
+        }
+    }
+
+    /**
+     * Reads a tile ahead of requests and makes it resident, provided the 
+     * read has not been consumed or cancelled, the tile is still in the
+     * cache and not already resident, and there is free memory to hold it.
+     * The read is done while holding the tile's stripe lock so that the
+     * tile can not be removed, and its disk copy deleted, meanwhile.
+     */
+    private void completeReadAhead(Object key, ReadAheadTask task) {
+        List<EvictedTile> evicted = new ArrayList<EvictedTile>();
+        final DiskCachedTile tile = task.tile;
+        
+        ReentrantLock lock = lockFor(key);
+        acquire(lock);
         try {
-            Raster[] r = null;
+            if (readAheadTiles.get(key) != task) {
+                // consumed by getTile or cancelled
+                return;
+            }
             
-            if (tileIndices.length > 0) {
-                r = new Raster[tileIndices.length];
-                for (int i = 0; i < tileIndices.length; i++) {
-                    r[i] = getTile(owner, tileIndices[i].x, tileIndices[i].y);
+            if (tiles.get(key) == tile && 
+                    !residentTiles.containsKey(key) &&
+                    tile.getTileSize() <= memCapacity - curMemory) {
+                
+                task.run();
+                Raster r = getReadAheadData(task);
+                if (r != null && makeResident(tile, r, evicted)) {
+                    setTileAction(tile, DiskCachedTile.TileAction.ACTION_RESIDENT);
                 }
             }
+            
+        } finally {
+            readAheadTiles.remove(key, task);
+            lock.unlock();
+        }
 
-            return r;
+        writeEvictedTiles(evicted);
+    }
 
-        } finally {
-            tileLock.unlock();
+    /**
+     * Cancels and forgets any pending read-ahead of a tile. Must be 
+     * called while holding the tile's stripe lock.
+     */
+    private void cancelReadAhead(Object key) {
+        ReadAheadTask task = readAheadTiles.remove(key);
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * Waits for a tile being read ahead of requests.
+     * 
+     * @return the tile data or {@code null} if the read failed or was cancelled
+     */
+    private Raster getReadAheadData(FutureTask<Raster> task) {
+        try {
+            return task.get();
+            
+        } catch (CancellationException ex) {
+            return null;
+
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+
+        } catch (ExecutionException ex) {
+            LOGGER.log(Level.SEVERE, "Failed to read image tile data", ex.getCause());
+            return null;
         }
     }
 
     /**
      * Removes ALL tiles from the cache: all resident tiles will be
      * removed from memory and all files for disk-cached tiles will
-     * be discarded.
+     * be discarded. If the cache is using a mapped tile store its
+     * segment files are deleted. If the cache is persistent, this
+     * includes tiles stored in previous sessions.
      * <p>
      * The update action of each tile will be set to {@linkplain DiskCachedTile#ACTION_REMOVED}.
      */
     public void flush() {
-        tileLock.lock();
+        lockAllTiles();
 
         try {
             flushMemory();
+            evictedTiles.clear();
+
+            for (Object key : readAheadTiles.keySet()) {
+                cancelReadAhead(key);
+            }
 
             for (DiskCachedTile tile : tiles.values()) {
                 tile.deleteDiskCopy();
-                tile.setAction(DiskCachedTile.TileAction.ACTION_REMOVED);
-                if (diagnosticsEnabled) {
-                    setChanged();
-                    notifyObservers(tile);
-                }
+                setTileAction(tile, DiskCachedTile.TileAction.ACTION_REMOVED);
             }
             tiles.clear();
 
+            if (tileStore != null) {
+                tileStore.dispose();
+                tileStore = new MappedTileStore(segmentSize);
+            }
+
+            if (persistentStore != null) {
+                persistentStore.dispose();
+                try {
+                    persistentStore = MappedTileStore.open(persistentFolder, segmentSize, codec != null);
+                } catch (IOException ex) {
+                    LOGGER.log(Level.SEVERE, "Unable to re-create persistent tile store", ex);
+                }
+            }
+
         } finally {
-            tileLock.unlock();
+            unlockAllTiles();
         }
     }
 
@@ -758,14 +1419,14 @@ public class DiskMemTileCache extends Observable implements TileCache {
      * to disk is done.
      */
     public void flushMemory() {
-        tileLock.lock();
+        acquire(evictionLock);
         try {
             residentTiles.clear();
-            sortedResidentTiles.clear();
+            evictionPolicy.clear();
             curMemory = 0;
             
         } finally {
-            tileLock.unlock();
+            evictionLock.unlock();
         }
     }
 
@@ -776,25 +1437,41 @@ public class DiskMemTileCache extends Observable implements TileCache {
      * @see DiskMemTileCache#setMemoryThreshold(float)
      */
     public void memoryControl() {
-        tileLock.lock();
+        List<EvictedTile> evicted = new ArrayList<EvictedTile>();
+
+        acquire(evictionLock);
         try {
-            long maxUsed = (long) (memThreshold * memCapacity);
-            long toFree = curMemory - maxUsed;
-            if (toFree > 0) {
-                defaultMemoryControl(toFree);
-            }
+            thresholdMemoryControl(evicted);
         } finally {
-            tileLock.unlock();
+            evictionLock.unlock();
+        }
+
+        writeEvictedTiles(evicted);
+    }
+
+    /**
+     * Frees memory according to the memory threshold rule. Must be called
+     * while holding the eviction lock.
+     *
+     * @param evicted receives the writable tiles removed from memory
+     */
+    private void thresholdMemoryControl(List<EvictedTile> evicted) {
+        long maxUsed = (long) (memThreshold * memCapacity);
+        long toFree = curMemory - maxUsed;
+        if (toFree > 0) {
+            defaultMemoryControl(toFree, evicted);
         }
     }
 
     /**
      * Makes the requested amount of memory cache available, removing
-     * resident tiles as necessary.
+     * resident tiles as necessary. Must be called while holding the
+     * eviction lock.
      *
      * @param memRequired memory requested (bytes)
+     * @param evicted receives the writable tiles removed from memory
      */
-    private void defaultMemoryControl( long memRequired ) {
+    private void defaultMemoryControl( long memRequired, List<EvictedTile> evicted ) {
         if (memRequired > memCapacity) {
             // @todo something better than this...
             throw new RuntimeException("space required is greater than cache memory capacity");
@@ -804,19 +1481,8 @@ public class DiskMemTileCache extends Observable implements TileCache {
          * Remove one or more lowest priority tiles to free
          * space
          */
-        Collections.sort(sortedResidentTiles, comparator);
-        while (memCapacity - curMemory < memRequired && !sortedResidentTiles.isEmpty()) {
-            Object key = sortedResidentTiles.get(sortedResidentTiles.size()-1).getTileId();
-
-            try {
-                removeResidentTile(key, true);
-            } catch (DiskCacheFailedException ex) {
-                /*
-                 * It would be nicer to just throw this exception
-                 * upwards be we can't in the overidden method
-                 */
-                LOGGER.log(Level.SEVERE, null, ex);
-            }
+        while (memCapacity - curMemory < memRequired && !evictionPolicy.isEmpty()) {
+            evictResidentTile(evictionPolicy.nextVictim(), evicted);
         }
     }
 
@@ -848,14 +1514,15 @@ public class DiskMemTileCache extends Observable implements TileCache {
      * @param newCapacity requested memory capacity for resident tiles
      */
     public void setMemoryCapacity(long newCapacity) {
-        tileLock.lock();
+        if (newCapacity < 0) {
+            throw new IllegalArgumentException("memory capacity must be >= 0");
+        }
 
+        List<EvictedTile> evicted = new ArrayList<EvictedTile>();
+        
+        acquire(evictionLock);
         try {
             okToFlush.set(false);
-            if (newCapacity < 0) {
-                throw new IllegalArgumentException("memory capacity must be >= 0");
-            }
-
             long oldCapacity = memCapacity;
             memCapacity = newCapacity;
 
@@ -868,23 +1535,15 @@ public class DiskMemTileCache extends Observable implements TileCache {
                  * memoryControl or defaultMemoryControl methods because
                  * they will fail when memCapacity has been reduced
                  */
-                Collections.sort(sortedResidentTiles, comparator);
-                while (curMemory > newCapacity) {
-                    Object key = sortedResidentTiles.get(sortedResidentTiles.size() - 1).getTileId();
-                    try {
-                        removeResidentTile(key, true);
-                    } catch (DiskCacheFailedException ex) {
-                        /*
-                         * It would be nicer to just throw this exception
-                         * upwards be we can't in the overidden method
-                         */
-                        LOGGER.log(Level.SEVERE, null, ex);
-                    }
+                while (curMemory > newCapacity && !evictionPolicy.isEmpty()) {
+                    evictResidentTile(evictionPolicy.nextVictim(), evicted);
                 }
             }
         } finally {
-            tileLock.unlock();
+            evictionLock.unlock();
         }
+
+        writeEvictedTiles(evicted);
     }
 
     /**
@@ -943,40 +1602,78 @@ public class DiskMemTileCache extends Observable implements TileCache {
 
     /**
      * Sets the comparator to use to assign memory-residence priority to
-     * tiles. If {@code comp} is {@code null} the default comparator
-     * ({@link TileAccessTimeComparator}) will be used.
+     * tiles. The cache will then use a {@linkplain ComparatorEvictionPolicy}.
+     * If {@code comp} is {@code null} the default policy 
+     * ({@link LRUEvictionPolicy}), which orders tiles by access in the same
+     * way as {@link TileAccessTimeComparator}, will be used.
      * 
      * @param comp the comparator or {@code null} for the default
      */
     public void setTileComparator(Comparator comp) {
-        tileLock.lock();
-        try {
-            if (comp == null) {
-                // switch to default comparator based on tile access time
-                comparator = new TileAccessTimeComparator();
-            } else {
-                comparator = comp;
-            }
+        if (comp == null) {
+            setEvictionPolicy(null);
+        } else {
+            setEvictionPolicy(new ComparatorEvictionPolicy(comp));
+        }
+    }
+
+    /**
+     * Gets the comparator currently used to assign memory-residence
+     * priority to tiles. If the cache is not using a 
+     * {@linkplain ComparatorEvictionPolicy} this method returns a 
+     * {@link TileAccessTimeComparator}.
+     * 
+     * @return the current comparator
+     */
+    public Comparator getTileComparator() {
+        EvictionPolicy policy = getEvictionPolicy();
+        if (policy instanceof ComparatorEvictionPolicy) {
+            return ((ComparatorEvictionPolicy) policy).getComparator();
+        }
+        return new TileAccessTimeComparator();
+    }
+
+    /**
+     * Sets the policy used to choose which tiles to remove from memory.
+     * Tiles that are currently resident are passed to the new policy.
+     * 
+     * @param policy the new policy or {@code null} for the default
+     *        ({@link LRUEvictionPolicy})
+     */
+    public void setEvictionPolicy(EvictionPolicy policy) {
+        if (policy == null) {
+            policy = new LRUEvictionPolicy();
+        }
 
-            sortedResidentTiles = new ArrayList<DiskCachedTile>();
+        acquire(evictionLock);
+        try {
+            policy.clear();
             for (Object key : residentTiles.keySet()) {
-                sortedResidentTiles.addAll(tiles.values());
+                DiskCachedTile tile = tiles.get(key);
+                if (tile != null) {
+                    policy.add(tile);
+                }
             }
-            Collections.sort(sortedResidentTiles, comparator);
+            evictionPolicy = policy;
             
         } finally {
-            tileLock.unlock();
+            evictionLock.unlock();
         }
     }
 
     /**
-     * Gets the comparator currently used to assign memory-residence
-     * priority to tiles.
+     * Gets the policy currently used to choose which tiles to remove
+     * from memory.
      * 
-     * @return the current comparator
+     * @return the current policy
      */
-    public Comparator getTileComparator() {
-        return comparator;
+    public EvictionPolicy getEvictionPolicy() {
+        acquire(evictionLock);
+        try {
+            return evictionPolicy;
+        } finally {
+            evictionLock.unlock();
+        }
     }
 
     /**
@@ -998,6 +1695,16 @@ public class DiskMemTileCache extends Observable implements TileCache {
         return residentTiles.size();
     }
 
+    /**
+     * Gets the number of lock stripes used to guard tile access.
+     * 
+     * @return the concurrency level
+     * @see #KEY_CONCURRENCY_LEVEL
+     */
+    public int getConcurrencyLevel() {
+        return tileLocks.length;
+    }
+
     /**
      * Checks whether a given tile is in this cache.
      * 
@@ -1045,10 +1752,12 @@ public class DiskMemTileCache extends Observable implements TileCache {
     public void setTileChanged(RenderedImage owner, int tileX, int tileY)
             throws TileNotResidentException, DiskCacheFailedException {
 
-        tileLock.lock();
+        okToFlush.set(false);
+        Object tileId = getTileId(owner, tileX, tileY);
+
+        ReentrantLock lock = lockFor(tileId);
+        acquire(lock);
         try {
-            okToFlush.set(false);
-            Object tileId = getTileId(owner, tileX, tileY);
             Raster r = residentTiles.get(tileId);
             if (r == null) {
                 throw new TileNotResidentException(owner, tileX, tileY);
@@ -1057,14 +1766,14 @@ public class DiskMemTileCache extends Observable implements TileCache {
             DiskCachedTile tile = tiles.get(tileId);
             if (tile.cachedToDisk()) {
                 try {
-                    tile.writeData(r);
+                    writeTileData(tile, r);
                 } catch (IOException ioEx) {
                     throw new DiskCacheFailedException(owner, tileX, tileY);
                 }
             }
             
         } finally {
-            tileLock.unlock();
+            lock.unlock();
         }
     }
 
@@ -1147,6 +1856,157 @@ public class DiskMemTileCache extends Observable implements TileCache {
         diagnosticsEnabled = state;
     }
 
+    /**
+     * Sets the persistent key for an image. Tiles of the image will be stored
+     * under this key in the cache's persistent folder and, after {@linkplain #persist()}
+     * has been called, can be retrieved by a cache created on the same folder
+     * in a later session for an image given the same key. The key should be set
+     * before any tiles of the image are cached.
+     * <p>
+     * The image should be the one that JAI passes to the cache. If it is a
+     * {@code RenderedOp} its rendering is used instead.
+     * 
+     * @param image the image
+     * @param key the key, or {@code null} to stop treating the image as persistent
+     * 
+     * @throws IllegalStateException if this cache is not persistent
+     * @see #KEY_PERSISTENT_FOLDER
+     */
+    public void setPersistentImageKey(RenderedImage image, String key) {
+        if (imageKeys == null) {
+            throw new IllegalStateException("cache was not created with a persistent folder");
+        }
+
+        if (image instanceof RenderedOp) {
+            image = ((RenderedOp) image).getRendering();
+        }
+
+        if (key == null) {
+            imageKeys.remove(image);
+        } else {
+            imageKeys.put(image, key);
+        }
+    }
+
+    /**
+     * Gets the persistent key set for an image.
+     * 
+     * @param image the image
+     * @return the key or {@code null} if none has been set
+     */
+    public String getPersistentImageKey(RenderedImage image) {
+        if (imageKeys == null) {
+            return null;
+        }
+
+        if (image instanceof RenderedOp) {
+            image = ((RenderedOp) image).getRendering();
+        }
+        return imageKeys.get(image);
+    }
+
+    /**
+     * Checks whether this cache was created with a persistent folder.
+     * 
+     * @return {@code true} if persistent; {@code false} otherwise
+     */
+    public boolean isPersistent() {
+        return persistentStore != null;
+    }
+
+    /**
+     * Writes the data of all cached tiles of images with a persistent key to
+     * disk and saves the index of the persistent folder, so that the tiles can
+     * be retrieved in later sessions. Tiles cached after this method returns
+     * will not be found in later sessions unless it is called again. It should
+     * be called while other threads are not using the cache, e.g. when an
+     * application is shutting down.
+     * 
+     * @throws IOException on failure to write tile data or the index
+     * @throws IllegalStateException if this cache is not persistent
+     */
+    public void persist() throws IOException {
+        lockAllTiles();
+        try {
+            MappedTileStore store = persistentStore;
+            if (store == null) {
+                throw new IllegalStateException("cache was not created with a persistent folder");
+            }
+
+            for (DiskCachedTile tile : tiles.values()) {
+                Object key = tile.getTileId();
+                if (key instanceof PersistentTileKey) {
+                    Raster r = residentTiles.get(key);
+                    if (r == null) {
+                        EvictedTile et = evictedTiles.get(key);
+                        r = et != null ? et.raster : null;
+                    }
+
+                    if (r != null && (tile.isWritable() || !tile.cachedToDisk())) {
+                        writeTileData(tile, r);
+                    }
+                }
+            }
+
+            store.saveIndex(codec != null);
+
+        } finally {
+            unlockAllTiles();
+        }
+    }
+
+    /**
+     * Gets a snapshot of the cache's activity counters and latency histograms.
+     * 
+     * @return the current statistics
+     */
+    public CacheStatistics getStatistics() {
+        return metrics.snapshot();
+    }
+
+    /**
+     * Sets all of the cache's activity counters and latency histograms to zero.
+     */
+    public void resetStatistics() {
+        metrics.reset();
+    }
+
+    /**
+     * Registers the cache's statistics with the platform MBean server as a
+     * {@linkplain TileCacheStatisticsMBean}. If the statistics are already
+     * registered under another name they are unregistered first.
+     * 
+     * @param name the object name, e.g. 
+     *        {@code new ObjectName("org.jaitools:type=DiskMemTileCache,name=myCache")}
+     * 
+     * @throws JMException if registration fails
+     */
+    public synchronized void registerMBean(ObjectName name) throws JMException {
+        if (name == null) {
+            throw new IllegalArgumentException("name must not be null");
+        }
+
+        unregisterMBean();
+        StandardMBean mbean = new StandardMBean(
+                new StatisticsMBean(this), TileCacheStatisticsMBean.class);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, name);
+        mbeanName = name;
+    }
+
+    /**
+     * Unregisters the cache's statistics from the platform MBean server.
+     * Does nothing if they are not registered.
+     * 
+     * @throws JMException if unregistration fails
+     */
+    public synchronized void unregisterMBean() throws JMException {
+        if (mbeanName != null) {
+            ObjectName name = mbeanName;
+            mbeanName = null;
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+    }
+
     /**
      * Accepts a {@code DiskMemCacheVisitor} object and calls its
      * {@code visit} method for each tile in the cache.
@@ -1154,85 +2014,290 @@ public class DiskMemTileCache extends Observable implements TileCache {
      * @param visitor the visitor
      */
     public void accept(DiskMemTileCacheVisitor visitor) {
-        tileLock.lock();
+        lockAllTiles();
         try {
             okToFlush.set(false);
             for (Object key : tiles.keySet()) {
                 visitor.visit(tiles.get(key), residentTiles.containsKey(key));
             }
         } finally {
-            tileLock.unlock();
+            unlockAllTiles();
         }
     }
 
     /**
-     * Adds a raster to those resident in memory.
+     * Adds a raster to those resident in memory. Must be called while
+     * holding the lock for the tile.
+     *
+     * @param tile the tile
+     * @param data the tile's data
+     * @param evicted receives any writable tiles removed from memory to 
+     *        make room for this one; the caller should pass these to 
+     *        {@link #writeEvictedTiles(List)} once it has released its lock
+     * 
+     * @return {@code true} if the tile was made resident; {@code false} if
+     *         it is too large for the cache's memory capacity
      */
-    private boolean makeResident(DiskCachedTile tile, Raster data) {
-        if (tile.getTileSize() > memCapacity) {
-            return false;
+    private boolean makeResident(DiskCachedTile tile, Raster data, List<EvictedTile> evicted) {
+        acquire(evictionLock);
+        try {
+            if (tile.getTileSize() > memCapacity) {
+                return false;
+            }
+
+            if (tile.getTileSize() > memCapacity - curMemory) {
+                thresholdMemoryControl(evicted);
+
+                /*
+                 * It is possible that the threshold rule fails to
+                 * free enough memory for the tile
+                 */
+                if (tile.getTileSize() > memCapacity - curMemory) {
+                    defaultMemoryControl(tile.getTileSize(), evicted);
+                }
+            }
+
+            residentTiles.put(tile.getTileId(), data);
+            curMemory += tile.getTileSize();
+            evictionPolicy.add(tile);
+
+            return true;
+
+        } finally {
+            evictionLock.unlock();
         }
-        
-        if (tile.getTileSize() > memCapacity - curMemory) {
-            memoryControl();
+    }
+
 
+    /**
+     * Removes a tile from the cache's memory storage to free space for 
+     * other tiles. If the tile is writable, ie. its data are represented
+     * by a WritableRaster, it is added to the list of tiles to be written
+     * to disk again. Must be called while holding the eviction lock.
+     *
+     * @param tile the tile
+     * @param evicted receives the tile if it is writable
+     */
+    private void evictResidentTile(DiskCachedTile tile, List<EvictedTile> evicted) {
+        Object key = tile.getTileId();
+        Raster raster = residentTiles.get(key);
+
+        if (raster != null && tile.isWritable()) {
             /*
-             * It is possible that the threshold rule fails to
-             * free enough memory for the tile
+             * Record the tile as evicted before removing it from the
+             * resident map so that a concurrent request will always
+             * find its data in one or the other
              */
-            if (tile.getTileSize() > memCapacity - curMemory) {
-                defaultMemoryControl(tile.getTileSize());
+            EvictedTile et = new EvictedTile(tile, raster);
+            evictedTiles.put(key, et);
+            evicted.add(et);
+        }
+
+        if (releaseResidentTile(tile)) {
+            metrics.eviction();
+        }
+        setTileAction(tile, DiskCachedTile.TileAction.ACTION_NON_RESIDENT);
+    }
+
+    /**
+     * Removes a tile from the cache's memory storage without writing its
+     * data to disk.
+     *
+     * @param tile the tile
+     * @return {@code true} if the tile was resident; {@code false} otherwise
+     */
+    private boolean releaseResidentTile(DiskCachedTile tile) {
+        acquire(evictionLock);
+        try {
+            if (residentTiles.remove(tile.getTileId()) != null) {
+                evictionPolicy.remove(tile);
+                curMemory -= tile.getTileSize();
+                return true;
             }
+            return false;
+
+        } finally {
+            evictionLock.unlock();
         }
-        
-        residentTiles.put(tile.getTileId(), data);
-        curMemory += tile.getTileSize();
+    }
 
-        /*
-         * We don't bother about sort order here. Instead, the list
-         * will be sorted by tile priority when resident tiles are
-         * being removed
-         */
-        sortedResidentTiles.add(tile);
+    /**
+     * Writes the data of tiles that have been removed from memory to disk.
+     * This is called without holding any of the cache's locks.
+     * <p>
+     * If background I/O is enabled, the writes are queued unless the memory 
+     * held by tiles already waiting to be written exceeds the cache's memory
+     * capacity, in which case the calling thread writes the tiles itself.
+     *
+     * @param evicted the tiles to write
+     */
+    private void writeEvictedTiles(List<EvictedTile> evicted) {
+        for (final EvictedTile et : evicted) {
+            if (ioService != null && pendingWriteMemory.get() < memCapacity) {
+                pendingWriteMemory.addAndGet(et.tile.getTileSize());
+                ioService.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            writeEvictedTile(et);
+                        } finally {
+                            pendingWriteMemory.addAndGet(-et.tile.getTileSize());
+                        }
+                    }
+                });
+
+            } else {
+                writeEvictedTile(et);
+            }
+        }
+    }
 
-        return true;
+    /**
+     * Writes the data of a tile that has been removed from memory to disk.
+     *
+     * @param et the tile to write
+     */
+    private void writeEvictedTile(EvictedTile et) {
+        try {
+            writeTileData(et.tile, et.raster);
+        } catch (IOException ioEx) {
+            /*
+             * It would be nicer to just throw this exception
+             * upwards but we can't in the overidden method
+             */
+            LOGGER.log(Level.SEVERE, null, new DiskCacheFailedException(
+                    et.tile.getOwner(), et.tile.getTileX(), et.tile.getTileY()));
+        } finally {
+            evictedTiles.remove(et.tile.getTileId(), et);
+        }
     }
 
+    /**
+     * Writes a tile's data to disk, recording the time taken.
+     *
+     * @param tile the tile
+     * @param r the tile's data
+     * @throws IOException on failure to write the data
+     */
+    private void writeTileData(DiskCachedTile tile, Raster r) throws IOException {
+        long t0 = System.nanoTime();
+        tile.writeData(r);
+        metrics.diskWrite(tile.getTileSize(), System.nanoTime() - t0);
+    }
 
     /**
-     * Removes a tile from the cache's memory storage. This may be to free
-     * space for other tiles, in which case {@code writeData} will be
-     * set to {@code true} and, if the tile is writable, a request is made to write
-     * its data to disk again. If the tile is being removed from the cache
-     * entirely, this method will be called with {@code writeData} set
-     * to {@code false}.
+     * Deals with the disk copy of a tile being removed from the cache. 
+     * For a tile of an image with a persistent key, the latest data are
+     * written to disk and kept there for later sessions; otherwise the disk
+     * copy is deleted. Must be called while holding the lock for the tile,
+     * after it has been removed from memory.
      *
-     * @param tileId the tile's unique id
-     * @param writeData if {@code true}, and the tile is writable, its data will be
-     * written to disk again; otherwise no writing is done.
-     */
-    private void removeResidentTile(Object tileId, boolean writeData) throws DiskCacheFailedException {
-        DiskCachedTile tile = tiles.get(tileId);
-        Raster raster = residentTiles.remove(tileId);
-        sortedResidentTiles.remove(tile);
-        curMemory -= tile.getTileSize();
-
-        /**
-         * If the tile is writable, ie. its data are represented
-         * by a WritableRaster, we cache it to disk
-         */
-        if (writeData && tile.isWritable()) {
-            try {
-                tile.writeData(raster);
-            } catch (IOException ioEx) {
-                throw new DiskCacheFailedException(tile.getOwner(), tile.getTileX(), tile.getTileY());
+     * @param tile the tile
+     * @param resident the tile's data if it was resident, otherwise {@code null}
+     */
+    private void disposeTile(DiskCachedTile tile, Raster resident) {
+        EvictedTile et = evictedTiles.remove(tile.getTileId());
+
+        if (tile.getTileId() instanceof PersistentTileKey) {
+            Raster r = resident != null ? resident : (et != null ? et.raster : null);
+            if (r != null && (tile.isWritable() || !tile.cachedToDisk())) {
+                try {
+                    writeTileData(tile, r);
+                } catch (IOException ex) {
+                    LOGGER.log(Level.SEVERE, "Unable to store persistent tile " + tile.getTileId(), ex);
+                }
             }
+            tile.release();
+
+        } else {
+            tile.deleteDiskCopy();
+        }
+    }
+
+    /**
+     * Creates a tile for data stored in the persistent store, e.g. in a
+     * previous session. The tile is not added to the cache.
+     *
+     * @return the tile or {@code null} if the key is not persistent or
+     *         the store holds no data for it
+     */
+    private DiskCachedTile reattachTile(RenderedImage owner, int tileX, int tileY, Object key) {
+        MappedTileStore store = persistentStore;
+        if (key instanceof PersistentTileKey && store != null && store.contains(key)) {
+            return new DiskCachedTile((PersistentTileKey) key, owner, tileX, tileY, null, store, codec);
+        }
+        return null;
+    }
+
+    /**
+     * Reads a tile's data from disk, recording the time taken.
+     *
+     * @param tile the tile
+     * @return the tile data or {@code null} if the tile is not cached on disk
+     */
+    private Raster readTileData(DiskCachedTile tile) {
+        long t0 = System.nanoTime();
+        Raster r = tile.readData();
+        if (r != null) {
+            metrics.diskRead(tile.getTileSize(), System.nanoTime() - t0);
         }
+        return r;
+    }
 
-        tile.setAction(DiskCachedTile.TileAction.ACTION_NON_RESIDENT);
+    /**
+     * Sets the most recent action for a tile and, if diagnostics are enabled,
+     * publishes the tile to Observers.
+     *
+     * @param tile the tile
+     * @param action the action
+     */
+    private void setTileAction(DiskCachedTile tile, DiskCachedTile.TileAction action) {
         if (diagnosticsEnabled) {
-            setChanged();
-            notifyObservers(tile);
+            synchronized (diagnosticsLock) {
+                tile.setAction(action);
+                setChanged();
+                notifyObservers(tile);
+            }
+        } else {
+            tile.setAction(action);
+        }
+    }
+
+    /**
+     * Acquires a lock, recording the time spent waiting if it is not
+     * immediately available.
+     */
+    private void acquire(ReentrantLock lock) {
+        if (!lock.tryLock()) {
+            long t0 = System.nanoTime();
+            lock.lock();
+            metrics.lockWait(System.nanoTime() - t0);
+        }
+    }
+
+    /**
+     * Gets the lock stripe for the given tile key.
+     */
+    private ReentrantLock lockFor(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return tileLocks[h & (tileLocks.length - 1)];
+    }
+
+    /**
+     * Acquires all lock stripes, in order.
+     */
+    private void lockAllTiles() {
+        for (int i = 0; i < tileLocks.length; i++) {
+            acquire(tileLocks[i]);
+        }
+    }
+
+    /**
+     * Releases all lock stripes.
+     */
+    private void unlockAllTiles() {
+        for (int i = tileLocks.length - 1; i >= 0; i--) {
+            tileLocks[i].unlock();
         }
     }
     
@@ -1241,7 +2306,8 @@ public class DiskMemTileCache extends Observable implements TileCache {
      * Generates a unique ID for this tile. This uses the same technique as the
      * Sun memory cache implementation: putting the id of the owning image
      * into the upper bytes of a long or BigInteger value and the tile index into
-     * the lower bytes.
+     * the lower bytes. For an image with a persistent key, the ID combines that
+     * key with the tile index.
      * @param owner the owning image
      * @param tileX tile column
      * @param tileY tile row
@@ -1251,6 +2317,13 @@ public class DiskMemTileCache extends Observable implements TileCache {
                               int tileX,
                               int tileY) {
 
+        if (imageKeys != null) {
+            String imageKey = imageKeys.get(owner);
+            if (imageKey != null) {
+                return new PersistentTileKey(imageKey, tileX, tileY);
+            }
+        }
+
         long tileId = tileY * (long)owner.getNumXTiles() + tileX;
 
         BigInteger imageId = null;
@@ -0,0 +1,89 @@
+/* 
+ *  Copyright (c) 2013, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.tilecache;
+
+/**
+ * Determines which memory-resident tiles are removed from memory first when
+ * a {@linkplain DiskMemTileCache} needs space for other tiles.
+ * <p>
+ * The cache notifies the policy as tiles become resident, are accessed and are
+ * removed from memory. All methods are called while the cache holds its eviction
+ * lock, so implementations do not need to be thread-safe. To avoid contention,
+ * the cache may skip calls to {@link #touch(DiskCachedTile)} when the lock is
+ * busy, so policies should treat access information as approximate.
+ *
+ * @see LRUEvictionPolicy
+ * @see ComparatorEvictionPolicy
+ * 
+ * @author Michael Bedward
+ * @since 1.5
+ * @version $Id$
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Called when a tile becomes resident in memory.
+     * 
+     * @param tile the tile
+     */
+    public void add(DiskCachedTile tile);
+
+    /**
+     * Called when a memory-resident tile is accessed.
+     * 
+     * @param tile the tile
+     */
+    public void touch(DiskCachedTile tile);
+
+    /**
+     * Called when a tile is removed from memory.
+     * 
+     * @param tile the tile
+     */
+    public void remove(DiskCachedTile tile);
+
+    /**
+     * Gets the resident tile with the lowest priority. The tile is not
+     * removed from the policy: the cache will call {@link #remove(DiskCachedTile)}
+     * if it evicts the tile.
+     * 
+     * @return the lowest priority tile or {@code null} if there are no tiles
+     */
+    public DiskCachedTile nextVictim();
+
+    /**
+     * Removes all tiles from the policy.
+     */
+    public void clear();
+
+    /**
+     * Tests if the policy holds any tiles.
+     * 
+     * @return {@code true} if there are no tiles; {@code false} otherwise
+     */
+    public boolean isEmpty();
+
+}
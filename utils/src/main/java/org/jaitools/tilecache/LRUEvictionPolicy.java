@@ -0,0 +1,76 @@
+/* 
+ *  Copyright (c) 2013, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.tilecache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An eviction policy which removes the least recently used tile first.
+ * Tiles are held in an access-ordered linked map so that adding, accessing,
+ * removing and selecting tiles all take constant time regardless of the
+ * number of resident tiles. This is the default policy for
+ * {@linkplain DiskMemTileCache}.
+ *
+ * @see TileAccessTimeComparator
+ * 
+ * @author Michael Bedward
+ * @since 1.5
+ * @version $Id$
+ */
+public class LRUEvictionPolicy implements EvictionPolicy {
+
+    private final Map<Object, DiskCachedTile> tiles = 
+            new LinkedHashMap<Object, DiskCachedTile>(16, 0.75f, true);
+
+    public void add(DiskCachedTile tile) {
+        tiles.put(tile.getTileId(), tile);
+    }
+
+    public void touch(DiskCachedTile tile) {
+        // access ordering moves the entry to the tail of the map
+        tiles.get(tile.getTileId());
+    }
+
+    public void remove(DiskCachedTile tile) {
+        tiles.remove(tile.getTileId());
+    }
+
+    public DiskCachedTile nextVictim() {
+        Iterator<DiskCachedTile> iter = tiles.values().iterator();
+        return iter.hasNext() ? iter.next() : null;
+    }
+
+    public void clear() {
+        tiles.clear();
+    }
+
+    public boolean isEmpty() {
+        return tiles.isEmpty();
+    }
+
+}
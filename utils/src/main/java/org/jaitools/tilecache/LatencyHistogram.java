@@ -0,0 +1,181 @@
+/* 
+ *  Copyright (c) 2013, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.tilecache;
+
+/**
+ * A snapshot of the distribution of latencies recorded by a 
+ * {@linkplain DiskMemTileCache}, for example for disk reads or for
+ * waiting on cache locks. Latencies are counted in buckets whose upper
+ * bounds are successive powers of 2 nanoseconds, so percentiles are
+ * reported to within a factor of 2.
+ * <p>
+ * Instances are immutable and are obtained from {@linkplain CacheStatistics}.
+ *
+ * @author Michael Bedward
+ * @since 1.5
+ * @version $Id$
+ */
+public final class LatencyHistogram {
+
+    /** Number of buckets: one for zero and one for each bit length of a long. */
+    static final int NUM_BUCKETS = 64;
+
+    private final long[] counts;
+    private final long count;
+    private final long totalNanos;
+    private final long maxNanos;
+
+    /**
+     * Creates a new histogram.
+     * 
+     * @param counts bucket counts (copied)
+     * @param totalNanos sum of all recorded latencies
+     * @param maxNanos the largest recorded latency
+     */
+    LatencyHistogram(long[] counts, long totalNanos, long maxNanos) {
+        this.counts = new long[NUM_BUCKETS];
+        System.arraycopy(counts, 0, this.counts, 0, NUM_BUCKETS);
+
+        long n = 0;
+        for (long c : counts) {
+            n += c;
+        }
+        this.count = n;
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+    }
+
+    /**
+     * Gets the index of the bucket for a latency value.
+     * 
+     * @param nanos latency in nanoseconds
+     * @return bucket index
+     */
+    static int bucketFor(long nanos) {
+        return nanos <= 0 ? 0 : NUM_BUCKETS - Long.numberOfLeadingZeros(nanos);
+    }
+
+    /**
+     * Gets the largest latency value counted in the given bucket.
+     * 
+     * @param bucket bucket index
+     * @return upper bound in nanoseconds
+     */
+    static long bucketUpperBound(int bucket) {
+        if (bucket <= 0) {
+            return 0;
+        } else if (bucket >= NUM_BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+        return (1L << bucket) - 1;
+    }
+
+    /**
+     * Gets the number of recorded latencies.
+     * 
+     * @return number of values
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the sum of recorded latencies.
+     * 
+     * @return total in nanoseconds
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * Gets the mean of recorded latencies.
+     * 
+     * @return mean in nanoseconds or 0 if no values have been recorded
+     */
+    public double getMeanNanos() {
+        return count == 0 ? 0 : (double) totalNanos / count;
+    }
+
+    /**
+     * Gets the largest recorded latency.
+     * 
+     * @return maximum in nanoseconds
+     */
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * Gets an upper bound for the given percentile of recorded latencies.
+     * The value returned is the upper bound of the bucket containing the
+     * percentile, or the maximum recorded latency if that is smaller.
+     * 
+     * @param percentile the percentile (0 - 100)
+     * @return the latency in nanoseconds or 0 if no values have been recorded
+     * 
+     * @throws IllegalArgumentException if {@code percentile} is out of range
+     */
+    public long getPercentileNanos(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long n = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            n += counts[i];
+            if (n >= rank) {
+                return Math.min(bucketUpperBound(i), maxNanos);
+            }
+        }
+        return maxNanos;
+    }
+
+    /**
+     * Gets the bucket counts. Bucket 0 holds latencies of zero; bucket
+     * {@code i > 0} holds latencies from 2<sup>i-1</sup> to
+     * 2<sup>i</sup>-1 nanoseconds.
+     * 
+     * @return a copy of the bucket counts
+     */
+    public long[] getBucketCounts() {
+        long[] copy = new long[NUM_BUCKETS];
+        System.arraycopy(counts, 0, copy, 0, NUM_BUCKETS);
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("n=%d mean=%.1fus p99=%.1fus max=%.1fus",
+                count, getMeanNanos() / 1000, 
+                getPercentileNanos(99) / 1000.0, maxNanos / 1000.0);
+    }
+
+}
@@ -0,0 +1,836 @@
+/* 
+ *  Copyright (c) 2013, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.tilecache;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferDouble;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Disk storage for the tiles of a {@linkplain DiskMemTileCache} which holds the
+ * data of all tiles in a small number of pre-sized segment files, rather than
+ * one temporary file per tile. Segment files are memory-mapped and tile data
+ * are copied directly between the mapped buffers and the bank arrays of 
+ * the tile's {@code DataBuffer}.
+ * <p>
+ * Space within segments is allocated in slots. Slot sizes are rounded up to
+ * one of a series of size classes so that the slot of a tile that has been
+ * removed from the cache can be re-used for other tiles of similar size.
+ * <p>
+ * Reads and writes for a given tile must be serialized by the caller, which
+ * {@linkplain DiskCachedTile} does. Operations on different tiles may proceed
+ * concurrently.
+ * <p>
+ * Segment files are created in the folder returned by 
+ * {@linkplain DiskCachedTile#getCacheFolder()} and are deleted when the 
+ * store is disposed of or, failing that, when the JVM exits.
+ * <p>
+ * A persistent store, created with {@linkplain #open(File, long, boolean)},
+ * instead keeps its segment files in a given folder together with an index
+ * file. The index, written by {@linkplain #saveIndex(boolean)}, records the
+ * slot of each tile with a {@linkplain PersistentTileKey}, the free slots
+ * and the byte order of the tile data, so that a store opened on the same
+ * folder in a later session can read the tiles back. Space allocated after
+ * the index was last saved is not reclaimed until the store is disposed of.
+ * Slots referred to by the saved index are not re-used, even if their tiles
+ * are removed or moved to larger slots, until the index has been saved 
+ * again, so that the saved index never points a tile at another tile's data.
+ *
+ * @author Michael Bedward
+ * @since 1.5
+ * @version $Id$
+ */
+final class MappedTileStore {
+    
+    private static final Logger LOGGER = Logger.getLogger("org.jaitools.tilecache");
+
+    /** Prefix for segment file names. */
+    static final String FILE_PREFIX = "tiles";
+
+    /** Suffix for segment file names. */
+    static final String FILE_SUFFIX = ".seg";
+
+    /** Smallest slot size in bytes. */
+    static final int MIN_SLOT_SIZE = 512;
+
+    /** Name of the index file of a persistent store. */
+    static final String INDEX_FILE = "tiles.idx";
+
+    private static final int INDEX_MAGIC = 0x4A544958;  // "JTIX"
+    private static final int INDEX_VERSION = 1;
+
+    /*
+     * Location of a tile's data within the store
+     */
+    private static final class Slot {
+        final int segment;
+        final int offset;
+        final int capacity;
+
+        Slot(int segment, int offset, int capacity) {
+            this.segment = segment;
+            this.offset = offset;
+            this.capacity = capacity;
+        }
+    }
+
+    private final int segmentSize;
+
+    // folder of a persistent store, or null for temporary files
+    private final File folder;
+
+    // byte order of tile data
+    private final ByteOrder order;
+
+    private final List<File> files;
+    private final List<RandomAccessFile> rafs;
+
+    // copied on write so that readers do not need to lock
+    private volatile MappedByteBuffer[] segments;
+
+    // bytes used in the last segment; guarded by this
+    private int segmentUsed;
+
+    // slots released by removed tiles, by slot size; guarded by this
+    private final Map<Integer, List<Slot>> freeSlots;
+
+    private final Map<Object, Slot> slots;
+
+    // slots of tiles recorded in the saved index of a persistent store; guarded by this
+    private final Set<Slot> indexedSlots;
+
+    // indexed slots which have been released but can not be re-used until 
+    // the index is saved again; guarded by this
+    private final List<Slot> retiredSlots;
+
+    // set by dispose; read without locking by readers
+    private volatile boolean disposed;
+
+    
+    /**
+     * Creates a new store. No files are created until the first tile
+     * is written.
+     * 
+     * @param segmentSize size, in bytes, of each segment file
+     */
+    MappedTileStore(long segmentSize) {
+        this(segmentSize, null, ByteOrder.nativeOrder());
+    }
+
+    private MappedTileStore(long segmentSize, File folder, ByteOrder order) {
+        if (segmentSize < MIN_SLOT_SIZE || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                    "segment size must be between " + MIN_SLOT_SIZE + " and " + Integer.MAX_VALUE);
+        }
+
+        this.segmentSize = (int) segmentSize;
+        this.folder = folder;
+        this.order = order;
+        this.files = new ArrayList<File>();
+        this.rafs = new ArrayList<RandomAccessFile>();
+        this.segments = new MappedByteBuffer[0];
+        this.freeSlots = new HashMap<Integer, List<Slot>>();
+        this.slots = new ConcurrentHashMap<Object, Slot>();
+        this.indexedSlots = new HashSet<Slot>();
+        this.retiredSlots = new ArrayList<Slot>();
+    }
+
+    /**
+     * Opens a persistent store. If the folder holds an index saved by a 
+     * previous store with the same compression setting, the tiles recorded
+     * in the index are available from the new store. Otherwise the new store
+     * is empty.
+     * 
+     * @param folder the folder for segment and index files; it is created
+     *        if it does not exist
+     * @param segmentSize size, in bytes, of each new segment file
+     * @param encoded whether tile data are written in encoded form
+     * 
+     * @return the store
+     * @throws IOException if the folder can not be created
+     */
+    static MappedTileStore open(File folder, long segmentSize, boolean encoded) throws IOException {
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Unable to create tile store folder: " + folder.getPath());
+        }
+
+        File indexFile = new File(folder, INDEX_FILE);
+        if (indexFile.exists()) {
+            try {
+                return readIndex(folder, segmentSize, encoded, indexFile);
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "Discarding tile index " + indexFile.getPath(), ex);
+            }
+            if (!indexFile.delete()) {
+                throw new IOException("Unable to delete tile index: " + indexFile.getPath());
+            }
+        }
+
+        return new MappedTileStore(segmentSize, folder, ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Creates a store from a saved index.
+     */
+    private static MappedTileStore readIndex(File folder, long segmentSize, 
+            boolean encoded, File indexFile) throws IOException {
+
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(indexFile)));
+
+        MappedTileStore store = null;
+        try {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) {
+                throw new IOException("Not a tile index or unsupported version");
+            }
+
+            ByteOrder order = in.readBoolean() ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+            if (in.readBoolean() != encoded) {
+                throw new IOException("Tile index was saved with a different compression setting");
+            }
+
+            store = new MappedTileStore(segmentSize, folder, order);
+            synchronized (store) {
+                int numSegments = in.readInt();
+                for (int i = 0; i < numSegments; i++) {
+                    store.openSegment(i, in.readInt());
+                }
+                store.segmentUsed = in.readInt();
+
+                int numSlots = in.readInt();
+                for (int i = 0; i < numSlots; i++) {
+                    Slot slot = new Slot(in.readInt(), in.readInt(), in.readInt());
+                    if (slot.segment < 0 || slot.segment >= numSegments || slot.offset < 0 ||
+                            slot.capacity > store.segments[slot.segment].capacity() - slot.offset) {
+                        throw new IOException("Corrupt tile index: invalid slot");
+                    }
+
+                    if (in.readBoolean()) {
+                        PersistentTileKey key = new PersistentTileKey(
+                                in.readUTF(), in.readInt(), in.readInt());
+                        store.slots.put(key, slot);
+                        store.indexedSlots.add(slot);
+                    } else {
+                        store.releaseSlot(slot);
+                    }
+                }
+            }
+            return store;
+
+        } catch (IOException ex) {
+            if (store != null) {
+                store.closeFiles();
+            }
+            throw ex;
+
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Saves the index of a persistent store. Segment data are forced to
+     * disk first so that the index never refers to unwritten data.
+     * Tiles should not be written concurrently with this method.
+     * 
+     * @param encoded whether tile data are written in encoded form
+     * 
+     * @throws IOException on failure to write the index
+     * @throws IllegalStateException if this is not a persistent store
+     */
+    synchronized void saveIndex(boolean encoded) throws IOException {
+        if (folder == null) {
+            throw new IllegalStateException("not a persistent tile store");
+        }
+
+        for (MappedByteBuffer seg : segments) {
+            seg.force();
+        }
+
+        List<Map.Entry<Object, Slot>> entries = new ArrayList<Map.Entry<Object, Slot>>(slots.entrySet());
+        int numFree = retiredSlots.size();
+        for (List<Slot> free : freeSlots.values()) {
+            numFree += free.size();
+        }
+
+        File tmpFile = new File(folder, INDEX_FILE + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmpFile)));
+        try {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeBoolean(order == ByteOrder.LITTLE_ENDIAN);
+            out.writeBoolean(encoded);
+
+            out.writeInt(segments.length);
+            for (MappedByteBuffer seg : segments) {
+                out.writeInt(seg.capacity());
+            }
+            out.writeInt(segmentUsed);
+
+            out.writeInt(entries.size() + numFree);
+            for (Map.Entry<Object, Slot> e : entries) {
+                writeSlot(out, e.getValue());
+                if (e.getKey() instanceof PersistentTileKey) {
+                    PersistentTileKey key = (PersistentTileKey) e.getKey();
+                    out.writeBoolean(true);
+                    out.writeUTF(key.getImageKey());
+                    out.writeInt(key.getTileX());
+                    out.writeInt(key.getTileY());
+                } else {
+                    // a tile that can not be found in later sessions
+                    out.writeBoolean(false);
+                }
+            }
+            for (List<Slot> free : freeSlots.values()) {
+                for (Slot slot : free) {
+                    writeSlot(out, slot);
+                    out.writeBoolean(false);
+                }
+            }
+            for (Slot slot : retiredSlots) {
+                writeSlot(out, slot);
+                out.writeBoolean(false);
+            }
+
+        } finally {
+            out.close();
+        }
+
+        File indexFile = new File(folder, INDEX_FILE);
+        if ((indexFile.exists() && !indexFile.delete()) || !tmpFile.renameTo(indexFile)) {
+            throw new IOException("Unable to replace tile index: " + indexFile.getPath());
+        }
+
+        // the new index no longer refers to retired slots
+        List<Slot> retired = new ArrayList<Slot>(retiredSlots);
+        retiredSlots.clear();
+        indexedSlots.clear();
+        for (Slot slot : retired) {
+            releaseSlot(slot);
+        }
+        for (Map.Entry<Object, Slot> e : entries) {
+            if (e.getKey() instanceof PersistentTileKey) {
+                indexedSlots.add(e.getValue());
+            }
+        }
+    }
+
+    private static void writeSlot(DataOutputStream out, Slot slot) throws IOException {
+        out.writeInt(slot.segment);
+        out.writeInt(slot.offset);
+        out.writeInt(slot.capacity);
+    }
+
+    /**
+     * Gets the byte order in which tile data are held.
+     * 
+     * @return the byte order
+     */
+    ByteOrder getByteOrder() {
+        return order;
+    }
+
+    /**
+     * Tests if this is a persistent store.
+     * 
+     * @return {@code true} if persistent
+     */
+    boolean isPersistent() {
+        return folder != null;
+    }
+
+    /**
+     * Tests if data for a tile are held in this store.
+     * 
+     * @param tileId the tile's unique id
+     * 
+     * @return {@code true} if the tile is held; {@code false} otherwise
+     */
+    boolean contains(Object tileId) {
+        return slots.containsKey(tileId);
+    }
+
+    /**
+     * Writes a tile's data. If the tile was previously written its 
+     * slot is re-used.
+     * 
+     * @param tileId the tile's unique id
+     * @param dataBuf the tile's data
+     * 
+     * @throws IOException on failure to create a new segment file
+     */
+    void write(Object tileId, DataBuffer dataBuf) throws IOException {
+        final int numBanks = dataBuf.getNumBanks();
+        final int dataLen = dataBuf.getSize();
+        final long numBytes = 
+                DataBuffer.getDataTypeSize(dataBuf.getDataType()) / 8L * dataLen * numBanks;
+
+        ByteBuffer buf = getBuffer(tileId, numBytes);
+
+        switch (dataBuf.getDataType()) {
+            case DataBuffer.TYPE_BYTE:
+                for (int i = 0; i < numBanks; i++) {
+                    buf.put(((DataBufferByte) dataBuf).getData(i), 0, dataLen);
+                }
+                break;
+
+            case DataBuffer.TYPE_DOUBLE:
+                for (int i = 0; i < numBanks; i++) {
+                    buf.asDoubleBuffer().put(((DataBufferDouble) dataBuf).getData(i), 0, dataLen);
+                    buf.position(buf.position() + dataLen * 8);
+                }
+                break;
+
+            case DataBuffer.TYPE_FLOAT:
+                for (int i = 0; i < numBanks; i++) {
+                    buf.asFloatBuffer().put(((DataBufferFloat) dataBuf).getData(i), 0, dataLen);
+                    buf.position(buf.position() + dataLen * 4);
+                }
+                break;
+
+            case DataBuffer.TYPE_INT:
+                for (int i = 0; i < numBanks; i++) {
+                    buf.asIntBuffer().put(((DataBufferInt) dataBuf).getData(i), 0, dataLen);
+                    buf.position(buf.position() + dataLen * 4);
+                }
+                break;
+
+            case DataBuffer.TYPE_SHORT:
+                for (int i = 0; i < numBanks; i++) {
+                    buf.asShortBuffer().put(((DataBufferShort) dataBuf).getData(i), 0, dataLen);
+                    buf.position(buf.position() + dataLen * 2);
+                }
+                break;
+
+            case DataBuffer.TYPE_USHORT:
+                for (int i = 0; i < numBanks; i++) {
+                    buf.asShortBuffer().put(((DataBufferUShort) dataBuf).getData(i), 0, dataLen);
+                    buf.position(buf.position() + dataLen * 2);
+                }
+                break;
+
+            default:
+                throw new UnsupportedOperationException("Unsupported image data type");
+        }
+    }
+
+    /**
+     * Writes a tile's data in encoded form. If the tile was previously
+     * written its slot is re-used if large enough.
+     * 
+     * @param tileId the tile's unique id
+     * @param encoded the encoded tile data
+     * 
+     * @throws IOException on failure to create a new segment file
+     * @see TileCodec
+     */
+    void write(Object tileId, byte[] encoded) throws IOException {
+        getBuffer(tileId, encoded.length).put(encoded);
+    }
+
+    /**
+     * Gets a buffer from which a tile's encoded data can be read.
+     * 
+     * @param tileId the tile's unique id
+     * 
+     * @return a buffer positioned at the start of the tile's data, or
+     *         {@code null} if the tile is not held in this store or the
+     *         store has been disposed of
+     * @see TileCodec
+     */
+    ByteBuffer readBuffer(Object tileId) {
+        return getBuffer(tileId);
+    }
+
+    /**
+     * Reads a tile's data.
+     * 
+     * @param tileId the tile's unique id
+     * @param dataType the data type of the tile's {@code DataBuffer}
+     * @param numBanks number of banks
+     * @param dataLen number of data elements per bank
+     * 
+     * @return a new {@code DataBuffer} or {@code null} if the tile is
+     *         not held in this store, its slot is too small for the
+     *         requested data, or the store has been disposed of
+     */
+    DataBuffer read(Object tileId, int dataType, int numBanks, int dataLen) {
+        ByteBuffer buf = getBuffer(tileId);
+        final long numBytes = 
+                DataBuffer.getDataTypeSize(dataType) / 8L * dataLen * numBanks;
+        if (buf == null || buf.remaining() < numBytes) {
+            // not held, or a stale or corrupt index entry
+            return null;
+        }
+
+        switch (dataType) {
+            case DataBuffer.TYPE_BYTE: {
+                byte[][] bankData = new byte[numBanks][dataLen];
+                for (int i = 0; i < numBanks; i++) {
+                    buf.get(bankData[i]);
+                }
+                return new DataBufferByte(bankData, dataLen);
+            }
+
+            case DataBuffer.TYPE_DOUBLE: {
+                double[][] bankData = new double[numBanks][dataLen];
+                for (int i = 0; i < numBanks; i++) {
+                    buf.asDoubleBuffer().get(bankData[i]);
+                    buf.position(buf.position() + dataLen * 8);
+                }
+                return new DataBufferDouble(bankData, dataLen);
+            }
+
+            case DataBuffer.TYPE_FLOAT: {
+                float[][] bankData = new float[numBanks][dataLen];
+                for (int i = 0; i < numBanks; i++) {
+                    buf.asFloatBuffer().get(bankData[i]);
+                    buf.position(buf.position() + dataLen * 4);
+                }
+                return new DataBufferFloat(bankData, dataLen);
+            }
+
+            case DataBuffer.TYPE_INT: {
+                int[][] bankData = new int[numBanks][dataLen];
+                for (int i = 0; i < numBanks; i++) {
+                    buf.asIntBuffer().get(bankData[i]);
+                    buf.position(buf.position() + dataLen * 4);
+                }
+                return new DataBufferInt(bankData, dataLen);
+            }
+
+            case DataBuffer.TYPE_SHORT: {
+                short[][] bankData = new short[numBanks][dataLen];
+                for (int i = 0; i < numBanks; i++) {
+                    buf.asShortBuffer().get(bankData[i]);
+                    buf.position(buf.position() + dataLen * 2);
+                }
+                return new DataBufferShort(bankData, dataLen);
+            }
+
+            case DataBuffer.TYPE_USHORT: {
+                short[][] bankData = new short[numBanks][dataLen];
+                for (int i = 0; i < numBanks; i++) {
+                    buf.asShortBuffer().get(bankData[i]);
+                    buf.position(buf.position() + dataLen * 2);
+                }
+                return new DataBufferUShort(bankData, dataLen);
+            }
+
+            default:
+                throw new UnsupportedOperationException("Unsupported image data type");
+        }
+    }
+
+    /**
+     * Removes a tile from the store, making its slot available for re-use.
+     * 
+     * @param tileId the tile's unique id
+     */
+    void delete(Object tileId) {
+        Slot slot = slots.remove(tileId);
+        if (slot != null) {
+            releaseSlot(slot);
+        }
+    }
+
+    /**
+     * Gets the number of tiles held in the store.
+     * 
+     * @return number of tiles
+     */
+    int getNumTiles() {
+        return slots.size();
+    }
+
+    /**
+     * Gets the number of segment files.
+     * 
+     * @return number of segments
+     */
+    synchronized int getNumSegments() {
+        return files.size();
+    }
+
+    /**
+     * Releases all segments and deletes the segment files, together with
+     * the index file of a persistent store. The store can not be used 
+     * after this method has been called.
+     */
+    synchronized void dispose() {
+        disposed = true;
+        slots.clear();
+        freeSlots.clear();
+        indexedSlots.clear();
+        retiredSlots.clear();
+        // segments are left to be unmapped by the garbage collector, so
+        // a reader already holding a duplicate buffer can safely finish
+        segments = new MappedByteBuffer[0];
+        closeFiles();
+
+        for (File file : files) {
+            if (!file.delete()) {
+                LOGGER.log(Level.WARNING, 
+                        "Unable to delete tile segment file: {0}", file.getPath());
+            }
+        }
+        files.clear();
+
+        if (folder != null) {
+            File indexFile = new File(folder, INDEX_FILE);
+            if (indexFile.exists() && !indexFile.delete()) {
+                LOGGER.log(Level.WARNING, 
+                        "Unable to delete tile index file: {0}", indexFile.getPath());
+            }
+        }
+    }
+
+    private synchronized void closeFiles() {
+        for (RandomAccessFile raf : rafs) {
+            try {
+                raf.close();
+            } catch (IOException ex) {
+                // chew me
+            }
+        }
+        rafs.clear();
+    }
+
+    /**
+     * Gets a buffer positioned at the start of a tile's slot.
+     * 
+     * @return the buffer or {@code null} if the tile is not held in the store
+     */
+    private ByteBuffer getBuffer(Object tileId) {
+        Slot slot = slots.get(tileId);
+        if (slot == null) {
+            return null;
+        }
+        return slotBuffer(slot);
+    }
+
+    /**
+     * Gets a buffer positioned at the start of a tile's slot, allocating
+     * a new slot if the tile is not yet held or its data no longer fit.
+     */
+    private ByteBuffer getBuffer(Object tileId, long numBytes) throws IOException {
+        Slot slot = slots.get(tileId);
+        if (slot == null || slot.capacity < numBytes) {
+            Slot newSlot = allocateSlot(numBytes);
+            if (slot != null) {
+                releaseSlot(slot);
+            }
+            slot = newSlot;
+            slots.put(tileId, slot);
+        }
+        
+        ByteBuffer buf = slotBuffer(slot);
+        if (buf == null) {
+            throw new IllegalStateException("tile store has been disposed");
+        }
+        return buf;
+    }
+
+    /**
+     * Gets a buffer positioned at the start of a slot. Readers do not
+     * hold this object's lock, so {@link #dispose()} may run concurrently:
+     * the segments array is read once and the slot is only used if the
+     * store has not been disposed of.
+     * 
+     * @return the buffer or {@code null} if the store has been disposed of
+     */
+    private ByteBuffer slotBuffer(Slot slot) {
+        final MappedByteBuffer[] segs = segments;
+        if (disposed || slot.segment >= segs.length) {
+            return null;
+        }
+        
+        // duplicate so that concurrent users have their own position
+        ByteBuffer buf = segs[slot.segment].duplicate();
+        buf.order(order);
+        buf.limit(slot.offset + slot.capacity);
+        buf.position(slot.offset);
+        return buf;
+    }
+
+    /**
+     * Gets a slot, re-using a free one if possible or else taking
+     * space from the last segment.
+     */
+    private synchronized Slot allocateSlot(long numBytes) throws IOException {
+        if (disposed) {
+            throw new IllegalStateException("tile store has been disposed");
+        }
+
+        int capacity = slotSize(numBytes);
+
+        List<Slot> free = freeSlots.get(capacity);
+        if (free != null && !free.isEmpty()) {
+            return free.remove(free.size() - 1);
+        }
+
+        if (segments.length == 0 || segmentUsed > segments[segments.length - 1].capacity() - capacity) {
+            addSegment(Math.max(segmentSize, capacity));
+        }
+
+        Slot slot = new Slot(segments.length - 1, segmentUsed, capacity);
+        segmentUsed += capacity;
+        return slot;
+    }
+
+    private synchronized void releaseSlot(Slot slot) {
+        if (disposed) {
+            return;
+        }
+
+        if (indexedSlots.remove(slot)) {
+            // the saved index still refers to this slot
+            retiredSlots.add(slot);
+            return;
+        }
+
+        List<Slot> free = freeSlots.get(slot.capacity);
+        if (free == null) {
+            free = new ArrayList<Slot>();
+            freeSlots.put(slot.capacity, free);
+        }
+        free.add(slot);
+    }
+
+    /**
+     * Creates, pre-sizes and maps a new segment file.
+     * Called while holding this object's lock.
+     */
+    private void addSegment(int size) throws IOException {
+        File file;
+        if (folder == null) {
+            file = File.createTempFile(FILE_PREFIX, FILE_SUFFIX, DiskCachedTile.getCacheFolder());
+            file.deleteOnExit();
+        } else {
+            file = segmentFile(files.size());
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        MappedByteBuffer buf;
+        try {
+            raf.setLength(size);
+            buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException ex) {
+            raf.close();
+            file.delete();
+            throw ex;
+        }
+
+        appendSegment(file, raf, buf);
+        segmentUsed = 0;
+    }
+
+    /**
+     * Maps an existing segment file of a persistent store.
+     * Called while holding this object's lock.
+     */
+    private void openSegment(int index, int size) throws IOException {
+        File file = segmentFile(index);
+        if (!file.isFile() || file.length() < size) {
+            throw new IOException("Missing or truncated tile segment file: " + file.getPath());
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        MappedByteBuffer buf;
+        try {
+            buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException ex) {
+            raf.close();
+            throw ex;
+        }
+
+        appendSegment(file, raf, buf);
+    }
+
+    private void appendSegment(File file, RandomAccessFile raf, MappedByteBuffer buf) {
+        files.add(file);
+        rafs.add(raf);
+
+        MappedByteBuffer[] newSegments = new MappedByteBuffer[segments.length + 1];
+        System.arraycopy(segments, 0, newSegments, 0, segments.length);
+        newSegments[segments.length] = buf;
+        segments = newSegments;
+    }
+
+    private File segmentFile(int index) {
+        return new File(folder, FILE_PREFIX + "-" + index + FILE_SUFFIX);
+    }
+
+    /**
+     * Rounds a number of bytes up to a slot size. Sizes are multiples of
+     * one eighth of the next lower power of 2 so that no more than 12.5%
+     * of a slot is wasted.
+     */
+    static int slotSize(long numBytes) {
+        if (numBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("tile too large for store: " + numBytes + " bytes");
+        }
+
+        if (numBytes <= MIN_SLOT_SIZE) {
+            return MIN_SLOT_SIZE;
+        }
+
+        long step = Math.max(MIN_SLOT_SIZE, Long.highestOneBit(numBytes) >> 3);
+        long size = ((numBytes + step - 1) / step) * step;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("tile too large for store: " + numBytes + " bytes");
+        }
+        return (int) size;
+    }
+
+}
@@ -0,0 +1,97 @@
+/* 
+ *  Copyright (c) 2013, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.tilecache;
+
+/**
+ * Identifies a tile of an image which has been given a persistent key with
+ * {@linkplain DiskMemTileCache#setPersistentImageKey(java.awt.image.RenderedImage, String)}.
+ * Unlike the ids generated for other tiles, these remain the same across 
+ * sessions, which allows tiles stored on disk by one cache to be found by
+ * another.
+ *
+ * @author Michael Bedward
+ * @since 1.5
+ * @version $Id$
+ */
+final class PersistentTileKey {
+
+    private final String imageKey;
+    private final int tileX;
+    private final int tileY;
+    private final int hash;
+
+    /**
+     * Creates a new key.
+     * 
+     * @param imageKey the image's persistent key
+     * @param tileX tile column
+     * @param tileY tile row
+     */
+    PersistentTileKey(String imageKey, int tileX, int tileY) {
+        if (imageKey == null) {
+            throw new IllegalArgumentException("imageKey must not be null");
+        }
+        this.imageKey = imageKey;
+        this.tileX = tileX;
+        this.tileY = tileY;
+        this.hash = (imageKey.hashCode() * 31 + tileX) * 31 + tileY;
+    }
+
+    String getImageKey() {
+        return imageKey;
+    }
+
+    int getTileX() {
+        return tileX;
+    }
+
+    int getTileY() {
+        return tileY;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof PersistentTileKey)) {
+            return false;
+        }
+        PersistentTileKey other = (PersistentTileKey) obj;
+        return tileX == other.tileX && tileY == other.tileY && imageKey.equals(other.imageKey);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return imageKey + "[" + tileX + "," + tileY + "]";
+    }
+
+}
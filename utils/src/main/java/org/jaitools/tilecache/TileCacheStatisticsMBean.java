@@ -0,0 +1,106 @@
+/* 
+ *  Copyright (c) 2013, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.tilecache;
+
+/**
+ * Management interface through which the statistics of a {@linkplain DiskMemTileCache}
+ * are published to JMX clients such as JConsole. Latencies are reported in
+ * microseconds.
+ *
+ * @see DiskMemTileCache#registerMBean(javax.management.ObjectName)
+ * 
+ * @author Michael Bedward
+ * @since 1.5
+ * @version $Id$
+ */
+public interface TileCacheStatisticsMBean {
+
+    /** @return number of cached tiles */
+    public int getNumTiles();
+
+    /** @return number of memory-resident tiles */
+    public int getNumResidentTiles();
+
+    /** @return memory capacity in bytes */
+    public long getMemoryCapacity();
+
+    /** @return memory used by resident tiles in bytes */
+    public long getCurrentMemory();
+
+    /** @return number of requests served from memory */
+    public long getMemoryHits();
+
+    /** @return number of requests served from disk */
+    public long getDiskHits();
+
+    /** @return number of requests for which the cache had no data */
+    public long getMisses();
+
+    /** @return proportion of requests served from memory or disk */
+    public double getHitRatio();
+
+    /** @return number of tiles removed from memory */
+    public long getEvictions();
+
+    /** @return number of disk reads */
+    public long getDiskReads();
+
+    /** @return number of disk writes */
+    public long getDiskWrites();
+
+    /** @return tile data bytes read from disk */
+    public long getBytesRead();
+
+    /** @return tile data bytes written to disk */
+    public long getBytesWritten();
+
+    /** @return mean disk read time in microseconds */
+    public double getMeanDiskReadMicros();
+
+    /** @return upper bound of 99th percentile disk read time in microseconds */
+    public double getP99DiskReadMicros();
+
+    /** @return mean disk write time in microseconds */
+    public double getMeanDiskWriteMicros();
+
+    /** @return upper bound of 99th percentile disk write time in microseconds */
+    public double getP99DiskWriteMicros();
+
+    /** @return number of times a thread waited for a cache lock */
+    public long getLockWaits();
+
+    /** @return mean lock wait time in microseconds */
+    public double getMeanLockWaitMicros();
+
+    /** @return upper bound of 99th percentile lock wait time in microseconds */
+    public double getP99LockWaitMicros();
+
+    /**
+     * Sets all statistics to zero.
+     */
+    public void resetStatistics();
+
+}
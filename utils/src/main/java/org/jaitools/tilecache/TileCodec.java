@@ -0,0 +1,412 @@
+/* 
+ *  Copyright (c) 2013, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.tilecache;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferDouble;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encodes tile data in a compressed form for disk storage by
+ * {@linkplain DiskCachedTile}. Each bank of a tile's {@code DataBuffer}
+ * is encoded separately as one of:
+ * <ul>
+ * <li>a single value, if all elements of the bank are equal;
+ * <li>deflated data, if deflating makes the bank smaller;
+ * <li>the raw data otherwise.
+ * </ul>
+ * The encoding is self-delimiting, so encoded tiles can be read back from
+ * a stream or buffer without knowing their encoded length.
+ *
+ * @author Michael Bedward
+ * @since 1.5
+ * @version $Id$
+ */
+final class TileCodec {
+
+    private static final byte BANK_CONSTANT = 1;
+    private static final byte BANK_DEFLATED = 2;
+    private static final byte BANK_RAW = 3;
+
+    private final int level;
+
+    /*
+     * Deflater and Inflater objects are not thread-safe but are costly to
+     * create. They are shared by all codecs so that each thread holds at
+     * most one of each, released with the thread, rather than one per codec.
+     * The compression level is set on each use.
+     */
+    private static final ThreadLocal<Deflater> deflater = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater();
+        }
+    };
+
+    private static final ThreadLocal<Inflater> inflater = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+
+    /**
+     * Creates a new codec.
+     * 
+     * @param level deflate compression level, from 0 (none) to 9 (best);
+     *        values outside this range are clamped
+     */
+    TileCodec(int level) {
+        this.level = Math.max(Deflater.NO_COMPRESSION, Math.min(Deflater.BEST_COMPRESSION, level));
+    }
+
+    /**
+     * Gets the deflate compression level.
+     * 
+     * @return compression level
+     */
+    int getLevel() {
+        return level;
+    }
+
+    /**
+     * Encodes tile data.
+     * 
+     * @param dataBuf the tile data
+     * @param order byte order for multi-byte values
+     * 
+     * @return encoded data
+     */
+    byte[] encode(DataBuffer dataBuf, ByteOrder order) {
+        final int numBanks = dataBuf.getNumBanks();
+        final int dataLen = dataBuf.getSize();
+        final int elemSize = DataBuffer.getDataTypeSize(dataBuf.getDataType()) / 8;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < numBanks; i++) {
+            ByteBuffer raw = ByteBuffer.allocate(dataLen * elemSize).order(order);
+            boolean constant = true;
+
+            switch (dataBuf.getDataType()) {
+                case DataBuffer.TYPE_BYTE: {
+                    byte[] bank = ((DataBufferByte) dataBuf).getData(i);
+                    byte v = bank[0];
+                    for (int k = 1; k < dataLen && constant; k++) {
+                        constant = bank[k] == v;
+                    }
+                    raw.put(bank, 0, dataLen);
+                }
+                break;
+
+                case DataBuffer.TYPE_DOUBLE: {
+                    double[] bank = ((DataBufferDouble) dataBuf).getData(i);
+                    long v = Double.doubleToRawLongBits(bank[0]);
+                    for (int k = 1; k < dataLen && constant; k++) {
+                        constant = Double.doubleToRawLongBits(bank[k]) == v;
+                    }
+                    raw.asDoubleBuffer().put(bank, 0, dataLen);
+                }
+                break;
+
+                case DataBuffer.TYPE_FLOAT: {
+                    float[] bank = ((DataBufferFloat) dataBuf).getData(i);
+                    int v = Float.floatToRawIntBits(bank[0]);
+                    for (int k = 1; k < dataLen && constant; k++) {
+                        constant = Float.floatToRawIntBits(bank[k]) == v;
+                    }
+                    raw.asFloatBuffer().put(bank, 0, dataLen);
+                }
+                break;
+
+                case DataBuffer.TYPE_INT: {
+                    int[] bank = ((DataBufferInt) dataBuf).getData(i);
+                    int v = bank[0];
+                    for (int k = 1; k < dataLen && constant; k++) {
+                        constant = bank[k] == v;
+                    }
+                    raw.asIntBuffer().put(bank, 0, dataLen);
+                }
+                break;
+
+                case DataBuffer.TYPE_SHORT:
+                case DataBuffer.TYPE_USHORT: {
+                    short[] bank = dataBuf.getDataType() == DataBuffer.TYPE_SHORT ?
+                            ((DataBufferShort) dataBuf).getData(i) :
+                            ((DataBufferUShort) dataBuf).getData(i);
+                    short v = bank[0];
+                    for (int k = 1; k < dataLen && constant; k++) {
+                        constant = bank[k] == v;
+                    }
+                    raw.asShortBuffer().put(bank, 0, dataLen);
+                }
+                break;
+
+                default:
+                    throw new UnsupportedOperationException("Unsupported image data type");
+            }
+
+            byte[] rawBytes = raw.array();
+            if (constant) {
+                out.write(BANK_CONSTANT);
+                out.write(rawBytes, 0, elemSize);
+
+            } else {
+                byte[] deflated = deflate(rawBytes);
+                if (deflated != null) {
+                    out.write(BANK_DEFLATED);
+                    writeInt(out, deflated.length, order);
+                    out.write(deflated, 0, deflated.length);
+                } else {
+                    out.write(BANK_RAW);
+                    out.write(rawBytes, 0, rawBytes.length);
+                }
+            }
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes tile data.
+     * 
+     * @param buf buffer positioned at the start of the encoded data, with 
+     *        the byte order used to encode it; on return it is positioned at
+     *        the end of the encoded data
+     * @param dataType the data type of the tile's {@code DataBuffer}
+     * @param numBanks number of banks
+     * @param dataLen number of data elements per bank
+     * 
+     * @return a new {@code DataBuffer}
+     * @throws IOException if the encoded data are corrupt
+     */
+    DataBuffer decode(ByteBuffer buf, int dataType, int numBanks, int dataLen) throws IOException {
+        final int elemSize = DataBuffer.getDataTypeSize(dataType) / 8;
+
+        switch (dataType) {
+            case DataBuffer.TYPE_BYTE: {
+                byte[][] bankData = new byte[numBanks][];
+                for (int i = 0; i < numBanks; i++) {
+                    ByteBuffer bank = decodeBank(buf, elemSize, dataLen);
+                    bankData[i] = new byte[dataLen];
+                    if (bank.remaining() == elemSize) {
+                        Arrays.fill(bankData[i], bank.get());
+                    } else {
+                        bank.get(bankData[i]);
+                    }
+                }
+                return new DataBufferByte(bankData, dataLen);
+            }
+
+            case DataBuffer.TYPE_DOUBLE: {
+                double[][] bankData = new double[numBanks][];
+                for (int i = 0; i < numBanks; i++) {
+                    ByteBuffer bank = decodeBank(buf, elemSize, dataLen);
+                    bankData[i] = new double[dataLen];
+                    if (bank.remaining() == elemSize) {
+                        Arrays.fill(bankData[i], bank.getDouble());
+                    } else {
+                        bank.asDoubleBuffer().get(bankData[i]);
+                    }
+                }
+                return new DataBufferDouble(bankData, dataLen);
+            }
+
+            case DataBuffer.TYPE_FLOAT: {
+                float[][] bankData = new float[numBanks][];
+                for (int i = 0; i < numBanks; i++) {
+                    ByteBuffer bank = decodeBank(buf, elemSize, dataLen);
+                    bankData[i] = new float[dataLen];
+                    if (bank.remaining() == elemSize) {
+                        Arrays.fill(bankData[i], bank.getFloat());
+                    } else {
+                        bank.asFloatBuffer().get(bankData[i]);
+                    }
+                }
+                return new DataBufferFloat(bankData, dataLen);
+            }
+
+            case DataBuffer.TYPE_INT: {
+                int[][] bankData = new int[numBanks][];
+                for (int i = 0; i < numBanks; i++) {
+                    ByteBuffer bank = decodeBank(buf, elemSize, dataLen);
+                    bankData[i] = new int[dataLen];
+                    if (bank.remaining() == elemSize) {
+                        Arrays.fill(bankData[i], bank.getInt());
+                    } else {
+                        bank.asIntBuffer().get(bankData[i]);
+                    }
+                }
+                return new DataBufferInt(bankData, dataLen);
+            }
+
+            case DataBuffer.TYPE_SHORT:
+            case DataBuffer.TYPE_USHORT: {
+                short[][] bankData = new short[numBanks][];
+                for (int i = 0; i < numBanks; i++) {
+                    ByteBuffer bank = decodeBank(buf, elemSize, dataLen);
+                    bankData[i] = new short[dataLen];
+                    if (bank.remaining() == elemSize) {
+                        Arrays.fill(bankData[i], bank.getShort());
+                    } else {
+                        bank.asShortBuffer().get(bankData[i]);
+                    }
+                }
+                return dataType == DataBuffer.TYPE_SHORT ?
+                        new DataBufferShort(bankData, dataLen) :
+                        new DataBufferUShort(bankData, dataLen);
+            }
+
+            default:
+                throw new UnsupportedOperationException("Unsupported image data type");
+        }
+    }
+
+    /**
+     * Decodes one bank. The returned buffer holds either a single element,
+     * for a constant bank, or all of the bank's elements.
+     */
+    private ByteBuffer decodeBank(ByteBuffer buf, int elemSize, int dataLen) throws IOException {
+        final int rawLen = elemSize * dataLen;
+        checkRemaining(buf, 1);
+        byte flag = buf.get();
+        byte[] bytes;
+
+        switch (flag) {
+            case BANK_CONSTANT:
+                checkRemaining(buf, elemSize);
+                bytes = new byte[elemSize];
+                buf.get(bytes);
+                break;
+
+            case BANK_DEFLATED:
+                checkRemaining(buf, 4);
+                int len = buf.getInt();
+                if (len < 0) {
+                    throw new IOException("Corrupt tile data: invalid deflated length");
+                }
+                checkRemaining(buf, len);
+                byte[] deflated = new byte[len];
+                buf.get(deflated);
+                bytes = inflate(deflated, rawLen);
+                break;
+
+            case BANK_RAW:
+                checkRemaining(buf, rawLen);
+                bytes = new byte[rawLen];
+                buf.get(bytes);
+                break;
+
+            default:
+                throw new IOException("Corrupt tile data: unknown bank encoding " + flag);
+        }
+
+        return ByteBuffer.wrap(bytes).order(buf.order());
+    }
+
+    /**
+     * Checks that enough encoded data remain, so that a truncated or
+     * stale slot is reported as corrupt data rather than as an underflow.
+     */
+    private static void checkRemaining(ByteBuffer buf, int n) throws IOException {
+        if (buf.remaining() < n) {
+            throw new IOException("Corrupt tile data: truncated");
+        }
+    }
+
+    /**
+     * Deflates data.
+     * 
+     * @return the deflated data or {@code null} if they are not smaller
+     *         than the input
+     */
+    private byte[] deflate(byte[] input) {
+        Deflater def = deflater.get();
+        def.reset();
+        def.setLevel(level);
+        def.setInput(input);
+        def.finish();
+
+        byte[] out = new byte[input.length];
+        int n = 0;
+        while (!def.finished() && n < out.length) {
+            n += def.deflate(out, n, out.length - n);
+        }
+
+        if (!def.finished()) {
+            return null;
+        }
+
+        byte[] deflated = new byte[n];
+        System.arraycopy(out, 0, deflated, 0, n);
+        return deflated;
+    }
+
+    private byte[] inflate(byte[] input, int rawLen) throws IOException {
+        Inflater inf = inflater.get();
+        inf.reset();
+        inf.setInput(input);
+
+        byte[] out = new byte[rawLen];
+        try {
+            int n = 0;
+            while (n < rawLen && !inf.finished()) {
+                int count = inf.inflate(out, n, rawLen - n);
+                if (count == 0 && (inf.needsInput() || inf.needsDictionary())) {
+                    break;
+                }
+                n += count;
+            }
+            if (n != rawLen) {
+                throw new IOException("Corrupt tile data: truncated deflated bank");
+            }
+        } catch (DataFormatException ex) {
+            IOException ioEx = new IOException("Corrupt tile data");
+            ioEx.initCause(ex);
+            throw ioEx;
+        }
+
+        return out;
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value, ByteOrder order) {
+        ByteBuffer b = ByteBuffer.allocate(4).order(order);
+        b.putInt(value);
+        out.write(b.array(), 0, 4);
+    }
+
+}
@@ -0,0 +1,134 @@
+/* 
+ *  Copyright (c) 2013, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+
+package org.jaitools.imageutils;
+
+import java.awt.Rectangle;
+import java.awt.geom.Ellipse2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+
+import javax.media.jai.ROI;
+import javax.media.jai.ROIShape;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for ROIMask.
+ * 
+ * @author Michael Bedward
+ * @since 1.5
+ * @version $Id$
+ */
+public class ROIMaskTest {
+    
+    private static final GeometryFactory gf = new GeometryFactory();
+    
+    @Test
+    public void geometryMaskMatchesContains() {
+        Geometry circle = gf.createPoint(new Coordinate(20, 20)).buffer(15.5);
+        Geometry hole = gf.toGeometry(new Envelope(15, 25, 15, 25));
+        ROI roi = new ROIGeometry(circle.difference(hole));
+        
+        assertMaskMatchesContains(roi, new Rectangle(-3, -3, 50, 45));
+    }
+    
+    @Test
+    public void shapeMaskMatchesContains() {
+        ROI roi = new ROIShape(new Ellipse2D.Double(2.5, 3, 31, 22.5));
+        assertMaskMatchesContains(roi, new Rectangle(-3, -3, 50, 45));
+    }
+    
+    @Test
+    public void imageMaskMatchesContains() {
+        BufferedImage img = new BufferedImage(40, 30, BufferedImage.TYPE_BYTE_GRAY);
+        WritableRaster raster = img.getRaster();
+        for (int y = 0; y < 30; y++) {
+            for (int x = 0; x < 40; x++) {
+                raster.setSample(x, y, 0, (x * y) % 7);
+            }
+        }
+        ROI roi = new ROI(img, 3);
+        
+        assertMaskMatchesContains(roi, new Rectangle(-3, -3, 50, 40));
+    }
+    
+    @Test
+    public void pixelsOnGeometryBoundaryAreOutside() {
+        ROI roi = new ROIGeometry(gf.toGeometry(new Envelope(0, 40, 0, 40)));
+        ROIMask mask = ROIMask.create(roi, new Rectangle(-5, -5, 50, 50));
+        
+        assertFalse(mask.contains(0, 0));
+        assertFalse(mask.contains(0, 20));
+        assertFalse(mask.contains(40, 20));
+        assertTrue(mask.contains(1, 1));
+        assertTrue(mask.contains(39, 39));
+    }
+    
+    @Test
+    public void allInside() {
+        ROI roi = new ROIShape(new Rectangle(0, 0, 100, 100));
+        ROIMask mask = ROIMask.create(roi, new Rectangle(10, 10, 20, 20));
+        
+        assertTrue(mask.isAllInside());
+        assertFalse(mask.isAllOutside());
+    }
+    
+    @Test
+    public void allOutside() {
+        ROI roi = new ROIShape(new Rectangle(0, 0, 100, 100));
+        ROIMask mask = ROIMask.create(roi, new Rectangle(200, 10, 20, 20));
+        
+        assertTrue(mask.isAllOutside());
+        assertFalse(mask.isAllInside());
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void nullROI() {
+        ROIMask.create(null, new Rectangle(0, 0, 10, 10));
+    }
+
+    private void assertMaskMatchesContains(ROI roi, Rectangle bounds) {
+        ROIMask mask = ROIMask.create(roi, bounds);
+        assertEquals(bounds, mask.getBounds());
+        
+        boolean[] data = mask.getData();
+        int k = 0;
+        for (int y = bounds.y; y < bounds.y + bounds.height; y++) {
+            for (int x = bounds.x; x < bounds.x + bounds.width; x++, k++) {
+                assertEquals(roi.contains(x, y), data[k]);
+                assertEquals(roi.contains(x, y), mask.contains(x, y));
+            }
+        }
+    }
+    
+}
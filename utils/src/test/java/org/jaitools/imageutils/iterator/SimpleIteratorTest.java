@@ -208,6 +208,33 @@ public class SimpleIteratorTest extends TestBase {
         assertSubBounds(minX, minY, tileWidth, tileHeight, iterBounds);
     }
     
+    @Test
+    public void getRowMatchesGetSample() {
+        image = createSequentialTiledImage(-3, 3, WIDTH, HEIGHT, 7, 11, NUM_BANDS, 0);
+        final Rectangle iterBounds = createAdjustedBounds(image.getBounds(), 5);
+        
+        for (SimpleIterator.Order order : SimpleIterator.Order.values()) {
+            iter = new SimpleIterator(image, iterBounds, OUTSIDE, order);
+            SimpleIterator pixelIter = new SimpleIterator(image, iterBounds, OUTSIDE, order);
+            int[] row = null;
+            do {
+                final Point pos = iter.getPos();
+                assertEquals(pixelIter.getPos(), pos);
+                for (int band = 0; band < NUM_BANDS; band++) {
+                    row = iter.getRowInt(row, band);
+                    for (int i = 0; i < row.length; i++) {
+                        assertEquals(iter.getSample(pos.x + i, pos.y, band).intValue(), row[i]);
+                    }
+                }
+                for (int i = 0; i < row.length; i++) {
+                    pixelIter.next();
+                }
+            } while (iter.nextRow());
+            
+            assertFalse(pixelIter.hasNext());
+        }
+    }
+    
     /**
      * Tests that:
      * <ul>
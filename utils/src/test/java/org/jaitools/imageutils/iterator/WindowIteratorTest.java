@@ -92,6 +92,15 @@ public class WindowIteratorTest extends TestBase {
         doWindowIntTest(new Dimension(5, 7), new Point(2, 2));   
     }
 
+    @Test
+    public void getWindow5x7TiledImage() {
+        image = createSequentialTiledImage(OX, OY, WIDTH, HEIGHT, 4, 5, NUM_BANDS, 0);
+        Dimension winDim = new Dimension(5, 7);
+        Point key = new Point(2, 2);
+        WindowIterator iter = new WindowIterator(image, null, winDim, key, OUTSIDE);
+        doWindowIntTest(iter, image.getBounds(), winDim, key, 1, 1);
+    }
+
     @Test
     public void keyElementAtWindowCorner() {
         doWindowIntTest(new Dimension(3, 3), new Point(2, 2));
@@ -173,6 +173,30 @@ public class WritableSimpleIteratorTest extends TestBase {
         assertImageValues(startValues, Order.IMAGE_X_Y);
     }
 
+    @Test
+    public void setRowByTile() {
+        image = createTestImage(-3, 3, 0);
+        iter = new WritableSimpleIterator(image, null, 0, Order.TILE_X_Y);
+        final int startValue = 100;
+        int k = startValue;
+        do {
+            int[] values = new int[iter.getRowInt(null, 0).length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = k++ ;
+            }
+            assertTrue(iter.setRow(values, 0));
+        } while (iter.nextRow());
+        
+        assertImageValues(new int[]{startValue}, Order.TILE_X_Y);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void setRowWithWrongLength() {
+        image = createTestImage(-3, 3, 0);
+        iter = new WritableSimpleIterator(image, null, 0);
+        iter.setRow(new int[WIDTH + 1], 0);
+    }
+
     private void assertImageValues(int[] startValues, Order order) {
         if (image == null) {
             throw new IllegalStateException("You forgot to create the image first");
@@ -0,0 +1,135 @@
+/* 
+ *  Copyright (c) 2013, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+
+package org.jaitools.numeric;
+
+import java.awt.image.DataBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the NoDataSet class.
+ * 
+ * @author Michael Bedward
+ * @since 1.5
+ * @version $Id$
+ */
+public class NoDataSetTest {
+    
+    @Test
+    public void emptySet() {
+        NoDataSet set = new NoDataSet(null, null);
+        assertTrue(set.isEmpty());
+        assertFalse(set.contains(0));
+        assertFalse(set.contains(Double.NaN));
+    }
+    
+    @Test
+    public void valuesWithinTolerance() {
+        NoDataSet set = new NoDataSet(Arrays.asList(-1.0, 5.0, 2.0), null);
+        assertFalse(set.isEmpty());
+        
+        assertTrue(set.contains(2.0));
+        assertTrue(set.contains(5.0 + CompareOp.DTOL / 2));
+        assertTrue(set.contains(-1.0 - CompareOp.DTOL / 2));
+        assertFalse(set.contains(5.0 + CompareOp.DTOL * 2));
+        assertFalse(set.contains(3.0));
+        assertFalse(set.contains(Double.NaN));
+    }
+    
+    @Test
+    public void nanAndInfiniteValuesNeverMatch() {
+        NoDataSet set = new NoDataSet(
+                Arrays.asList(Double.NaN, Double.POSITIVE_INFINITY), null);
+        
+        assertFalse(set.contains(Double.NaN));
+        assertFalse(set.contains(Double.POSITIVE_INFINITY));
+    }
+    
+    @Test
+    public void ranges() {
+        List<Range<Double>> ranges = new ArrayList<Range<Double>>();
+        ranges.add(new Range<Double>(10.0, true, 20.0, false));
+        ranges.add(new Range<Double>(15.0, false, 30.0, true));
+        NoDataSet set = new NoDataSet(null, ranges);
+        
+        assertFalse(set.contains(9.5));
+        assertTrue(set.contains(10.0));
+        assertTrue(set.contains(20.0));
+        assertTrue(set.contains(30.0));
+        assertFalse(set.contains(30.5));
+    }
+    
+    @Test
+    public void matchesListSearch() {
+        List<Double> values = Arrays.asList(0.5, 3.0, -7.25);
+        List<Range<Double>> ranges = new ArrayList<Range<Double>>();
+        ranges.add(new Range<Double>(10.0, false, 12.0, true));
+        ranges.add(new Range<Double>(-3.0));
+        NoDataSet set = new NoDataSet(values, ranges);
+        
+        for (double value = -15; value <= 15; value += 0.125) {
+            boolean expected = false;
+            for (Double d : values) {
+                expected |= CompareOp.aequal(value, d);
+            }
+            for (Range<Double> r : ranges) {
+                expected |= r.contains(value);
+            }
+            assertEquals(expected, set.contains(value));
+        }
+    }
+    
+    @Test
+    public void lookupTables() {
+        List<Range<Double>> ranges = new ArrayList<Range<Double>>();
+        ranges.add(new Range<Double>(-10.0, true, 10.0, true));
+        NoDataSet set = new NoDataSet(Arrays.asList(200.0), ranges);
+        
+        boolean[] byteLookup = set.createLookup(DataBuffer.TYPE_BYTE);
+        assertEquals(256, byteLookup.length);
+        assertTrue(byteLookup[5]);
+        assertFalse(byteLookup[11]);
+        assertTrue(byteLookup[200]);
+        
+        boolean[] shortLookup = set.createLookup(DataBuffer.TYPE_SHORT);
+        assertEquals(1 << 16, shortLookup.length);
+        assertTrue(shortLookup[-10 - Short.MIN_VALUE]);
+        assertFalse(shortLookup[-11 - Short.MIN_VALUE]);
+        assertTrue(shortLookup[200 - Short.MIN_VALUE]);
+        
+        boolean[] ushortLookup = set.createLookup(DataBuffer.TYPE_USHORT);
+        assertTrue(ushortLookup[200]);
+        assertFalse(ushortLookup[60000]);
+        
+        assertNull(set.createLookup(DataBuffer.TYPE_FLOAT));
+    }
+    
+}
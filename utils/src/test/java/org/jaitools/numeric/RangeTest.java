@@ -148,4 +148,86 @@ public class RangeTest {
         Range<Integer> r = Range.create(null, true, 10, true);
         assertEquals("(-Inf, 10]", r.toString());
     }
+
+    @Test
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public void testPrimitiveContainsMatchesCompare() {
+        System.out.println("   testPrimitiveContainsMatchesCompare");
+        
+        Range[] ranges = {
+            Range.create(-5, true, 5, false),
+            Range.create(null, false, 100L, true),
+            Range.create((byte) 10, false, (byte) 100, true),
+            Range.create(0.5f, true, 1.0f, false),
+            Range.create(-1.0, false, null, false),
+            Range.create(1.0, true, 1.0, true),
+            Range.create(3),
+            Range.create(Float.NaN),
+            Range.create(null, Range.INF)
+        };
+        
+        Number[] values = {
+            0, -5, 5, 4, 100, 101, Integer.MIN_VALUE, 
+            (byte) 10, (byte) 11, (byte) 100, (byte) -1, (byte) 0,
+            100L, Long.MAX_VALUE,
+            0.5f, 0.49999f, 1.0f, 0.99999f, Float.NaN, Float.POSITIVE_INFINITY,
+            -1.0, -1.0 + 1.0e-9, -0.999, 1.0, 1.0 + 1.0e-9, 3.0, Double.NaN, 
+            Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY
+        };
+        
+        for (Range r : ranges) {
+            for (Number value : values) {
+                boolean expected = referenceContains(r, value);
+                assertEquals(r + " " + value, expected, r.contains(value));
+                
+                if (value instanceof Double) {
+                    assertEquals(expected, r.contains(value.doubleValue()));
+                } else if (value instanceof Float) {
+                    assertEquals(expected, r.contains(value.floatValue()));
+                } else if (value instanceof Long) {
+                    assertEquals(expected, r.contains(value.longValue()));
+                } else if (value instanceof Integer) {
+                    assertEquals(expected, r.contains(value.intValue()));
+                } else {
+                    assertEquals(expected, r.contains(value.byteValue()));
+                }
+            }
+        }
+    }
+    
+    /*
+     * Tests if a range contains a value using NumberOperations.compare 
+     * as described in the Range class docs
+     */
+    private boolean referenceContains(Range r, Number value) {
+        boolean isNaN = Double.isNaN(value.doubleValue());
+        
+        if (r.isPoint()) {
+            if (r.getMin() != null) {
+                return NumberOperations.compare(r.getMin(), value) == 0;
+            }
+            return isNaN && !r.isMinInf() && !r.isMinNegInf();
+        }
+        
+        if (isNaN) {
+            return false;
+        }
+        
+        int comp;
+        if (r.getMin() != null) {
+            comp = NumberOperations.compare(value, r.getMin());
+            if (comp < 0 || (!r.isMinIncluded() && comp == 0)) {
+                return false;
+            }
+        }
+        
+        if (r.getMax() != null) {
+            comp = NumberOperations.compare(value, r.getMax());
+            if (comp > 0 || (!r.isMaxIncluded() && comp == 0)) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
 }
@@ -25,6 +25,9 @@
 
 package org.jaitools.numeric;
 
+import java.util.Arrays;
+import java.util.Random;
+
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -142,4 +145,125 @@ public class SampleStatsTest {
         assertTrue(Double.isNaN(SampleStats.variance(singleValue, true)));
     }
 
+    @Test
+    public void testPrimitiveMatchesBoxed() {
+        System.out.println("   primitive array methods match Double[] methods");
+        
+        Random rr = new Random(42);
+        final int offset = 3;
+        for (int trial = 0; trial < 500; trial++) {
+            int n = 1 + rr.nextInt(trial < 250 ? 10 : 200);
+            Double[] boxed = new Double[n];
+            double[] prim = new double[n + 2 * offset];
+            Arrays.fill(prim, -999);
+            
+            for (int i = 0; i < n; i++) {
+                double val;
+                int r = rr.nextInt(10);
+                if (r == 0) {
+                    val = Double.NaN;
+                } else if (r < 5) {
+                    val = rr.nextInt(5);  // plenty of ties for mode
+                } else {
+                    val = rr.nextGaussian() * 100;
+                }
+                boxed[i] = val;
+                prim[offset + i] = val;
+            }
+            
+            for (boolean ignoreNaN : new boolean[]{true, false}) {
+                double[] copy = prim.clone();
+                assertPrimitive(SampleStats.mean(boxed, ignoreNaN), 
+                        SampleStats.mean(copy, offset, n, ignoreNaN));
+                assertPrimitive(SampleStats.variance(boxed, ignoreNaN), 
+                        SampleStats.variance(copy, offset, n, ignoreNaN));
+                assertPrimitive(SampleStats.sdev(boxed, ignoreNaN), 
+                        SampleStats.sdev(copy, offset, n, ignoreNaN));
+                assertPrimitive(SampleStats.sum(boxed, ignoreNaN), 
+                        SampleStats.sum(copy, offset, n, ignoreNaN));
+                
+                if (!ignoreNaN || hasNonNaN(boxed)) {
+                    // the Double[] versions fail on all-NaN samples
+                    assertPrimitive(SampleStats.max(boxed, ignoreNaN), 
+                            SampleStats.max(copy, offset, n, ignoreNaN));
+                    assertPrimitive(SampleStats.min(boxed, ignoreNaN), 
+                            SampleStats.min(copy, offset, n, ignoreNaN));
+                    assertPrimitive(SampleStats.range(boxed, ignoreNaN), 
+                            SampleStats.range(copy, offset, n, ignoreNaN));
+                }
+                
+                double[] work = new double[n];
+                assertPrimitive(SampleStats.median(boxed, ignoreNaN), 
+                        SampleStats.median(copy, offset, n, ignoreNaN, work));
+                assertPrimitive(SampleStats.mode(boxed, ignoreNaN), 
+                        SampleStats.mode(copy, offset, n, ignoreNaN, work));
+                assertTrue(Arrays.equals(prim, copy));
+
+                // in-place versions
+                assertPrimitive(SampleStats.median(boxed, ignoreNaN), 
+                        SampleStats.median(copy, offset, n, ignoreNaN));
+                assertPrimitive(SampleStats.mode(boxed, ignoreNaN), 
+                        SampleStats.mode(copy, offset, n, ignoreNaN));
+                
+                // values outside the segment must be untouched
+                for (int i = 0; i < offset; i++) {
+                    assertEquals(-999, copy[i], 0);
+                    assertEquals(-999, copy[copy.length - 1 - i], 0);
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void testPrimitiveMedianLargeSample() {
+        System.out.println("   primitive median with large samples");
+        
+        Random rr = new Random(42);
+        for (int n = 1000; n <= 1001; n++) {
+            double[] data = new double[n];
+            for (int i = 0; i < n; i++) {
+                // many duplicates to exercise partitioning
+                data[i] = rr.nextInt(50);
+            }
+            double[] sorted = data.clone();
+            Arrays.sort(sorted);
+            double expected = n % 2 == 0 ? 
+                    (sorted[n / 2 - 1] + sorted[n / 2]) / 2 : sorted[n / 2];
+            
+            assertEquals(expected, SampleStats.median(data, 0, n, true), TOL);
+        }
+    }
+
+    @Test
+    public void testPrimitiveEmptySegment() {
+        System.out.println("   primitive methods with empty segment");
+        double[] data = {1, 2, 3};
+        assertTrue(Double.isNaN(SampleStats.max(data, 1, 0, true)));
+        assertTrue(Double.isNaN(SampleStats.median(data, 1, 0, true)));
+        assertTrue(Double.isNaN(SampleStats.mode(data, 1, 0, true)));
+        assertTrue(Double.isNaN(SampleStats.variance(data, 1, 0, true)));
+        assertEquals(0.0, SampleStats.sum(data, 1, 0, true), 0);
+    }
+
+    @Test(expected=IndexOutOfBoundsException.class)
+    public void testPrimitiveBadSegment() {
+        System.out.println("   primitive methods with bad segment");
+        SampleStats.median(new double[3], 2, 2, true);
+    }
+    
+    private static boolean hasNonNaN(Double[] data) {
+        for (Double d : data) {
+            if (!d.isNaN()) return true;
+        }
+        return false;
+    }
+
+    private static void assertPrimitive(double expected, double result) {
+        if (Double.isNaN(expected)) {
+            assertTrue(Double.isNaN(result));
+        } else {
+            assertEquals(expected, result, TOL);
+        }
+    }
+
 }
@@ -321,4 +321,196 @@ public class StreamingSampleStatsTest {
 
         assertEquals(7, streamStats.getNumNoData(Statistic.SUM));
     }
+
+    @Test
+    public void testPrimitiveOfferMatchesBoxed() {
+        System.out.println("   testPrimitiveOfferMatchesBoxed");
+
+        final Statistic[] stats = {
+            Statistic.MEAN, Statistic.VARIANCE, Statistic.MIN, Statistic.MAX,
+            Statistic.SUM, Statistic.MEDIAN, Statistic.APPROX_MEDIAN
+        };
+
+        for (Range.Type type : new Range.Type[] {Range.Type.INCLUDE, Range.Type.EXCLUDE}) {
+            StreamingSampleStats boxed = new StreamingSampleStats(type);
+            StreamingSampleStats primitive = new StreamingSampleStats(type);
+            StreamingSampleStats bulk = new StreamingSampleStats(type);
+
+            for (StreamingSampleStats sss : new StreamingSampleStats[] {boxed, primitive, bulk}) {
+                sss.setStatistics(stats);
+                for (Range<Double> r : createTestRanges()) {
+                    sss.addRange(r, type);
+                }
+                sss.addNoDataRange(Range.create(-1.0, true, -0.5, false));
+                sss.addNoDataValue(3.0);
+            }
+
+            double[] values = createTestValues();
+            for (double value : values) {
+                boxed.offer(Double.valueOf(value));
+                primitive.offer(value);
+            }
+            bulk.offer(values, 0, 10);
+            bulk.offer(values, 10, values.length - 10);
+
+            for (Statistic stat : stats) {
+                double expected = boxed.getStatisticValue(stat);
+                assertEquals(expected, primitive.getStatisticValue(stat), 0.0);
+                assertEquals(expected, bulk.getStatisticValue(stat), 0.0);
+                assertEquals(boxed.getNumAccepted(stat), primitive.getNumAccepted(stat));
+                assertEquals(boxed.getNumNoData(stat), primitive.getNumNoData(stat));
+                assertEquals(boxed.getNumNaN(stat), bulk.getNumNaN(stat));
+            }
+        }
+    }
+
+    @Test
+    public void testCompiledRangesMatchRangeContains() {
+        System.out.println("   testCompiledRangesMatchRangeContains");
+
+        List<Range<Double>> ranges = createTestRanges();
+        for (Range.Type type : new Range.Type[] {Range.Type.INCLUDE, Range.Type.EXCLUDE}) {
+            AbstractProcessor p = new SumProcessor();
+            for (Range<Double> r : ranges) {
+                p.addRange(r, type);
+            }
+
+            for (double value : createTestValues()) {
+                if (Double.isNaN(value)) {
+                    continue;
+                }
+                boolean inAny = false;
+                for (Range<Double> r : ranges) {
+                    inAny |= r.contains(value);
+                }
+                boolean expected = type == Range.Type.INCLUDE ? inAny : !inAny;
+                assertEquals("value " + value, expected, p.isAccepted(value));
+            }
+        }
+    }
+
+    @Test(expected=IndexOutOfBoundsException.class)
+    public void testOfferArrayBounds() {
+        System.out.println("   testOfferArrayBounds");
+
+        StreamingSampleStats streamStats = new StreamingSampleStats();
+        streamStats.setStatistic(Statistic.SUM);
+        streamStats.offer(new double[10], 5, 6);
+    }
+
+    @Test
+    public void testMerge() {
+        System.out.println("   testMerge");
+
+        final Statistic[] stats = {
+            Statistic.MEAN, Statistic.VARIANCE, Statistic.MIN, Statistic.MAX,
+            Statistic.RANGE, Statistic.SUM, Statistic.MEDIAN
+        };
+        final int numParts = 7;
+
+        StreamingSampleStats whole = new StreamingSampleStats();
+        whole.setStatistics(stats);
+        whole.addNoDataValue(0.0);
+
+        StreamingSampleStats[] parts = new StreamingSampleStats[numParts];
+        for (int i = 0; i < numParts; i++) {
+            parts[i] = new StreamingSampleStats();
+            parts[i].setStatistics(stats);
+            parts[i].addNoDataValue(0.0);
+        }
+
+        Random rr = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            double value = i % 100 == 0 ? Double.NaN : (double) (rr.nextInt(200) - 50);
+            whole.offer(value);
+            // uneven parts, leaving the last one empty
+            parts[rr.nextInt(numParts - 1) / 2 + (i % 2) * 3].offer(value);
+        }
+
+        StreamingSampleStats merged = parts[0];
+        for (int i = 1; i < numParts; i++) {
+            merged.merge(parts[i]);
+        }
+
+        for (Statistic stat : stats) {
+            assertEquals(stat.toString(),
+                    whole.getStatisticValue(stat), merged.getStatisticValue(stat), TOL);
+            assertEquals(whole.getNumOffered(stat), merged.getNumOffered(stat));
+            assertEquals(whole.getNumAccepted(stat), merged.getNumAccepted(stat));
+            assertEquals(whole.getNumNaN(stat), merged.getNumNaN(stat));
+            assertEquals(whole.getNumNoData(stat), merged.getNumNoData(stat));
+        }
+    }
+
+    @Test
+    public void testMergeApproxMedian() {
+        System.out.println("   testMergeApproxMedian");
+
+        StreamingSampleStats merged = new StreamingSampleStats();
+        merged.setStatistic(Statistic.APPROX_MEDIAN);
+
+        Random rr = new Random(42);
+        for (int part = 0; part < 4; part++) {
+            StreamingSampleStats sss = new StreamingSampleStats();
+            sss.setStatistic(Statistic.APPROX_MEDIAN);
+            for (int i = 0; i < 5000; i++) {
+                sss.offer(rr.nextDouble());
+            }
+            merged.merge(sss);
+        }
+
+        assertEquals(20000, merged.getNumAccepted(Statistic.APPROX_MEDIAN));
+        assertEquals(0.5, merged.getStatisticValue(Statistic.APPROX_MEDIAN), 0.05);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testMergeDifferentStatistics() {
+        System.out.println("   testMergeDifferentStatistics");
+
+        StreamingSampleStats sss1 = new StreamingSampleStats();
+        sss1.setStatistic(Statistic.MEAN);
+        StreamingSampleStats sss2 = new StreamingSampleStats();
+        sss2.setStatistic(Statistic.MAX);
+        sss1.merge(sss2);
+    }
+
+    /*
+     * Overlapping, nested, point and half-infinite ranges with both
+     * included and excluded bounds.
+     */
+    private List<Range<Double>> createTestRanges() {
+        List<Range<Double>> ranges = CollectionFactory.list();
+        ranges.add(Range.create(null, false, -10.0, true));
+        ranges.add(Range.create(0.0, true, 5.0, false));
+        ranges.add(Range.create(2.0, false, 4.0, true));
+        ranges.add(Range.create(5.0, false, 6.0, false));
+        ranges.add(Range.create(7.5, true, 7.5, true));
+        ranges.add(Range.create(8.0, false, 20.0, true));
+        ranges.add(Range.create(10.0, true, 12.0, false));
+        ranges.add(Range.create(50.0, false, null, false));
+        ranges.add(Range.create(Double.NaN));
+        return ranges;
+    }
+
+    /*
+     * Values on, near and between the bounds of the test ranges.
+     */
+    private double[] createTestValues() {
+        double[] bounds = {-10, -1, -0.5, 0, 2, 3, 4, 5, 6, 7.5, 8, 10, 12, 20, 50};
+        double[] offsets = {-0.1, -1.0e-6, -1.0e-10, 0, 1.0e-10, 1.0e-6, 0.1};
+
+        double[] values = new double[bounds.length * offsets.length + 5];
+        int k = 0;
+        for (double b : bounds) {
+            for (double d : offsets) {
+                values[k++] = b + d;
+            }
+        }
+        values[k++] = Double.NaN;
+        values[k++] = Double.NEGATIVE_INFINITY;
+        values[k++] = Double.POSITIVE_INFINITY;
+        values[k++] = -1000;
+        values[k++] = Double.NaN;
+        return values;
+    }
 }
@@ -0,0 +1,157 @@
+/* 
+ *  Copyright (c) 2013, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.tilecache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the statistics recorded by {@code CacheMetrics}.
+ *
+ * @author Michael Bedward
+ * @since 1.5
+ * @version $Id$
+ */
+public class CacheMetricsTest {
+
+    @Test
+    public void histogramBuckets() {
+        System.out.println("   histogram buckets");
+
+        assertEquals(0, LatencyHistogram.bucketFor(0));
+        assertEquals(1, LatencyHistogram.bucketFor(1));
+        assertEquals(2, LatencyHistogram.bucketFor(2));
+        assertEquals(2, LatencyHistogram.bucketFor(3));
+        assertEquals(11, LatencyHistogram.bucketFor(1024));
+        
+        for (long v = 1; v < 100000; v = v * 3 + 1) {
+            int b = LatencyHistogram.bucketFor(v);
+            assertTrue(v <= LatencyHistogram.bucketUpperBound(b));
+            assertTrue(v > LatencyHistogram.bucketUpperBound(b - 1));
+        }
+    }
+
+    @Test
+    public void latencyPercentiles() {
+        System.out.println("   latency percentiles");
+
+        CacheMetrics metrics = new CacheMetrics();
+        for (int i = 0; i < 99; i++) {
+            metrics.diskRead(10, 1000);
+        }
+        metrics.diskRead(10, 1000000);
+
+        LatencyHistogram h = metrics.snapshot().getDiskReadLatency();
+        assertEquals(100, h.getCount());
+        assertEquals(99 * 1000 + 1000000, h.getTotalNanos());
+        assertEquals(1000000, h.getMaxNanos());
+        assertEquals((99 * 1000 + 1000000) / 100.0, h.getMeanNanos(), 1.0e-6);
+
+        // bucket upper bounds are within a factor of 2 of the value
+        long p50 = h.getPercentileNanos(50);
+        assertTrue(p50 >= 1000 && p50 < 2000);
+        long p99 = h.getPercentileNanos(99);
+        assertTrue(p99 >= 1000 && p99 < 2000);
+        assertEquals(1000000, h.getPercentileNanos(100));
+    }
+
+    @Test
+    public void countersAndReset() {
+        System.out.println("   counters and reset");
+
+        CacheMetrics metrics = new CacheMetrics();
+        metrics.memoryHit();
+        metrics.memoryHit();
+        metrics.diskHit();
+        metrics.miss();
+        metrics.eviction();
+        metrics.diskRead(100, 10);
+        metrics.diskWrite(200, 20);
+        metrics.lockWait(5);
+
+        CacheStatistics stats = metrics.snapshot();
+        assertEquals(2, stats.getMemoryHits());
+        assertEquals(1, stats.getDiskHits());
+        assertEquals(1, stats.getMisses());
+        assertEquals(4, stats.getRequests());
+        assertEquals(0.75, stats.getHitRatio(), 1.0e-6);
+        assertEquals(1, stats.getEvictions());
+        assertEquals(100, stats.getBytesRead());
+        assertEquals(200, stats.getBytesWritten());
+        assertEquals(1, stats.getLockWaitLatency().getCount());
+
+        metrics.reset();
+        stats = metrics.snapshot();
+        assertEquals(0, stats.getRequests());
+        assertEquals(0, stats.getBytesWritten());
+        assertEquals(0, stats.getDiskWriteLatency().getCount());
+        assertEquals(0, stats.getDiskWriteLatency().getMaxNanos());
+        assertEquals(0.0, stats.getHitRatio(), 0.0);
+    }
+
+    @Test
+    public void concurrentHits() throws Exception {
+        System.out.println("   concurrent counting");
+
+        final int numThreads = 4;
+        final int hitsPerThread = 100000;
+        final CacheMetrics metrics = new CacheMetrics();
+
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (int i = 0; i < numThreads; i++) {
+                futures.add(executor.submit(new Callable<Object>() {
+                    public Object call() {
+                        for (int k = 0; k < hitsPerThread; k++) {
+                            metrics.memoryHit();
+                        }
+                        metrics.lockWait(hitsPerThread);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> f : futures) {
+                f.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        CacheStatistics stats = metrics.snapshot();
+        assertEquals(numThreads * hitsPerThread, stats.getMemoryHits());
+        assertEquals(numThreads, stats.getLockWaitLatency().getCount());
+        assertEquals(hitsPerThread, stats.getLockWaitLatency().getMaxNanos());
+    }
+
+}
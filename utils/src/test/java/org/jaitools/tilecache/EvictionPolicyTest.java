@@ -0,0 +1,173 @@
+/* 
+ *  Copyright (c) 2013, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.tilecache;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@code EvictionPolicy} implementations.
+ *
+ * @author Michael Bedward
+ * @since 1.5
+ * @version $Id$
+ */
+public class EvictionPolicyTest {
+
+    private static final int TILE_WIDTH = 16;
+    private static final int NUM_TILES = 5;
+
+    private DiskCachedTile[] tiles;
+
+    @Before
+    public void setup() throws Exception {
+        ColorModel cm = ColorModel.getRGBdefault();
+        SampleModel sm = cm.createCompatibleSampleModel(TILE_WIDTH, TILE_WIDTH);
+        WritableRaster raster = Raster.createWritableRaster(sm, new Point(0, 0));
+        RenderedImage image = new BufferedImage(cm, raster, false, null);
+
+        tiles = new DiskCachedTile[NUM_TILES];
+        for (int i = 0; i < NUM_TILES; i++) {
+            tiles[i] = new DiskCachedTile(Integer.valueOf(i), image, i, 0, raster, false, null);
+            tiles[i].setTileTimeStamp(i);
+        }
+    }
+
+    @Test
+    public void lruVictimIsOldestTile() {
+        System.out.println("   LRU policy victim order");
+
+        EvictionPolicy policy = new LRUEvictionPolicy();
+        assertTrue(policy.isEmpty());
+        assertNull(policy.nextVictim());
+
+        for (DiskCachedTile tile : tiles) {
+            policy.add(tile);
+        }
+
+        for (DiskCachedTile tile : tiles) {
+            assertSame(tile, policy.nextVictim());
+            policy.remove(tile);
+        }
+        assertTrue(policy.isEmpty());
+    }
+
+    @Test
+    public void lruTouchMovesTileToBack() {
+        System.out.println("   LRU policy touch");
+
+        EvictionPolicy policy = new LRUEvictionPolicy();
+        for (DiskCachedTile tile : tiles) {
+            policy.add(tile);
+        }
+
+        policy.touch(tiles[0]);
+        assertSame(tiles[1], policy.nextVictim());
+
+        policy.remove(tiles[1]);
+        policy.remove(tiles[2]);
+        policy.remove(tiles[3]);
+        policy.remove(tiles[4]);
+        assertSame(tiles[0], policy.nextVictim());
+    }
+
+    @Test
+    public void comparatorPolicyMatchesTimeStamps() {
+        System.out.println("   comparator policy victim order");
+
+        EvictionPolicy policy = new ComparatorEvictionPolicy(null);
+        for (int i = NUM_TILES - 1; i >= 0; i--) {
+            policy.add(tiles[i]);
+        }
+
+        assertSame(tiles[0], policy.nextVictim());
+
+        // make the oldest tile the newest
+        tiles[0].setTileTimeStamp(NUM_TILES);
+        policy.touch(tiles[0]);
+        assertSame(tiles[1], policy.nextVictim());
+
+        policy.remove(tiles[1]);
+        assertSame(tiles[2], policy.nextVictim());
+
+        policy.clear();
+        assertTrue(policy.isEmpty());
+        assertNull(policy.nextVictim());
+    }
+
+    @Test
+    public void comparatorPolicyWithConcurrentAccess() throws Exception {
+        System.out.println("   comparator policy with concurrent time stamp updates");
+
+        ColorModel cm = ColorModel.getRGBdefault();
+        SampleModel sm = cm.createCompatibleSampleModel(TILE_WIDTH, TILE_WIDTH);
+        WritableRaster raster = Raster.createWritableRaster(sm, new Point(0, 0));
+        RenderedImage image = new BufferedImage(cm, raster, false, null);
+
+        final int numTiles = 2000;
+        final DiskCachedTile[] many = new DiskCachedTile[numTiles];
+        EvictionPolicy policy = new ComparatorEvictionPolicy(null);
+        for (int i = 0; i < numTiles; i++) {
+            many[i] = new DiskCachedTile(Integer.valueOf(i), image, i, 0, raster, false, null);
+            many[i].setTileTimeStamp(i);
+            policy.add(many[i]);
+        }
+
+        // as the cache does, update access times without the policy's lock
+        final AtomicBoolean done = new AtomicBoolean(false);
+        Thread accessor = new Thread(new Runnable() {
+            public void run() {
+                Random rand = new Random(42);
+                while (!done.get()) {
+                    many[rand.nextInt(numTiles)].setTileTimeStamp(rand.nextInt(numTiles));
+                }
+            }
+        });
+        accessor.start();
+
+        try {
+            for (int k = 0; k < 200; k++) {
+                policy.touch(many[k]);
+                assertNotNull(policy.nextVictim());
+            }
+        } finally {
+            done.set(true);
+            accessor.join();
+        }
+    }
+
+}
@@ -0,0 +1,390 @@
+/* 
+ *  Copyright (c) 2013, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.tilecache;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferDouble;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@code MappedTileStore}.
+ *
+ * @author Michael Bedward
+ * @since 1.5
+ * @version $Id$
+ */
+public class MappedTileStoreTest {
+
+    private static final int TILE_WIDTH = 32;
+    private static final int NUM_BANKS = 3;
+    private static final int DATA_LEN = TILE_WIDTH * TILE_WIDTH;
+
+    private MappedTileStore store;
+
+    @Before
+    public void setup() {
+        // room for 4 double tiles per segment
+        store = new MappedTileStore(4L * NUM_BANKS * DATA_LEN * 8);
+    }
+
+    @After
+    public void cleanup() {
+        store.dispose();
+    }
+
+    @Test
+    public void writeAndReadDouble() throws Exception {
+        System.out.println("   write and read double data");
+
+        DataBufferDouble db = new DataBufferDouble(DATA_LEN, NUM_BANKS);
+        for (int b = 0; b < NUM_BANKS; b++) {
+            for (int i = 0; i < DATA_LEN; i++) {
+                db.setElemDouble(b, i, b * 1000 + i + 0.5);
+            }
+        }
+
+        store.write("a", db);
+        assertTrue(store.contains("a"));
+
+        DataBuffer result = store.read("a", DataBuffer.TYPE_DOUBLE, NUM_BANKS, DATA_LEN);
+        assertTrue(result instanceof DataBufferDouble);
+        assertDataEquals(db, result);
+    }
+
+    @Test
+    public void writeAndReadInt() throws Exception {
+        System.out.println("   write and read int data");
+
+        DataBufferInt db = new DataBufferInt(DATA_LEN, NUM_BANKS);
+        for (int b = 0; b < NUM_BANKS; b++) {
+            for (int i = 0; i < DATA_LEN; i++) {
+                db.setElem(b, i, -(b * 1000 + i));
+            }
+        }
+
+        store.write("a", db);
+        DataBuffer result = store.read("a", DataBuffer.TYPE_INT, NUM_BANKS, DATA_LEN);
+        assertDataEquals(db, result);
+    }
+
+    @Test
+    public void writeAndReadUShort() throws Exception {
+        System.out.println("   write and read ushort data");
+
+        DataBufferUShort db = new DataBufferUShort(DATA_LEN, 1);
+        for (int i = 0; i < DATA_LEN; i++) {
+            db.setElem(i, 65535 - i);
+        }
+
+        store.write("a", db);
+        DataBuffer result = store.read("a", DataBuffer.TYPE_USHORT, 1, DATA_LEN);
+        assertDataEquals(db, result);
+    }
+
+    @Test
+    public void readMissingTile() {
+        System.out.println("   read missing tile");
+
+        assertFalse(store.contains("missing"));
+        assertNull(store.read("missing", DataBuffer.TYPE_BYTE, 1, DATA_LEN));
+    }
+
+    @Test
+    public void readLargerThanSlot() throws Exception {
+        System.out.println("   read more data than the slot holds");
+
+        store.write("a", new DataBufferInt(16, 1));
+        assertNull(store.read("a", DataBuffer.TYPE_DOUBLE, NUM_BANKS, DATA_LEN));
+    }
+
+    @Test
+    public void readDuringDispose() throws Exception {
+        System.out.println("   read while the store is disposed of");
+
+        final int numThreads = 4;
+        final int numRounds = 500;
+        final int dataLen = 16;
+        final DataBufferInt db = new DataBufferInt(dataLen);
+        for (int i = 0; i < dataLen; i++) {
+            db.setElem(i, i);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            for (int round = 0; round < numRounds; round++) {
+                final MappedTileStore roundStore = new MappedTileStore(4096);
+                roundStore.write("a", db);
+
+                final CountDownLatch started = new CountDownLatch(numThreads);
+                List<Future<Object>> futures = new ArrayList<Future<Object>>();
+                for (int i = 0; i < numThreads; i++) {
+                    futures.add(executor.submit(new Callable<Object>() {
+                        public Object call() {
+                            started.countDown();
+                            DataBuffer result;
+                            while ((result = roundStore.read("a", DataBuffer.TYPE_INT, 1, dataLen)) != null) {
+                                assertDataEquals(db, result);
+                            }
+                            return null;
+                        }
+                    }));
+                }
+
+                started.await();
+                roundStore.dispose();
+
+                // any exception in a reader is re-thrown here
+                for (Future<Object> f : futures) {
+                    f.get();
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void slotsAreReused() throws Exception {
+        System.out.println("   slot re-use");
+
+        DataBufferDouble db = new DataBufferDouble(DATA_LEN, NUM_BANKS);
+        for (int i = 0; i < 4; i++) {
+            store.write(Integer.valueOf(i), db);
+        }
+        assertEquals(1, store.getNumSegments());
+
+        store.delete(Integer.valueOf(0));
+        assertFalse(store.contains(Integer.valueOf(0)));
+        store.write(Integer.valueOf(4), db);
+        assertEquals(1, store.getNumSegments());
+
+        store.write(Integer.valueOf(5), db);
+        assertEquals(2, store.getNumSegments());
+        assertEquals(5, store.getNumTiles());
+    }
+
+    @Test
+    public void tileWithStore() throws Exception {
+        System.out.println("   DiskCachedTile with mapped store");
+
+        BufferedImage image = new BufferedImage(TILE_WIDTH, TILE_WIDTH, BufferedImage.TYPE_INT_ARGB);
+        SampleModel sm = image.getSampleModel();
+        WritableRaster raster = Raster.createWritableRaster(sm, new Point(0, 0));
+        for (int y = 0; y < TILE_WIDTH; y++) {
+            for (int x = 0; x < TILE_WIDTH; x++) {
+                raster.setSample(x, y, 0, x * y);
+            }
+        }
+
+        DiskCachedTile tile = new DiskCachedTile(
+                Integer.valueOf(42), image, 0, 0, raster, true, null, store, null);
+
+        assertTrue(tile.cachedToDisk());
+        assertNull(tile.getFile());
+
+        Raster copy = tile.readData();
+        assertDataEquals(raster.getDataBuffer(), copy.getDataBuffer());
+
+        tile.deleteDiskCopy();
+        assertFalse(tile.cachedToDisk());
+        assertFalse(store.contains(Integer.valueOf(42)));
+    }
+
+    @Test
+    public void persistentStore() throws Exception {
+        System.out.println("   persistent store reopened");
+
+        File folder = createTempFolder();
+        MappedTileStore store1 = null;
+        MappedTileStore store2 = null;
+        try {
+            store1 = MappedTileStore.open(folder, 1024 * 1024, false);
+            assertTrue(store1.isPersistent());
+
+            BufferedImage image = new BufferedImage(TILE_WIDTH, TILE_WIDTH, BufferedImage.TYPE_INT_ARGB);
+            WritableRaster raster = Raster.createWritableRaster(image.getSampleModel(), new Point(0, 0));
+            for (int y = 0; y < TILE_WIDTH; y++) {
+                for (int x = 0; x < TILE_WIDTH; x++) {
+                    raster.setSample(x, y, 0, x + y);
+                }
+            }
+
+            PersistentTileKey key = new PersistentTileKey("image", 0, 0);
+            new DiskCachedTile(key, image, 0, 0, raster, true, null, store1, null);
+
+            // a slot that will be free in the index
+            PersistentTileKey other = new PersistentTileKey("image", 1, 0);
+            store1.write(other, raster.getDataBuffer());
+            store1.delete(other);
+
+            store1.saveIndex(false);
+            assertTrue(new File(folder, MappedTileStore.INDEX_FILE).exists());
+
+            store2 = MappedTileStore.open(folder, 1024 * 1024, false);
+            assertEquals(store1.getByteOrder(), store2.getByteOrder());
+            assertEquals(1, store2.getNumTiles());
+            assertTrue(store2.contains(new PersistentTileKey("image", 0, 0)));
+            assertFalse(store2.contains(other));
+
+            DiskCachedTile tile = new DiskCachedTile(key, image, 0, 0, null, store2, null);
+            assertTrue(tile.cachedToDisk());
+            assertEquals(raster.getBounds().getLocation(), tile.getLocation());
+            assertDataEquals(raster.getDataBuffer(), tile.readData().getDataBuffer());
+
+            // the free slot is re-used
+            store2.write(other, raster.getDataBuffer());
+            assertEquals(store1.getNumSegments(), store2.getNumSegments());
+
+        } finally {
+            if (store1 != null) {
+                store1.dispose();
+            }
+            if (store2 != null) {
+                store2.dispose();
+            }
+            folder.delete();
+        }
+    }
+
+    @Test
+    public void persistentStoreIndexedSlotNotReused() throws Exception {
+        System.out.println("   indexed slot kept until the index is saved");
+
+        File folder = createTempFolder();
+        MappedTileStore store1 = null;
+        MappedTileStore store2 = null;
+        try {
+            store1 = MappedTileStore.open(folder, 1024 * 1024, false);
+
+            DataBufferInt original = new DataBufferInt(DATA_LEN, 1);
+            DataBufferInt other = new DataBufferInt(DATA_LEN, 1);
+            for (int i = 0; i < DATA_LEN; i++) {
+                original.setElem(i, i);
+                other.setElem(i, -1);
+            }
+
+            PersistentTileKey key = new PersistentTileKey("image", 0, 0);
+            store1.write(key, original);
+            store1.saveIndex(false);
+
+            // the tile outgrows its slot and another tile of the original
+            // size is written, but the index is not saved again
+            store1.write(key, new DataBufferDouble(DATA_LEN, NUM_BANKS));
+            store1.write(new PersistentTileKey("image", 1, 0), other);
+
+            // a later session sees the tile as it was when the index was saved
+            store2 = MappedTileStore.open(folder, 1024 * 1024, false);
+            assertEquals(1, store2.getNumTiles());
+            assertDataEquals(original, store2.read(key, DataBuffer.TYPE_INT, 1, DATA_LEN));
+
+        } finally {
+            if (store1 != null) {
+                store1.dispose();
+            }
+            if (store2 != null) {
+                store2.dispose();
+            }
+            folder.delete();
+        }
+    }
+
+    @Test
+    public void persistentStoreCompressionMismatch() throws Exception {
+        System.out.println("   persistent store with different compression setting");
+
+        File folder = createTempFolder();
+        MappedTileStore store1 = null;
+        MappedTileStore store2 = null;
+        try {
+            store1 = MappedTileStore.open(folder, 1024 * 1024, false);
+            store1.write(new PersistentTileKey("image", 0, 0), new DataBufferInt(DATA_LEN, NUM_BANKS));
+            store1.saveIndex(false);
+
+            store2 = MappedTileStore.open(folder, 1024 * 1024, true);
+            assertEquals(0, store2.getNumTiles());
+            assertFalse(new File(folder, MappedTileStore.INDEX_FILE).exists());
+
+        } finally {
+            if (store1 != null) {
+                store1.dispose();
+            }
+            if (store2 != null) {
+                store2.dispose();
+            }
+            folder.delete();
+        }
+    }
+
+    @Test
+    public void slotSizes() {
+        System.out.println("   slot sizes");
+
+        assertEquals(MappedTileStore.MIN_SLOT_SIZE, MappedTileStore.slotSize(1));
+        assertEquals(512 * 1024, MappedTileStore.slotSize(512 * 1024));
+
+        int n = 300000;
+        int size = MappedTileStore.slotSize(n);
+        assertTrue(size >= n);
+        assertTrue(size - n <= n / 8);
+    }
+
+    private File createTempFolder() throws Exception {
+        File folder = File.createTempFile("tilestore", "");
+        assertTrue(folder.delete());
+        assertTrue(folder.mkdir());
+        return folder;
+    }
+
+    private void assertDataEquals(DataBuffer expected, DataBuffer result) {
+        assertEquals(expected.getNumBanks(), result.getNumBanks());
+        assertEquals(expected.getSize(), result.getSize());
+        for (int b = 0; b < expected.getNumBanks(); b++) {
+            for (int i = 0; i < expected.getSize(); i++) {
+                assertEquals(expected.getElemDouble(b, i), result.getElemDouble(b, i), 0.0d);
+            }
+        }
+    }
+
+}
@@ -25,8 +25,23 @@
 
 package org.jaitools.tilecache;
 
+import java.awt.Point;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
 import java.io.File;
-
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.media.jai.JAI;
 import javax.media.jai.RenderedOp;
 import javax.media.jai.TileCache;
@@ -301,4 +316,274 @@ public class TileCacheTest {
     }
 
 
+    /**
+     * Test that tiles are served correctly when a cache with a 
+     * concurrency level greater than 1 is used by many threads
+     * while being forced to swap tiles between memory and disk
+     */
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        System.out.println("   concurrent access with lock stripes");
+
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put(DiskMemTileCache.KEY_CONCURRENCY_LEVEL, 8);
+        final DiskMemTileCache stripedCache = new DiskMemTileCache(params);
+        assertEquals(8, stripedCache.getConcurrencyLevel());
+
+        JAI.getDefaultInstance().setTileCache(stripedCache);
+        try {
+            final RenderedOp op = helper.simpleJAIOp(4, 4);
+            stripedCache.setMemoryCapacity(helper.getTileMemSize() * 3);
+            op.getTiles();
+
+            final int numThreads = 8;
+            ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < numThreads; i++) {
+                final int offset = i;
+                results.add(executor.submit(new Callable<Boolean>() {
+                    public Boolean call() throws Exception {
+                        for (int k = 0; k < 50; k++) {
+                            int index = (k + offset) % 16;
+                            Raster r = op.getTile(index % 4, index / 4);
+                            if (r.getSampleDouble(r.getMinX(), r.getMinY(), 0) != 2.0d) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+
+            for (Future<Boolean> f : results) {
+                assertTrue(f.get());
+            }
+            executor.shutdown();
+
+            assertEquals(16, stripedCache.getNumTiles());
+            assertTrue(stripedCache.getCurrentMemory() <= stripedCache.getMemoryCapacity());
+
+        } finally {
+            stripedCache.flush();
+            JAI.getDefaultInstance().setTileCache(cache);
+        }
+    }
+
+    /**
+     * Test swapping tiles in and out of memory when the cache
+     * writes tiles to a mapped tile store
+     */
+    @Test
+    public void testMappedTileStore() {
+        System.out.println("   swapping tiles with mapped tile store");
+
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put(DiskMemTileCache.KEY_MAPPED_TILE_STORE, Boolean.TRUE);
+        params.put(DiskMemTileCache.KEY_MAPPED_SEGMENT_SIZE, helper.getTileMemSize() * 4);
+        DiskMemTileCache mappedCache = new DiskMemTileCache(params);
+
+        JAI.getDefaultInstance().setTileCache(mappedCache);
+        try {
+            RenderedOp op = helper.simpleJAIOp(3, 2);
+            mappedCache.setMemoryCapacity(helper.getTileMemSize() * 2);
+            op.getTiles();
+            assertEquals(6, mappedCache.getNumTiles());
+
+            for (int y = 0; y < 2; y++) {
+                for (int x = 0; x < 3; x++) {
+                    Raster r = op.getTile(x, y);
+                    assertEquals(2.0d, r.getSampleDouble(r.getMinX(), r.getMinY(), 0), 0.0d);
+                }
+            }
+
+        } finally {
+            mappedCache.flush();
+            JAI.getDefaultInstance().setTileCache(cache);
+        }
+    }
+
+    /**
+     * Test retrieving tiles when the cache uses background threads
+     * for writing evicted tiles and reading tiles ahead
+     */
+    @Test
+    public void testBackgroundIO() throws Exception {
+        System.out.println("   background write-behind and read-ahead");
+
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put(DiskMemTileCache.KEY_IO_THREADS, 2);
+        DiskMemTileCache ioCache = new DiskMemTileCache(params);
+
+        JAI.getDefaultInstance().setTileCache(ioCache);
+        try {
+            RenderedOp op = helper.simpleJAIOp(4, 4);
+            op.getTiles();
+            assertEquals(16, ioCache.getNumTiles());
+
+            // evict most tiles, then leave room for tiles to be read ahead
+            ioCache.setMemoryCapacity(helper.getTileMemSize() * 2);
+            ioCache.setMemoryCapacity(helper.getTileMemSize() * 8);
+            
+            Point[] indices = new Point[4];
+            for (int i = 0; i < indices.length; i++) {
+                indices[i] = new Point(i, 1);
+            }
+
+            Raster[] rasters = ioCache.getTiles(op.getCurrentRendering(), indices);
+            assertEquals(indices.length, rasters.length);
+            for (Raster r : rasters) {
+                assertNotNull(r);
+                assertEquals(2.0d, r.getSampleDouble(r.getMinX(), r.getMinY(), 0), 0.0d);
+            }
+            assertTrue(ioCache.getCurrentMemory() <= ioCache.getMemoryCapacity());
+
+        } finally {
+            ioCache.flush();
+            JAI.getDefaultInstance().setTileCache(cache);
+        }
+    }
+
+    /**
+     * A tile that is removed and added again while a read-ahead of its 
+     * old data is pending should be served with its new data
+     */
+    @Test
+    public void testReplaceDuringReadAhead() throws Exception {
+        System.out.println("   replace tile during read-ahead");
+
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put(DiskMemTileCache.KEY_IO_THREADS, 2);
+        params.put(DiskMemTileCache.KEY_ALWAYS_DISK_CACHE, Boolean.TRUE);
+        DiskMemTileCache ioCache = new DiskMemTileCache(params);
+
+        JAI.getDefaultInstance().setTileCache(ioCache);
+        try {
+            RenderedOp op = helper.simpleJAIOp(3, 3);
+            op.getTiles();
+            RenderedImage owner = op.getCurrentRendering();
+            
+            final int tileX = 1;
+            final int tileY = 0;
+            Point origin = new Point(
+                    owner.getTileGridXOffset() + tileX * owner.getTileWidth(),
+                    owner.getTileGridYOffset() + tileY * owner.getTileHeight());
+            
+            for (int i = 0; i < 20; i++) {
+                // tiles are all on disk; make them non-resident and then
+                // request a neighbour so that this tile is read ahead
+                ioCache.flushMemory();
+                ioCache.getTiles(owner, new Point[]{ new Point(0, 0) });
+                
+                WritableRaster replacement = Raster.createWritableRaster(
+                        owner.getSampleModel(), origin);
+                double value = 10.0d + i;
+                for (int y = 0; y < replacement.getHeight(); y++) {
+                    for (int x = 0; x < replacement.getWidth(); x++) {
+                        replacement.setSample(origin.x + x, origin.y + y, 0, value);
+                    }
+                }
+                
+                ioCache.remove(owner, tileX, tileY);
+                ioCache.add(owner, tileX, tileY, replacement);
+                ioCache.flushMemory();
+                
+                Raster r = ioCache.getTile(owner, tileX, tileY);
+                assertNotNull(r);
+                assertEquals(value, r.getSampleDouble(origin.x, origin.y, 0), 0.0d);
+            }
+
+        } finally {
+            ioCache.flush();
+            JAI.getDefaultInstance().setTileCache(cache);
+        }
+    }
+
+    @Test
+    public void testStatistics() throws Exception {
+        System.out.println("   cache statistics");
+
+        RenderedOp op = helper.simpleJAIOp(3, 2);
+        cache.setMemoryCapacity(helper.getTileMemSize() * 3);
+        op.getTiles();
+
+        CacheStatistics stats = cache.getStatistics();
+        // each tile was requested, and missed, before being computed
+        assertTrue(stats.getMisses() >= 6);
+        assertTrue(stats.getEvictions() >= 3);
+        assertEquals(stats.getDiskWriteLatency().getCount() * helper.getTileMemSize(), 
+                stats.getBytesWritten());
+
+        cache.resetStatistics();
+        assertEquals(0, cache.getStatistics().getRequests());
+
+        for (int y = 0; y < 2; y++) {
+            for (int x = 0; x < 3; x++) {
+                assertNotNull(cache.getTile(op.getCurrentRendering(), x, y));
+            }
+        }
+
+        stats = cache.getStatistics();
+        assertEquals(6, stats.getRequests());
+        assertEquals(0, stats.getMisses());
+        assertTrue(stats.getDiskHits() > 0);
+        assertEquals(stats.getDiskHits(), stats.getDiskReadLatency().getCount());
+        assertEquals(stats.getDiskHits() * helper.getTileMemSize(), stats.getBytesRead());
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("org.jaitools:type=DiskMemTileCache,name=test");
+        cache.registerMBean(name);
+        try {
+            assertEquals(6, server.getAttribute(name, "NumTiles"));
+            assertEquals(stats.getDiskHits(), server.getAttribute(name, "DiskHits"));
+        } finally {
+            cache.unregisterMBean();
+        }
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void testPersistentCache() throws Exception {
+        System.out.println("   persistent cache reopened");
+
+        File folder = File.createTempFile("tilecache", "");
+        assertTrue(folder.delete() && folder.mkdir());
+
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put(DiskMemTileCache.KEY_PERSISTENT_FOLDER, folder);
+        DiskMemTileCache cache1 = new DiskMemTileCache(params);
+        DiskMemTileCache cache2 = null;
+        assertTrue(cache1.isPersistent());
+
+        JAI.getDefaultInstance().setTileCache(cache1);
+        try {
+            RenderedOp op1 = helper.simpleJAIOp(2, 2);
+            cache1.setPersistentImageKey(op1, "test-op");
+            assertEquals("test-op", cache1.getPersistentImageKey(op1));
+            op1.getTiles();
+            cache1.persist();
+
+            // a new cache, as in a later session
+            cache2 = new DiskMemTileCache(params);
+            JAI.getDefaultInstance().setTileCache(cache2);
+
+            RenderedOp op2 = helper.simpleJAIOp(2, 2);
+            cache2.setPersistentImageKey(op2, "test-op");
+            Raster r = op2.getTile(1, 1);
+            assertEquals(2.0d, r.getSampleDouble(r.getMinX(), r.getMinY(), 0), 0.0d);
+
+            CacheStatistics stats = cache2.getStatistics();
+            assertEquals(1, stats.getDiskHits());
+            assertEquals(0, stats.getMisses());
+            assertEquals(1, cache2.getNumTiles());
+
+        } finally {
+            if (cache2 != null) {
+                cache2.flush();
+            }
+            cache1.flush();
+            JAI.getDefaultInstance().setTileCache(cache);
+            folder.delete();
+        }
+    }
+
 }
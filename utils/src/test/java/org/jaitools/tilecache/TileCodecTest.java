@@ -0,0 +1,186 @@
+/* 
+ *  Copyright (c) 2013, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.tilecache;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferDouble;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferShort;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@code TileCodec}.
+ *
+ * @author Michael Bedward
+ * @since 1.5
+ * @version $Id$
+ */
+public class TileCodecTest {
+
+    private static final int DATA_LEN = 64 * 64;
+    private static final int NUM_BANKS = 2;
+
+    private final TileCodec codec = new TileCodec(1);
+    private final Random rand = new Random(42);
+
+    @Test
+    public void constantTile() throws Exception {
+        System.out.println("   constant tile");
+
+        DataBufferDouble db = new DataBufferDouble(DATA_LEN, NUM_BANKS);
+        for (int b = 0; b < NUM_BANKS; b++) {
+            for (int i = 0; i < DATA_LEN; i++) {
+                db.setElemDouble(b, i, b + 0.25);
+            }
+        }
+
+        byte[] encoded = codec.encode(db, ByteOrder.nativeOrder());
+        // flag byte plus one value per bank
+        assertEquals(NUM_BANKS * 9, encoded.length);
+        assertRoundTrip(db, encoded, ByteOrder.nativeOrder());
+    }
+
+    @Test
+    public void categoricalTile() throws Exception {
+        System.out.println("   categorical tile");
+
+        DataBufferByte db = new DataBufferByte(DATA_LEN, NUM_BANKS);
+        for (int b = 0; b < NUM_BANKS; b++) {
+            for (int i = 0; i < DATA_LEN; i++) {
+                db.setElem(b, i, (i / 500) % 4);
+            }
+        }
+
+        byte[] encoded = codec.encode(db, ByteOrder.nativeOrder());
+        assertTrue(encoded.length < DATA_LEN * NUM_BANKS / 10);
+        assertRoundTrip(db, encoded, ByteOrder.nativeOrder());
+    }
+
+    @Test
+    public void randomTiles() throws Exception {
+        System.out.println("   random data tiles");
+
+        DataBufferInt dbi = new DataBufferInt(DATA_LEN, NUM_BANKS);
+        DataBufferFloat dbf = new DataBufferFloat(DATA_LEN, NUM_BANKS);
+        DataBufferShort dbs = new DataBufferShort(DATA_LEN, NUM_BANKS);
+        for (int b = 0; b < NUM_BANKS; b++) {
+            for (int i = 0; i < DATA_LEN; i++) {
+                dbi.setElem(b, i, rand.nextInt());
+                dbf.setElemFloat(b, i, rand.nextFloat());
+                dbs.setElem(b, i, rand.nextInt(65536) - 32768);
+            }
+        }
+
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            assertRoundTrip(dbi, codec.encode(dbi, order), order);
+            assertRoundTrip(dbf, codec.encode(dbf, order), order);
+            assertRoundTrip(dbs, codec.encode(dbs, order), order);
+        }
+    }
+
+    @Test
+    public void codecsShareDeflater() throws Exception {
+        System.out.println("   codecs with different levels on one thread");
+
+        DataBufferByte db = new DataBufferByte(DATA_LEN, 1);
+        for (int i = 0; i < DATA_LEN; i++) {
+            db.setElem(i, (i % 37) + rand.nextInt(2));
+        }
+
+        TileCodec none = new TileCodec(0);
+        TileCodec best = new TileCodec(9);
+
+        byte[] first = best.encode(db, ByteOrder.nativeOrder());
+        byte[] uncompressed = none.encode(db, ByteOrder.nativeOrder());
+        byte[] second = best.encode(db, ByteOrder.nativeOrder());
+
+        assertTrue(first.length < uncompressed.length);
+        assertEquals(first.length, second.length);
+        assertRoundTrip(db, uncompressed, ByteOrder.nativeOrder());
+        assertRoundTrip(db, second, ByteOrder.nativeOrder());
+    }
+
+    @Test
+    public void tileWithCodec() throws Exception {
+        System.out.println("   DiskCachedTile with codec");
+
+        BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_BYTE_GRAY);
+        WritableRaster raster = Raster.createWritableRaster(image.getSampleModel(), new Point(0, 0));
+        for (int y = 0; y < 64; y++) {
+            for (int x = 0; x < 64; x++) {
+                raster.setSample(x, y, 0, x < 32 ? 1 : 2);
+            }
+        }
+
+        // own file
+        DiskCachedTile tile = new DiskCachedTile(
+                Integer.valueOf(1), image, 0, 0, raster, true, null, null, codec);
+        assertTrue(tile.getFile().length() < 64 * 64);
+        assertDataEquals(raster.getDataBuffer(), tile.readData().getDataBuffer());
+        tile.deleteDiskCopy();
+
+        // mapped store
+        MappedTileStore store = new MappedTileStore(1024 * 1024);
+        try {
+            tile = new DiskCachedTile(
+                    Integer.valueOf(2), image, 0, 0, raster, true, null, store, codec);
+            assertTrue(tile.cachedToDisk());
+            assertDataEquals(raster.getDataBuffer(), tile.readData().getDataBuffer());
+        } finally {
+            store.dispose();
+        }
+    }
+
+    private void assertRoundTrip(DataBuffer expected, byte[] encoded, ByteOrder order) throws Exception {
+        DataBuffer result = codec.decode(ByteBuffer.wrap(encoded).order(order),
+                expected.getDataType(), expected.getNumBanks(), expected.getSize());
+
+        assertEquals(expected.getDataType(), result.getDataType());
+        assertDataEquals(expected, result);
+    }
+
+    private void assertDataEquals(DataBuffer expected, DataBuffer result) {
+        assertEquals(expected.getNumBanks(), result.getNumBanks());
+        assertEquals(expected.getSize(), result.getSize());
+        for (int b = 0; b < expected.getNumBanks(); b++) {
+            for (int i = 0; i < expected.getSize(); i++) {
+                assertEquals(expected.getElemDouble(b, i), result.getElemDouble(b, i), 0.0d);
+            }
+        }
+    }
+
+}